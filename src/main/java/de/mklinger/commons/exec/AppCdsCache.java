@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages class data sharing archives of forked JVMs in a cache directory,
+ * to speed up JVM startup. See
+ * {@link JavaCmdBuilderBase#appCdsCache(AppCdsCache)}.
+ * <p>
+ * Archives are keyed by a hash of the Java command line without arguments
+ * (executable, JVM options, classpath and main class or jar), the Java
+ * version and the size and modification time of the java executable and
+ * of all classpath entries. A changed jar results in a new key and thus a
+ * new archive.
+ * </p>
+ * <p>
+ * The first run for a key records the archive when the JVM exits. The
+ * archive is written under a temporary name and moved into place only
+ * after the recording run exited with exit value 0, as a JVM using an
+ * incomplete archive may crash. Runs started while recording run without
+ * archive. Later runs use the archive. Depending on the Java version of
+ * the executable:
+ * </p>
+ * <ul>
+ * <li>Java 25 and later: AOT cache, recorded using
+ * <code>-XX:AOTCacheOutput</code> and used with
+ * <code>-XX:AOTCache</code></li>
+ * <li>Java 13 to 24: dynamic CDS archive, recorded using
+ * <code>-XX:ArchiveClassesAtExit</code> and used with
+ * <code>-XX:SharedArchiveFile</code></li>
+ * <li>Older or unknown versions: no archive</li>
+ * </ul>
+ * <p>
+ * Only jar files are supported in the classpath. For classpaths with
+ * directories, no archive is used. Archives of outdated keys are not
+ * deleted automatically, see {@link #deleteUnusedArchives(long)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class AppCdsCache {
+	private static final Logger LOG = LoggerFactory.getLogger(AppCdsCache.class);
+
+	/** Time after which a recording that did not produce an archive is retried. */
+	private static final long RECORDING_TIMEOUT = 10 * 60 * 1000;
+
+	private final File directory;
+
+	/**
+	 * @param directory The cache directory. Created if missing.
+	 */
+	public AppCdsCache(final File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the archive for the given Java command.
+	 *
+	 * @param javaCommand The java executable, JVM options and target,
+	 *            without arguments
+	 * @param classpathEntries The classpath entries of the command
+	 * @return The archive, recorded or not, or <code>null</code> if no
+	 *         archive can be used for the command
+	 */
+	Archive getArchive(final List<String> javaCommand, final List<String> classpathEntries) {
+		final String javaExecutable = javaCommand.get(0);
+		final JavaHome javaHome = JavaHome.getByExecutableCached(javaExecutable);
+		final int featureVersion = javaHome == null ? -1 : javaHome.getFeatureVersion();
+		if (featureVersion < 13) {
+			LOG.debug("No class data sharing archive for java executable {} with version {}", javaExecutable, featureVersion);
+			return null;
+		}
+		for (final String entry : classpathEntries) {
+			final String[] files = new File(entry).list();
+			if (files != null && files.length > 0) {
+				// the JVM fails at exit when recording with a non-empty directory in the classpath
+				LOG.debug("No class data sharing archive for classpath with directory {}", entry);
+				return null;
+			}
+		}
+
+		final String key;
+		try {
+			key = computeKey(javaHome.getJavaExecutable(), featureVersion, javaCommand, classpathEntries);
+		} catch (final IOException e) {
+			LOG.warn("Error computing class data sharing key", e);
+			return null;
+		}
+		return new Archive(key, featureVersion >= 25, javaExecutable);
+	}
+
+	/**
+	 * The archive of one Java command.
+	 */
+	class Archive {
+		private final String key;
+		private final boolean aotCache;
+		private final String javaExecutable;
+		private final File file;
+
+		private Archive(final String key, final boolean aotCache, final String javaExecutable) {
+			this.key = key;
+			this.aotCache = aotCache;
+			this.javaExecutable = javaExecutable;
+			this.file = new File(directory, key + getExtension());
+		}
+
+		private String getExtension() {
+			return aotCache ? ".aot" : ".jsa";
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The options to add after the java executable to use the
+		 *         archive or an empty list if it is not recorded yet
+		 */
+		List<String> getJavaOptions() {
+			if (!file.isFile()) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList((aotCache ? "-XX:AOTCache=" : "-XX:SharedArchiveFile=") + file.getAbsolutePath());
+		}
+
+		/**
+		 * Get a launcher that records the archive when a process is
+		 * launched, unless it is recorded already or another process is
+		 * recording it.
+		 *
+		 * @param delegate The launcher to use or <code>null</code> for the
+		 *            default launcher
+		 */
+		ProcessLauncher recordingLauncher(final ProcessLauncher delegate) {
+			return new RecordingProcessLauncher(this, delegate);
+		}
+
+		private File startRecording() {
+			final File marker = getMarker();
+			try {
+				Files.createDirectories(directory.toPath());
+				if (!marker.createNewFile()) {
+					// the JVM of the recording process may have been killed
+					if (System.currentTimeMillis() - marker.lastModified() <= RECORDING_TIMEOUT
+							|| !marker.delete() || !marker.createNewFile()) {
+						return null;
+					}
+				}
+			} catch (final IOException e) {
+				LOG.warn("Error creating class data sharing cache entry", e);
+				return null;
+			}
+			if (file.isFile()) {
+				// recorded in the meantime
+				marker.delete();
+				return null;
+			}
+			return new File(directory, key + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp" + getExtension());
+		}
+
+		private void finishRecording(final File tmp, final boolean success) {
+			try {
+				if (success && tmp.isFile() && tmp.length() > 0) {
+					try {
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					} catch (final AtomicMoveNotSupportedException e) {
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					}
+					LOG.debug("Recorded class data sharing archive {}", file);
+				} else {
+					LOG.debug("Class data sharing archive {} not recorded", file);
+					Files.deleteIfExists(tmp.toPath());
+				}
+			} catch (final IOException e) {
+				LOG.warn("Error storing class data sharing archive {}", file, e);
+				tmp.delete();
+			} finally {
+				getMarker().delete();
+			}
+		}
+
+		private File getMarker() {
+			return new File(directory, key + ".recording");
+		}
+	}
+
+	private static class RecordingProcessLauncher implements ProcessLauncher {
+		private final Archive archive;
+		private final ProcessLauncher delegate;
+
+		public RecordingProcessLauncher(final Archive archive, final ProcessLauncher delegate) {
+			this.archive = archive;
+			this.delegate = delegate;
+		}
+
+		private ProcessLauncher getDelegate() {
+			return delegate != null ? delegate : ProcessLauncher.getDefault();
+		}
+
+		@Override
+		public Process launch(final ProcessBuilder processBuilder) throws IOException {
+			// the command may be wrapped, e.g. for resource caps
+			final int javaIdx = processBuilder.command().indexOf(archive.javaExecutable);
+			final List<String> options = archive.getJavaOptions();
+			if (javaIdx == -1) {
+				return getDelegate().launch(processBuilder);
+			}
+			if (!options.isEmpty()) {
+				// recorded since the command was created
+				processBuilder.command(withOptions(processBuilder.command(), javaIdx, options));
+				return getDelegate().launch(processBuilder);
+			}
+			final File tmp = archive.startRecording();
+			if (tmp == null) {
+				return getDelegate().launch(processBuilder);
+			}
+			LOG.debug("Recording class data sharing archive {}", archive.getFile());
+			final String recordOption = (archive.aotCache ? "-XX:AOTCacheOutput=" : "-XX:ArchiveClassesAtExit=") + tmp.getAbsolutePath();
+			processBuilder.command(withOptions(processBuilder.command(), javaIdx, Collections.singletonList(recordOption)));
+			final Process process;
+			try {
+				process = getDelegate().launch(processBuilder);
+			} catch (final IOException | RuntimeException | Error e) {
+				archive.finishRecording(tmp, false);
+				throw e;
+			}
+			CmdUtil.onExit(process, () -> archive.finishRecording(tmp, exitValue(process) == 0));
+			return process;
+		}
+
+		private static List<String> withOptions(final List<String> command, final int javaIdx, final List<String> options) {
+			final List<String> result = new ArrayList<>(command.size() + options.size());
+			result.addAll(command);
+			result.addAll(javaIdx + 1, options);
+			return result;
+		}
+
+		private static int exitValue(final Process process) {
+			try {
+				return process.exitValue();
+			} catch (final IllegalThreadStateException e) {
+				return -1;
+			}
+		}
+
+		@Override
+		public void signal(final Process process, final Signal signal) {
+			getDelegate().signal(process, signal);
+		}
+	}
+
+	private static String computeKey(final File javaExecutable, final int featureVersion, final List<String> javaCommand, final List<String> classpathEntries) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		update(digest, String.valueOf(featureVersion));
+		updateFile(digest, javaExecutable);
+		for (final String part : javaCommand) {
+			update(digest, part);
+		}
+		for (final String entry : classpathEntries) {
+			if (entry.endsWith("*")) {
+				final File[] jars = new File(entry.substring(0, entry.length() - 1)).getAbsoluteFile().listFiles();
+				if (jars != null) {
+					for (final File jar : jars) {
+						updateFile(digest, jar);
+					}
+				}
+			} else {
+				updateFile(digest, new File(entry));
+			}
+		}
+		final StringBuilder sb = new StringBuilder(64);
+		for (final byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void updateFile(final MessageDigest digest, final File file) throws IOException {
+		if (file == null) {
+			return;
+		}
+		update(digest, file.getCanonicalPath());
+		update(digest, String.valueOf(file.length()));
+		update(digest, String.valueOf(file.lastModified()));
+	}
+
+	private static void update(final MessageDigest digest, final String s) {
+		digest.update(s.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+	}
+
+	/**
+	 * Delete archives that were not used for the given time.
+	 *
+	 * @param maxUnusedMillis Time in milliseconds since the last use
+	 */
+	public void deleteUnusedArchives(final long maxUnusedMillis) {
+		final File[] files = directory.listFiles((dir, name) -> name.endsWith(".jsa") || name.endsWith(".aot") || name.endsWith(".recording"));
+		if (files == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		for (final File file : files) {
+			if (now - lastUsed(file) > maxUnusedMillis && !file.delete()) {
+				LOG.debug("Could not delete {}", file);
+			}
+		}
+	}
+
+	private static long lastUsed(final File file) {
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return Math.max(attributes.lastModifiedTime().toMillis(), attributes.lastAccessTime().toMillis());
+		} catch (final IOException e) {
+			return file.lastModified();
+		}
+	}
+}
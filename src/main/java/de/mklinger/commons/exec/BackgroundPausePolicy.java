@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suspends running commands of QoS class {@link QosClass#BACKGROUND} while
+ * host pressure is high and resumes them when it drops. Pausing low priority
+ * work protects the latency of foreground work without losing the progress
+ * of the paused commands.
+ * <p>
+ * Host pressure is measured in percent using Linux pressure stall
+ * information (the maximum of <code>some avg10</code> of CPU and memory)
+ * when available, and the one minute load average per available processor
+ * otherwise. Subclasses may override {@link #getHostPressure()}.
+ * </p>
+ * <p>
+ * The policy is disabled by default. Activate it using
+ * {@link #setActive(BackgroundPausePolicy)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class BackgroundPausePolicy {
+	private static final Logger LOG = LoggerFactory.getLogger(BackgroundPausePolicy.class);
+
+	private static final File PSI_CPU = new File("/proc/pressure/cpu");
+	private static final File PSI_MEMORY = new File("/proc/pressure/memory");
+	private static final File LOADAVG = new File("/proc/loadavg");
+
+	private static volatile BackgroundPausePolicy active;
+
+	private final double pauseThreshold;
+	private final double resumeThreshold;
+	private final long checkInterval;
+	private final Set<Cmd> cmds = new LinkedHashSet<>();
+	// serializes suspending and resuming, signals are never sent holding the cmds lock
+	private final Object transitionLock = new Object();
+	private volatile boolean paused;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> checkFuture;
+
+	/**
+	 * @param pauseThreshold Pressure in percent at or above which background
+	 *            commands are suspended
+	 * @param resumeThreshold Pressure in percent below which background
+	 *            commands are resumed
+	 * @param checkInterval The interval for checking host pressure in
+	 *            milliseconds
+	 */
+	public BackgroundPausePolicy(final double pauseThreshold, final double resumeThreshold, final long checkInterval) {
+		if (resumeThreshold > pauseThreshold) {
+			throw new IllegalArgumentException("Resume threshold must not be greater than pause threshold");
+		}
+		if (checkInterval < 1) {
+			throw new IllegalArgumentException("Invalid check interval: " + checkInterval);
+		}
+		this.pauseThreshold = pauseThreshold;
+		this.resumeThreshold = resumeThreshold;
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * @return The active policy or <code>null</code> if background commands
+	 *         are never paused automatically
+	 */
+	public static BackgroundPausePolicy getActive() {
+		return active;
+	}
+
+	/**
+	 * Set the active policy. Only commands started after this call are
+	 * affected.
+	 *
+	 * @param policy The policy or <code>null</code> to disable automatic
+	 *            pausing
+	 */
+	public static void setActive(final BackgroundPausePolicy policy) {
+		active = policy;
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+	void register(final Cmd cmd) {
+		synchronized (cmds) {
+			cmds.add(cmd);
+			if (checkFuture == null) {
+				if (scheduler == null) {
+					scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+				}
+				checkFuture = scheduler.scheduleWithFixedDelay(this::checkSafe, 0, checkInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+		synchronized (transitionLock) {
+			final boolean suspend;
+			synchronized (cmds) {
+				suspend = paused && cmds.contains(cmd);
+			}
+			if (suspend) {
+				suspend(cmd);
+			}
+		}
+	}
+
+	void unregister(final Cmd cmd) {
+		synchronized (cmds) {
+			cmds.remove(cmd);
+			if (cmds.isEmpty() && checkFuture != null) {
+				checkFuture.cancel(false);
+				checkFuture = null;
+				paused = false;
+			}
+		}
+	}
+
+	private void checkSafe() {
+		try {
+			check();
+		} catch (final Throwable e) {
+			// keep the schedule alive
+			LOG.error("Error checking host pressure", e);
+		}
+	}
+
+	private void check() {
+		final double pressure = getHostPressure();
+		synchronized (transitionLock) {
+			final List<Cmd> current;
+			final boolean pause;
+			synchronized (cmds) {
+				if (!paused && pressure >= pauseThreshold) {
+					LOG.info("Host pressure {}% - suspending {} background commands", pressure, cmds.size());
+					paused = true;
+				} else if (paused && pressure < resumeThreshold) {
+					LOG.info("Host pressure {}% - resuming {} background commands", pressure, cmds.size());
+					paused = false;
+				} else {
+					return;
+				}
+				current = new ArrayList<>(cmds);
+				pause = paused;
+			}
+			for (final Cmd cmd : current) {
+				if (pause) {
+					suspend(cmd);
+				} else {
+					resume(cmd);
+				}
+			}
+		}
+	}
+
+	private static void suspend(final Cmd cmd) {
+		try {
+			cmd.suspend();
+		} catch (final Exception e) {
+			LOG.warn("Error suspending command {}", cmd, e);
+		}
+	}
+
+	private static void resume(final Cmd cmd) {
+		try {
+			cmd.resume();
+		} catch (final Exception e) {
+			LOG.warn("Error resuming command {}", cmd, e);
+		}
+	}
+
+	/**
+	 * Get the current host pressure.
+	 *
+	 * @return The pressure in percent
+	 */
+	protected double getHostPressure() {
+		final double cpu = readPsiSomeAvg10(PSI_CPU);
+		if (cpu >= 0) {
+			return Math.max(cpu, readPsiSomeAvg10(PSI_MEMORY));
+		}
+		final String loadavg = readFile(LOADAVG);
+		if (loadavg != null) {
+			final double load1 = Double.parseDouble(loadavg.substring(0, loadavg.indexOf(' ')));
+			return load1 * 100 / Runtime.getRuntime().availableProcessors();
+		}
+		return 0;
+	}
+
+	private static double readPsiSomeAvg10(final File f) {
+		final String s = readFile(f);
+		if (s == null || !s.startsWith("some ")) {
+			return -1;
+		}
+		final int idx = s.indexOf("avg10=");
+		if (idx == -1) {
+			return -1;
+		}
+		final int end = s.indexOf(' ', idx);
+		return Double.parseDouble(s.substring(idx + 6, end));
+	}
+
+	private static String readFile(final File f) {
+		try {
+			return new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII);
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+}
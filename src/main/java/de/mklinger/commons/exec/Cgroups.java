@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Support for placing commands in cgroup v2 leaves to enforce
+ * {@link ResourceCaps#getMaxMemory() memory} and
+ * {@link ResourceCaps#getMaxCpus() CPU} limits.
+ * <p>
+ * A process may only create cgroups in a subtree delegated to its user,
+ * e.g. by systemd using <code>Delegate=yes</code>. The delegated cgroup
+ * must not contain processes itself and must have the <code>memory</code>
+ * and <code>cpu</code> controllers enabled in its
+ * <code>cgroup.subtree_control</code>. As this cannot be detected reliably,
+ * the delegated root must be configured using {@link #setDelegatedRoot(File)}.
+ * </p>
+ * <p>
+ * If no delegated root is configured or if it is not usable, cgroup limits
+ * are not enforced and a warning is logged once. If a configured cgroup
+ * cannot be joined, the command fails with exit code 126.
+ * </p>
+ * <p>
+ * When a command has finished or was destroyed, processes remaining in its
+ * cgroup are killed and the cgroup is removed.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class Cgroups {
+	private static final Logger LOG = LoggerFactory.getLogger(Cgroups.class);
+
+	private static final File CGROUP2_MOUNT = new File("/sys/fs/cgroup");
+	private static final long CPU_PERIOD_MICROS = 100000;
+	private static final long RELEASE_POLL_INTERVAL = 50;
+	private static final long RELEASE_KILL_GRACE = TimeUnit.SECONDS.toNanos(5);
+	private static final int RELEASE_MAX_REMOVE_ATTEMPTS = 100;
+
+	private static final AtomicLong counter = new AtomicLong();
+	private static volatile File delegatedRoot;
+	private static volatile boolean warned;
+	private static ScheduledThreadPoolExecutor releaseExecutor;
+
+	private Cgroups() {
+	}
+
+	/**
+	 * Set the cgroup v2 directory under which leaves for commands are
+	 * created, e.g. <code>/sys/fs/cgroup/user.slice/.../myservice.scope/commands</code>.
+	 *
+	 * @param delegatedRoot The directory or <code>null</code> to disable cgroup
+	 *            support
+	 */
+	public static void setDelegatedRoot(final File delegatedRoot) {
+		Cgroups.delegatedRoot = delegatedRoot;
+		Cgroups.warned = false;
+	}
+
+	public static File getDelegatedRoot() {
+		return delegatedRoot;
+	}
+
+	/**
+	 * @return <code>true</code> if the unified cgroup v2 hierarchy is mounted
+	 */
+	public static boolean isCgroup2Available() {
+		return CmdUtil.isLinux() && new File(CGROUP2_MOUNT, "cgroup.controllers").isFile();
+	}
+
+	/**
+	 * Create a new cgroup leaf with the given limits.
+	 *
+	 * @return The cgroup directory or <code>null</code> if no cgroup could be
+	 *         created
+	 */
+	static File createLeaf(final ResourceCaps caps) {
+		final File root = delegatedRoot;
+		if (root == null || !isCgroup2Available()) {
+			warnOnce("No usable delegated cgroup v2 root configured. Memory and CPU caps will not be enforced.");
+			return null;
+		}
+		final String subtreeControl = readFile(new File(root, "cgroup.subtree_control"));
+		if (subtreeControl == null
+				|| (caps.getMaxMemory() > 0 && !hasController(subtreeControl, "memory"))
+				|| (caps.getMaxCpus() > 0 && !hasController(subtreeControl, "cpu"))) {
+			warnOnce("Required controllers not enabled in " + root + "/cgroup.subtree_control. Memory and CPU caps will not be enforced.");
+			return null;
+		}
+
+		final File leaf = new File(root, "cmd-" + Long.toHexString(System.currentTimeMillis()) + "-" + counter.incrementAndGet());
+		if (!leaf.mkdir()) {
+			warnOnce("Could not create cgroup " + leaf + ". Memory and CPU caps will not be enforced.");
+			return null;
+		}
+		try {
+			if (caps.getMaxMemory() > 0) {
+				writeFile(new File(leaf, "memory.max"), String.valueOf(caps.getMaxMemory()));
+			}
+			if (caps.getMaxCpus() > 0) {
+				final long quota = Math.max(1000, Math.round(caps.getMaxCpus() * CPU_PERIOD_MICROS));
+				writeFile(new File(leaf, "cpu.max"), quota + " " + CPU_PERIOD_MICROS);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Could not configure cgroup {}. Memory and CPU caps will not be enforced.", leaf, e);
+			removeLeaf(leaf);
+			return null;
+		}
+		return leaf;
+	}
+
+	/**
+	 * Release a cgroup leaf created by {@link #createLeaf(ResourceCaps)} in
+	 * the background. Once the given process has exited, or at the latest
+	 * after a grace period, all processes remaining in the cgroup are killed
+	 * and the leaf is removed.
+	 *
+	 * @param leaf The cgroup directory
+	 * @param process The process placed in the cgroup or <code>null</code>
+	 *            if it was not started
+	 */
+	static void releaseLeaf(final File leaf, final Process process) {
+		getReleaseExecutor().execute(new LeafRelease(leaf, process));
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor getReleaseExecutor() {
+		if (releaseExecutor == null) {
+			releaseExecutor = new ScheduledThreadPoolExecutor(1, new DeamonThreadCmdThreadFactory());
+			releaseExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
+			releaseExecutor.allowCoreThreadTimeOut(true);
+		}
+		return releaseExecutor;
+	}
+
+	private static void removeLeaf(final File leaf) {
+		if (!leaf.delete()) {
+			LOG.debug("Could not remove cgroup {}", leaf);
+		}
+	}
+
+	private static void killTasks(final File leaf) {
+		final File kill = new File(leaf, "cgroup.kill");
+		if (kill.isFile()) {
+			try {
+				writeFile(kill, "1");
+				return;
+			} catch (final IOException e) {
+				LOG.debug("Could not write {}", kill, e);
+			}
+		}
+		final String procs = readFile(new File(leaf, "cgroup.procs"));
+		if (procs == null) {
+			return;
+		}
+		final List<Long> pids = new ArrayList<>();
+		for (final String line : procs.split("\n")) {
+			if (!line.isEmpty()) {
+				pids.add(Long.valueOf(line.trim()));
+			}
+		}
+		ProcessSignaller.signal(Signal.KILL, pids);
+	}
+
+	private static class LeafRelease implements Runnable {
+		private final File leaf;
+		private final Process process;
+		private final long killDeadline;
+		private int removeAttempts;
+
+		public LeafRelease(final File leaf, final Process process) {
+			this.leaf = leaf;
+			this.process = process;
+			this.killDeadline = System.nanoTime() + RELEASE_KILL_GRACE;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (process != null && process.isAlive() && System.nanoTime() - killDeadline < 0) {
+					reschedule();
+					return;
+				}
+				killTasks(leaf);
+				if (leaf.delete() || !leaf.exists()) {
+					return;
+				}
+				// killed processes leave the cgroup asynchronously
+				removeAttempts++;
+				if (removeAttempts < RELEASE_MAX_REMOVE_ATTEMPTS) {
+					reschedule();
+				} else {
+					LOG.warn("Could not remove cgroup {}", leaf);
+				}
+			} catch (final RuntimeException e) {
+				LOG.warn("Error releasing cgroup {}", leaf, e);
+			}
+		}
+
+		private void reschedule() {
+			getReleaseExecutor().schedule(this, RELEASE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static boolean hasController(final String subtreeControl, final String controller) {
+		for (final String s : subtreeControl.trim().split("\\s+")) {
+			if (s.equals(controller)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void warnOnce(final String message) {
+		if (!warned) {
+			warned = true;
+			LOG.warn(message);
+		}
+	}
+
+	private static String readFile(final File f) {
+		try {
+			return new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII);
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	private static void writeFile(final File f, final String value) throws IOException {
+		Files.write(f.toPath(), value.getBytes(StandardCharsets.US_ASCII));
+	}
+}
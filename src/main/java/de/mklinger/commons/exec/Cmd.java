@@ -15,13 +15,16 @@
  */
 package de.mklinger.commons.exec;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -44,18 +47,16 @@ public class Cmd {
 
 	private static final long PIPE_RUNNABLE_START_TIMEOUT = 1000;
 	private static final long PIPE_RUNNABLE_STOP_TIMEOUT = 60000;
+	private static final long ERROR_CHECK_INTERVAL = 10;
 
-	private static final Set<Cmd> destroyOnShutdownCmds = new HashSet<>();
+	private static final Set<Cmd> destroyOnShutdownCmds = ConcurrentHashMap.newKeySet();
 	static {
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
-				Set<Cmd> cmds;
-				synchronized (destroyOnShutdownCmds) {
-					cmds = new HashSet<>(destroyOnShutdownCmds);
-					destroyOnShutdownCmds.clear();
-				}
-				for (final Cmd cmd : cmds) {
+				for (final Iterator<Cmd> iterator = destroyOnShutdownCmds.iterator(); iterator.hasNext();) {
+					final Cmd cmd = iterator.next();
+					iterator.remove();
 					cmd.destroy();
 				}
 			}
@@ -68,8 +69,14 @@ public class Cmd {
 	private PipeRunnable stdoutPipe = null;
 	private PipeRunnable stderrPipe = null;
 	private PingRunnable pingRunnable;
+	private CmdWatchdog.Registration watchdogRegistration;
+	private File cgroup;
+	private BackgroundPausePolicy backgroundPausePolicy;
+	private volatile boolean suspended;
+	private ProcessLauncher processLauncher;
 	private Process process;
 	private long startTime;
+	private long startNanos;
 
 	public Cmd(final CmdSettings cmdSettings) {
 		this.cmdSettings = cmdSettings;
@@ -95,6 +102,30 @@ public class Cmd {
 		}
 	}
 
+	/**
+	 * Start the process and wait for it to exit. Unlike
+	 * {@link #execute()}, no exception is thrown for exit values that are
+	 * not accepted.
+	 *
+	 * @return The result
+	 * @throws CmdException in case of an error other than an unexpected
+	 *             exit value
+	 * @throws CmdInterruptedException if the waiting thread was
+	 *             interrupted. The interruption state of the current thread is
+	 *             set to interrupted.
+	 */
+	public CmdResult executeForResult() throws CmdException {
+		try {
+			start();
+			return waitForResult();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		} finally {
+			close();
+		}
+	}
+
 	/**
 	 * Start the process and return immediately. Cmds started with this
 	 * method must be {@link #close() closed} or {@link #destroy() destroyed}
@@ -103,11 +134,25 @@ public class Cmd {
 	 * @throws CmdException in case of an error
 	 */
 	public void start() throws CmdException {
-		final List<String> command = cmdSettings.getCommand();
-		if (command == null || cmdSettings.getCommand().isEmpty()) {
+		List<String> command = cmdSettings.getCommand();
+		if (command == null || command.isEmpty()) {
 			throw new IllegalArgumentException("Missing command");
 		}
 
+		final ResourceCaps resourceCaps = cmdSettings.getResourceCaps();
+		if (resourceCaps != null && (resourceCaps.hasRlimits() || resourceCaps.hasCgroupLimits())) {
+			if (resourceCaps.hasCgroupLimits()) {
+				cgroup = Cgroups.createLeaf(resourceCaps);
+			}
+			command = ResourceCapsSupport.wrap(command, resourceCaps, cgroup);
+		}
+
+		final QosPolicy qosPolicy = QosPolicy.getDefault();
+		final QosProfile qosProfile = qosPolicy.resolve(cmdSettings.getQosClass());
+		if (qosProfile != null) {
+			command = QosSupport.wrap(command, qosProfile);
+		}
+
 		logCommandLine(command);
 
 		final ProcessBuilder pb = new ProcessBuilder(command);
@@ -115,14 +160,25 @@ public class Cmd {
 			pb.directory(cmdSettings.getDirectory());
 		}
 
-		if (cmdSettings.getEnvironment() != null) {
+		final EnvironmentMap environmentMap = cmdSettings.getEnvironmentMap();
+		if (environmentMap != null) {
+			environmentMap.applyTo(pb.environment());
+		} else if (cmdSettings.getEnvironment() != null) {
 			pb.environment().clear();
 			pb.environment().putAll(cmdSettings.getEnvironment());
 		}
 
+		if (cmdSettings.getStdinBytes() == null && cmdSettings.getStdinRedirect() != null) {
+			pb.redirectInput(cmdSettings.getStdinRedirect());
+		}
+
 		if (cmdSettings.getStdout() == null) {
-			if (cmdSettings.getStdoutFile() != null) {
+			if (cmdSettings.getStdoutRedirect() != null) {
+				pb.redirectOutput(cmdSettings.getStdoutRedirect());
+			} else if (cmdSettings.getStdoutFile() != null) {
 				pb.redirectOutput(Redirect.to(cmdSettings.getStdoutFile()));
+			} else if (NullFile.getNativeNullRedirect() != null) {
+				pb.redirectOutput(NullFile.getNativeNullRedirect());
 			} else {
 				try {
 					stdOutNullFile = new NullFile();
@@ -134,8 +190,12 @@ public class Cmd {
 		}
 
 		if (!cmdSettings.isRedirectErrorStream() && cmdSettings.getStderr() == null) {
-			if (cmdSettings.getStderrFile() != null) {
+			if (cmdSettings.getStderrRedirect() != null) {
+				pb.redirectError(cmdSettings.getStderrRedirect());
+			} else if (cmdSettings.getStderrFile() != null) {
 				pb.redirectError(Redirect.to(cmdSettings.getStderrFile()));
+			} else if (NullFile.getNativeNullRedirect() != null) {
+				pb.redirectError(NullFile.getNativeNullRedirect());
 			} else {
 				try {
 					stdErrNullFile = new NullFile();
@@ -151,14 +211,25 @@ public class Cmd {
 		}
 
 		try {
-			process = pb.start();
+			processLauncher = cmdSettings.getProcessLauncher() != null ? cmdSettings.getProcessLauncher() : ProcessLauncher.getDefault();
+			process = processLauncher.launch(pb);
 		} catch (final IOException e) {
+			releaseCgroup();
 			throw new CmdException(e);
 		}
 		startTime = System.currentTimeMillis();
+		startNanos = System.nanoTime();
 		if (cmdSettings.isDestroyOnShutdown()) {
-			synchronized (destroyOnShutdownCmds) {
-				destroyOnShutdownCmds.add(this);
+			destroyOnShutdownCmds.add(this);
+		}
+
+		startWatchdog();
+
+		final QosClass qosClass = cmdSettings.getQosClass() != null ? cmdSettings.getQosClass() : qosPolicy.getDefaultClass();
+		if (qosClass == QosClass.BACKGROUND) {
+			backgroundPausePolicy = BackgroundPausePolicy.getActive();
+			if (backgroundPausePolicy != null) {
+				backgroundPausePolicy.register(this);
 			}
 		}
 
@@ -189,6 +260,39 @@ public class Cmd {
 		}
 	}
 
+	private void startWatchdog() {
+		final WatchdogLimits watchdogLimits = cmdSettings.getWatchdogLimits();
+		if (watchdogLimits == null || watchdogLimits.isEmpty()) {
+			return;
+		}
+		final Long pid = getPid();
+		if (pid == null) {
+			LOG.warn("Could not determine process id. Watchdog limits will not be enforced.");
+			return;
+		}
+		watchdogRegistration = CmdWatchdog.getDefault().register(this, pid, watchdogLimits);
+	}
+
+	private void stopWatchdog() {
+		if (watchdogRegistration != null) {
+			CmdWatchdog.getDefault().unregister(watchdogRegistration);
+		}
+	}
+
+	private void stopBackgroundPausePolicy() {
+		if (backgroundPausePolicy != null) {
+			backgroundPausePolicy.unregister(this);
+			backgroundPausePolicy = null;
+		}
+	}
+
+	private void releaseCgroup() {
+		if (cgroup != null) {
+			Cgroups.releaseLeaf(cgroup, process);
+			cgroup = null;
+		}
+	}
+
 	private void logCommandLine(final List<String> command) {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Executing: {}", toBashCommandLine(command));
@@ -209,19 +313,106 @@ public class Cmd {
 		executorSupplier.get().execute(runnable);
 	}
 
-	//  public Integer getPid() {
-	//      if (process != null && process.getClass().getName().equals("java.lang.UNIXProcess")) {
-	//          try {
-	//              final Class<?> proc = process.getClass();
-	//              final Field field = proc.getDeclaredField("pid");
-	//              field.setAccessible(true);
-	//              return (Integer) field.get(process);
-	//          } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
-	//              LOG.warn("Could not get PID for process", e);
-	//          }
-	//      }
-	//      return null;
-	//  }
+	/**
+	 * Get the stdin stream of the running process. Only usable if no stdin
+	 * bytes are configured. Closing the stream signals end of input to the
+	 * process.
+	 *
+	 * @return The stream or <code>null</code> if the process is not running
+	 */
+	public OutputStream getStdin() {
+		final Process p = process;
+		if (p == null) {
+			return null;
+		}
+		return p.getOutputStream();
+	}
+
+	/**
+	 * Let the timeout start now instead of at process start. Used for
+	 * processes started in advance.
+	 */
+	void restartTimeout() {
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the operating system process id of the running process.
+	 *
+	 * @return The process id or <code>null</code> if the process is not
+	 *         running or if the process id cannot be determined.
+	 */
+	public Long getPid() {
+		final Process p = process;
+		if (p == null) {
+			return null;
+		}
+		return CmdUtil.getPid(p);
+	}
+
+	/**
+	 * Send a signal to the process.
+	 *
+	 * @param signal The signal to send
+	 * @throws IllegalStateException if the process is not running or if the
+	 *             process id cannot be determined
+	 * @throws UnsupportedOperationException on Windows
+	 */
+	public void signal(final Signal signal) {
+		signal(signal, false);
+	}
+
+	/**
+	 * Send a signal to the process and optionally to all of its descendants.
+	 * Descendants can only be determined on Linux. On other systems, only
+	 * the process itself gets the signal.
+	 *
+	 * @param signal The signal to send
+	 * @param includeDescendants Whether to send the signal to the whole
+	 *            process tree
+	 * @throws IllegalStateException if the process is not running or if the
+	 *             process id cannot be determined
+	 * @throws UnsupportedOperationException on Windows
+	 */
+	public void signal(final Signal signal, final boolean includeDescendants) {
+		final Process p = process;
+		final Long pid = getPid();
+		if (pid == null) {
+			throw new IllegalStateException("No process or process id not available");
+		}
+		if (includeDescendants && ProcFs.isAvailable()) {
+			ProcessSignaller.signal(signal, ProcFs.getDescendants(pid, ProcFs.newChildrenByParentMap()));
+		}
+		processLauncher.signal(p, signal);
+	}
+
+	/**
+	 * Suspend the process and all of its descendants using SIGSTOP. Has no
+	 * effect if the process is not running or already suspended.
+	 */
+	public synchronized void suspend() {
+		if (!suspended && isExecuting()) {
+			signal(Signal.STOP, true);
+			suspended = true;
+		}
+	}
+
+	/**
+	 * Resume the process and all of its descendants using SIGCONT. Has no
+	 * effect if the process is not running or not suspended.
+	 */
+	public synchronized void resume() {
+		if (suspended) {
+			suspended = false;
+			if (process != null) {
+				signal(Signal.CONT, true);
+			}
+		}
+	}
+
+	public boolean isSuspended() {
+		return suspended;
+	}
 
 	/**
 	 * Wait for an already {@link #start() started} process.
@@ -233,17 +424,32 @@ public class Cmd {
 	 *             waiting for the process to finish.
 	 */
 	public int waitFor() throws CmdException, InterruptedException {
+		return waitForResult().checkExitValue().getExitValue();
+	}
+
+	/**
+	 * Wait for an already {@link #start() started} process. Unlike
+	 * {@link #waitFor()}, no exception is thrown for exit values that are
+	 * not accepted.
+	 *
+	 * @return The result
+	 * @throws CmdException in case of an error other than an unexpected
+	 *             exit value
+	 * @throws InterruptedException if the current thread is interrupted while
+	 *             waiting for the process to finish.
+	 */
+	public CmdResult waitForResult() throws CmdException, InterruptedException {
 		final int exitValue;
+		final long durationNanos;
 		try {
 			try {
 				Exception throwedException = null;
 				try {
 					try {
 						exitValue = doWaitFor();
+						durationNanos = System.nanoTime() - startNanos;
 						if (cmdSettings.isDestroyOnShutdown()) {
-							synchronized (destroyOnShutdownCmds) {
-								destroyOnShutdownCmds.remove(this);
-							}
+							destroyOnShutdownCmds.remove(this);
 						}
 					} catch (final Exception e) {
 						throwedException = handleExecutionException(throwedException, e);
@@ -258,6 +464,9 @@ public class Cmd {
 				if (pingRunnable != null) {
 					pingRunnable.interrupt();
 				}
+				stopWatchdog();
+				stopBackgroundPausePolicy();
+				releaseCgroup();
 			}
 		} catch (InterruptedException | RuntimeException e) {
 			throw e;
@@ -270,10 +479,15 @@ public class Cmd {
 			process = null;
 		}
 
-		if (exitValue != cmdSettings.getExpectedExitValue()) {
-			throw new ExitCodeException("Error executing command: " + cmdSettings.getCommand() + ". Exit value: " + exitValue, cmdSettings.getExpectedExitValue(), exitValue);
+		if (watchdogRegistration != null) {
+			final ResourceLimitExceededException breach = watchdogRegistration.getBreach();
+			watchdogRegistration = null;
+			if (breach != null) {
+				throw breach;
+			}
 		}
-		return exitValue;
+
+		return new CmdResult(cmdSettings, exitValue, startTime, durationNanos);
 	}
 
 	private void stopPipe(final PipeRunnable pipe, final String name, final long timeout, Exception throwedException) throws Exception {
@@ -324,22 +538,30 @@ public class Cmd {
 	}
 
 	private int doWaitFor() throws InterruptedException, CmdException {
-		if (cmdSettings.getTimeout() < 1 && !cmdSettings.isDestroyOnError()) {
+		final long timeout = cmdSettings.getTimeout();
+		final boolean destroyOnError = cmdSettings.isDestroyOnError();
+		if (timeout < 1 && !destroyOnError) {
 			return process.waitFor();
-		} else {
-			while (cmdSettings.getTimeout() < 1 || System.currentTimeMillis() < startTime + cmdSettings.getTimeout()) {
-				if (cmdSettings.isDestroyOnError()) {
-					checkErrorHandlingRunnables();
-				}
-				try {
-					return process.exitValue();
-				} catch (final IllegalThreadStateException e) {
-					Thread.sleep(10);
+		}
+		while (true) {
+			if (destroyOnError) {
+				checkErrorHandlingRunnables();
+			}
+			long waitMillis = ERROR_CHECK_INTERVAL;
+			if (timeout >= 1) {
+				final long remaining = startTime + timeout - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
 				}
+				waitMillis = destroyOnError ? Math.min(remaining, ERROR_CHECK_INTERVAL) : remaining;
+			}
+			// returns as soon as the process exits, unlike sleeping
+			if (process.waitFor(waitMillis, TimeUnit.MILLISECONDS)) {
+				return process.exitValue();
 			}
-			destroyProcess();
-			throw new CmdException("Timeout: command execution took longer than " + cmdSettings.getTimeout() + "ms");
 		}
+		destroyProcess();
+		throw new CmdException("Timeout: command execution took longer than " + timeout + "ms", null, true, !cmdSettings.isStacklessExceptions());
 	}
 
 	private void checkErrorHandlingRunnables() throws CmdException {
@@ -389,6 +611,26 @@ public class Cmd {
 			pingRunnable = null;
 		}
 
+		try {
+			stopWatchdog();
+		} catch (final Exception e) {
+			toBeThrown = withSuppressed(toBeThrown, e);
+		} finally {
+			watchdogRegistration = null;
+		}
+
+		try {
+			stopBackgroundPausePolicy();
+		} catch (final Exception e) {
+			toBeThrown = withSuppressed(toBeThrown, e);
+		}
+
+		try {
+			releaseCgroup();
+		} catch (final Exception e) {
+			toBeThrown = withSuppressed(toBeThrown, e);
+		}
+
 		try {
 			if (stdoutPipe != null) {
 				stdoutPipe.interrupt();
@@ -433,9 +675,7 @@ public class Cmd {
 
 		try {
 			if (cmdSettings.isDestroyOnShutdown()) {
-				synchronized (destroyOnShutdownCmds) {
-					destroyOnShutdownCmds.remove(this);
-				}
+				destroyOnShutdownCmds.remove(this);
 			}
 		} catch (final Exception e) {
 			toBeThrown = withSuppressed(toBeThrown, e);
@@ -453,6 +693,10 @@ public class Cmd {
 	private void destroyProcess() {
 		if (process != null) {
 			process.destroy();
+			if (suspended) {
+				// a stopped process does not handle SIGTERM before it is continued
+				resume();
+			}
 		}
 	}
 
@@ -17,6 +17,9 @@ package de.mklinger.commons.exec;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * The main entry point for using the Exec library. Fluent API for creating
@@ -25,6 +28,8 @@ import java.nio.file.Path;
  * @author Marc Klinger - mklinger[at]mklinger[dot]de - klingerm
  */
 public class CmdBuilder extends CmdBuilderBase<CmdBuilder> {
+	private boolean resolveExecutable;
+
 	/**
 	 * Prepare command execution.
 	 *
@@ -75,4 +80,45 @@ public class CmdBuilder extends CmdBuilderBase<CmdBuilder> {
 		}
 		arg(command.toAbsolutePath().toString());
 	}
+
+	/**
+	 * Resolve a command name to an absolute path when building the command,
+	 * using the cached {@link ExecutableResolver#getDefault() default
+	 * resolver}. Avoids the PATH lookup when the process is started. The
+	 * command is left as is if it is not found, if the environment of the
+	 * command has a different PATH or if it is a relative path containing a
+	 * separator, which depends on the working directory of the command.
+	 *
+	 * @return This builder
+	 */
+	public CmdBuilder resolveExecutable() {
+		this.resolveExecutable = true;
+		return getBuilder();
+	}
+
+	@Override
+	public CmdSettings toCmdSettings() {
+		final CmdSettings cmdSettings = super.toCmdSettings();
+		if (resolveExecutable) {
+			final List<String> command = cmdSettings.getCommand();
+			if (command != null && !command.isEmpty() && isResolvable(command.get(0), cmdSettings.getEnvironment())) {
+				final String resolved = ExecutableResolver.getDefault().resolve(command.get(0));
+				if (resolved != null) {
+					command.set(0, resolved);
+				}
+			}
+		}
+		return cmdSettings;
+	}
+
+	/**
+	 * @return Whether the default resolver finds the same executable as
+	 *         the process would
+	 */
+	private static boolean isResolvable(final String name, final Map<String, String> environment) {
+		if (name.indexOf('/') != -1 || name.indexOf(File.separatorChar) != -1) {
+			return new File(name).isAbsolute();
+		}
+		return environment == null || Objects.equals(environment.get("PATH"), System.getenv("PATH"));
+	}
 }
@@ -17,8 +17,10 @@ package de.mklinger.commons.exec;
 
 import java.io.File;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 
 /**
@@ -59,6 +62,19 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return stdout(stdout.toFile());
 	}
 
+	/**
+	 * Redirect stdout without copying it in this VM, e.g. to
+	 * {@link Redirect#INHERIT}, {@link Redirect#appendTo(File)} or
+	 * <code>Redirect.DISCARD</code> (Java 9 and later).
+	 *
+	 * @param stdout The redirect, not {@link Redirect#PIPE}
+	 * @return This builder
+	 */
+	public B stdout(final Redirect stdout) {
+		cmdSettings.setStdoutRedirect(stdout);
+		return getBuilder();
+	}
+
 	public B stderr(final OutputStream stderr) {
 		cmdSettings.setStderr(stderr);
 		return getBuilder();
@@ -73,6 +89,19 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return stderr(stderr.toFile());
 	}
 
+	/**
+	 * Redirect stderr without copying it in this VM, e.g. to
+	 * {@link Redirect#INHERIT}, {@link Redirect#appendTo(File)} or
+	 * <code>Redirect.DISCARD</code> (Java 9 and later).
+	 *
+	 * @param stderr The redirect, not {@link Redirect#PIPE}
+	 * @return This builder
+	 */
+	public B stderr(final Redirect stderr) {
+		cmdSettings.setStderrRedirect(stderr);
+		return getBuilder();
+	}
+
 	public B redirectErrorStream(final boolean redirectErrorStream) {
 		cmdSettings.setRedirectErrorStream(redirectErrorStream);
 		return getBuilder();
@@ -83,6 +112,29 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return getBuilder();
 	}
 
+	/**
+	 * Read stdin from the given file, opened by the operating system.
+	 */
+	public B stdin(final File stdin) {
+		return stdin(Redirect.from(stdin));
+	}
+
+	public B stdin(final Path stdin) {
+		return stdin(stdin.toFile());
+	}
+
+	/**
+	 * Redirect stdin, e.g. from {@link Redirect#from(File)} or
+	 * {@link Redirect#INHERIT}.
+	 *
+	 * @param stdin The redirect
+	 * @return This builder
+	 */
+	public B stdin(final Redirect stdin) {
+		cmdSettings.setStdinRedirect(stdin);
+		return getBuilder();
+	}
+
 	public B ping(final Pingable pingable) {
 		cmdSettings.setPingable(pingable);
 		return getBuilder();
@@ -118,6 +170,46 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return getBuilder();
 	}
 
+	/**
+	 * Set the exit value considered successful. Default is 0.
+	 */
+	public B expectedExitValue(final int expectedExitValue) {
+		cmdSettings.setExpectedExitValue(expectedExitValue);
+		cmdSettings.setAcceptedExitValues(null);
+		return getBuilder();
+	}
+
+	/**
+	 * Set the exit values considered successful, e.g. 0 and 1 for
+	 * <code>grep</code> or <code>diff</code>.
+	 */
+	public B acceptedExitValues(final int... acceptedExitValues) {
+		final int[] sorted = acceptedExitValues.clone();
+		Arrays.sort(sorted);
+		return acceptedExitValues(exitValue -> Arrays.binarySearch(sorted, exitValue) >= 0);
+	}
+
+	/**
+	 * Set the exit values considered successful.
+	 *
+	 * @param acceptedExitValues Returns <code>true</code> for successful
+	 *            exit values
+	 */
+	public B acceptedExitValues(final IntPredicate acceptedExitValues) {
+		cmdSettings.setAcceptedExitValues(acceptedExitValues);
+		return getBuilder();
+	}
+
+	/**
+	 * Create exceptions for unexpected exit values and timeouts without a
+	 * stack trace. Useful when such exceptions are expected and caught
+	 * often.
+	 */
+	public B stacklessExceptions(final boolean stacklessExceptions) {
+		cmdSettings.setStacklessExceptions(stacklessExceptions);
+		return getBuilder();
+	}
+
 	public B timeout(final long timeout) {
 		cmdSettings.setTimeout(timeout);
 		return getBuilder();
@@ -142,6 +234,166 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return getBuilder();
 	}
 
+	/**
+	 * Limit the resident set size of the process and all of its descendants.
+	 * Enforced by the {@link CmdWatchdog}.
+	 *
+	 * @param maxRss The maximum RSS in bytes
+	 * @return This builder
+	 */
+	public B watchdogMaxRss(final long maxRss) {
+		getWatchdogLimits().setMaxRss(maxRss);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the CPU time used by the process and all of its descendants.
+	 * Enforced by the {@link CmdWatchdog}.
+	 *
+	 * @param maxCpuTime The maximum CPU time in milliseconds
+	 * @return This builder
+	 */
+	public B watchdogMaxCpuTime(final long maxCpuTime) {
+		getWatchdogLimits().setMaxCpuTime(maxCpuTime);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the CPU share of the process and all of its descendants.
+	 * Enforced by the {@link CmdWatchdog}.
+	 *
+	 * @param maxCpuShare The maximum CPU share, <code>1.0</code> being one
+	 *            fully used core
+	 * @return This builder
+	 */
+	public B watchdogMaxCpuShare(final double maxCpuShare) {
+		getWatchdogLimits().setMaxCpuShare(maxCpuShare);
+		return getBuilder();
+	}
+
+	/**
+	 * Set the action taken when a watchdog limit is exceeded. Default is
+	 * {@link WatchdogLimits.BreachAction#KILL}.
+	 *
+	 * @param breachAction The action
+	 * @return This builder
+	 */
+	public B watchdogBreachAction(final WatchdogLimits.BreachAction breachAction) {
+		getWatchdogLimits().setBreachAction(breachAction);
+		return getBuilder();
+	}
+
+	private WatchdogLimits getWatchdogLimits() {
+		if (cmdSettings.getWatchdogLimits() == null) {
+			cmdSettings.setWatchdogLimits(new WatchdogLimits());
+		}
+		return cmdSettings.getWatchdogLimits();
+	}
+
+	/**
+	 * Limit the virtual address space of the process (RLIMIT_AS).
+	 *
+	 * @param maxAddressSpace The limit in bytes
+	 * @return This builder
+	 */
+	public B limitAddressSpace(final long maxAddressSpace) {
+		getResourceCaps().setMaxAddressSpace(maxAddressSpace);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the CPU time of the process (RLIMIT_CPU).
+	 *
+	 * @param maxCpuTime The limit in seconds
+	 * @return This builder
+	 */
+	public B limitCpuTime(final long maxCpuTime) {
+		getResourceCaps().setMaxCpuTime(maxCpuTime);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the number of open files of the process (RLIMIT_NOFILE).
+	 *
+	 * @param maxOpenFiles The limit
+	 * @return This builder
+	 */
+	public B limitOpenFiles(final long maxOpenFiles) {
+		getResourceCaps().setMaxOpenFiles(maxOpenFiles);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the number of processes of the user running the process
+	 * (RLIMIT_NPROC).
+	 *
+	 * @param maxProcesses The limit
+	 * @return This builder
+	 */
+	public B limitProcesses(final long maxProcesses) {
+		getResourceCaps().setMaxProcesses(maxProcesses);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the memory of the process and all of its descendants using
+	 * cgroup v2 <code>memory.max</code>. Only enforced if a delegated cgroup
+	 * root is available, see {@link Cgroups}.
+	 *
+	 * @param maxMemory The limit in bytes
+	 * @return This builder
+	 */
+	public B limitMemory(final long maxMemory) {
+		getResourceCaps().setMaxMemory(maxMemory);
+		return getBuilder();
+	}
+
+	/**
+	 * Limit the CPU bandwidth of the process and all of its descendants using
+	 * cgroup v2 <code>cpu.max</code>. Only enforced if a delegated cgroup root
+	 * is available, see {@link Cgroups}.
+	 *
+	 * @param maxCpus The limit in number of CPUs, e.g. <code>0.5</code>
+	 * @return This builder
+	 */
+	public B limitCpus(final double maxCpus) {
+		getResourceCaps().setMaxCpus(maxCpus);
+		return getBuilder();
+	}
+
+	private ResourceCaps getResourceCaps() {
+		if (cmdSettings.getResourceCaps() == null) {
+			cmdSettings.setResourceCaps(new ResourceCaps());
+		}
+		return cmdSettings.getResourceCaps();
+	}
+
+	/**
+	 * Set the scheduling QoS class of the command. The scheduling parameters
+	 * are taken from the {@link QosPolicy#getDefault() default QoS policy}.
+	 *
+	 * @param qosClass The QoS class or <code>null</code> to use the policy's
+	 *            default class
+	 * @return This builder
+	 */
+	public B qos(final QosClass qosClass) {
+		cmdSettings.setQosClass(qosClass);
+		return getBuilder();
+	}
+
+	/**
+	 * Set the launcher used to start the process, e.g.
+	 * {@link SpawnServer#getDefault()}.
+	 *
+	 * @param processLauncher The launcher or <code>null</code> to use the
+	 *            {@link ProcessLauncher#getDefault() default launcher}
+	 * @return This builder
+	 */
+	public B processLauncher(final ProcessLauncher processLauncher) {
+		cmdSettings.setProcessLauncher(processLauncher);
+		return getBuilder();
+	}
+
 	public B args(final Object... arguments) {
 		if (cmdSettings.getCommand() == null) {
 			cmdSettings.setCommand(new ArrayList<String>());
@@ -193,26 +445,9 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 	public CmdSettings toCmdSettings() {
 		final CmdSettings cmdSettings = new CmdSettings(this.cmdSettings);
 
-		Map<String, String> env = null;
 		final Map<String, String> settingsEnv = cmdSettings.getEnvironment();
-		if (inheritEnvironment && settingsEnv != null) {
-			env = new HashMap<>(System.getenv());
-			env.putAll(settingsEnv);
-		}
-		if (withoutEnvironment != null) {
-			if (env == null) {
-				if (settingsEnv != null) {
-					env = new HashMap<>(settingsEnv);
-				} else {
-					env = new HashMap<>();
-				}
-			}
-			for (final String name : withoutEnvironment) {
-				env.remove(name);
-			}
-		}
-		if (env != null) {
-			cmdSettings.setEnvironment(env);
+		if (settingsEnv != null || withoutEnvironment != null || !inheritEnvironment) {
+			cmdSettings.setEnvironment(new EnvironmentMap(inheritEnvironment, settingsEnv, withoutEnvironment));
 		}
 
 		return cmdSettings;
@@ -224,6 +459,53 @@ public abstract class CmdBuilderBase<B extends CmdBuilderBase<B>> {
 		return new Cmd(clone);
 	}
 
+	/**
+	 * Create a template of this command for repeated invocations with
+	 * different arguments. Add {@link CmdTemplate#PLACEHOLDER} arguments
+	 * for the slots.
+	 *
+	 * @see CmdTemplate
+	 */
+	public CmdTemplate toCmdTemplate() {
+		return new CmdTemplate(toCmdSettings());
+	}
+
+	/**
+	 * Create a pool of pre-started instances of this command for commands
+	 * that read one job from stdin and exit.
+	 *
+	 * @param minSize The minimum number of idle instances
+	 * @param maxSize The maximum number of idle instances
+	 * @see StandbyPool
+	 */
+	public StandbyPool toStandbyPool(final int minSize, final int maxSize) {
+		return new StandbyPool(toCmdSettings(), minSize, maxSize);
+	}
+
+	/**
+	 * Create a channel to this command running as a co-process that
+	 * answers framed requests from stdin on stdout.
+	 *
+	 * @param framing The framing of requests and responses
+	 * @see CoProcessChannel
+	 */
+	public CoProcessChannel toCoProcessChannel(final CoProcessFraming framing) {
+		return new CoProcessChannel(toCmdSettings(), framing);
+	}
+
+	/**
+	 * Create a load-balanced pool of this command running as co-processes
+	 * that answer framed requests from stdin on stdout.
+	 *
+	 * @param framing The framing of requests and responses
+	 * @param minSize The minimum number of co-processes
+	 * @param maxSize The maximum number of co-processes
+	 * @see CoProcessPool
+	 */
+	public CoProcessPool toCoProcessPool(final CoProcessFraming framing, final int minSize, final int maxSize) {
+		return new CoProcessPool(toCmdSettings(), framing, minSize, maxSize);
+	}
+
 	@SuppressWarnings("unchecked")
 	protected B getBuilder() {
 		return (B)this;
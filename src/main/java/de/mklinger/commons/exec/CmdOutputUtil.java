@@ -21,7 +21,7 @@ import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 
 import de.mklinger.commons.exec.io.SynchronizedOutputStream;
-import de.mklinger.commons.exec.io.TeeOutputStream;
+import de.mklinger.commons.exec.io.MulticastOutputStream;
 import de.mklinger.commons.exec.io.UnsynchronizedStringWriter;
 import de.mklinger.commons.exec.io.WriterOutputStream;
 
@@ -63,15 +63,12 @@ public class CmdOutputUtil {
 		final UnsynchronizedStringWriter sw = new UnsynchronizedStringWriter();
 		final OutputStream wout = new SynchronizedOutputStream(new WriterOutputStream(sw, Charset.defaultCharset()));
 
-		if (cs.getStdout() == null) {
-			cs.setStdout(wout);
-		} else {
-			cs.setStdout(new TeeOutputStream(cs.getStdout(), wout));
-		}
+		cs.setStdout(withCapture(cs.getStdout(), wout));
 
 		cs.freeze();
 		try {
 			new Cmd(cs).execute();
+			checkFailures(cs);
 		} catch (final CmdException e) {
 			throw new CmdOutputException(e, getOutput(sw, wout), true, false);
 		}
@@ -114,15 +111,12 @@ public class CmdOutputUtil {
 		final UnsynchronizedStringWriter sw = new UnsynchronizedStringWriter();
 		final OutputStream wout = new SynchronizedOutputStream(new WriterOutputStream(sw, Charset.defaultCharset()));
 
-		if (cs.getStderr() == null) {
-			cs.setStderr(wout);
-		} else {
-			cs.setStderr(new TeeOutputStream(cs.getStderr(), wout));
-		}
+		cs.setStderr(withCapture(cs.getStderr(), wout));
 
 		cs.freeze();
 		try {
 			new Cmd(cs).execute();
+			checkFailures(cs);
 		} catch (final CmdException e) {
 			throw new CmdOutputException(e, getOutput(sw, wout), false, true);
 		}
@@ -165,20 +159,13 @@ public class CmdOutputUtil {
 		final UnsynchronizedStringWriter sw = new UnsynchronizedStringWriter();
 		final OutputStream wout = new SynchronizedOutputStream(new WriterOutputStream(sw, Charset.defaultCharset()));
 
-		if (cs.getStderr() == null) {
-			cs.setStderr(wout);
-		} else {
-			cs.setStderr(new TeeOutputStream(cs.getStderr(), wout));
-		}
-		if (cs.getStdout() == null) {
-			cs.setStdout(wout);
-		} else {
-			cs.setStdout(new TeeOutputStream(cs.getStdout(), wout));
-		}
+		cs.setStderr(withCapture(cs.getStderr(), wout));
+		cs.setStdout(withCapture(cs.getStdout(), wout));
 
 		cs.freeze();
 		try {
 			new Cmd(cs).execute();
+			checkFailures(cs);
 		} catch (final CmdException e) {
 			throw new CmdOutputException(e, getOutput(sw, wout), true, true);
 		}
@@ -186,6 +173,30 @@ public class CmdOutputUtil {
 		return getOutput(sw, wout);
 	}
 
+	private static OutputStream withCapture(final OutputStream out, final OutputStream capture) {
+		if (out == null) {
+			return capture;
+		}
+		return new MulticastOutputStream(out, capture);
+	}
+
+	/**
+	 * A failing stream of the caller does not stop capturing, but is
+	 * reported after execution.
+	 */
+	private static void checkFailures(final CmdSettings cs) throws CmdException {
+		try {
+			if (cs.getStdout() instanceof MulticastOutputStream) {
+				((MulticastOutputStream)cs.getStdout()).checkFailures();
+			}
+			if (cs.getStderr() instanceof MulticastOutputStream) {
+				((MulticastOutputStream)cs.getStderr()).checkFailures();
+			}
+		} catch (final IOException e) {
+			throw new CmdException("Error writing output", e);
+		}
+	}
+
 	private static String getOutput(final UnsynchronizedStringWriter sw, final OutputStream wout) {
 		try {
 			wout.close();
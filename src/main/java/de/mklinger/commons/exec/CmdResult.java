@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a {@link Cmd}, returned without throwing an exception for
+ * unexpected exit values. See {@link Cmd#executeForResult()}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdResult {
+	private final CmdSettings cmdSettings;
+	private final int exitValue;
+	private final long startTime;
+	private final long durationNanos;
+
+	CmdResult(final CmdSettings cmdSettings, final int exitValue, final long startTime, final long durationNanos) {
+		this.cmdSettings = cmdSettings;
+		this.exitValue = exitValue;
+		this.startTime = startTime;
+		this.durationNanos = durationNanos;
+	}
+
+	public int getExitValue() {
+		return exitValue;
+	}
+
+	/**
+	 * @return Whether the exit value is one of the accepted exit values
+	 * @see CmdSettings#isAcceptedExitValue(int)
+	 */
+	public boolean isSuccess() {
+		return cmdSettings.isAcceptedExitValue(exitValue);
+	}
+
+	/**
+	 * @return The start time in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The time from process start to exit
+	 */
+	public long getDuration(final TimeUnit unit) {
+		return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The stream stdout was written to or <code>null</code>
+	 */
+	public OutputStream getStdout() {
+		return cmdSettings.getStdout();
+	}
+
+	/**
+	 * @return The stream stderr was written to or <code>null</code>
+	 */
+	public OutputStream getStderr() {
+		return cmdSettings.getStderr();
+	}
+
+	/**
+	 * @return The file stdout was written to or <code>null</code>
+	 */
+	public File getStdoutFile() {
+		if (cmdSettings.getStdout() != null) {
+			return null;
+		}
+		return getFile(cmdSettings.getStdoutRedirect(), cmdSettings.getStdoutFile());
+	}
+
+	/**
+	 * @return The file stderr was written to or <code>null</code>
+	 */
+	public File getStderrFile() {
+		if (cmdSettings.getStderr() != null || cmdSettings.isRedirectErrorStream()) {
+			return null;
+		}
+		return getFile(cmdSettings.getStderrRedirect(), cmdSettings.getStderrFile());
+	}
+
+	private static File getFile(final Redirect redirect, final File file) {
+		if (redirect != null) {
+			return redirect.file();
+		}
+		return file;
+	}
+
+	/**
+	 * @return This result
+	 * @throws ExitCodeException if the exit value is not accepted
+	 */
+	public CmdResult checkExitValue() throws ExitCodeException {
+		if (!isSuccess()) {
+			throw new ExitCodeException("Error executing command: " + cmdSettings.getCommand() + ". Exit value: " + exitValue,
+					cmdSettings.getExpectedExitValue(), exitValue, !cmdSettings.isStacklessExceptions());
+		}
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "CmdResult[exitValue=" + exitValue + ", duration=" + getDuration(TimeUnit.MILLISECONDS) + "ms]";
+	}
+}
@@ -17,12 +17,14 @@ package de.mklinger.commons.exec;
 
 import java.io.File;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
@@ -38,19 +40,31 @@ public class CmdSettings {
 	private List<String> command;
 	private File directory;
 	private int expectedExitValue = 0;
+	private IntPredicate acceptedExitValues;
+	private boolean stacklessExceptions;
 	private OutputStream stdout;
 	private File stdoutFile;
+	private Redirect stdoutRedirect;
 	private OutputStream stderr;
 	private File stderrFile;
+	private Redirect stderrRedirect;
 	private boolean redirectErrorStream = false;
 	private Pingable pingable = null;
 	private byte[] stdinBytes;
+	private Redirect stdinRedirect;
 	private Map<String, String> environment;
 	private long timeout;
 	private boolean destroyOnError = true;
 	private boolean destroyOnShutdown = true;
 	private boolean destroyForcibly = false;
+	private WatchdogLimits watchdogLimits;
+	private ResourceCaps resourceCaps;
+	private QosClass qosClass;
+	private ProcessLauncher processLauncher;
 	private boolean frozen;
+	/** Unmodifiable views, created once when frozen. */
+	private List<String> frozenCommand;
+	private Map<String, String> frozenEnvironment;
 
 	/**
 	 * Default constructor.
@@ -69,17 +83,24 @@ public class CmdSettings {
 		}
 		this.directory = cmdSettings.directory;
 		this.expectedExitValue = cmdSettings.expectedExitValue;
+		this.acceptedExitValues = cmdSettings.acceptedExitValues;
+		this.stacklessExceptions = cmdSettings.stacklessExceptions;
 		this.stdout = cmdSettings.stdout;
 		this.stdoutFile = cmdSettings.stdoutFile;
 		this.stderr = cmdSettings.stderr;
 		this.stderrFile = cmdSettings.stderrFile;
+		this.stdoutRedirect = cmdSettings.stdoutRedirect;
+		this.stderrRedirect = cmdSettings.stderrRedirect;
+		this.stdinRedirect = cmdSettings.stdinRedirect;
 		this.redirectErrorStream = cmdSettings.redirectErrorStream;
 		this.pingable = cmdSettings.pingable;
 		if (cmdSettings.stdinBytes != null) {
 			this.stdinBytes = new byte[cmdSettings.stdinBytes.length];
 			System.arraycopy(cmdSettings.stdinBytes, 0, this.stdinBytes, 0, cmdSettings.stdinBytes.length);
 		}
-		if (cmdSettings.environment != null) {
+		if (cmdSettings.environment instanceof EnvironmentMap) {
+			this.environment = new EnvironmentMap((EnvironmentMap)cmdSettings.environment);
+		} else if (cmdSettings.environment != null) {
 			this.environment = new HashMap<>(cmdSettings.environment);
 		}
 		this.timeout = cmdSettings.timeout;
@@ -87,11 +108,61 @@ public class CmdSettings {
 		this.destroyOnShutdown = cmdSettings.destroyOnShutdown;
 		this.destroyForcibly = cmdSettings.destroyForcibly;
 		this.executorSupplier = cmdSettings.executorSupplier;
+		if (cmdSettings.watchdogLimits != null) {
+			this.watchdogLimits = new WatchdogLimits(cmdSettings.watchdogLimits);
+		}
+		if (cmdSettings.resourceCaps != null) {
+			this.resourceCaps = new ResourceCaps(cmdSettings.resourceCaps);
+		}
+		this.qosClass = cmdSettings.qosClass;
+		this.processLauncher = cmdSettings.processLauncher;
+	}
+
+	/**
+	 * Create a frozen copy of the given CmdSettings with another command.
+	 * All other values are shared, not copied.
+	 */
+	private CmdSettings(final CmdSettings cmdSettings, final List<String> command) {
+		this.command = command;
+		this.directory = cmdSettings.directory;
+		this.expectedExitValue = cmdSettings.expectedExitValue;
+		this.acceptedExitValues = cmdSettings.acceptedExitValues;
+		this.stacklessExceptions = cmdSettings.stacklessExceptions;
+		this.stdout = cmdSettings.stdout;
+		this.stdoutFile = cmdSettings.stdoutFile;
+		this.stderr = cmdSettings.stderr;
+		this.stderrFile = cmdSettings.stderrFile;
+		this.stdoutRedirect = cmdSettings.stdoutRedirect;
+		this.stderrRedirect = cmdSettings.stderrRedirect;
+		this.stdinRedirect = cmdSettings.stdinRedirect;
+		this.redirectErrorStream = cmdSettings.redirectErrorStream;
+		this.pingable = cmdSettings.pingable;
+		this.stdinBytes = cmdSettings.stdinBytes;
+		this.environment = cmdSettings.environment;
+		this.timeout = cmdSettings.timeout;
+		this.destroyOnError = cmdSettings.destroyOnError;
+		this.destroyOnShutdown = cmdSettings.destroyOnShutdown;
+		this.destroyForcibly = cmdSettings.destroyForcibly;
+		this.executorSupplier = cmdSettings.executorSupplier;
+		this.watchdogLimits = cmdSettings.watchdogLimits;
+		this.resourceCaps = cmdSettings.resourceCaps;
+		this.qosClass = cmdSettings.qosClass;
+		this.processLauncher = cmdSettings.processLauncher;
+		freeze();
+	}
+
+	/**
+	 * Create a frozen copy of these settings with the given command,
+	 * sharing all other values. Used for {@link CmdTemplate} to avoid
+	 * copying per invocation.
+	 */
+	CmdSettings withCommand(final List<String> command) {
+		return new CmdSettings(this, command);
 	}
 
 	public List<String> getCommand() {
-		if (frozen && command != null) {
-			return Collections.unmodifiableList(command);
+		if (frozen) {
+			return frozenCommand;
 		} else {
 			return command;
 		}
@@ -120,13 +191,53 @@ public class CmdSettings {
 		this.expectedExitValue = expectedExitValue;
 	}
 
+	public IntPredicate getAcceptedExitValues() {
+		return acceptedExitValues;
+	}
+
+	/**
+	 * Set the exit values considered successful. Takes precedence over
+	 * the {@link #setExpectedExitValue(int) expected exit value}.
+	 *
+	 * @param acceptedExitValues The accepted exit values or
+	 *            <code>null</code> to accept the expected exit value only
+	 */
+	public void setAcceptedExitValues(final IntPredicate acceptedExitValues) {
+		checkFrozen();
+		this.acceptedExitValues = acceptedExitValues;
+	}
+
+	/**
+	 * @return Whether the given exit value is considered successful
+	 */
+	public boolean isAcceptedExitValue(final int exitValue) {
+		if (acceptedExitValues != null) {
+			return acceptedExitValues.test(exitValue);
+		}
+		return exitValue == expectedExitValue;
+	}
+
+	public boolean isStacklessExceptions() {
+		return stacklessExceptions;
+	}
+
+	/**
+	 * Set whether exceptions for unexpected exit values and timeouts are
+	 * created without a stack trace, which is cheaper when they are thrown
+	 * often.
+	 */
+	public void setStacklessExceptions(final boolean stacklessExceptions) {
+		checkFrozen();
+		this.stacklessExceptions = stacklessExceptions;
+	}
+
 	public OutputStream getStdout() {
 		return stdout;
 	}
 
 	public void setStdout(final OutputStream stdout) {
 		checkFrozen();
-		if (this.stdoutFile != null) {
+		if (stdout != null && this.stdoutFile != null) {
 			LOG.warn("Setting stdout stream when stdout file is already set");
 		}
 		this.stdout = stdout;
@@ -138,20 +249,38 @@ public class CmdSettings {
 
 	public void setStdoutFile(final File stdoutFile) {
 		checkFrozen();
-		if (this.stdout != null) {
+		if (stdoutFile != null && this.stdout != null) {
 			LOG.warn("Setting stdout file when stdout stream is already set");
 		}
 		this.stdoutFile = stdoutFile;
 	}
 
+	public Redirect getStdoutRedirect() {
+		return stdoutRedirect;
+	}
+
+	/**
+	 * Redirect stdout without a stream, e.g. to {@link Redirect#INHERIT} or
+	 * {@link Redirect#appendTo(File)}. The redirect is done by the
+	 * operating system. A stdout stream takes precedence.
+	 */
+	public void setStdoutRedirect(final Redirect stdoutRedirect) {
+		checkFrozen();
+		checkOutputRedirect(stdoutRedirect);
+		if (stdoutRedirect != null && this.stdout != null) {
+			LOG.warn("Setting stdout redirect when stdout stream is already set");
+		}
+		this.stdoutRedirect = stdoutRedirect;
+	}
+
 	public OutputStream getStderr() {
 		return stderr;
 	}
 
 	public void setStderr(final OutputStream stderr) {
 		checkFrozen();
-		if (this.stderrFile != null) {
-			LOG.warn("Setting stderr stream when stdout file is already set");
+		if (stderr != null && this.stderrFile != null) {
+			LOG.warn("Setting stderr stream when stderr file is already set");
 		}
 		this.stderr = stderr;
 	}
@@ -162,12 +291,36 @@ public class CmdSettings {
 
 	public void setStderrFile(final File stderrFile) {
 		checkFrozen();
-		if (this.stderr != null) {
+		if (stderrFile != null && this.stderr != null) {
 			LOG.warn("Setting stderr file when stderr stream is already set");
 		}
 		this.stderrFile = stderrFile;
 	}
 
+	public Redirect getStderrRedirect() {
+		return stderrRedirect;
+	}
+
+	/**
+	 * Redirect stderr without a stream, e.g. to {@link Redirect#INHERIT} or
+	 * {@link Redirect#appendTo(File)}. The redirect is done by the
+	 * operating system. A stderr stream takes precedence.
+	 */
+	public void setStderrRedirect(final Redirect stderrRedirect) {
+		checkFrozen();
+		checkOutputRedirect(stderrRedirect);
+		if (stderrRedirect != null && this.stderr != null) {
+			LOG.warn("Setting stderr redirect when stderr stream is already set");
+		}
+		this.stderrRedirect = stderrRedirect;
+	}
+
+	private static void checkOutputRedirect(final Redirect redirect) {
+		if (redirect != null && (redirect.type() == Redirect.Type.PIPE || redirect.type() == Redirect.Type.READ)) {
+			throw new IllegalArgumentException("Unsupported output redirect: " + redirect);
+		}
+	}
+
 	public void setRedirectErrorStream(final boolean redirectErrorStream) {
 		this.redirectErrorStream = redirectErrorStream;
 	}
@@ -192,12 +345,35 @@ public class CmdSettings {
 
 	public void setStdinBytes(final byte[] stdinBytes) {
 		checkFrozen();
+		if (stdinBytes != null && this.stdinRedirect != null) {
+			LOG.warn("Setting stdin bytes when stdin redirect is already set");
+		}
 		this.stdinBytes = stdinBytes;
 	}
 
+	public Redirect getStdinRedirect() {
+		return stdinRedirect;
+	}
+
+	/**
+	 * Redirect stdin, e.g. from {@link Redirect#from(File)} or
+	 * {@link Redirect#INHERIT}. The redirect is done by the operating
+	 * system.
+	 */
+	public void setStdinRedirect(final Redirect stdinRedirect) {
+		checkFrozen();
+		if (stdinRedirect != null && stdinRedirect.type() != Redirect.Type.READ && stdinRedirect.type() != Redirect.Type.INHERIT) {
+			throw new IllegalArgumentException("Unsupported input redirect: " + stdinRedirect);
+		}
+		if (stdinRedirect != null && this.stdinBytes != null) {
+			LOG.warn("Setting stdin redirect when stdin bytes are already set");
+		}
+		this.stdinRedirect = stdinRedirect;
+	}
+
 	public Map<String, String> getEnvironment() {
-		if (frozen && environment != null) {
-			return Collections.unmodifiableMap(environment);
+		if (frozen) {
+			return frozenEnvironment;
 		} else {
 			return environment;
 		}
@@ -208,6 +384,14 @@ public class CmdSettings {
 		this.environment = environment;
 	}
 
+	/**
+	 * @return The environment if it is an overlay on a base environment,
+	 *         or <code>null</code>
+	 */
+	EnvironmentMap getEnvironmentMap() {
+		return environment instanceof EnvironmentMap ? (EnvironmentMap)environment : null;
+	}
+
 	public long getTimeout() {
 		return timeout;
 	}
@@ -253,7 +437,54 @@ public class CmdSettings {
 		return executorSupplier;
 	}
 
+	// The limits may be manipulated even if frozen. We live with that.
+	public WatchdogLimits getWatchdogLimits() {
+		return watchdogLimits;
+	}
+
+	public void setWatchdogLimits(final WatchdogLimits watchdogLimits) {
+		checkFrozen();
+		this.watchdogLimits = watchdogLimits;
+	}
+
+	// The caps may be manipulated even if frozen. We live with that.
+	public ResourceCaps getResourceCaps() {
+		return resourceCaps;
+	}
+
+	public void setResourceCaps(final ResourceCaps resourceCaps) {
+		checkFrozen();
+		this.resourceCaps = resourceCaps;
+	}
+
+	public QosClass getQosClass() {
+		return qosClass;
+	}
+
+	public void setQosClass(final QosClass qosClass) {
+		checkFrozen();
+		this.qosClass = qosClass;
+	}
+
+	public ProcessLauncher getProcessLauncher() {
+		return processLauncher;
+	}
+
+	public void setProcessLauncher(final ProcessLauncher processLauncher) {
+		checkFrozen();
+		this.processLauncher = processLauncher;
+	}
+
 	public void freeze() {
+		if (frozen) {
+			return;
+		}
+		if (command != null) {
+			frozenCommand = Collections.unmodifiableList(command);
+		}
+		if (environment != null) {
+			frozenEnvironment = Collections.unmodifiableMap(environment);
+		}
 		this.frozen = true;
 	}
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A command compiled once from a builder and bound to arguments many times.
+ * Arguments given as {@link #PLACEHOLDER} to the builder are slots filled
+ * by {@link #bind(Object...)}:
+ *
+ * <pre>
+ * CmdTemplate template = new CmdBuilder("convert")
+ * 		.arg(CmdTemplate.PLACEHOLDER)
+ * 		.arg("-resize").arg("50%")
+ * 		.arg(CmdTemplate.PLACEHOLDER)
+ * 		.toCmdTemplate();
+ * template.bind(in, out).execute();
+ * </pre>
+ * <p>
+ * All settings, including the environment, are resolved and frozen when
+ * the template is created. Binding copies the prebuilt command line and
+ * shares everything else. Instances are immutable and can be bound from
+ * many threads concurrently. Note that output streams set on the builder
+ * are shared by all bound commands as well.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdTemplate {
+	/**
+	 * Argument marking a slot. Contains a NUL character, which cannot be
+	 * part of a real command line argument.
+	 */
+	public static final String PLACEHOLDER = "\0{}";
+
+	private final CmdSettings cmdSettings;
+	private final String[] command;
+	private final int[] slots;
+
+	/**
+	 * Create a template from the given settings. The settings are copied.
+	 * Usually created using {@link CmdBuilderBase#toCmdTemplate()}.
+	 *
+	 * @param cmdSettings The settings, with placeholders in the command
+	 */
+	public CmdTemplate(final CmdSettings cmdSettings) {
+		final CmdSettings copy = new CmdSettings(cmdSettings);
+		if (copy.getCommand() == null || copy.getCommand().isEmpty()) {
+			throw new IllegalArgumentException("Missing command");
+		}
+		copy.freeze();
+		this.cmdSettings = copy;
+		this.command = copy.getCommand().toArray(new String[0]);
+		final List<Integer> slotList = new ArrayList<>();
+		for (int i = 0; i < command.length; i++) {
+			if (PLACEHOLDER.equals(command[i])) {
+				slotList.add(i);
+			}
+		}
+		this.slots = new int[slotList.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = slotList.get(i);
+		}
+	}
+
+	/**
+	 * @return The number of slots to be filled by {@link #bind(Object...)}
+	 */
+	public int getSlotCount() {
+		return slots.length;
+	}
+
+	/**
+	 * @return The command line with placeholders
+	 */
+	public List<String> getCommand() {
+		return Collections.unmodifiableList(Arrays.asList(command));
+	}
+
+	/**
+	 * @return The environment or <code>null</code> to inherit the
+	 *         environment of the current process
+	 */
+	public Map<String, String> getEnvironment() {
+		return cmdSettings.getEnvironment();
+	}
+
+	/**
+	 * Bind the slots to the given values. Files are passed as absolute
+	 * paths, other values as their string value.
+	 *
+	 * @param values One value per slot, in order
+	 * @return A new command, not started yet
+	 * @throws IllegalArgumentException If the number of values does not
+	 *             match the number of slots or a value is <code>null</code>
+	 */
+	public Cmd bind(final Object... values) {
+		return new Cmd(toCmdSettings(values));
+	}
+
+	/**
+	 * Bind the slots to the given values and return the frozen settings.
+	 *
+	 * @see #bind(Object...)
+	 */
+	public CmdSettings toCmdSettings(final Object... values) {
+		final int count = values == null ? 0 : values.length;
+		if (count != slots.length) {
+			throw new IllegalArgumentException("Expected " + slots.length + " values, got " + count);
+		}
+		final String[] boundCommand = command.clone();
+		for (int i = 0; i < slots.length; i++) {
+			boundCommand[slots[i]] = toArgument(values[i]);
+		}
+		return cmdSettings.withCommand(Arrays.asList(boundCommand));
+	}
+
+	private static String toArgument(final Object value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Missing value");
+		}
+		if (value instanceof String) {
+			return (String)value;
+		}
+		if (value instanceof File) {
+			return ((File)value).getAbsolutePath();
+		}
+		return String.valueOf(value);
+	}
+}
@@ -15,9 +15,17 @@
  */
 package de.mklinger.commons.exec;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.StringTokenizer;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,86 +39,22 @@ public class CmdUtil {
 
 	private static final Logger LOG = LoggerFactory.getLogger(CmdUtil.class);
 
+	/**
+	 * Find the first of the given executables on the PATH, using the cached
+	 * {@link ExecutableResolver#getDefault() default resolver}.
+	 *
+	 * @return The absolute path or <code>null</code> if none is found
+	 */
 	public static String findExecutable(final String... executables) {
-		for (final String executable : executables) {
-			final String executablePath = findExecutablePath(executable);
-			if (executablePath != null) {
-				return executablePath;
-			}
-		}
-		return null;
-	}
-
-	private static String findExecutablePath(final String executable) {
-		String executablePath = null;
-		if (isWindows()) {
-			executablePath = findExecutableWithCommand("where", executable);
-			if (executablePath == null) {
-				executablePath = findExecutableBySystemPath(executable + ".exe");
-			}
-		} else {
-			executablePath = findExecutableWithCommand("which", executable);
-			if (executablePath == null) {
-				executablePath = findExecutableWithCommand("bash", "-l", "-c", "which " + executable);
-			}
-		}
-		if (executablePath == null) {
-			// this should already be covered by which, but sometimes seems not to work :(
-			executablePath = findExecutableBySystemPath(executable);
-		}
+		final String executablePath = ExecutableResolver.getDefault().resolveFirst(executables);
 		if (executablePath == null) {
-			LOG.info("Could not find {} executable on PATH", executable);
+			LOG.debug("Could not find any of {} on PATH", (Object)executables);
 		} else {
-			LOG.info("Found executable {} on PATH at location {}", executable, executablePath);
+			LOG.debug("Found executable on PATH at location {}", executablePath);
 		}
 		return executablePath;
 	}
 
-	private static String findExecutableBySystemPath(final String executableName) {
-		final String path = System.getenv("PATH");
-		if (path == null) {
-			return null;
-		}
-		final StringTokenizer st = new StringTokenizer(path, File.pathSeparator);
-		while (st.hasMoreTokens()) {
-			final String pathEntry = st.nextToken();
-			final File candidate = new File(pathEntry, executableName);
-			if (candidate.exists() && candidate.canExecute()) {
-				return candidate.getAbsolutePath();
-			}
-		}
-		LOG.info("Executable not found on PATH: {}", path);
-		return null;
-	}
-
-	private static String findExecutableWithCommand(final String command, final Object... args) {
-		try {
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			new CmdBuilder(command).args(args).toCmd().execute();
-			return extractExecutablePath(out.toString());
-		} catch (final CmdException e) {
-			// ignore
-			LOG.debug("Error trying to find executable with command", e);
-		}
-		return null;
-	}
-
-	private static String extractExecutablePath(final String s) {
-		String executablePath = s;
-		if (executablePath == null) {
-			return null;
-		}
-		executablePath = executablePath.trim();
-		if (executablePath.length() == 0) {
-			return null;
-		}
-		final File f = new File(executablePath);
-		if (f.isFile() && f.canExecute()) {
-			return executablePath;
-		}
-		return null;
-	}
-
 	public static String findWindowsProgramFilesExecutable(final String executable, final String... subFolders) {
 		String path = null;
 
@@ -164,6 +108,103 @@ public class CmdUtil {
 		return null;
 	}
 
+	/**
+	 * Get the operating system process id of the given process. Uses
+	 * <code>Process.pid()</code> when running on Java 9 or newer and the
+	 * private <code>pid</code> field of Unix process implementations on
+	 * Java 8.
+	 *
+	 * @return The process id or <code>null</code> if it cannot be determined
+	 */
+	public static Long getPid(final Process process) {
+		try {
+			final Method pidMethod = Process.class.getMethod("pid");
+			return (Long) pidMethod.invoke(process);
+		} catch (final NoSuchMethodException e) {
+			// Java 8
+		} catch (final Exception e) {
+			LOG.debug("Could not get pid for process", e);
+			return null;
+		}
+		try {
+			final Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return ((Number) field.get(process)).longValue();
+		} catch (final Exception e) {
+			LOG.debug("Could not get pid for process", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Run the given callback when the given process exits. Uses
+	 * <code>Process.onExit()</code> when running on Java 9 or newer and a
+	 * waiting daemon thread on Java 8.
+	 */
+	static void onExit(final Process process, final Runnable callback) {
+		try {
+			final Method onExitMethod = Process.class.getMethod("onExit");
+			((CompletableFuture<?>) onExitMethod.invoke(process)).thenRun(callback);
+			return;
+		} catch (final NoSuchMethodException e) {
+			// Java 8
+		} catch (final Exception e) {
+			LOG.debug("Could not register exit callback for process", e);
+		}
+		new DeamonThreadCmdThreadFactory().newThread(() -> {
+			try {
+				process.waitFor();
+				callback.run();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}).start();
+	}
+
+	/**
+	 * Create a directory accessible for the current user only, for use in
+	 * shared directories like <code>java.io.tmpdir</code>. An existing
+	 * directory is refused if owned by someone else.
+	 */
+	static void createPrivateDirectory(final File directory) throws IOException {
+		final Path path = directory.toPath();
+		final boolean posix = isPosix(path);
+		if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				if (posix) {
+					Files.createDirectory(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+				} else {
+					Files.createDirectory(path);
+				}
+			} catch (final FileAlreadyExistsException e) {
+				// created concurrently, checked below
+			}
+		}
+		if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		if (!isOwnedByCurrentUser(path)) {
+			throw new IOException("Directory " + directory + " is owned by " + Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName());
+		}
+	}
+
+	/**
+	 * @return Whether the given file is owned by the current user, always
+	 *         <code>true</code> on file systems without POSIX attributes
+	 */
+	static boolean isOwnedByCurrentUser(final Path path) throws IOException {
+		if (!isPosix(path)) {
+			return true;
+		}
+		final UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+		final UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+		return owner.equals(user);
+	}
+
+	private static boolean isPosix(final Path path) {
+		return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
 	public static boolean isWindows() {
 		final String osName = OS_NAME;
 		return osName != null && osName.toLowerCase().startsWith("win");
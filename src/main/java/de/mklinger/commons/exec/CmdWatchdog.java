@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mklinger.commons.exec.ResourceLimitExceededException.Resource;
+import de.mklinger.commons.exec.WatchdogLimits.BreachAction;
+
+/**
+ * Samples resource usage of running commands and their descendants from
+ * <code>/proc</code> and enforces {@link WatchdogLimits}. All commands share
+ * one sampling thread that only runs while there are commands to watch.
+ * <p>
+ * Works on Linux without root privileges and without cgroups. On other
+ * platforms, limits are not enforced and a warning is logged.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdWatchdog {
+	private static final Logger LOG = LoggerFactory.getLogger(CmdWatchdog.class);
+
+	public static final long DEFAULT_SAMPLE_INTERVAL = 1000;
+
+	private static final CmdWatchdog DEFAULT = new CmdWatchdog(DEFAULT_SAMPLE_INTERVAL);
+
+	private final long sampleInterval;
+	private final Set<Registration> registrations = new LinkedHashSet<>();
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> samplingFuture;
+
+	/**
+	 * Create a new watchdog with its own sampling thread. Usually the
+	 * {@link #getDefault() default instance} should be used.
+	 *
+	 * @param sampleInterval The sample interval in milliseconds
+	 */
+	public CmdWatchdog(final long sampleInterval) {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException("Invalid sample interval: " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	public static CmdWatchdog getDefault() {
+		return DEFAULT;
+	}
+
+	public long getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/**
+	 * Start watching the given process.
+	 *
+	 * @param cmd The command owning the process. Throttling does not resume
+	 *            a process that was suspended through the command.
+	 * @param pid The process id
+	 * @param limits The limits to enforce
+	 * @return The registration or <code>null</code> if resource usage cannot
+	 *         be sampled on this platform
+	 */
+	Registration register(final Cmd cmd, final long pid, final WatchdogLimits limits) {
+		if (!ProcFs.isAvailable()) {
+			LOG.warn("Watchdog limits are not supported on this platform and will not be enforced");
+			return null;
+		}
+		final Registration registration = new Registration(cmd, pid, new WatchdogLimits(limits));
+		synchronized (registrations) {
+			registrations.add(registration);
+			if (samplingFuture == null) {
+				if (scheduler == null) {
+					scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+				}
+				samplingFuture = scheduler.scheduleWithFixedDelay(this::sampleSafe, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+		return registration;
+	}
+
+	void unregister(final Registration registration) {
+		synchronized (registrations) {
+			registrations.remove(registration);
+			if (registrations.isEmpty() && samplingFuture != null) {
+				samplingFuture.cancel(false);
+				samplingFuture = null;
+			}
+		}
+	}
+
+	private void sampleSafe() {
+		try {
+			sample();
+		} catch (final Throwable e) {
+			// keep the schedule alive
+			LOG.error("Error sampling process resource usage", e);
+		}
+	}
+
+	private void sample() {
+		final List<Registration> current;
+		synchronized (registrations) {
+			current = new ArrayList<>(registrations);
+		}
+		final Map<Long, List<Long>> childrenByParent = ProcFs.newChildrenByParentMap();
+		final long now = System.nanoTime();
+		for (final Registration registration : current) {
+			if (registration.getBreach() == null) {
+				registration.sample(now, childrenByParent);
+			}
+		}
+	}
+
+	/**
+	 * Watchdog state of one running command.
+	 */
+	class Registration {
+		private final Cmd cmd;
+		private final long pid;
+		private final WatchdogLimits limits;
+		private final Set<Resource> warned = EnumSet.noneOf(Resource.class);
+		private volatile ResourceLimitExceededException breach;
+		private long lastSampleNanos = -1;
+		private long lastCpuTime;
+		private boolean throttled;
+
+		Registration(final Cmd cmd, final long pid, final WatchdogLimits limits) {
+			this.cmd = cmd;
+			this.pid = pid;
+			this.limits = limits;
+		}
+
+		/**
+		 * @return The breach that caused the process tree to be killed or
+		 *         <code>null</code>
+		 */
+		public ResourceLimitExceededException getBreach() {
+			return breach;
+		}
+
+		private void sample(final long now, final Map<Long, List<Long>> childrenByParent) {
+			if (throttled) {
+				return;
+			}
+			final ProcFs.ProcessUsage rootUsage = ProcFs.readUsage(pid);
+			if (rootUsage == null) {
+				return;
+			}
+			final List<Long> pids = ProcFs.getDescendants(pid, childrenByParent);
+			long rss = rootUsage.getRss();
+			long cpuTime = rootUsage.getCpuTime();
+			for (final Long descendant : pids) {
+				final ProcFs.ProcessUsage usage = ProcFs.readUsage(descendant);
+				if (usage != null) {
+					rss += usage.getRss();
+					cpuTime += usage.getCpuTime();
+				}
+			}
+			pids.add(0, pid);
+
+			if (limits.getMaxRss() > 0 && rss > limits.getMaxRss()) {
+				onBreach(Resource.RSS, limits.getMaxRss(), rss, pids, 0);
+			} else if (limits.getMaxCpuTime() > 0 && cpuTime > limits.getMaxCpuTime()) {
+				onBreach(Resource.CPU_TIME, limits.getMaxCpuTime(), cpuTime, pids, 0);
+			} else if (limits.getMaxCpuShare() > 0 && lastSampleNanos != -1) {
+				final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - lastSampleNanos);
+				if (elapsedMillis > 0) {
+					final double cpuShare = (double)Math.max(0, cpuTime - lastCpuTime) / elapsedMillis;
+					if (cpuShare > limits.getMaxCpuShare()) {
+						// pause long enough to bring the average down to the limit
+						final long pauseMillis = (long)(elapsedMillis * (cpuShare / limits.getMaxCpuShare() - 1));
+						onBreach(Resource.CPU_SHARE, limits.getMaxCpuShare(), cpuShare, pids, pauseMillis);
+					}
+				}
+			}
+
+			lastSampleNanos = now;
+			lastCpuTime = cpuTime;
+		}
+
+		private void onBreach(final Resource resource, final double limit, final double actual, final List<Long> pids, final long pauseMillis) {
+			BreachAction action = limits.getBreachAction();
+			if (action == BreachAction.THROTTLE && resource != Resource.CPU_SHARE) {
+				action = BreachAction.KILL;
+			}
+			switch (action) {
+			case WARN:
+				if (warned.add(resource)) {
+					LOG.warn("Process {} exceeds {} limit {}: {}", pid, resource, limit, actual);
+				}
+				break;
+			case THROTTLE:
+				LOG.debug("Throttling process {} for {} ms: {} limit {} exceeded: {}", pid, pauseMillis, resource, limit, actual);
+				throttle(pids, pauseMillis);
+				break;
+			case KILL:
+				breach = new ResourceLimitExceededException("Process " + pid + " exceeded " + resource + " limit", resource, limit, actual);
+				LOG.warn("Killing process {} and {} descendants: {} limit {} exceeded: {}", pid, pids.size() - 1, resource, limit, actual);
+				ProcessSignaller.signal(Signal.KILL, pids);
+				break;
+			default:
+				throw new IllegalStateException();
+			}
+		}
+
+		private void throttle(final List<Long> pids, final long pauseMillis) {
+			// synchronize with Cmd.suspend() and Cmd.resume()
+			synchronized (cmd) {
+				if (cmd.isSuspended()) {
+					return;
+				}
+				ProcessSignaller.signal(Signal.STOP, pids);
+				throttled = true;
+			}
+			scheduler.schedule(() -> {
+				try {
+					synchronized (cmd) {
+						// a command suspended during the pause stays suspended
+						if (!cmd.isSuspended()) {
+							ProcessSignaller.signal(Signal.CONT, pids);
+						}
+					}
+				} finally {
+					throttled = false;
+					// do not count the pause as elapsed time
+					lastSampleNanos = System.nanoTime();
+				}
+			}, Math.max(1, pauseMillis), TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A request/response channel to a co-process that stays open and reads a
+ * stream of framed requests from stdin, answering each with a framed
+ * response on stdout, in order.
+ * <p>
+ * Many threads may submit requests concurrently. Requests are pipelined:
+ * they are written as soon as they are submitted, without waiting for the
+ * responses of earlier requests. Responses are correlated by order and
+ * delivered as futures. Futures are completed by the thread reading
+ * stdout, so dependent actions should not block.
+ * </p>
+ * <p>
+ * The co-process is started on the first request. If it terminates, all
+ * requests waiting for a response fail and the next request starts a new
+ * co-process. If a request times out, it fails and the co-process is
+ * restarted, as a co-process stuck on one request blocks all requests
+ * behind it.
+ * </p>
+ * <p>
+ * The {@link CmdBuilderBase#timeout(long) timeout} of the command settings
+ * is used as the default per-request timeout, not for the co-process.
+ * Create instances using
+ * {@link CmdBuilderBase#toCoProcessChannel(CoProcessFraming)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CoProcessChannel implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(CoProcessChannel.class);
+
+	/** Interval in milliseconds for checking whether the co-process is still running. */
+	private static final long MONITOR_INTERVAL = 100;
+
+	private final CmdSettings template;
+	private final CoProcessFraming framing;
+	private final long defaultTimeout;
+	private final ScheduledExecutorService scheduler;
+	private final boolean ownScheduler;
+	private Instance instance;
+	private long starts;
+	private long timeouts;
+	private boolean closed;
+
+	CoProcessChannel(final CmdSettings template, final CoProcessFraming framing) {
+		this(template, framing, null);
+	}
+
+	/**
+	 * @param scheduler The scheduler for request timeouts and for monitoring
+	 *            the co-process, e.g. shared by the channels of a pool, or
+	 *            <code>null</code> to use a scheduler of this channel
+	 */
+	CoProcessChannel(final CmdSettings template, final CoProcessFraming framing, final ScheduledExecutorService scheduler) {
+		if (template.getStdinBytes() != null) {
+			throw new IllegalArgumentException("Stdin bytes must not be set for a co-process");
+		}
+		if (template.getStdinRedirect() != null) {
+			throw new IllegalArgumentException("Stdin redirect must not be set for a co-process");
+		}
+		this.template = template;
+		this.framing = framing;
+		this.defaultTimeout = template.getTimeout();
+		if (scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+			this.ownScheduler = true;
+		} else {
+			this.scheduler = scheduler;
+			this.ownScheduler = false;
+		}
+	}
+
+	/**
+	 * Submit a request using the default timeout.
+	 */
+	public CompletableFuture<byte[]> submit(final byte[] request) {
+		return submit(request, defaultTimeout);
+	}
+
+	/**
+	 * Submit a request.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout
+	 * @return The future response. Fails with a {@link CmdException} if the
+	 *         request times out or the co-process terminates.
+	 */
+	public CompletableFuture<byte[]> submit(final byte[] request, final long timeout) {
+		final CompletableFuture<byte[]> response = new CompletableFuture<>();
+		Instance current = null;
+		for (int attempt = 0; attempt < 2 && current == null; attempt++) {
+			try {
+				current = getInstance();
+			} catch (final CmdException e) {
+				response.completeExceptionally(e);
+				return response;
+			}
+			try {
+				current.send(request, response);
+			} catch (final IOException e) {
+				// the co-process died before it got the request; try once more
+				destroy(current, new CmdException("Error writing request", e));
+				current = null;
+				if (attempt == 1) {
+					response.completeExceptionally(new CmdException("Error writing request", e));
+				}
+			}
+		}
+		if (timeout > 0 && current != null && !response.isDone()) {
+			final Instance timeoutInstance = current;
+			final ScheduledFuture<?> timeoutFuture = scheduler.schedule(() -> {
+				if (response.isDone()) {
+					return;
+				}
+				// detach first, so that requests following the failed one use a new co-process
+				detach(timeoutInstance);
+				synchronized (this) {
+					timeouts++;
+				}
+				if (response.completeExceptionally(new CmdException("Timeout: request took longer than " + timeout + "ms"))) {
+					LOG.warn("Request to co-process timed out. Restarting co-process.");
+				}
+				destroy(timeoutInstance, new CmdException("Co-process restarted after request timeout"));
+			}, timeout, TimeUnit.MILLISECONDS);
+			response.whenComplete((r, e) -> timeoutFuture.cancel(false));
+		}
+		return response;
+	}
+
+	/**
+	 * Submit a request using the default timeout and wait for the response.
+	 */
+	public byte[] execute(final byte[] request) throws CmdException {
+		try {
+			return submit(request).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof CmdException) {
+				throw (CmdException)e.getCause();
+			}
+			throw new CmdException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return How often the co-process was started
+	 */
+	public synchronized long getStartCount() {
+		return starts;
+	}
+
+	/**
+	 * @return How many requests timed out
+	 */
+	public synchronized long getTimeoutCount() {
+		return timeouts;
+	}
+
+	/**
+	 * Start the co-process now, if not running.
+	 */
+	void start() throws CmdException {
+		getInstance();
+	}
+
+	private synchronized Instance getInstance() throws CmdException {
+		if (closed) {
+			throw new IllegalStateException("Co-process channel is closed");
+		}
+		if (instance == null) {
+			final Instance newInstance = new Instance();
+			final CmdSettings cmdSettings = new CmdSettings(template);
+			cmdSettings.setStdout(newInstance);
+			cmdSettings.setStdoutFile(null);
+			cmdSettings.setStdoutRedirect(null);
+			cmdSettings.setTimeout(0);
+			cmdSettings.freeze();
+			newInstance.cmd = new Cmd(cmdSettings);
+			newInstance.cmd.start();
+			newInstance.stdin = newInstance.cmd.getStdin();
+			starts++;
+			newInstance.monitorFuture = scheduler.scheduleWithFixedDelay(() -> monitor(newInstance), MONITOR_INTERVAL, MONITOR_INTERVAL, TimeUnit.MILLISECONDS);
+			instance = newInstance;
+		}
+		return instance;
+	}
+
+	/**
+	 * Check whether the co-process terminated, without blocking the
+	 * scheduler while it is running.
+	 */
+	private void monitor(final Instance i) {
+		if (i.dead) {
+			// destroyed after a timeout or on close
+			i.cancelMonitor();
+			return;
+		}
+		if (i.cmd.isExecuting()) {
+			return;
+		}
+		i.cancelMonitor();
+		CmdException cause;
+		try {
+			i.cmd.waitFor();
+			cause = new CmdException("Co-process terminated");
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cause = new CmdException("Interrupted while waiting for co-process", e);
+		} catch (final CmdException e) {
+			cause = new CmdException("Co-process terminated", e);
+		}
+		destroy(i, cause);
+	}
+
+	private void detach(final Instance i) {
+		synchronized (this) {
+			if (instance == i) {
+				instance = null;
+			}
+		}
+		i.dead = true;
+	}
+
+	private void destroy(final Instance i, final CmdException cause) {
+		detach(i);
+		try {
+			i.cmd.destroy();
+		} catch (final Exception e) {
+			LOG.debug("Error destroying co-process", e);
+		}
+		i.failPending(cause);
+	}
+
+	/**
+	 * Stop the co-process. Requests waiting for a response fail.
+	 */
+	@Override
+	public void close() {
+		final Instance i;
+		synchronized (this) {
+			closed = true;
+			i = instance;
+		}
+		if (i != null) {
+			i.cancelMonitor();
+			destroy(i, new CmdException("Co-process channel closed"));
+		}
+		if (ownScheduler) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * One co-process instance. Also the sink for its stdout.
+	 */
+	private class Instance extends OutputStream {
+		private final Queue<CompletableFuture<byte[]>> pending = new ConcurrentLinkedQueue<>();
+		private final CoProcessFraming.ResponseParser parser = framing.newResponseParser();
+		private Cmd cmd;
+		private OutputStream stdin;
+		private volatile ScheduledFuture<?> monitorFuture;
+		private volatile boolean dead;
+
+		void cancelMonitor() {
+			final ScheduledFuture<?> f = monitorFuture;
+			if (f != null) {
+				f.cancel(false);
+			}
+		}
+
+		synchronized void send(final byte[] request, final CompletableFuture<byte[]> response) throws IOException {
+			pending.add(response);
+			if (dead) {
+				failPending(new CmdException("Co-process terminated"));
+				return;
+			}
+			try {
+				framing.writeRequest(stdin, request);
+				stdin.flush();
+			} catch (final IOException e) {
+				pending.remove(response);
+				throw e;
+			}
+		}
+
+		void failPending(final CmdException cause) {
+			CompletableFuture<byte[]> response;
+			while ((response = pending.poll()) != null) {
+				response.completeExceptionally(cause);
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			parser.parse(b, off, len, this::onResponse);
+		}
+
+		private void onResponse(final byte[] data) {
+			final CompletableFuture<byte[]> response = pending.poll();
+			if (response == null) {
+				LOG.warn("Unexpected response from co-process");
+			} else {
+				// no-op if timed out before
+				response.complete(data);
+			}
+		}
+	}
+}
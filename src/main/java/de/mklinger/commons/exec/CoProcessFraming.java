@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Framing of requests and responses exchanged with a co-process over
+ * stdin and stdout. See {@link CoProcessChannel}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public abstract class CoProcessFraming {
+	/**
+	 * Write one request frame.
+	 */
+	public abstract void writeRequest(OutputStream out, byte[] request) throws IOException;
+
+	/**
+	 * Create a parser for the responses of one co-process instance.
+	 */
+	public abstract ResponseParser newResponseParser();
+
+	/**
+	 * Splits the stdout of a co-process into responses. Instances are used
+	 * by one thread only.
+	 */
+	public interface ResponseParser {
+		/**
+		 * Parse the next chunk of stdout and pass all responses completed by
+		 * it to the consumer.
+		 */
+		void parse(byte[] b, int off, int len, Consumer<byte[]> responses) throws IOException;
+	}
+
+	/**
+	 * Requests and responses are terminated by a newline, which is not part
+	 * of the payload. Requests must not contain newlines.
+	 */
+	public static CoProcessFraming lines() {
+		final byte[] newline = { '\n' };
+		return sentinel(newline, newline);
+	}
+
+	/**
+	 * Requests are followed by the request terminator. Responses are read
+	 * up to the response terminator, which is not part of the response. For
+	 * example, <code>exiftool -stay_open True -@ -</code> uses
+	 * <code>"\n-execute\n"</code> and <code>"{ready}\n"</code>.
+	 */
+	public static CoProcessFraming sentinel(final String requestTerminator, final String responseTerminator) {
+		return sentinel(requestTerminator.getBytes(StandardCharsets.UTF_8), responseTerminator.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Requests are followed by the request terminator. Responses are read
+	 * up to the response terminator, which is not part of the response.
+	 */
+	public static CoProcessFraming sentinel(final byte[] requestTerminator, final byte[] responseTerminator) {
+		if (responseTerminator.length == 0) {
+			throw new IllegalArgumentException("Empty response terminator");
+		}
+		return new SentinelFraming(requestTerminator.clone(), responseTerminator.clone());
+	}
+
+	/**
+	 * Requests and responses are prefixed by their length as 4 byte big
+	 * endian integer.
+	 */
+	public static CoProcessFraming lengthPrefixed() {
+		return new LengthPrefixedFraming();
+	}
+
+	private static class SentinelFraming extends CoProcessFraming {
+		private final byte[] requestTerminator;
+		private final byte[] responseTerminator;
+
+		SentinelFraming(final byte[] requestTerminator, final byte[] responseTerminator) {
+			this.requestTerminator = requestTerminator;
+			this.responseTerminator = responseTerminator;
+		}
+
+		@Override
+		public void writeRequest(final OutputStream out, final byte[] request) throws IOException {
+			out.write(request);
+			out.write(requestTerminator);
+		}
+
+		@Override
+		public ResponseParser newResponseParser() {
+			final byte[] terminator = responseTerminator;
+			final byte last = terminator[terminator.length - 1];
+			return new ResponseParser() {
+				private byte[] buf = new byte[256];
+				private int size;
+
+				@Override
+				public void parse(final byte[] b, final int off, final int len, final Consumer<byte[]> responses) {
+					for (int i = off; i < off + len; i++) {
+						if (size == buf.length) {
+							buf = Arrays.copyOf(buf, size * 2);
+						}
+						buf[size++] = b[i];
+						if (b[i] == last && endsWithTerminator()) {
+							final byte[] response = Arrays.copyOf(buf, size - terminator.length);
+							size = 0;
+							responses.accept(response);
+						}
+					}
+				}
+
+				private boolean endsWithTerminator() {
+					if (size < terminator.length) {
+						return false;
+					}
+					for (int i = 0; i < terminator.length; i++) {
+						if (buf[size - terminator.length + i] != terminator[i]) {
+							return false;
+						}
+					}
+					return true;
+				}
+			};
+		}
+	}
+
+	private static class LengthPrefixedFraming extends CoProcessFraming {
+		@Override
+		public void writeRequest(final OutputStream out, final byte[] request) throws IOException {
+			final int len = request.length;
+			out.write(new byte[] { (byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len });
+			out.write(request);
+		}
+
+		@Override
+		public ResponseParser newResponseParser() {
+			return new ResponseParser() {
+				private final byte[] header = new byte[4];
+				private int headerLen;
+				private byte[] frame;
+				private int frameLen;
+
+				@Override
+				public void parse(final byte[] b, final int off, final int len, final Consumer<byte[]> responses) throws IOException {
+					int pos = off;
+					final int end = off + len;
+					while (pos < end) {
+						if (frame == null) {
+							header[headerLen++] = b[pos++];
+							if (headerLen == 4) {
+								final int size = (header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | header[3] & 0xff;
+								if (size < 0) {
+									throw new IOException("Invalid frame length: " + size);
+								}
+								headerLen = 0;
+								frame = new byte[size];
+								frameLen = 0;
+							}
+						} else {
+							final int n = Math.min(end - pos, frame.length - frameLen);
+							System.arraycopy(b, pos, frame, frameLen, n);
+							pos += n;
+							frameLen += n;
+						}
+						if (frame != null && frameLen == frame.length) {
+							final byte[] complete = frame;
+							frame = null;
+							responses.accept(complete);
+						}
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of co-processes answering framed requests, for tools where a
+ * single {@link CoProcessChannel} is a bottleneck.
+ * <p>
+ * Each request is routed to the worker with the fewest requests in flight.
+ * If all workers are busy, a new worker is added, up to
+ * <code>maxSize</code>. Otherwise requests are pipelined to the least
+ * loaded worker. Workers idle for longer than the
+ * {@link #setIdleTimeout(long) idle timeout} are removed, down to
+ * <code>minSize</code>.
+ * </p>
+ * <p>
+ * Workers are recycled after {@link #setMaxRequestsPerWorker(long) a number
+ * of requests} or {@link #setMaxWorkerAge(long) some time}, to bound the
+ * effect of memory leaks in the tool. A recycled worker takes no new
+ * requests and is stopped once its requests in flight are answered. A
+ * worker with a timed out request is quarantined: it takes no new requests
+ * and is stopped right away.
+ * </p>
+ * <p>
+ * All workers share one scheduler thread for pool maintenance, request
+ * timeouts and detecting terminated co-processes.
+ * </p>
+ * <p>
+ * The {@link CmdBuilderBase#timeout(long) timeout} of the command settings
+ * is used as the default per-request timeout. Create instances using
+ * {@link CmdBuilderBase#toCoProcessPool(CoProcessFraming, int, int)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CoProcessPool implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(CoProcessPool.class);
+
+	public static final long DEFAULT_IDLE_TIMEOUT = 60_000;
+
+	private final CmdSettings template;
+	private final CoProcessFraming framing;
+	private final int minSize;
+	private final int maxSize;
+	private final List<Worker> workers = new ArrayList<>();
+	private final List<Worker> draining = new ArrayList<>();
+	private final ScheduledExecutorService scheduler;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private long maxRequestsPerWorker;
+	private long maxWorkerAge;
+	private boolean closed;
+
+	private long requestCount;
+	private long failureCount;
+	private long workerStartCount;
+	private long recycleCount;
+	private long quarantineCount;
+	private long stoppedStartCount;
+
+	CoProcessPool(final CmdSettings template, final CoProcessFraming framing, final int minSize, final int maxSize) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+		if (template.getStdinBytes() != null) {
+			throw new IllegalArgumentException("Stdin bytes must not be set for a co-process");
+		}
+		if (template.getStdinRedirect() != null) {
+			throw new IllegalArgumentException("Stdin redirect must not be set for a co-process");
+		}
+		this.template = template;
+		this.framing = framing;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+		scheduler.scheduleWithFixedDelay(this::maintainSafe, 1, 1, TimeUnit.SECONDS);
+		scheduler.execute(this::maintainSafe);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout Time in milliseconds after which workers without
+	 *            requests are stopped, down to the minimum size
+	 */
+	public synchronized void setIdleTimeout(final long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized long getMaxRequestsPerWorker() {
+		return maxRequestsPerWorker;
+	}
+
+	/**
+	 * @param maxRequestsPerWorker Number of requests after which a worker is
+	 *            recycled or 0 for no limit
+	 */
+	public synchronized void setMaxRequestsPerWorker(final long maxRequestsPerWorker) {
+		this.maxRequestsPerWorker = maxRequestsPerWorker;
+	}
+
+	public synchronized long getMaxWorkerAge() {
+		return maxWorkerAge;
+	}
+
+	/**
+	 * @param maxWorkerAge Time in milliseconds after which a worker is
+	 *            recycled or 0 for no limit
+	 */
+	public synchronized void setMaxWorkerAge(final long maxWorkerAge) {
+		this.maxWorkerAge = maxWorkerAge;
+	}
+
+	/**
+	 * Submit a request using the default timeout.
+	 */
+	public CompletableFuture<byte[]> submit(final byte[] request) {
+		return submit(request, template.getTimeout());
+	}
+
+	/**
+	 * Submit a request.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout
+	 * @return The future response. Fails with a {@link CmdException} if the
+	 *         request times out or the co-process terminates.
+	 */
+	public CompletableFuture<byte[]> submit(final byte[] request, final long timeout) {
+		final Worker worker = route();
+		// metrics are up to date when the caller sees the response
+		return worker.channel.submit(request, timeout)
+				.whenComplete((r, e) -> onResponse(worker, e));
+	}
+
+	/**
+	 * Submit a request using the default timeout and wait for the response.
+	 */
+	public byte[] execute(final byte[] request) throws CmdException {
+		try {
+			return submit(request).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof CmdException) {
+				throw (CmdException)e.getCause();
+			}
+			throw new CmdException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return The number of workers taking requests
+	 */
+	public synchronized int getWorkerCount() {
+		return workers.size();
+	}
+
+	/**
+	 * @return The number of requests waiting for a response
+	 */
+	public synchronized int getInFlightCount() {
+		int inFlight = 0;
+		for (final Worker worker : workers) {
+			inFlight += worker.inFlight;
+		}
+		for (final Worker worker : draining) {
+			inFlight += worker.inFlight;
+		}
+		return inFlight;
+	}
+
+	/**
+	 * @return The number of submitted requests
+	 */
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return The number of failed requests, including timeouts
+	 */
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @return The number of workers added to the pool
+	 */
+	public synchronized long getWorkerStartCount() {
+		return workerStartCount;
+	}
+
+	/**
+	 * @return How often co-processes were started, including restarts
+	 *         after a crash
+	 */
+	public synchronized long getProcessStartCount() {
+		long starts = stoppedStartCount;
+		for (final Worker worker : workers) {
+			starts += worker.channel.getStartCount();
+		}
+		for (final Worker worker : draining) {
+			starts += worker.channel.getStartCount();
+		}
+		return starts;
+	}
+
+	/**
+	 * @return The number of workers recycled because of their request count
+	 *         or age
+	 */
+	public synchronized long getRecycleCount() {
+		return recycleCount;
+	}
+
+	/**
+	 * @return The number of workers quarantined because of timeouts
+	 */
+	public synchronized long getQuarantineCount() {
+		return quarantineCount;
+	}
+
+	private synchronized Worker route() {
+		if (closed) {
+			throw new IllegalStateException("Co-process pool is closed");
+		}
+		Worker leastLoaded = null;
+		for (final Worker worker : workers) {
+			if (leastLoaded == null || worker.inFlight < leastLoaded.inFlight) {
+				leastLoaded = worker;
+			}
+		}
+		if (leastLoaded == null || leastLoaded.inFlight > 0 && workers.size() < maxSize) {
+			leastLoaded = addWorker();
+		}
+		leastLoaded.inFlight++;
+		leastLoaded.requests++;
+		leastLoaded.lastUsed = System.currentTimeMillis();
+		requestCount++;
+		if (maxRequestsPerWorker > 0 && leastLoaded.requests >= maxRequestsPerWorker) {
+			// this was the last request for the worker
+			retire(leastLoaded);
+			recycleCount++;
+		}
+		return leastLoaded;
+	}
+
+	private Worker addWorker() {
+		final Worker worker = new Worker(new CoProcessChannel(template, framing, scheduler));
+		workers.add(worker);
+		workerStartCount++;
+		return worker;
+	}
+
+	private void onResponse(final Worker worker, final Throwable error) {
+		boolean stop;
+		synchronized (this) {
+			worker.inFlight--;
+			if (error != null) {
+				failureCount++;
+				if (!worker.retired && worker.channel.getTimeoutCount() > 0) {
+					LOG.warn("Quarantining co-process after request timeout");
+					retire(worker);
+					quarantineCount++;
+				}
+			}
+			stop = worker.inFlight == 0 && draining.remove(worker);
+		}
+		if (stop) {
+			stop(worker);
+		}
+		if (error != null) {
+			// replace removed workers below the minimum size
+			scheduler.execute(this::maintainSafe);
+		}
+	}
+
+	/**
+	 * Take the worker out of routing. It is stopped once it has no requests
+	 * in flight. Must be called with the pool lock.
+	 */
+	private void retire(final Worker worker) {
+		if (workers.remove(worker)) {
+			worker.retired = true;
+			draining.add(worker);
+		}
+	}
+
+	private void stop(final Worker worker) {
+		try {
+			worker.channel.close();
+		} catch (final Exception e) {
+			LOG.debug("Error stopping co-process", e);
+		}
+		synchronized (this) {
+			stoppedStartCount += worker.channel.getStartCount();
+		}
+	}
+
+	private void maintainSafe() {
+		try {
+			maintain();
+		} catch (final Throwable e) {
+			// keep the schedule alive
+			LOG.error("Error maintaining co-process pool", e);
+		}
+	}
+
+	private void maintain() {
+		final List<Worker> toStop = new ArrayList<>();
+		final List<Worker> toStart = new ArrayList<>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			final long now = System.currentTimeMillis();
+			for (final Worker worker : new ArrayList<>(workers)) {
+				if (maxWorkerAge > 0 && now - worker.created >= maxWorkerAge) {
+					retire(worker);
+					recycleCount++;
+				} else if (worker.inFlight == 0 && workers.size() > minSize && now - worker.lastUsed >= idleTimeout) {
+					retire(worker);
+				}
+			}
+			for (final Worker worker : new ArrayList<>(draining)) {
+				if (worker.inFlight == 0) {
+					draining.remove(worker);
+					toStop.add(worker);
+				}
+			}
+			while (workers.size() < minSize) {
+				toStart.add(addWorker());
+			}
+		}
+		for (final Worker worker : toStop) {
+			stop(worker);
+		}
+		for (final Worker worker : toStart) {
+			try {
+				worker.channel.start();
+			} catch (final Exception e) {
+				LOG.warn("Error starting co-process", e);
+			}
+		}
+	}
+
+	/**
+	 * Stop all co-processes. Requests waiting for a response fail.
+	 */
+	@Override
+	public void close() {
+		final List<Worker> toStop;
+		synchronized (this) {
+			closed = true;
+			toStop = new ArrayList<>(workers);
+			toStop.addAll(draining);
+			workers.clear();
+			draining.clear();
+		}
+		scheduler.shutdownNow();
+		for (final Worker worker : toStop) {
+			stop(worker);
+		}
+	}
+
+	private static class Worker {
+		private final CoProcessChannel channel;
+		private final long created = System.currentTimeMillis();
+		private long lastUsed = created;
+		private int inFlight;
+		private long requests;
+		private boolean retired;
+
+		Worker(final CoProcessChannel channel) {
+			this.channel = channel;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Holds the global default {@link ProcessLauncher}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class DefaultProcessLauncher {
+	private static volatile ProcessLauncher instance;
+
+	private DefaultProcessLauncher() {
+	}
+
+	static ProcessLauncher get() {
+		final ProcessLauncher tmp = instance;
+		if (tmp == null) {
+			return DirectProcessLauncher.getDefault();
+		}
+		return tmp;
+	}
+
+	static void set(final ProcessLauncher processLauncher) {
+		instance = processLauncher;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Launches processes directly from this VM using
+ * {@link ProcessBuilder#start()}.
+ * <p>
+ * On Unixoid systems, the JDK forks the VM using one of several launch
+ * mechanisms. The JDK reads the system property
+ * <code>jdk.lang.Process.launchMechanism</code> only once, when the first
+ * process of the VM is started. The mechanism therefore is a process-wide
+ * setting that can be set only once, and all launchers of a VM use the same
+ * mechanism.
+ * </p>
+ * <p>
+ * Creating a launcher with a {@link LaunchMechanism} sets the property if it
+ * is not set yet. This only takes effect if no process has been started
+ * before, which cannot be detected. Creating a launcher with a mechanism
+ * other than the configured one fails. To select the mechanism reliably,
+ * pass <code>-Djdk.lang.Process.launchMechanism=...</code> on the command
+ * line of the VM.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class DirectProcessLauncher implements ProcessLauncher {
+	private static final Logger LOG = LoggerFactory.getLogger(DirectProcessLauncher.class);
+
+	/** The system property used by the JDK to select the launch mechanism. */
+	public static final String LAUNCH_MECHANISM_PROPERTY = "jdk.lang.Process.launchMechanism";
+
+	private static final DirectProcessLauncher DEFAULT = new DirectProcessLauncher();
+
+	/**
+	 * JDK launch mechanisms. Availability depends on platform and JDK
+	 * version.
+	 */
+	public enum LaunchMechanism {
+		/** <code>posix_spawn</code> using a small helper executable. Default on Linux since Java 12. */
+		POSIX_SPAWN,
+		/** <code>vfork</code>. Default on Linux up to Java 11. */
+		VFORK,
+		/** <code>fork</code>. Cost grows with the size of the VM. */
+		FORK
+	}
+
+	private final LaunchMechanism launchMechanism;
+
+	/**
+	 * Create a launcher using the launch mechanism configured for the VM.
+	 */
+	public DirectProcessLauncher() {
+		this(null);
+	}
+
+	/**
+	 * Create a launcher requesting the given launch mechanism for the whole
+	 * VM. See class comment for limitations.
+	 *
+	 * @param launchMechanism The launch mechanism or <code>null</code> to
+	 *            use the one configured for the VM
+	 * @throws IllegalStateException if a different launch mechanism is
+	 *             already configured for the VM
+	 */
+	public DirectProcessLauncher(final LaunchMechanism launchMechanism) {
+		if (launchMechanism != null) {
+			configureLaunchMechanism(launchMechanism);
+		}
+		this.launchMechanism = launchMechanism;
+	}
+
+	public static DirectProcessLauncher getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return The requested launch mechanism or <code>null</code> if the one
+	 *         configured for the VM is used
+	 */
+	public LaunchMechanism getLaunchMechanism() {
+		return launchMechanism;
+	}
+
+	/**
+	 * @return The launch mechanism configured using the system property or
+	 *         <code>null</code> if the JDK default is used
+	 */
+	public static LaunchMechanism getConfiguredLaunchMechanism() {
+		final String value = System.getProperty(LAUNCH_MECHANISM_PROPERTY);
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		try {
+			return LaunchMechanism.valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public Process launch(final ProcessBuilder processBuilder) throws IOException {
+		return processBuilder.start();
+	}
+
+	private static void configureLaunchMechanism(final LaunchMechanism launchMechanism) {
+		synchronized (DirectProcessLauncher.class) {
+			final String value = System.getProperty(LAUNCH_MECHANISM_PROPERTY);
+			if (value == null || value.isEmpty()) {
+				LOG.debug("Setting launch mechanism for this VM to {}", launchMechanism);
+				System.setProperty(LAUNCH_MECHANISM_PROPERTY, launchMechanism.name());
+			} else if (getConfiguredLaunchMechanism() != launchMechanism) {
+				throw new IllegalStateException("Launch mechanism " + launchMechanism + " requested, but the VM is configured to use " + value);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DirectProcessLauncher[launchMechanism=" + launchMechanism + "]";
+	}
+}
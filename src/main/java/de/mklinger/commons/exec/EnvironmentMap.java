@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Environment of a command as a shared, immutable base environment with
+ * a small overlay of added variables and a set of removed variables.
+ * Copies share the base and copy only the overlay. The full map is
+ * materialized lazily and cached until the next change.
+ * <p>
+ * When starting a process that inherits the environment of the current
+ * process, only the overlay and removals are applied, see
+ * {@link #applyTo(Map)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+final class EnvironmentMap extends AbstractMap<String, String> {
+	private Map<String, String> base;
+	private final Map<String, String> overlay;
+	private final Set<String> removed;
+	private volatile Map<String, String> materialized;
+
+	/**
+	 * @param inherit Whether to use the environment of the current process
+	 *            as base environment
+	 * @param overlay Variables to add, copied
+	 * @param removed Names of variables to remove, copied
+	 */
+	EnvironmentMap(final boolean inherit, final Map<String, String> overlay, final Set<String> removed) {
+		this.base = inherit ? System.getenv() : Collections.<String, String>emptyMap();
+		this.overlay = overlay == null ? new HashMap<>() : new HashMap<>(overlay);
+		this.removed = new HashSet<>();
+		if (removed != null) {
+			for (final String name : removed) {
+				this.overlay.remove(name);
+				this.removed.add(name);
+			}
+		}
+	}
+
+	/**
+	 * Create a copy sharing the base environment.
+	 */
+	EnvironmentMap(final EnvironmentMap environmentMap) {
+		this.base = environmentMap.base;
+		this.overlay = new HashMap<>(environmentMap.overlay);
+		this.removed = new HashSet<>(environmentMap.removed);
+		this.materialized = environmentMap.materialized;
+	}
+
+	/**
+	 * Apply this environment to the environment of a new
+	 * {@link ProcessBuilder}, which is initialized with the environment of
+	 * the current process.
+	 */
+	void applyTo(final Map<String, String> processBuilderEnvironment) {
+		if (base != System.getenv()) {
+			processBuilderEnvironment.clear();
+			processBuilderEnvironment.putAll(base);
+		}
+		for (final String name : removed) {
+			processBuilderEnvironment.remove(name);
+		}
+		processBuilderEnvironment.putAll(overlay);
+	}
+
+	/**
+	 * @return Whether the base environment is the environment of the
+	 *         current process
+	 */
+	boolean isInherited() {
+		return base == System.getenv();
+	}
+
+	/**
+	 * @return Variables added to the base environment, not to be modified
+	 */
+	Map<String, String> getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return Names of variables removed from the base environment, not to
+	 *         be modified
+	 */
+	Set<String> getRemoved() {
+		return removed;
+	}
+
+	@Override
+	public String get(final Object key) {
+		final String value = overlay.get(key);
+		if (value != null || removed.contains(key)) {
+			return value;
+		}
+		return base.get(key);
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return overlay.containsKey(key) || !removed.contains(key) && base.containsKey(key);
+	}
+
+	@Override
+	public String put(final String key, final String value) {
+		final String old = get(key);
+		overlay.put(key, value);
+		removed.remove(key);
+		materialized = null;
+		return old;
+	}
+
+	@Override
+	public String remove(final Object key) {
+		if (!containsKey(key)) {
+			return null;
+		}
+		final String old = get(key);
+		overlay.remove(key);
+		if (base.containsKey(key)) {
+			removed.add((String)key);
+		}
+		materialized = null;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		base = Collections.emptyMap();
+		overlay.clear();
+		removed.clear();
+		materialized = null;
+	}
+
+	@Override
+	public int size() {
+		return materialize().size();
+	}
+
+	/**
+	 * The returned set does not support changes. Use {@link #put(String, String)}
+	 * and {@link #remove(Object)} instead.
+	 */
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return materialize().entrySet();
+	}
+
+	private Map<String, String> materialize() {
+		Map<String, String> result = materialized;
+		if (result == null) {
+			final Map<String, String> map = new HashMap<>(base);
+			map.keySet().removeAll(removed);
+			map.putAll(overlay);
+			result = Collections.unmodifiableMap(map);
+			materialized = result;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves executable names to absolute paths by scanning the PATH
+ * directories in-process. Results, including missing executables, are
+ * cached.
+ * <p>
+ * The cache is cleared when the PATH changes or when the modification time
+ * of a PATH directory changes, i.e. when an entry is added, removed or
+ * renamed. Directories are checked at most once per check interval.
+ * Permission changes of existing files are not detected.
+ * </p>
+ * <p>
+ * Thread-safe. Lookups do not block each other.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ExecutableResolver {
+	private static final ExecutableResolver DEFAULT = new ExecutableResolver(null, 1000);
+
+	/** Fixed PATH or <code>null</code> to use the environment. */
+	private final String fixedPath;
+	private final long checkIntervalMillis;
+	private final AtomicLong scanCount = new AtomicLong();
+
+	private volatile Snapshot snapshot;
+	private volatile long checkedNanos;
+
+	/**
+	 * @param path The PATH to scan or <code>null</code> to use the
+	 *            <code>PATH</code> environment variable
+	 * @param checkIntervalMillis Minimum time between checks of the PATH
+	 *            directories for changes
+	 */
+	public ExecutableResolver(final String path, final long checkIntervalMillis) {
+		this.fixedPath = path;
+		this.checkIntervalMillis = checkIntervalMillis;
+	}
+
+	/**
+	 * @return The resolver for the <code>PATH</code> environment variable
+	 */
+	public static ExecutableResolver getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Resolve an executable. Names containing a path separator are checked
+	 * relative to the current directory of the VM. On Windows, the
+	 * extensions in <code>PATHEXT</code> are tried.
+	 *
+	 * @return The absolute path or <code>null</code> if not found
+	 */
+	public String resolve(final String name) {
+		if (name.indexOf('/') != -1 || name.indexOf(File.separatorChar) != -1) {
+			final File f = new File(name);
+			return isExecutable(f) ? f.getAbsolutePath() : null;
+		}
+		final Snapshot current = getSnapshot();
+		final Optional<String> cached = current.cache.get(name);
+		if (cached != null) {
+			return cached.orElse(null);
+		}
+		// no computeIfAbsent, to not scan while holding a lock
+		final Optional<String> resolved = Optional.ofNullable(scan(current, name));
+		current.cache.putIfAbsent(name, resolved);
+		return resolved.orElse(null);
+	}
+
+	/**
+	 * @return The absolute path of the first executable found or
+	 *         <code>null</code> if none is found
+	 */
+	public String resolveFirst(final String... names) {
+		for (final String name : names) {
+			final String resolved = resolve(name);
+			if (resolved != null) {
+				return resolved;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Clear all cached results.
+	 */
+	public void clear() {
+		snapshot = null;
+	}
+
+	long getScanCount() {
+		return scanCount.get();
+	}
+
+	private String getPath() {
+		return fixedPath != null ? fixedPath : System.getenv("PATH");
+	}
+
+	private String scan(final Snapshot current, final String name) {
+		scanCount.incrementAndGet();
+		final List<String> candidates = getCandidateNames(name);
+		for (final File dir : current.directories) {
+			for (final String candidate : candidates) {
+				final File f = new File(dir, candidate);
+				if (isExecutable(f)) {
+					return f.getAbsolutePath();
+				}
+			}
+		}
+		return null;
+	}
+
+	private static List<String> getCandidateNames(final String name) {
+		if (!CmdUtil.isWindows() || name.indexOf('.') != -1) {
+			return Collections.singletonList(name);
+		}
+		final String pathExt = System.getenv("PATHEXT");
+		final List<String> candidates = new ArrayList<>();
+		candidates.add(name);
+		for (final String ext : (pathExt != null ? pathExt : ".COM;.EXE;.BAT;.CMD").split(";")) {
+			if (!ext.isEmpty()) {
+				candidates.add(name + ext.toLowerCase());
+			}
+		}
+		return candidates;
+	}
+
+	private static boolean isExecutable(final File f) {
+		return f.isFile() && f.canExecute();
+	}
+
+	private Snapshot getSnapshot() {
+		final Snapshot current = snapshot;
+		final long now = System.nanoTime();
+		if (current != null && now - checkedNanos < checkIntervalMillis * 1_000_000) {
+			return current;
+		}
+		final Snapshot fresh = new Snapshot(getPath());
+		checkedNanos = now;
+		if (current != null && current.isSameAs(fresh)) {
+			return current;
+		}
+		snapshot = fresh;
+		return fresh;
+	}
+
+	/**
+	 * PATH directories with their modification times and the results
+	 * found in them.
+	 */
+	private static class Snapshot {
+		final String path;
+		final List<File> directories = new ArrayList<>();
+		final List<Long> lastModified = new ArrayList<>();
+		final ConcurrentMap<String, Optional<String>> cache = new ConcurrentHashMap<>();
+
+		Snapshot(final String path) {
+			this.path = path;
+			if (path != null) {
+				for (final String entry : path.split(File.pathSeparator)) {
+					if (!entry.isEmpty()) {
+						final File dir = new File(entry);
+						directories.add(dir);
+						lastModified.add(dir.lastModified());
+					}
+				}
+			}
+		}
+
+		boolean isSameAs(final Snapshot other) {
+			return (path == null ? other.path == null : path.equals(other.path)) && lastModified.equals(other.lastModified);
+		}
+	}
+}
@@ -36,6 +36,15 @@ public class ExitCodeException extends CmdException {
 		this.exitCode = exitCode;
 	}
 
+	/**
+	 * @param writableStackTrace Whether to capture the stack trace
+	 */
+	public ExitCodeException(final String message, final int expectedExitCode, final int exitCode, final boolean writableStackTrace) {
+		super(message, null, true, writableStackTrace);
+		this.expectedExitCode = expectedExitCode;
+		this.exitCode = exitCode;
+	}
+
 	public int getExpectedExitCode() {
 		return expectedExitCode;
 	}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the main method of a Java class in the current JVM instead of
+ * starting a new JVM, for trusted classes. Used by
+ * {@link JavaClassCmdBuilder#inProcess(boolean)}.
+ * <p>
+ * Each launch loads the class in a new class loader built from the
+ * classpath, with the platform class loader as parent, and calls main in a
+ * new thread group. While in-process commands run, {@link System#out},
+ * {@link System#err} and {@link System#in} are replaced by streams that
+ * route to the command's streams for all threads of its thread group, and
+ * to the original streams for all other threads. The original streams are
+ * restored when the last in-process command has ended, unless they were
+ * replaced by someone else in the meantime.
+ * </p>
+ * <p>
+ * By default, <code>System.exit()</code> called by a command exits the
+ * JVM. With exit interception enabled, it ends the command with the given
+ * exit value instead, using a security manager that permits everything
+ * else. The security manager is installed while commands with exit
+ * interception run. Where no security manager can be installed (Java 18 and
+ * later without <code>-Djava.security.manager=allow</code>), it exits the
+ * JVM.
+ * </p>
+ * <p>
+ * Destroying the command interrupts its threads and ends it right away
+ * with exit value 143, so timeouts work for commands that respond to
+ * interruption. Java options, system properties, working directory,
+ * environment, signals and resource limits do not apply in-process.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class InProcessLauncher implements ProcessLauncher {
+	private static final Logger LOG = LoggerFactory.getLogger(InProcessLauncher.class);
+
+	private static final Map<ThreadGroup, InProcessProcess> RUNNING = new ConcurrentHashMap<>();
+	private static PrintStream originalOut;
+	private static PrintStream originalErr;
+	private static InputStream originalIn;
+	private static PrintStream routingOut;
+	private static PrintStream routingErr;
+	private static InputStream routingIn;
+	private static int hookUsers;
+	private static int exitInterceptionUsers;
+	private static Object exitInterceptingSecurityManager;
+
+	private final String className;
+	private final String classpath;
+	private final boolean exitInterception;
+
+	InProcessLauncher(final String className, final String classpath, final boolean exitInterception) {
+		this.className = className;
+		this.classpath = classpath;
+		this.exitInterception = exitInterception;
+	}
+
+	@Override
+	public Process launch(final ProcessBuilder processBuilder) throws IOException {
+		final List<String> command = processBuilder.command();
+		final int idx = command.indexOf(className);
+		if (idx == -1) {
+			throw new IOException("Main class " + className + " not found in command " + command);
+		}
+		final String[] args = command.subList(idx + 1, command.size()).toArray(new String[0]);
+
+		final URLClassLoader classLoader = new URLClassLoader(toUrls(classpath), ClassLoader.getSystemClassLoader().getParent());
+		final Method main;
+		try {
+			main = Class.forName(className, false, classLoader).getMethod("main", String[].class);
+		} catch (final ReflectiveOperationException | LinkageError e) {
+			classLoader.close();
+			throw new IOException("Error loading main class " + className, e);
+		}
+		acquireHooks(exitInterception);
+		final InProcessProcess process;
+		try {
+			process = new InProcessProcess(processBuilder, classLoader, main, args, exitInterception);
+		} catch (final IOException | RuntimeException e) {
+			releaseHooks(exitInterception);
+			classLoader.close();
+			throw e;
+		}
+		process.start();
+		return process;
+	}
+
+	static void register(final ThreadGroup threadGroup, final InProcessProcess process) {
+		RUNNING.put(threadGroup, process);
+	}
+
+	static void unregister(final ThreadGroup threadGroup) {
+		RUNNING.remove(threadGroup);
+	}
+
+	/**
+	 * @return The in-process command the current thread belongs to or
+	 *         <code>null</code>
+	 */
+	static InProcessProcess current() {
+		if (RUNNING.isEmpty()) {
+			return null;
+		}
+		for (ThreadGroup g = Thread.currentThread().getThreadGroup(); g != null; g = g.getParent()) {
+			final InProcessProcess process = RUNNING.get(g);
+			if (process != null) {
+				return process;
+			}
+		}
+		return null;
+	}
+
+	static synchronized PrintStream getOriginalOut() {
+		return originalOut;
+	}
+
+	static synchronized PrintStream getOriginalErr() {
+		return originalErr;
+	}
+
+	static synchronized InputStream getOriginalIn() {
+		return originalIn;
+	}
+
+	/**
+	 * Install the hooks needed by an in-process command, if not installed
+	 * yet. Must be paired with {@link #releaseHooks(boolean)}.
+	 */
+	static synchronized void acquireHooks(final boolean exitInterception) {
+		if (hookUsers == 0) {
+			originalOut = System.out;
+			originalErr = System.err;
+			originalIn = System.in;
+			routingOut = new PrintStream(new RoutingOutputStream(originalOut, false), true);
+			routingErr = new PrintStream(new RoutingOutputStream(originalErr, true), true);
+			routingIn = new RoutingInputStream(originalIn);
+			System.setOut(routingOut);
+			System.setErr(routingErr);
+			System.setIn(routingIn);
+		}
+		hookUsers++;
+		if (exitInterception) {
+			if (exitInterceptionUsers == 0) {
+				installSecurityManager();
+			}
+			exitInterceptionUsers++;
+		}
+	}
+
+	/**
+	 * Remove the hooks when the last in-process command using them has
+	 * ended.
+	 */
+	static synchronized void releaseHooks(final boolean exitInterception) {
+		if (exitInterception) {
+			exitInterceptionUsers--;
+			if (exitInterceptionUsers == 0) {
+				uninstallSecurityManager();
+			}
+		}
+		hookUsers--;
+		if (hookUsers == 0) {
+			// leave streams alone that were replaced by someone else
+			if (System.out == routingOut) {
+				System.setOut(originalOut);
+			}
+			if (System.err == routingErr) {
+				System.setErr(originalErr);
+			}
+			if (System.in == routingIn) {
+				System.setIn(originalIn);
+			}
+			routingOut = null;
+			routingErr = null;
+			routingIn = null;
+			originalOut = null;
+			originalErr = null;
+			originalIn = null;
+		}
+	}
+
+	@SuppressWarnings("removal")
+	private static void installSecurityManager() {
+		if (System.getSecurityManager() != null) {
+			LOG.warn("A security manager is installed. System.exit() of in-process commands exits the JVM.");
+			return;
+		}
+		try {
+			final SecurityManager securityManager = new ExitInterceptingSecurityManager();
+			System.setSecurityManager(securityManager);
+			exitInterceptingSecurityManager = securityManager;
+		} catch (final UnsupportedOperationException | SecurityException e) {
+			LOG.warn("Could not install security manager. System.exit() of in-process commands exits the JVM: {}", e.toString());
+		}
+	}
+
+	@SuppressWarnings("removal")
+	private static void uninstallSecurityManager() {
+		if (exitInterceptingSecurityManager != null && System.getSecurityManager() == exitInterceptingSecurityManager) {
+			System.setSecurityManager(null);
+		}
+		exitInterceptingSecurityManager = null;
+	}
+
+	private static URL[] toUrls(final String classpath) throws MalformedURLException {
+		final List<URL> urls = new ArrayList<>();
+		if (classpath != null) {
+			for (final String entry : classpath.split(File.pathSeparator)) {
+				if (entry.isEmpty()) {
+					continue;
+				}
+				if (entry.equals("*") || entry.endsWith(File.separator + "*") || entry.endsWith("/*")) {
+					// wildcard entries as supported by the java launcher
+					final File[] jars = new File(entry.substring(0, entry.length() - 1)).getAbsoluteFile()
+							.listFiles((dir, name) -> name.endsWith(".jar") || name.endsWith(".JAR"));
+					if (jars != null) {
+						for (final File jar : jars) {
+							urls.add(jar.toURI().toURL());
+						}
+					}
+				} else {
+					urls.add(new File(entry).getAbsoluteFile().toURI().toURL());
+				}
+			}
+		}
+		return urls.toArray(new URL[0]);
+	}
+
+	/**
+	 * Thrown into an in-process command calling <code>System.exit()</code>.
+	 */
+	static class ExitException extends SecurityException {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		ExitException(final int status) {
+			super("System.exit(" + status + ") of in-process command");
+			this.status = status;
+		}
+
+		int getStatus() {
+			return status;
+		}
+	}
+
+	@SuppressWarnings("removal")
+	private static class ExitInterceptingSecurityManager extends SecurityManager {
+		@Override
+		public void checkPermission(final Permission perm) {
+			// allow everything
+		}
+
+		@Override
+		public void checkPermission(final Permission perm, final Object context) {
+			// allow everything
+		}
+
+		@Override
+		public void checkExit(final int status) {
+			final InProcessProcess process = current();
+			if (process != null) {
+				process.exit(status);
+				throw new ExitException(status);
+			}
+		}
+	}
+
+	private static class RoutingOutputStream extends OutputStream {
+		private final OutputStream original;
+		private final boolean stderr;
+
+		RoutingOutputStream(final OutputStream original, final boolean stderr) {
+			this.original = original;
+			this.stderr = stderr;
+		}
+
+		private OutputStream target() {
+			final InProcessProcess process = current();
+			if (process == null) {
+				return original;
+			}
+			return stderr ? process.getJobStderr() : process.getJobStdout();
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			target().write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	private static class RoutingInputStream extends InputStream {
+		private final InputStream original;
+
+		RoutingInputStream(final InputStream original) {
+			this.original = original;
+		}
+
+		private InputStream source() {
+			final InProcessProcess process = current();
+			return process == null ? original : process.getJobStdin();
+		}
+
+		@Override
+		public int read() throws IOException {
+			return source().read();
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return source().read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return source().available();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded in-memory pipe between threads, used for the stdio of
+ * in-process commands. Unlike {@link java.io.PipedInputStream}, it does
+ * not depend on the liveness of the reading and writing threads.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class InProcessPipe {
+	private static final int CAPACITY = 64 * 1024;
+
+	private final byte[] buf = new byte[CAPACITY];
+	private int readPos;
+	private int size;
+	private boolean writeClosed;
+	private boolean readClosed;
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			final int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return InProcessPipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			synchronized (InProcessPipe.this) {
+				return size;
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized (InProcessPipe.this) {
+				readClosed = true;
+				InProcessPipe.this.notifyAll();
+			}
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			InProcessPipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			synchronized (InProcessPipe.this) {
+				writeClosed = true;
+				InProcessPipe.this.notifyAll();
+			}
+		}
+	};
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	private synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (size == 0) {
+			if (writeClosed || readClosed) {
+				return -1;
+			}
+			await();
+		}
+		final int n = Math.min(len, Math.min(size, CAPACITY - readPos));
+		System.arraycopy(buf, readPos, b, off, n);
+		readPos = (readPos + n) % CAPACITY;
+		size -= n;
+		notifyAll();
+		return n;
+	}
+
+	private synchronized void write(final byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			while (size == CAPACITY && !readClosed && !writeClosed) {
+				await();
+			}
+			if (readClosed || writeClosed) {
+				throw new IOException("Pipe closed");
+			}
+			final int writePos = (readPos + size) % CAPACITY;
+			final int n = Math.min(len, Math.min(CAPACITY - size, CAPACITY - writePos));
+			System.arraycopy(b, off, buf, writePos, n);
+			size += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
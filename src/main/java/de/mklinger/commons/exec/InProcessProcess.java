@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Java main method running in the current JVM, see
+ * {@link InProcessLauncher}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class InProcessProcess extends Process {
+	private static final Logger LOG = LoggerFactory.getLogger(InProcessProcess.class);
+
+	private static final AtomicLong COUNTER = new AtomicLong();
+
+	private final URLClassLoader classLoader;
+	private final Method main;
+	private final String[] args;
+	private final ThreadGroup threadGroup;
+	private final boolean exitInterception;
+
+	/** Streams for the caller, as for an OS process. */
+	private final OutputStream stdin;
+	private final InputStream stdout;
+	private final InputStream stderr;
+
+	/** Streams for the command. */
+	private final InputStream jobStdin;
+	private final OutputStream jobStdout;
+	private final OutputStream jobStderr;
+	private final boolean closeJobStdin;
+	private final boolean closeJobStdout;
+	private final boolean closeJobStderr;
+
+	private Integer exitValue;
+
+	/**
+	 * Must be created with the hooks of {@link InProcessLauncher} acquired.
+	 * They are released when the command ends.
+	 */
+	InProcessProcess(final ProcessBuilder pb, final URLClassLoader classLoader, final Method main, final String[] args, final boolean exitInterception) throws IOException {
+		this.classLoader = classLoader;
+		this.exitInterception = exitInterception;
+		this.main = main;
+		this.args = args;
+		this.threadGroup = new ThreadGroup("in-process-" + main.getDeclaringClass().getSimpleName() + "-" + COUNTER.incrementAndGet());
+
+		final Redirect in = pb.redirectInput();
+		if (in.type() == Redirect.Type.PIPE) {
+			final InProcessPipe pipe = new InProcessPipe();
+			stdin = pipe.getOutputStream();
+			jobStdin = pipe.getInputStream();
+		} else {
+			stdin = NullOutputStream.INSTANCE;
+			jobStdin = in.type() == Redirect.Type.READ ? new FileInputStream(in.file()) : InProcessLauncher.getOriginalIn();
+		}
+		closeJobStdin = in.type() != Redirect.Type.INHERIT;
+
+		final Redirect out = pb.redirectOutput();
+		if (out.type() == Redirect.Type.PIPE) {
+			final InProcessPipe pipe = new InProcessPipe();
+			stdout = pipe.getInputStream();
+			jobStdout = pipe.getOutputStream();
+		} else {
+			stdout = new ByteArrayInputStream(new byte[0]);
+			jobStdout = openRedirect(out, InProcessLauncher.getOriginalOut());
+		}
+		closeJobStdout = out.type() != Redirect.Type.INHERIT;
+
+		if (pb.redirectErrorStream()) {
+			stderr = new ByteArrayInputStream(new byte[0]);
+			jobStderr = jobStdout;
+			closeJobStderr = false;
+		} else {
+			final Redirect err = pb.redirectError();
+			if (err.type() == Redirect.Type.PIPE) {
+				final InProcessPipe pipe = new InProcessPipe();
+				stderr = pipe.getInputStream();
+				jobStderr = pipe.getOutputStream();
+			} else {
+				stderr = new ByteArrayInputStream(new byte[0]);
+				jobStderr = openRedirect(err, InProcessLauncher.getOriginalErr());
+			}
+			closeJobStderr = err.type() != Redirect.Type.INHERIT;
+		}
+	}
+
+	private static OutputStream openRedirect(final Redirect redirect, final OutputStream inherit) throws IOException {
+		switch (redirect.type()) {
+		case WRITE:
+			return new FileOutputStream(redirect.file());
+		case APPEND:
+			return new FileOutputStream(redirect.file(), true);
+		default:
+			return inherit;
+		}
+	}
+
+	void start() {
+		final Thread thread = new Thread(threadGroup, this::run, "main");
+		thread.setContextClassLoader(classLoader);
+		thread.setDaemon(true);
+		InProcessLauncher.register(threadGroup, this);
+		thread.start();
+	}
+
+	private void run() {
+		int status;
+		try {
+			main.invoke(null, (Object)args);
+			status = 0;
+		} catch (final InvocationTargetException e) {
+			if (e.getCause() instanceof InProcessLauncher.ExitException) {
+				status = ((InProcessLauncher.ExitException)e.getCause()).getStatus();
+			} else {
+				// like the java launcher
+				final PrintStream err = new PrintStream(jobStderr, true);
+				err.print("Exception in thread \"main\" ");
+				e.getCause().printStackTrace(err);
+				status = 1;
+			}
+		} catch (final Throwable e) {
+			LOG.warn("Error invoking main method of in-process command", e);
+			status = 1;
+		}
+		exit(status);
+	}
+
+	InputStream getJobStdin() {
+		return jobStdin;
+	}
+
+	OutputStream getJobStdout() {
+		return jobStdout;
+	}
+
+	OutputStream getJobStderr() {
+		return jobStderr;
+	}
+
+	/**
+	 * End the command with the given exit value, if not ended yet.
+	 */
+	void exit(final int status) {
+		synchronized (this) {
+			if (exitValue != null) {
+				return;
+			}
+			exitValue = status;
+			// before waiters return, so that hooks are gone when the command is done
+			InProcessLauncher.unregister(threadGroup);
+			InProcessLauncher.releaseHooks(exitInterception);
+			notifyAll();
+		}
+		// readers get EOF, further writes of lingering threads fail
+		if (closeJobStdin) {
+			closeQuietly(jobStdin);
+		}
+		if (closeJobStdout) {
+			closeQuietly(jobStdout);
+		}
+		if (closeJobStderr) {
+			closeQuietly(jobStderr);
+		}
+		closeQuietly(classLoader);
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+			LOG.debug("Error closing stream of in-process command", e);
+		}
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return stdin;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return stdout;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return stderr;
+	}
+
+	@Override
+	public synchronized int waitFor() throws InterruptedException {
+		while (exitValue == null) {
+			wait();
+		}
+		return exitValue;
+	}
+
+	@Override
+	public synchronized boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+		while (exitValue == null) {
+			final long remaining = end - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized int exitValue() {
+		if (exitValue == null) {
+			throw new IllegalThreadStateException("In-process command has not exited");
+		}
+		return exitValue;
+	}
+
+	@Override
+	public void destroy() {
+		threadGroup.interrupt();
+		exit(143);
+	}
+
+	@Override
+	public Process destroyForcibly() {
+		threadGroup.interrupt();
+		exit(137);
+		return this;
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		static final NullOutputStream INSTANCE = new NullOutputStream();
+
+		@Override
+		public void write(final int b) throws IOException {
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compacts long Java command lines using argument files
+ * (<code>java @file</code>, Java 9 and later) or pathing jars (a jar
+ * with only a <code>Class-Path</code> manifest attribute, for all Java
+ * versions).
+ * <p>
+ * Files are named by a hash of their content, written once and reused by
+ * later commands. Existing files are verified before reuse.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+final class JavaArgFiles {
+	private static final Logger LOG = LoggerFactory.getLogger(JavaArgFiles.class);
+
+	/** Stays below the Windows command line limit of 32767 characters. */
+	static final int DEFAULT_THRESHOLD = 32 * 1024;
+
+	private static final Set<String> CLASSPATH_OPTIONS = new HashSet<>(Arrays.asList("-cp", "-classpath", "--class-path"));
+	private static final Set<String> PATH_OPTIONS = new HashSet<>(Arrays.asList("-cp", "-classpath", "--class-path", "-p", "--module-path", "--upgrade-module-path"));
+
+	private JavaArgFiles() {
+	}
+
+	static File getDefaultDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"), "exec-argfiles-" + System.getProperty("user.name"));
+	}
+
+	/**
+	 * Remove duplicate entries from a path. Entries are compared after
+	 * lexical normalization. The first occurrence is kept as given.
+	 */
+	static String dedupPath(final String path) {
+		if (path.indexOf(File.pathSeparatorChar) == -1) {
+			return path;
+		}
+		final Set<String> seen = new HashSet<>();
+		final StringBuilder sb = new StringBuilder(path.length());
+		for (final String entry : path.split(File.pathSeparator)) {
+			if (entry.isEmpty() || !seen.add(normalize(entry))) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			sb.append(entry);
+		}
+		return sb.toString();
+	}
+
+	private static String normalize(final String entry) {
+		try {
+			return Paths.get(entry).normalize().toString();
+		} catch (final RuntimeException e) {
+			return entry;
+		}
+	}
+
+	/**
+	 * Canonicalize the entries of a path relative to the given working
+	 * directory and remove duplicates.
+	 */
+	static String canonicalizePath(final String path, final File workingDirectory) {
+		final Set<String> seen = new HashSet<>();
+		final StringBuilder sb = new StringBuilder(path.length());
+		for (final String entry : path.split(File.pathSeparator)) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			final String canonical = canonicalize(entry, workingDirectory);
+			if (!seen.add(canonical)) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			sb.append(canonical);
+		}
+		return sb.toString();
+	}
+
+	private static String canonicalize(final String entry, final File workingDirectory) {
+		final boolean wildcard = entry.equals("*") || entry.endsWith(File.separator + "*");
+		final String file = wildcard ? entry.substring(0, entry.length() - 1) : entry;
+		File f = new File(file.isEmpty() ? "." : file);
+		if (!f.isAbsolute() && workingDirectory != null) {
+			f = new File(workingDirectory, f.getPath());
+		}
+		String canonical;
+		try {
+			canonical = f.getCanonicalPath();
+		} catch (final IOException e) {
+			canonical = f.getAbsolutePath();
+		}
+		if (wildcard) {
+			return canonical + File.separator + "*";
+		}
+		return canonical;
+	}
+
+	static int length(final List<String> commandParts) {
+		int length = 0;
+		for (final String part : commandParts) {
+			length += part.length() + 1;
+		}
+		return length;
+	}
+
+	/**
+	 * Compact the given Java command if its length exceeds the threshold.
+	 *
+	 * @param javaCommandParts The java executable, JVM options and target,
+	 *            without arguments
+	 * @param workingDirectory The working directory of the command or
+	 *            <code>null</code> for the current directory
+	 * @param directory The directory for argument files and pathing jars
+	 * @param threshold The maximum length of the uncompacted command, or a
+	 *            negative value to never compact
+	 * @param pathingJar Whether to use a pathing jar for the classpath
+	 *            instead of an argument file
+	 * @return The compacted command parts or the given parts if not
+	 *         compacted
+	 */
+	static List<String> compact(final List<String> javaCommandParts, final File workingDirectory, final File directory, final int threshold, final boolean pathingJar) {
+		if (threshold < 0 || length(javaCommandParts) <= threshold) {
+			return javaCommandParts;
+		}
+		final JavaHome javaHome = JavaHome.getByExecutableCached(javaCommandParts.get(0));
+		final int featureVersion = javaHome == null ? -1 : javaHome.getFeatureVersion();
+		final boolean argFilesSupported = featureVersion >= 9;
+		if (!argFilesSupported && !pathingJar && featureVersion == -1) {
+			LOG.debug("Not compacting command line for java executable {} with unknown version", javaCommandParts.get(0));
+			return javaCommandParts;
+		}
+
+		final List<String> parts = new ArrayList<>(javaCommandParts);
+		for (int i = 1; i < parts.size() - 1; i++) {
+			if (PATH_OPTIONS.contains(parts.get(i))) {
+				parts.set(i + 1, canonicalizePath(parts.get(i + 1), workingDirectory));
+			}
+		}
+
+		try {
+			if (pathingJar || !argFilesSupported) {
+				for (int i = 1; i < parts.size() - 1; i++) {
+					if (CLASSPATH_OPTIONS.contains(parts.get(i))) {
+						parts.set(i + 1, writePathingJar(directory, parts.get(i + 1)).getAbsolutePath());
+					}
+				}
+				if (!argFilesSupported || length(parts) <= threshold) {
+					return parts;
+				}
+			}
+			final File argFile = writeArgFile(directory, parts.subList(1, parts.size()));
+			final List<String> compacted = new ArrayList<>(2);
+			compacted.add(parts.get(0));
+			compacted.add("@" + argFile.getAbsolutePath());
+			return compacted;
+		} catch (final IOException e) {
+			LOG.warn("Error compacting Java command line, using full command line", e);
+			return javaCommandParts;
+		}
+	}
+
+	static File writeArgFile(final File directory, final List<String> args) throws IOException {
+		prepareDirectory(directory);
+		final StringBuilder sb = new StringBuilder(length(args) + 3 * args.size());
+		for (final String arg : args) {
+			quote(sb, arg);
+			sb.append('\n');
+		}
+		final byte[] content = sb.toString().getBytes(getNativeCharset());
+		final File argFile = new File(directory, hash(content) + ".args");
+		if (argFile.isFile() && Arrays.equals(content, Files.readAllBytes(argFile.toPath()))) {
+			return argFile;
+		}
+		final Path tmp = createTempFile(directory, ".args");
+		Files.write(tmp, content);
+		moveInPlace(tmp, argFile);
+		return argFile;
+	}
+
+	/**
+	 * Quote an argument for a Java argument file. Within quotes, the
+	 * backslash is the escape character.
+	 */
+	private static void quote(final StringBuilder sb, final String arg) {
+		sb.append('"');
+		for (int i = 0; i < arg.length(); i++) {
+			final char c = arg.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				sb.append('\\').append(c);
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static Charset getNativeCharset() {
+		final String encoding = System.getProperty("sun.jnu.encoding");
+		if (encoding != null) {
+			try {
+				return Charset.forName(encoding);
+			} catch (final RuntimeException e) {
+				// fall through
+			}
+		}
+		return Charset.defaultCharset();
+	}
+
+	static File writePathingJar(final File directory, final String classpath) throws IOException {
+		prepareDirectory(directory);
+		final StringBuilder sb = new StringBuilder(classpath.length() * 2);
+		for (final String entry : classpath.split(File.pathSeparator)) {
+			if (entry.endsWith("*")) {
+				// wildcards are not supported in manifests
+				final File[] jars = new File(entry.substring(0, entry.length() - 1)).listFiles((dir, name) -> name.endsWith(".jar") || name.endsWith(".JAR"));
+				if (jars != null) {
+					Arrays.sort(jars);
+					for (final File jar : jars) {
+						appendUrl(sb, jar);
+					}
+				}
+			} else {
+				appendUrl(sb, new File(entry));
+			}
+		}
+		final String manifestClasspath = sb.toString();
+		final File jar = new File(directory, hash(manifestClasspath.getBytes(StandardCharsets.UTF_8)) + ".jar");
+		if (jar.isFile() && manifestClasspath.equals(readManifestClasspath(jar))) {
+			return jar;
+		}
+
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, manifestClasspath);
+		final Path tmp = createTempFile(directory, ".jar");
+		// manifest only
+		new JarOutputStream(new FileOutputStream(tmp.toFile()), manifest).close();
+		moveInPlace(tmp, jar);
+		return jar;
+	}
+
+	private static void appendUrl(final StringBuilder sb, final File file) {
+		if (sb.length() > 0) {
+			sb.append(' ');
+		}
+		// toURI() appends a slash for directories
+		sb.append(file.toURI().toASCIIString());
+	}
+
+	private static String readManifestClasspath(final File jar) {
+		try (JarFile jarFile = new JarFile(jar)) {
+			final Manifest manifest = jarFile.getManifest();
+			return manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Create the directory if missing. The default directory is shared
+	 * with other users in <code>java.io.tmpdir</code>, so it is created
+	 * accessible for the current user only and refused if owned by someone
+	 * else.
+	 */
+	private static void prepareDirectory(final File directory) throws IOException {
+		if (!directory.equals(getDefaultDirectory())) {
+			Files.createDirectories(directory.toPath());
+			return;
+		}
+		CmdUtil.createPrivateDirectory(directory);
+	}
+
+	private static Path createTempFile(final File directory, final String suffix) throws IOException {
+		return Files.createTempFile(directory.toPath(), "tmp", suffix);
+	}
+
+	private static void moveInPlace(final Path tmp, final File target) throws IOException {
+		try {
+			Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static String hash(final byte[] content) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		final StringBuilder sb = new StringBuilder(64);
+		for (final byte b : digest.digest(content)) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
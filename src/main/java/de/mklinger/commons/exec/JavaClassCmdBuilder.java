@@ -16,6 +16,8 @@
 package de.mklinger.commons.exec;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -24,6 +26,8 @@ import java.util.List;
 public class JavaClassCmdBuilder extends JavaCmdBuilderBase<JavaClassCmdBuilder> {
 	private final String className;
 	private StringBuilder classpath;
+	private boolean inProcess;
+	private boolean inProcessExitInterception;
 
 	public JavaClassCmdBuilder(final String className) {
 		this.className = className;
@@ -45,14 +49,102 @@ public class JavaClassCmdBuilder extends JavaCmdBuilderBase<JavaClassCmdBuilder>
 		return getBuilder();
 	}
 
+	/**
+	 * Run the main method of the class in the current JVM instead of
+	 * starting a new JVM. The class is loaded from the classpath of this
+	 * builder in its own class loader. Only use this for trusted classes.
+	 * Stdio, exit value, timeouts and exceptions behave as for a forked
+	 * JVM. Java options, system properties, working directory and
+	 * environment do not apply. See {@link InProcessLauncher} for details.
+	 * <p>
+	 * The main class must not call <code>System.exit()</code>, as this
+	 * exits the current JVM, unless
+	 * {@link #inProcessExitInterception(boolean)} is enabled.
+	 * </p>
+	 *
+	 * @param inProcess Whether to run in-process
+	 * @return This builder
+	 */
+	public JavaClassCmdBuilder inProcess(final boolean inProcess) {
+		this.inProcess = inProcess;
+		return getBuilder();
+	}
+
+	/**
+	 * Turn <code>System.exit()</code> called by an {@link #inProcess(boolean)
+	 * in-process} command into its exit value instead of exiting the current
+	 * JVM. This installs a JVM-wide security manager while such commands
+	 * run, which is deprecated for removal since Java 17. Java 18 and later
+	 * only allow this with <code>-Djava.security.manager=allow</code> on the
+	 * command line of the JVM. If no security manager can be installed, or
+	 * another one is installed already, a warning is logged and
+	 * <code>System.exit()</code> exits the JVM.
+	 *
+	 * @param inProcessExitInterception Whether to intercept
+	 *            <code>System.exit()</code>
+	 * @return This builder
+	 */
+	public JavaClassCmdBuilder inProcessExitInterception(final boolean inProcessExitInterception) {
+		this.inProcessExitInterception = inProcessExitInterception;
+		return getBuilder();
+	}
+
+	@Override
+	protected boolean isInProcess() {
+		return inProcess;
+	}
+
+	@Override
+	protected String getTarget() {
+		return className;
+	}
+
+	@Override
+	protected List<String> getClasspathEntries() {
+		if (classpath == null || classpath.length() == 0) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(getClasspath().split(File.pathSeparator));
+	}
+
+	/**
+	 * @return The classpath without duplicate entries
+	 */
+	private String getClasspath() {
+		return JavaArgFiles.dedupPath(classpath.toString());
+	}
+
+	@Override
+	public CmdSettings toCmdSettings() {
+		final CmdSettings cmdSettings = super.toCmdSettings();
+		if (inProcess) {
+			cmdSettings.setProcessLauncher(new InProcessLauncher(className, classpath == null ? null : getClasspath(), inProcessExitInterception));
+		}
+		return cmdSettings;
+	}
+
 	@Override
 	protected List<String> getJavaCommandParts() {
 		final List<String> javaCommandParts = super.getJavaCommandParts();
 		if (classpath != null && classpath.length() > 0) {
 			javaCommandParts.add("-cp");
-			javaCommandParts.add(classpath.toString());
+			javaCommandParts.add(getClasspath());
 		}
 		javaCommandParts.add(className);
 		return javaCommandParts;
 	}
+
+	@Override
+	protected List<String> getWorkerCommandParts(final String bootstrapClasspath) {
+		final List<String> workerCommandParts = getJvmCommandParts();
+		workerCommandParts.add("-cp");
+		if (classpath != null && classpath.length() > 0) {
+			workerCommandParts.add(JavaArgFiles.dedupPath(bootstrapClasspath + File.pathSeparatorChar + classpath));
+		} else {
+			workerCommandParts.add(bootstrapClasspath);
+		}
+		workerCommandParts.add(JavaWorkerMain.class.getName());
+		workerCommandParts.add(className);
+		return workerCommandParts;
+	}
 }
@@ -16,19 +16,38 @@
 package de.mklinger.commons.exec;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mklinger.commons.exec.io.TeeOutputStream;
+
 /**
  * @author Marc Klinger - mklinger[at]mklinger[dot]de - klingerm
  */
 public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends CmdBuilderBase<B> {
+	private static final Logger LOG = LoggerFactory.getLogger(JavaCmdBuilderBase.class);
+
 	private String javaExecutable;
 	private List<String> javaOpts;
 	private StringBuilder modulePath;
 	private StringBuilder upgradeModulePath;
 	private StringBuilder modules;
+	private AppCdsCache appCdsCache;
+	private int argFileThreshold = JavaArgFiles.DEFAULT_THRESHOLD;
+	private File argFileDirectory;
+	private boolean pathingJar;
+	private JvmProfile jvmProfile;
+	private MemoryBudget memoryBudget;
+	private String minXmx;
+	private boolean exitOnOutOfMemoryError;
+	private String oomMaxXmx;
+	private String oomJobSignature;
+	private boolean compilingTemplate;
 
 	public B javaExecutable(final String javaExecutable) {
 		this.javaExecutable = javaExecutable;
@@ -50,6 +69,26 @@ public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends Cm
 		return getBuilder();
 	}
 
+	/**
+	 * Use the java executable of the installed Java runtime with the
+	 * highest version matching the given constraint, as found by
+	 * {@link JdkRegistry#getDefault()}.
+	 *
+	 * @param versionConstraint A feature version (<code>"17"</code>), a
+	 *            minimum (<code>"11+"</code>) or a range
+	 *            (<code>"11-17"</code>)
+	 * @return This builder
+	 * @throws IllegalStateException If no matching runtime is installed
+	 */
+	public B javaVersion(final String versionConstraint) {
+		final Jdk jdk = JdkRegistry.getDefault().find(versionConstraint);
+		if (jdk == null) {
+			throw new IllegalStateException("No Java runtime found for version " + versionConstraint + " in " + JdkRegistry.getDefault().getJdks());
+		}
+		javaExecutable = jdk.getJavaExecutable().getPath();
+		return getBuilder();
+	}
+
 	public B systemProperty(final String name, final String value) {
 		final String key = "-D" + name;
 		addJavaOption(key, value, true);
@@ -258,10 +297,234 @@ public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends Cm
 		return getBuilder();
 	}
 
+	/**
+	 * Use and record class data sharing archives in the given directory to
+	 * speed up JVM startup.
+	 *
+	 * @see AppCdsCache
+	 */
+	public B appCdsCache(final File directory) {
+		return appCdsCache(new AppCdsCache(directory));
+	}
+
+	/**
+	 * Use and record class data sharing archives to speed up JVM startup.
+	 *
+	 * @param appCdsCache The cache or <code>null</code> to disable
+	 * @see AppCdsCache
+	 */
+	public B appCdsCache(final AppCdsCache appCdsCache) {
+		this.appCdsCache = appCdsCache;
+		return getBuilder();
+	}
+
+	/**
+	 * Set the maximum length of the Java command line without arguments.
+	 * Longer command lines are passed using an argument file
+	 * (<code>java @file</code>, Java 9 and later) or a
+	 * {@link #pathingJar(boolean) pathing jar}. Path entries are
+	 * canonicalized in this case. Default is 32768 characters.
+	 *
+	 * @param argFileThreshold The maximum length, 0 to always use an
+	 *            argument file or a negative value to never use one
+	 * @return This builder
+	 */
+	public B argFileThreshold(final int argFileThreshold) {
+		this.argFileThreshold = argFileThreshold;
+		return getBuilder();
+	}
+
+	/**
+	 * Set the directory for argument files and pathing jars. Files are
+	 * named by a hash of their content and reused. Default is a directory in
+	 * <code>java.io.tmpdir</code> that is private to the current user.
+	 */
+	public B argFileDirectory(final File argFileDirectory) {
+		this.argFileDirectory = argFileDirectory;
+		return getBuilder();
+	}
+
+	/**
+	 * Pass a classpath exceeding the {@link #argFileThreshold(int)} using a
+	 * pathing jar, containing only a manifest with the classpath. This
+	 * works for all Java versions and is used automatically for Java 8
+	 * and older.
+	 *
+	 * @param pathingJar Whether to use a pathing jar
+	 * @return This builder
+	 */
+	public B pathingJar(final boolean pathingJar) {
+		this.pathingJar = pathingJar;
+		return getBuilder();
+	}
+
+	/**
+	 * Set the startup profile of the JVM. Options set explicitly on this
+	 * builder take precedence over profile options.
+	 *
+	 * @param jvmProfile The profile or <code>null</code> for default JVM
+	 *            ergonomics
+	 * @return This builder
+	 * @see JvmProfile
+	 */
+	public B jvmProfile(final JvmProfile jvmProfile) {
+		this.jvmProfile = jvmProfile;
+		return getBuilder();
+	}
+
+	/**
+	 * Start the JVM only when its estimated memory footprint fits into the
+	 * given budget, shared with other commands. Waits otherwise.
+	 *
+	 * @param memoryBudget The budget or <code>null</code> to start
+	 *            immediately
+	 * @return This builder
+	 * @see MemoryBudget
+	 */
+	public B memoryBudget(final MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		return getBuilder();
+	}
+
+	/**
+	 * Allow the {@link #memoryBudget(MemoryBudget) memory budget} to shrink
+	 * the maximum heap down to the given value, to start the JVM earlier.
+	 * Same format as {@link #xmx(String)}.
+	 *
+	 * @param value The minimum value for <code>-Xmx</code>
+	 * @return This builder
+	 */
+	public B minXmx(final String value) {
+		this.minXmx = value;
+		return getBuilder();
+	}
+
+	/**
+	 * Let the JVM exit with exit code 3 on the first
+	 * <code>OutOfMemoryError</code>, so that {@link #execute()} can detect
+	 * it. The JVM prints a message to stdout in this case.
+	 *
+	 * @return This builder
+	 */
+	public B exitOnOutOfMemoryError(final boolean exitOnOutOfMemoryError) {
+		this.exitOnOutOfMemoryError = exitOnOutOfMemoryError;
+		return getBuilder();
+	}
+
+	/**
+	 * Let {@link #execute()} re-run the command with a doubled maximum heap
+	 * when the JVM runs out of memory, up to the given maximum. Without
+	 * {@link #xmx(String)}, the retry uses the maximum directly. The heap
+	 * of a successful retry is used as initial heap for later executions
+	 * of the same main class or jar in this JVM. Enables
+	 * {@link #exitOnOutOfMemoryError(boolean)}.
+	 * <p>
+	 * Output of failed runs is written to stdout and stderr as well.
+	 * </p>
+	 *
+	 * @param maxXmx The maximum value for <code>-Xmx</code>, same format as
+	 *            {@link #xmx(String)}
+	 * @return This builder
+	 */
+	public B oomRetry(final String maxXmx) {
+		return oomRetry(maxXmx, null);
+	}
+
+	/**
+	 * Like {@link #oomRetry(String)}, remembering the heap of a successful
+	 * retry for the given job signature instead of the main class or jar.
+	 */
+	public B oomRetry(final String maxXmx, final String jobSignature) {
+		this.oomMaxXmx = maxXmx;
+		this.oomJobSignature = jobSignature;
+		return getBuilder();
+	}
+
+	private boolean isExitOnOutOfMemoryError() {
+		return exitOnOutOfMemoryError || oomMaxXmx != null;
+	}
+
+	/**
+	 * Execute the command and wait for it to exit. Like
+	 * <code>toCmd().execute()</code>, with detection of JVM exits caused by
+	 * <code>OutOfMemoryError</code> and {@link #oomRetry(String) retries}.
+	 * Detection uses the exit code and the error reported by the JVM, so it
+	 * needs stdout or stderr not to be redirected to a file.
+	 *
+	 * @throws JvmOutOfMemoryException If the JVM ran out of memory and
+	 *             no retry is left
+	 * @throws CmdException in case of another error
+	 */
+	public void execute() throws CmdException {
+		final long configuredHeap = getXmxBytes();
+		final long maxHeap = oomMaxXmx == null ? -1 : MemoryBudget.parseSize(oomMaxXmx);
+		final String signature = oomJobSignature != null ? oomJobSignature : getTarget();
+		long heap = configuredHeap;
+		if (maxHeap > 0 && signature != null && OomRetry.getRememberedHeap(signature) > heap) {
+			heap = Math.min(OomRetry.getRememberedHeap(signature), maxHeap);
+		}
+		while (true) {
+			final CmdSettings cmdSettings = toCmdSettings(heap == configuredHeap ? -1 : heap);
+			final OomRetry.OutputTail stdoutTail = tail(cmdSettings.getStdoutFile() == null && cmdSettings.getStdoutRedirect() == null);
+			if (stdoutTail != null) {
+				cmdSettings.setStdout(cmdSettings.getStdout() == null ? stdoutTail : new TeeOutputStream(cmdSettings.getStdout(), stdoutTail));
+			}
+			final OomRetry.OutputTail stderrTail = tail(!cmdSettings.isRedirectErrorStream() && cmdSettings.getStderrFile() == null && cmdSettings.getStderrRedirect() == null);
+			if (stderrTail != null) {
+				cmdSettings.setStderr(cmdSettings.getStderr() == null ? stderrTail : new TeeOutputStream(cmdSettings.getStderr(), stderrTail));
+			}
+			cmdSettings.freeze();
+			try {
+				new Cmd(cmdSettings).execute();
+				if (maxHeap > 0 && signature != null && heap > configuredHeap) {
+					OomRetry.remember(signature, heap);
+				}
+				return;
+			} catch (final ExitCodeException e) {
+				if (!OomRetry.isOutOfMemory(e, isExitOnOutOfMemoryError(), stdoutTail, stderrTail)) {
+					throw e;
+				}
+				if (maxHeap <= 0 || heap >= maxHeap) {
+					final JvmOutOfMemoryException oom = new JvmOutOfMemoryException("Java command ran out of memory: " + cmdSettings.getCommand(),
+							e.getExpectedExitCode(), e.getExitCode(), heap);
+					oom.initCause(e);
+					throw oom;
+				}
+				heap = heap <= 0 ? maxHeap : Math.min(heap * 2, maxHeap);
+				LOG.info("Java command ran out of memory, retrying with -Xmx{}k: {}", heap / 1024, cmdSettings.getCommand());
+			}
+		}
+	}
+
+	private static OomRetry.OutputTail tail(final boolean capture) {
+		return capture ? new OomRetry.OutputTail() : null;
+	}
+
 	@Override
 	public CmdSettings toCmdSettings() {
+		return toCmdSettings(-1);
+	}
+
+	/**
+	 * @param heapOverride The heap to use instead of the configured one in
+	 *            bytes or -1
+	 */
+	private CmdSettings toCmdSettings(final long heapOverride) {
 		final CmdSettings cmdSettings = super.toCmdSettings();
-		final List<String> additionalCommandParts = getJavaCommandParts();
+		if (jvmProfile == JvmProfile.AUTO && !isInProcess() && getTarget() != null) {
+			cmdSettings.setProcessLauncher(JvmProfileHistory.recordingLauncher(cmdSettings.getProcessLauncher(), getTarget()));
+		}
+		List<String> javaCommandParts = getJavaCommandParts();
+		if (heapOverride > 0) {
+			javaCommandParts = MemoryBudget.withXmx(javaCommandParts, 0, "-Xmx" + heapOverride / 1024 + "k");
+		}
+		final List<String> additionalCommandParts = compact(withAppCds(javaCommandParts, cmdSettings), cmdSettings.getDirectory());
+		if (memoryBudget != null && !isInProcess()) {
+			// the heap option of an argument file cannot be changed
+			final boolean argFile = additionalCommandParts.size() > 1 && additionalCommandParts.get(1).startsWith("@");
+			final long minHeap = minXmx == null || argFile ? -1 : MemoryBudget.parseSize(minXmx);
+			cmdSettings.setProcessLauncher(memoryBudget.launcher(cmdSettings.getProcessLauncher(), heapOverride > 0 ? heapOverride : getXmxBytes(), minHeap, additionalCommandParts.get(0)));
+		}
 		final List<String> command = cmdSettings.getCommand();
 		if (command == null) {
 			cmdSettings.setCommand(additionalCommandParts);
@@ -271,20 +534,132 @@ public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends Cm
 		return cmdSettings;
 	}
 
+	/**
+	 * Create a template of this command. An existing class data sharing
+	 * archive is used by all invocations, but none is recorded, as all
+	 * invocations would write the same archive.
+	 */
+	@Override
+	public CmdTemplate toCmdTemplate() {
+		compilingTemplate = true;
+		try {
+			return super.toCmdTemplate();
+		} finally {
+			compilingTemplate = false;
+		}
+	}
+
+	/**
+	 * Create a pool of warm worker JVMs started with the options of this
+	 * builder, running the target once per job. Arguments added to this
+	 * builder are passed to each job before the job arguments.
+	 *
+	 * @param minWorkers The minimum number of started worker JVMs
+	 * @param maxWorkers The maximum number of concurrent jobs
+	 * @see JavaWorkerPool
+	 */
+	public JavaWorkerPool toWorkerPool(final int minWorkers, final int maxWorkers) {
+		final CmdSettings cmdSettings = super.toCmdSettings();
+		final List<String> baseArgs = new ArrayList<>();
+		if (cmdSettings.getCommand() != null) {
+			baseArgs.addAll(cmdSettings.getCommand());
+		}
+		cmdSettings.setCommand(compact(withAppCds(getWorkerCommandParts(JavaWorkerPool.getBootstrapClasspath()), cmdSettings), cmdSettings.getDirectory()));
+		return new JavaWorkerPool(cmdSettings, baseArgs, minWorkers, maxWorkers);
+	}
+
+	/**
+	 * Get the command parts to start a worker JVM running
+	 * {@link JavaWorkerMain} for the target of this builder.
+	 *
+	 * @param bootstrapClasspath The classpath entry containing
+	 *            {@link JavaWorkerMain}
+	 */
+	protected List<String> getWorkerCommandParts(final String bootstrapClasspath) {
+		throw new UnsupportedOperationException("Worker JVMs not supported by " + getClass().getName());
+	}
+
 	protected List<String> getJavaCommandParts() {
+		return getJvmCommandParts();
+	}
+
+	/**
+	 * Get the classpath entries of the target, used to detect changes for
+	 * {@link #appCdsCache(AppCdsCache) class data sharing}.
+	 */
+	protected List<String> getClasspathEntries() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return The main class or jar, used to identify earlier runs for
+	 *         {@link JvmProfile#AUTO}
+	 */
+	protected String getTarget() {
+		return null;
+	}
+
+	/**
+	 * @return Whether the target runs in the current JVM instead of a new
+	 *         one
+	 */
+	protected boolean isInProcess() {
+		return false;
+	}
+
+	/**
+	 * Add the options to use an existing class data sharing archive, or
+	 * make the launcher record the archive when the command is started.
+	 */
+	private List<String> withAppCds(final List<String> javaCommandParts, final CmdSettings cmdSettings) {
+		if (appCdsCache == null || isInProcess()) {
+			return javaCommandParts;
+		}
+		final AppCdsCache.Archive archive = appCdsCache.getArchive(javaCommandParts, getClasspathEntries());
+		if (archive == null) {
+			return javaCommandParts;
+		}
+		final List<String> options = archive.getJavaOptions();
+		if (!options.isEmpty()) {
+			javaCommandParts.addAll(1, options);
+		} else if (!compilingTemplate) {
+			cmdSettings.setProcessLauncher(archive.recordingLauncher(cmdSettings.getProcessLauncher()));
+		}
+		return javaCommandParts;
+	}
+
+	private List<String> compact(final List<String> javaCommandParts, final File workingDirectory) {
+		if (isInProcess()) {
+			return javaCommandParts;
+		}
+		final File directory = argFileDirectory != null ? argFileDirectory : JavaArgFiles.getDefaultDirectory();
+		return JavaArgFiles.compact(javaCommandParts, workingDirectory, directory, argFileThreshold, pathingJar);
+	}
+
+	/**
+	 * Get the Java executable and options, without the target.
+	 */
+	protected List<String> getJvmCommandParts() {
 		final List<String> additionalCommandParts = new LinkedList<>();
-		additionalCommandParts.add(getActualJavaExecutable());
+		final String actualJavaExecutable = getActualJavaExecutable();
+		additionalCommandParts.add(actualJavaExecutable);
+		additionalCommandParts.addAll(getJvmProfileOptions(actualJavaExecutable));
+		if (isExitOnOutOfMemoryError()) {
+			additionalCommandParts.add(OomRetry.EXIT_ON_OUT_OF_MEMORY_ERROR);
+		}
 		if (javaOpts != null) {
 			Collections.sort(javaOpts);
-			additionalCommandParts.addAll(javaOpts);
+			for (final String javaOpt : javaOpts) {
+				additionalCommandParts.add(javaOpt);
+			}
 		}
 		if (modulePath != null) {
 			additionalCommandParts.add("--module-path");
-			additionalCommandParts.add(modulePath.toString());
+			additionalCommandParts.add(JavaArgFiles.dedupPath(modulePath.toString()));
 		}
 		if (upgradeModulePath != null) {
 			additionalCommandParts.add("--upgrade-module-path");
-			additionalCommandParts.add(upgradeModulePath.toString());
+			additionalCommandParts.add(JavaArgFiles.dedupPath(upgradeModulePath.toString()));
 		}
 		if (modules != null) {
 			additionalCommandParts.add("--add-modules");
@@ -293,6 +668,43 @@ public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends Cm
 		return additionalCommandParts;
 	}
 
+	/**
+	 * @return The heap set using <code>-Xmx</code> in bytes or -1
+	 */
+	private long getXmxBytes() {
+		long heap = -1;
+		if (javaOpts != null) {
+			Collections.sort(javaOpts);
+			for (final String javaOpt : javaOpts) {
+				if (javaOpt.startsWith("-Xmx")) {
+					heap = MemoryBudget.parseSize(javaOpt.substring(4));
+				}
+			}
+		}
+		return heap;
+	}
+
+	private List<String> getJvmProfileOptions(final String actualJavaExecutable) {
+		JvmProfile profile = jvmProfile;
+		if (profile == JvmProfile.AUTO) {
+			profile = getTarget() == null ? null : JvmProfileHistory.choose(getTarget());
+		}
+		if (profile == null || profile == JvmProfile.AUTO) {
+			return Collections.emptyList();
+		}
+		final JavaHome javaHome = JavaHome.getByExecutableCached(actualJavaExecutable);
+		final int featureVersion = javaHome == null ? -1 : javaHome.getFeatureVersion();
+		boolean gcSelected = false;
+		if (javaOpts != null) {
+			for (final String javaOpt : javaOpts) {
+				if (javaOpt.startsWith("-XX:+Use") && javaOpt.endsWith("GC")) {
+					gcSelected = true;
+				}
+			}
+		}
+		return profile.getJavaOptions(featureVersion, gcSelected);
+	}
+
 	private String getActualJavaExecutable() {
 		if (javaExecutable != null) {
 			return javaExecutable;
@@ -310,13 +722,8 @@ public abstract class JavaCmdBuilderBase<B extends CmdBuilderBase<B>> extends Cm
 					if (javaHome == null) {
 						javaHome = JavaHome.getByRuntime();
 					}
-					if (javaHome != null) {
-						final File java = javaHome.getJavaExecutable();
-						if (java != null) {
-							defaultJavaExecutable = java.getAbsolutePath();
-						}
-					}
-					defaultJavaExecutable = "java";
+					final File java = javaHome == null ? null : javaHome.getJavaExecutable();
+					defaultJavaExecutable = java != null ? java.getAbsolutePath() : "java";
 				}
 			}
 		}
@@ -16,12 +16,23 @@
 package de.mklinger.commons.exec;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Marc Klinger - mklinger[at]mklinger[dot]de
  */
 public class JavaHome {
+	private static final ConcurrentMap<String, Optional<JavaHome>> BY_EXECUTABLE = new ConcurrentHashMap<>();
+
 	private final File javaHome;
+	/** Feature version read from the release file, -2 if not read yet. */
+	private volatile int featureVersion = -2;
 
 	public JavaHome(final File javaHome) {
 		this.javaHome = javaHome;
@@ -51,14 +62,41 @@ public class JavaHome {
 		return new JavaHome(f);
 	}
 
+	/**
+	 * Get the Java home of the java executable on the PATH, following
+	 * symbolic links.
+	 */
 	public static JavaHome getByPath() {
-		final String s = CmdUtil.findExecutable("java", "java.exe");
-		if (s == null || s.isEmpty()) {
+		final String s = ExecutableResolver.getDefault().resolve("java");
+		if (s == null) {
+			return null;
+		}
+		return getByExecutable(s);
+	}
+
+	/**
+	 * Get the Java home of a java executable, following symbolic links.
+	 *
+	 * @param javaExecutable Path or name of the java executable
+	 * @return The Java home or <code>null</code> if it could not be
+	 *         determined
+	 */
+	public static JavaHome getByExecutable(final String javaExecutable) {
+		String path = javaExecutable;
+		if (!new File(path).isAbsolute() && path.indexOf(File.separatorChar) == -1) {
+			path = ExecutableResolver.getDefault().resolve(javaExecutable);
+			if (path == null) {
+				return null;
+			}
+		}
+		final File java;
+		try {
+			java = new File(path).getCanonicalFile();
+		} catch (final IOException e) {
 			return null;
 		}
-		final File java = new File(s);
 		final File bin = java.getParentFile();
-		if (!bin.getName().equals("bin")) {
+		if (bin == null || !bin.getName().equals("bin")) {
 			return null;
 		}
 		final File javaHome = bin.getParentFile();
@@ -68,6 +106,19 @@ public class JavaHome {
 		return new JavaHome(javaHome);
 	}
 
+	/**
+	 * Like {@link #getByExecutable(String)}, cached per executable for the
+	 * lifetime of the VM, for use when building commands.
+	 */
+	static JavaHome getByExecutableCached(final String javaExecutable) {
+		Optional<JavaHome> javaHome = BY_EXECUTABLE.get(javaExecutable);
+		if (javaHome == null) {
+			javaHome = Optional.ofNullable(getByExecutable(javaExecutable));
+			BY_EXECUTABLE.putIfAbsent(javaExecutable, javaHome);
+		}
+		return javaHome.orElse(null);
+	}
+
 	private static boolean isValidJavaHome(final File f) {
 		// TODO more checks here
 		return f.isDirectory() && f.canRead();
@@ -77,6 +128,49 @@ public class JavaHome {
 		return javaHome;
 	}
 
+	/**
+	 * Get the feature version, e.g. 8 for Java 1.8 or 17 for Java 17.0.2,
+	 * from the <code>release</code> file of the Java home. The file is read
+	 * once per instance.
+	 *
+	 * @return The feature version or -1 if unknown
+	 */
+	public int getFeatureVersion() {
+		if (featureVersion == -2) {
+			featureVersion = readFeatureVersion();
+		}
+		return featureVersion;
+	}
+
+	private int readFeatureVersion() {
+		File release = new File(javaHome, "release");
+		if (!release.isFile()) {
+			// Java 8 JRE inside a JDK
+			release = new File(javaHome.getParentFile(), "release");
+		}
+		final Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(release.toPath())) {
+			properties.load(in);
+		} catch (final IOException e) {
+			return -1;
+		}
+		final String version = properties.getProperty("JAVA_VERSION", "").replace("\"", "");
+		return parseFeatureVersion(version);
+	}
+
+	static int parseFeatureVersion(final String version) {
+		final String[] parts = version.split("[._+-]");
+		try {
+			final int first = Integer.parseInt(parts[0]);
+			if (first == 1 && parts.length > 1) {
+				return Integer.parseInt(parts[1]);
+			}
+			return first;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	public File getJavaExecutable() {
 		File f = new File(javaHome, "bin");
 		if (CmdUtil.isWindows()) {
@@ -17,6 +17,7 @@ package de.mklinger.commons.exec;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -44,4 +45,25 @@ public class JavaJarCmdBuilder extends JavaCmdBuilderBase<JavaJarCmdBuilder> {
 		javaCommandParts.add(jar);
 		return javaCommandParts;
 	}
+
+	@Override
+	protected String getTarget() {
+		return jar;
+	}
+
+	@Override
+	protected List<String> getClasspathEntries() {
+		return Collections.singletonList(jar);
+	}
+
+	@Override
+	protected List<String> getWorkerCommandParts(final String bootstrapClasspath) {
+		final List<String> workerCommandParts = getJvmCommandParts();
+		workerCommandParts.add("-cp");
+		workerCommandParts.add(bootstrapClasspath + File.pathSeparatorChar + jar);
+		workerCommandParts.add(JavaWorkerMain.class.getName());
+		workerCommandParts.add("-jar");
+		workerCommandParts.add(jar);
+		return workerCommandParts;
+	}
 }
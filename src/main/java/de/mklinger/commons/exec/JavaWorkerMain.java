@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Bootstrap of the worker JVMs of a {@link JavaWorkerPool}. Repeatedly
+ * calls the <code>main(String[])</code> method of the target class with the
+ * arguments, stdin and working directory of each job, and sends back the
+ * exit value and the captured stdout and stderr.
+ * <p>
+ * Usage: <code>JavaWorkerMain &lt;main class&gt;</code> or
+ * <code>JavaWorkerMain -jar &lt;jar&gt;</code>, with the target on the
+ * classpath. Jobs and results are read from stdin and written to stdout as
+ * frames prefixed by their length as 4 byte big endian integer.
+ * </p>
+ * <p>
+ * Only JDK classes may be used here, as the library dependencies are not
+ * on the classpath of the worker.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public final class JavaWorkerMain {
+	static final byte RESULT_RETURNED = 0;
+	static final byte RESULT_EXIT_CALLED = 1;
+
+	private static final Object LOCK = new Object();
+	private static DataOutputStream out;
+	private static ByteArrayOutputStream jobStdout;
+	private static ByteArrayOutputStream jobStderr;
+	private static boolean resultSent = true;
+
+	private JavaWorkerMain() {
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Method main = getMainMethod(args);
+		final DataInputStream in = new DataInputStream(System.in);
+		// results go to the real stdout, System.out is replaced per job
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		final String initialUserDir = System.getProperty("user.dir");
+		// the job called System.exit(), the exit value is the one of the JVM
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> sendResult(RESULT_EXIT_CALLED, -1)));
+
+		while (true) {
+			final byte[] job;
+			try {
+				job = readFrame(in);
+			} catch (final EOFException e) {
+				return;
+			}
+			final DataInputStream jobIn = new DataInputStream(new ByteArrayInputStream(job));
+			final String[] jobArgs = new String[jobIn.readInt()];
+			for (int i = 0; i < jobArgs.length; i++) {
+				jobArgs[i] = readString(jobIn);
+			}
+			final String directory = readString(jobIn);
+			final byte[] stdin = new byte[jobIn.readInt()];
+			jobIn.readFully(stdin);
+
+			final PrintStream stdout;
+			final PrintStream stderr;
+			synchronized (LOCK) {
+				jobStdout = new ByteArrayOutputStream();
+				jobStderr = new ByteArrayOutputStream();
+				stdout = new PrintStream(jobStdout, true);
+				stderr = new PrintStream(jobStderr, true);
+				resultSent = false;
+			}
+			System.setIn(new ByteArrayInputStream(stdin));
+			System.setOut(stdout);
+			System.setErr(stderr);
+			System.setProperty("user.dir", directory.isEmpty() ? initialUserDir : directory);
+			int exitValue = 0;
+			try {
+				main.invoke(null, (Object)jobArgs);
+			} catch (final InvocationTargetException e) {
+				// like the java launcher
+				stderr.print("Exception in thread \"main\" ");
+				e.getCause().printStackTrace(stderr);
+				exitValue = 1;
+			}
+			stdout.flush();
+			stderr.flush();
+			sendResult(RESULT_RETURNED, exitValue);
+		}
+	}
+
+	private static Method getMainMethod(final String[] args) throws IOException, ReflectiveOperationException {
+		final String mainClassName;
+		if (args.length == 2 && "-jar".equals(args[0])) {
+			try (JarFile jarFile = new JarFile(args[1])) {
+				final Manifest manifest = jarFile.getManifest();
+				mainClassName = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+			}
+			if (mainClassName == null) {
+				throw new IllegalArgumentException("No Main-Class in manifest of " + args[1]);
+			}
+		} else if (args.length == 1) {
+			mainClassName = args[0];
+		} else {
+			throw new IllegalArgumentException("Usage: JavaWorkerMain <main class> | -jar <jar>");
+		}
+		final Class<?> mainClass = Class.forName(mainClassName, false, ClassLoader.getSystemClassLoader());
+		return mainClass.getMethod("main", String[].class);
+	}
+
+	private static void sendResult(final byte kind, final int exitValue) {
+		synchronized (LOCK) {
+			if (resultSent) {
+				return;
+			}
+			resultSent = true;
+			try {
+				final ByteArrayOutputStream result = new ByteArrayOutputStream(jobStdout.size() + jobStderr.size() + 13);
+				final DataOutputStream resultOut = new DataOutputStream(result);
+				resultOut.writeByte(kind);
+				resultOut.writeInt(exitValue);
+				resultOut.writeInt(jobStdout.size());
+				jobStdout.writeTo(resultOut);
+				resultOut.writeInt(jobStderr.size());
+				jobStderr.writeTo(resultOut);
+				out.writeInt(result.size());
+				result.writeTo(out);
+				out.flush();
+			} catch (final IOException e) {
+				// the pool is gone
+			}
+		}
+	}
+
+	private static byte[] readFrame(final DataInputStream in) throws IOException {
+		final byte[] frame = new byte[in.readInt()];
+		in.readFully(frame);
+		return frame;
+	}
+
+	static String readString(final DataInputStream in) throws IOException {
+		final byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	static void writeString(final DataOutputStream out, final String s) throws IOException {
+		final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
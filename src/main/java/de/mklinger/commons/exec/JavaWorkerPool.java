@@ -0,0 +1,431 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of warm worker JVMs for Java jobs, so that jobs do not pay JVM
+ * startup, class loading and JIT warm-up each time. Workers are started
+ * with the options of the Java command builder and run
+ * {@link JavaWorkerMain}, which calls the <code>main(String[])</code>
+ * method of the target class once per job, in the same JVM.
+ * <p>
+ * The target must tolerate repeated calls of its main method in one JVM.
+ * Each job gets its own arguments, stdin, stdout and stderr. A job ends when
+ * its main method returns (exit value 0), throws (exit value 1) or calls
+ * <code>System.exit()</code> (the exit value of the worker). Threads
+ * started by a job are not waited for.
+ * </p>
+ * <p>
+ * Workers are recycled after {@link #setMaxJobsPerWorker(long) a number of
+ * jobs} and after a job that did not return normally, as the state of the
+ * worker is unknown then. At most <code>maxWorkers</code> jobs run at the
+ * same time, further jobs wait. At least <code>minWorkers</code> workers are
+ * kept started.
+ * </p>
+ * <p>
+ * The working directory of a job is only set as <code>user.dir</code>
+ * system property, as a JVM cannot change its working directory. The
+ * {@link CmdBuilderBase#timeout(long) timeout} of the command settings is
+ * used as per-job timeout. Create instances using
+ * {@link JavaCmdBuilderBase#toWorkerPool(int, int)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JavaWorkerPool implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(JavaWorkerPool.class);
+
+	/** Marks the end of the results of a worker. */
+	private static final byte[] END = new byte[0];
+
+	private final CmdSettings template;
+	private final List<String> baseArgs;
+	private final int minWorkers;
+	private final Semaphore permits;
+	private final LinkedList<Worker> idle = new LinkedList<>();
+	private final List<Worker> all = new ArrayList<>();
+	private final ScheduledExecutorService scheduler;
+	private volatile long maxJobsPerWorker;
+	private long workerStartCount;
+	private int starting;
+	private boolean closed;
+
+	JavaWorkerPool(final CmdSettings template, final List<String> baseArgs, final int minWorkers, final int maxWorkers) {
+		if (minWorkers < 0 || maxWorkers < 1 || minWorkers > maxWorkers) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minWorkers + ", max " + maxWorkers);
+		}
+		if (template.getStdinBytes() != null) {
+			throw new IllegalArgumentException("Stdin bytes must not be set for a worker pool");
+		}
+		if (template.getStdinRedirect() != null) {
+			throw new IllegalArgumentException("Stdin redirect must not be set for a worker pool");
+		}
+		this.template = template;
+		this.baseArgs = baseArgs;
+		this.minWorkers = minWorkers;
+		this.permits = new Semaphore(maxWorkers, true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+		refill();
+	}
+
+	/**
+	 * Get the classpath entry containing {@link JavaWorkerMain}, to be put
+	 * on the classpath of worker JVMs.
+	 */
+	static String getBootstrapClasspath() {
+		try {
+			return new File(JavaWorkerMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		} catch (final URISyntaxException | RuntimeException e) {
+			throw new IllegalStateException("Could not determine location of worker bootstrap class", e);
+		}
+	}
+
+	public long getMaxJobsPerWorker() {
+		return maxJobsPerWorker;
+	}
+
+	/**
+	 * @param maxJobsPerWorker Number of jobs after which a worker is
+	 *            replaced by a new one or 0 for no limit
+	 */
+	public void setMaxJobsPerWorker(final long maxJobsPerWorker) {
+		this.maxJobsPerWorker = maxJobsPerWorker;
+	}
+
+	/**
+	 * @return The number of worker JVMs started so far
+	 */
+	public synchronized long getWorkerStartCount() {
+		return workerStartCount;
+	}
+
+	/**
+	 * Run a job and return its stdout.
+	 *
+	 * @throws ExitCodeException if the exit value is not the expected one
+	 */
+	public byte[] executeForStdout(final String... args) throws CmdException {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		execute(Arrays.asList(args), null, new byte[0], stdout, null);
+		return stdout.toByteArray();
+	}
+
+	/**
+	 * Run a job.
+	 *
+	 * @param args Arguments of the job, appended to the arguments of the
+	 *            builder
+	 * @param directory Working directory of the job or <code>null</code>
+	 * @param stdin The input of the job
+	 * @param stdout Stream for stdout or <code>null</code> to discard it
+	 * @param stderr Stream for stderr or <code>null</code> to discard it
+	 * @return The exit value
+	 * @throws ExitCodeException if the exit value is not the expected one
+	 * @throws CmdException in case of an error or timeout
+	 */
+	public int execute(final List<String> args, final File directory, final byte[] stdin, final OutputStream stdout, final OutputStream stderr) throws CmdException {
+		acquire();
+		try {
+			final Worker worker = take();
+			boolean reuse = false;
+			try {
+				final int exitValue = worker.run(encodeJob(args, directory, stdin), stdout, stderr);
+				reuse = worker.returned && (maxJobsPerWorker <= 0 || worker.jobs < maxJobsPerWorker);
+				if (!template.isAcceptedExitValue(exitValue)) {
+					throw new ExitCodeException("Error executing job with args " + args + ". Exit value: " + exitValue, template.getExpectedExitValue(), exitValue,
+							!template.isStacklessExceptions());
+				}
+				return exitValue;
+			} finally {
+				release(worker, reuse);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void acquire() throws CmdInterruptedException {
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		}
+	}
+
+	private Worker take() throws CmdException {
+		synchronized (this) {
+			while (true) {
+				if (closed) {
+					throw new IllegalStateException("Worker pool is closed");
+				}
+				while (!idle.isEmpty()) {
+					final Worker worker = idle.removeFirst();
+					if (worker.cmd.isExecuting()) {
+						return worker;
+					}
+					all.remove(worker);
+					LOG.debug("Idle worker JVM died");
+				}
+				if (starting == 0) {
+					break;
+				}
+				// a worker is starting in the background, it is faster to wait for it
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CmdInterruptedException(e);
+				}
+			}
+		}
+		return start();
+	}
+
+	private void release(final Worker worker, final boolean reuse) {
+		final boolean keep;
+		synchronized (this) {
+			keep = reuse && !closed;
+			if (keep) {
+				idle.addFirst(worker);
+			} else {
+				all.remove(worker);
+			}
+		}
+		if (!keep) {
+			worker.destroy();
+			refill();
+		}
+	}
+
+	private Worker start() throws CmdException {
+		final Worker worker = new Worker();
+		final CmdSettings cmdSettings = new CmdSettings(template);
+		cmdSettings.setStdout(worker);
+		cmdSettings.setStdoutFile(null);
+		cmdSettings.setStdoutRedirect(null);
+		cmdSettings.setTimeout(0);
+		cmdSettings.freeze();
+		worker.cmd = new Cmd(cmdSettings);
+		worker.cmd.start();
+		synchronized (this) {
+			all.add(worker);
+			workerStartCount++;
+		}
+		new DeamonThreadCmdThreadFactory().newThread(worker::monitor).start();
+		return worker;
+	}
+
+	/**
+	 * Start workers in the background, up to the minimum number.
+	 */
+	private synchronized void refill() {
+		if (closed) {
+			return;
+		}
+		// reserve now, so that jobs wait for these workers instead of starting their own
+		final int count = Math.max(0, minWorkers - all.size() - starting);
+		starting += count;
+		for (int i = 0; i < count; i++) {
+			scheduler.execute(this::startReserved);
+		}
+	}
+
+	private void startReserved() {
+		Worker worker = null;
+		try {
+			worker = start();
+		} catch (final Throwable e) {
+			LOG.warn("Error starting worker JVM", e);
+		}
+		boolean destroy = false;
+		synchronized (this) {
+			starting--;
+			if (worker != null && closed) {
+				all.remove(worker);
+				destroy = true;
+			} else if (worker != null) {
+				idle.addLast(worker);
+			}
+			notifyAll();
+		}
+		if (destroy) {
+			worker.destroy();
+		}
+	}
+
+	private byte[] encodeJob(final List<String> args, final File directory, final byte[] stdin) {
+		try {
+			final ByteArrayOutputStream job = new ByteArrayOutputStream(stdin.length + 64);
+			final DataOutputStream jobOut = new DataOutputStream(job);
+			jobOut.writeInt(baseArgs.size() + args.size());
+			for (final String arg : baseArgs) {
+				JavaWorkerMain.writeString(jobOut, arg);
+			}
+			for (final String arg : args) {
+				JavaWorkerMain.writeString(jobOut, arg);
+			}
+			JavaWorkerMain.writeString(jobOut, directory == null ? "" : directory.getAbsolutePath());
+			jobOut.writeInt(stdin.length);
+			jobOut.write(stdin);
+			return job.toByteArray();
+		} catch (final IOException e) {
+			// cannot happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Destroy all workers. Running jobs fail.
+	 */
+	@Override
+	public void close() {
+		final List<Worker> toDestroy;
+		synchronized (this) {
+			closed = true;
+			toDestroy = new ArrayList<>(all);
+			all.clear();
+			idle.clear();
+			notifyAll();
+		}
+		scheduler.shutdownNow();
+		for (final Worker worker : toDestroy) {
+			worker.destroy();
+		}
+	}
+
+	/**
+	 * One worker JVM. Also the sink for its stdout.
+	 */
+	private class Worker extends OutputStream {
+		private final BlockingQueue<byte[]> results = new LinkedBlockingQueue<>();
+		private final CoProcessFraming.ResponseParser parser = CoProcessFraming.lengthPrefixed().newResponseParser();
+		private Cmd cmd;
+		private volatile int exitValue = -1;
+		private long jobs;
+		private boolean returned;
+
+		int run(final byte[] job, final OutputStream stdout, final OutputStream stderr) throws CmdException {
+			jobs++;
+			returned = false;
+			try {
+				final OutputStream in = cmd.getStdin();
+				CoProcessFraming.lengthPrefixed().writeRequest(in, job);
+				in.flush();
+			} catch (final IOException e) {
+				throw new CmdException("Error sending job to worker JVM", e);
+			}
+			final byte[] result = nextResult(template.getTimeout());
+			if (result == END) {
+				throw new CmdException("Worker JVM terminated. Exit value: " + exitValue);
+			}
+			try {
+				final DataInputStream resultIn = new DataInputStream(new ByteArrayInputStream(result));
+				final byte kind = resultIn.readByte();
+				int jobExitValue = resultIn.readInt();
+				copy(resultIn, stdout);
+				copy(resultIn, stderr);
+				if (kind == JavaWorkerMain.RESULT_EXIT_CALLED) {
+					nextResult(template.getTimeout());
+					jobExitValue = exitValue;
+				} else {
+					returned = jobExitValue == 0;
+				}
+				return jobExitValue;
+			} catch (final IOException e) {
+				throw new CmdException("Error reading job result", e);
+			}
+		}
+
+		private byte[] nextResult(final long timeout) throws CmdException {
+			try {
+				final byte[] result;
+				if (timeout > 0) {
+					result = results.poll(timeout, TimeUnit.MILLISECONDS);
+				} else {
+					result = results.take();
+				}
+				if (result == null) {
+					throw new CmdException("Timeout: job took longer than " + timeout + "ms");
+				}
+				return result;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CmdInterruptedException(e);
+			}
+		}
+
+		private void copy(final DataInputStream resultIn, final OutputStream target) throws IOException {
+			final byte[] b = new byte[resultIn.readInt()];
+			resultIn.readFully(b);
+			if (target != null) {
+				target.write(b);
+			}
+		}
+
+		void monitor() {
+			try {
+				exitValue = cmd.waitFor();
+			} catch (final ExitCodeException e) {
+				exitValue = e.getExitCode();
+			} catch (final Exception e) {
+				LOG.debug("Error waiting for worker JVM", e);
+			}
+			results.add(END);
+		}
+
+		void destroy() {
+			try {
+				cmd.destroy();
+			} catch (final Exception e) {
+				LOG.debug("Error destroying worker JVM", e);
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			parser.parse(b, off, len, results::add);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+
+/**
+ * An installed Java runtime found by the {@link JdkRegistry}. Immutable.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class Jdk {
+	private final File javaExecutable;
+	private final String version;
+	private final String vendor;
+
+	public Jdk(final File javaExecutable, final String version, final String vendor) {
+		this.javaExecutable = javaExecutable;
+		this.version = version;
+		this.vendor = vendor;
+	}
+
+	/**
+	 * @return The canonical path of the java executable
+	 */
+	public File getJavaExecutable() {
+		return javaExecutable;
+	}
+
+	public File getJavaHome() {
+		return javaExecutable.getParentFile().getParentFile();
+	}
+
+	/**
+	 * @return The version, e.g. <code>"17.0.9"</code> or
+	 *         <code>"1.8.0_392"</code>
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The feature version, e.g. 8 or 17, or -1 if unknown
+	 */
+	public int getFeatureVersion() {
+		return JavaHome.parseFeatureVersion(version);
+	}
+
+	/**
+	 * @return The vendor or <code>null</code> if unknown
+	 */
+	public String getVendor() {
+		return vendor;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "[javaExecutable=" + javaExecutable + ", version=" + version + ", vendor=" + vendor + "]";
+	}
+}
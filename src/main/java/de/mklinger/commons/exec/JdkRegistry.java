@@ -0,0 +1,373 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Discovers installed Java runtimes once and finds them by version.
+ * <p>
+ * Runtimes are searched at <code>java.home</code>, <code>JAVA_HOME</code>,
+ * the PATH and common installation directories. The version and vendor of
+ * each runtime are read from its <code>release</code> file, or probed by
+ * running it if there is none. Results are cached in a file keyed by the
+ * path and modification time of the java executable, so that later VMs do
+ * not probe again. A cache file owned by another user is ignored.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JdkRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(JdkRegistry.class);
+
+	private static final long PROBE_TIMEOUT = 10000;
+
+	private static volatile JdkRegistry defaultRegistry;
+
+	private final File cacheFile;
+	private final List<File> searchDirectories;
+	private List<Jdk> jdks;
+
+	/**
+	 * @param cacheFile The cache file or <code>null</code> to not cache
+	 *            probe results on disk
+	 * @param searchDirectories Directories containing Java installations,
+	 *            in addition to <code>java.home</code>, <code>JAVA_HOME</code>
+	 *            and the PATH
+	 */
+	public JdkRegistry(final File cacheFile, final List<File> searchDirectories) {
+		this.cacheFile = cacheFile;
+		this.searchDirectories = new ArrayList<>(searchDirectories);
+	}
+
+	/**
+	 * @return The registry searching common installation directories and
+	 *         caching in a private directory in <code>java.io.tmpdir</code>
+	 */
+	public static JdkRegistry getDefault() {
+		if (defaultRegistry == null) {
+			synchronized (JdkRegistry.class) {
+				if (defaultRegistry == null) {
+					final File cacheFile = new File(getDefaultCacheDirectory(), "jdks.properties");
+					defaultRegistry = new JdkRegistry(cacheFile, getCommonInstallationDirectories());
+				}
+			}
+		}
+		return defaultRegistry;
+	}
+
+	/**
+	 * @return A directory in <code>java.io.tmpdir</code> private to the
+	 *         current user
+	 */
+	static File getDefaultCacheDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"), "exec-jdks-" + System.getProperty("user.name"));
+	}
+
+	static List<File> getCommonInstallationDirectories() {
+		final String userHome = System.getProperty("user.home");
+		final List<File> dirs = new ArrayList<>();
+		if (CmdUtil.isWindows()) {
+			for (final String env : new String[] { "ProgramFiles", "ProgramFiles(x86)" }) {
+				final String programFiles = System.getenv(env);
+				if (programFiles != null) {
+					for (final String vendorDir : new String[] { "Java", "Eclipse Adoptium", "Zulu", "Amazon Corretto", "Microsoft" }) {
+						dirs.add(new File(programFiles, vendorDir));
+					}
+				}
+			}
+		} else if (CmdUtil.isMacOsX()) {
+			dirs.add(new File("/Library/Java/JavaVirtualMachines"));
+			dirs.add(new File(userHome, "Library/Java/JavaVirtualMachines"));
+		} else {
+			dirs.add(new File("/usr/lib/jvm"));
+			dirs.add(new File("/usr/lib64/jvm"));
+			dirs.add(new File("/usr/java"));
+			dirs.add(new File("/opt/java"));
+			dirs.add(new File("/opt"));
+		}
+		dirs.add(new File(userHome, ".sdkman/candidates/java"));
+		dirs.add(new File(userHome, ".jdks"));
+		return dirs;
+	}
+
+	/**
+	 * @return All discovered runtimes, highest version first
+	 */
+	public synchronized List<Jdk> getJdks() {
+		if (jdks == null) {
+			jdks = Collections.unmodifiableList(discover());
+		}
+		return jdks;
+	}
+
+	/**
+	 * Discover runtimes again on the next access.
+	 */
+	public synchronized void refresh() {
+		jdks = null;
+	}
+
+	/**
+	 * Find the runtime with the highest version matching the given
+	 * constraint.
+	 *
+	 * @param versionConstraint A feature version (<code>"17"</code>), a
+	 *            minimum (<code>"11+"</code>) or a range
+	 *            (<code>"11-17"</code>)
+	 * @return The runtime or <code>null</code> if none matches
+	 */
+	public Jdk find(final String versionConstraint) {
+		final int[] range = parseConstraint(versionConstraint);
+		for (final Jdk jdk : getJdks()) {
+			final int featureVersion = jdk.getFeatureVersion();
+			if (featureVersion >= range[0] && featureVersion <= range[1]) {
+				return jdk;
+			}
+		}
+		return null;
+	}
+
+	static int[] parseConstraint(final String versionConstraint) {
+		final String s = versionConstraint.trim();
+		try {
+			if (s.endsWith("+")) {
+				return new int[] { Integer.parseInt(s.substring(0, s.length() - 1).trim()), Integer.MAX_VALUE };
+			}
+			final int dash = s.indexOf('-');
+			if (dash != -1) {
+				return new int[] { Integer.parseInt(s.substring(0, dash).trim()), Integer.parseInt(s.substring(dash + 1).trim()) };
+			}
+			final int featureVersion = Integer.parseInt(s);
+			return new int[] { featureVersion, featureVersion };
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid version constraint: " + versionConstraint);
+		}
+	}
+
+	private List<Jdk> discover() {
+		final Map<File, Long> candidates = new LinkedHashMap<>();
+		final String javaName = CmdUtil.isWindows() ? "java.exe" : "java";
+		addCandidate(candidates, JavaHome.getByRuntime());
+		addCandidate(candidates, JavaHome.getJavaHomeByEnvironmentVariable());
+		final String path = System.getenv("PATH");
+		if (path != null) {
+			final StringTokenizer st = new StringTokenizer(path, File.pathSeparator);
+			while (st.hasMoreTokens()) {
+				addCandidate(candidates, new File(st.nextToken(), javaName));
+			}
+		}
+		for (final File dir : searchDirectories) {
+			final File[] children = dir.listFiles(File::isDirectory);
+			if (children == null) {
+				continue;
+			}
+			Arrays.sort(children);
+			for (final File child : children) {
+				addCandidate(candidates, new File(child, "bin/" + javaName));
+				addCandidate(candidates, new File(child, "Contents/Home/bin/" + javaName));
+			}
+		}
+
+		final Properties cache = loadCache();
+		boolean cacheChanged = false;
+		final List<Jdk> result = new ArrayList<>();
+		for (final Map.Entry<File, Long> candidate : candidates.entrySet()) {
+			final File java = candidate.getKey();
+			final String key = java.getPath();
+			final String cached = cache.getProperty(key);
+			Jdk jdk = null;
+			if (cached != null) {
+				jdk = fromCacheEntry(java, candidate.getValue(), cached);
+			}
+			if (jdk == null) {
+				jdk = probe(java);
+				if (jdk == null) {
+					continue;
+				}
+				cache.setProperty(key, toCacheEntry(candidate.getValue(), jdk));
+				cacheChanged = true;
+			}
+			result.add(jdk);
+		}
+		if (cacheChanged) {
+			saveCache(cache);
+		}
+		// stable sort: highest version first, then discovery order
+		result.sort(Comparator.comparingInt(Jdk::getFeatureVersion).reversed());
+		LOG.debug("Discovered Java runtimes: {}", result);
+		return result;
+	}
+
+	private static void addCandidate(final Map<File, Long> candidates, final JavaHome javaHome) {
+		if (javaHome != null) {
+			addCandidate(candidates, javaHome.getJavaExecutable());
+		}
+	}
+
+	private static void addCandidate(final Map<File, Long> candidates, final File java) {
+		if (java == null || !java.isFile() || !java.canExecute()) {
+			return;
+		}
+		try {
+			final File canonical = java.getCanonicalFile();
+			final File bin = canonical.getParentFile();
+			if (bin != null && bin.getName().equals("bin") && !candidates.containsKey(canonical)) {
+				candidates.put(canonical, canonical.lastModified());
+			}
+		} catch (final IOException e) {
+			LOG.debug("Error resolving {}", java, e);
+		}
+	}
+
+	private static Jdk fromCacheEntry(final File java, final long lastModified, final String entry) {
+		final String[] parts = entry.split("\\|", 3);
+		if (parts.length != 3 || !parts[0].equals(String.valueOf(lastModified))) {
+			return null;
+		}
+		return new Jdk(java, parts[1], parts[2].isEmpty() ? null : parts[2]);
+	}
+
+	private static String toCacheEntry(final long lastModified, final Jdk jdk) {
+		return lastModified + "|" + jdk.getVersion() + "|" + (jdk.getVendor() == null ? "" : jdk.getVendor());
+	}
+
+	/**
+	 * Get version and vendor from the release file or by running java.
+	 */
+	static Jdk probe(final File java) {
+		final File javaHome = java.getParentFile().getParentFile();
+		File release = new File(javaHome, "release");
+		if (!release.isFile()) {
+			// Java 8 JRE inside a JDK
+			release = new File(javaHome.getParentFile(), "release");
+		}
+		if (release.isFile()) {
+			final Properties properties = new Properties();
+			try (InputStream in = Files.newInputStream(release.toPath())) {
+				properties.load(in);
+				final String version = unquote(properties.getProperty("JAVA_VERSION"));
+				if (version != null) {
+					return new Jdk(java, version, unquote(properties.getProperty("IMPLEMENTOR")));
+				}
+			} catch (final IOException e) {
+				LOG.debug("Error reading {}", release, e);
+			}
+		}
+		return probeByRunning(java);
+	}
+
+	private static Jdk probeByRunning(final File java) {
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		try {
+			new CmdBuilder(java.getPath())
+				.arg("-XshowSettings:properties")
+				.arg("-version")
+				.stderr(stderr)
+				.timeout(PROBE_TIMEOUT)
+				.toCmd()
+				.execute();
+		} catch (final CmdException e) {
+			LOG.debug("Error probing {}", java, e);
+			return null;
+		}
+		String version = null;
+		String vendor = null;
+		for (final String line : new String(stderr.toByteArray(), StandardCharsets.UTF_8).split("\r?\n")) {
+			final String trimmed = line.trim();
+			if (trimmed.startsWith("java.version = ")) {
+				version = trimmed.substring("java.version = ".length());
+			} else if (trimmed.startsWith("java.vendor = ")) {
+				vendor = trimmed.substring("java.vendor = ".length());
+			}
+		}
+		return version == null ? null : new Jdk(java, version, vendor);
+	}
+
+	private static String unquote(final String s) {
+		if (s == null) {
+			return null;
+		}
+		return s.replace("\"", "").trim();
+	}
+
+	private Properties loadCache() {
+		final Properties cache = new Properties();
+		if (cacheFile != null && cacheFile.isFile()) {
+			try (InputStream in = Files.newInputStream(cacheFile.toPath())) {
+				// another user may have created the file first
+				if (!CmdUtil.isOwnedByCurrentUser(cacheFile.toPath())) {
+					LOG.warn("Ignoring {} owned by another user", cacheFile);
+					return cache;
+				}
+				cache.load(in);
+			} catch (final IOException | IllegalArgumentException e) {
+				LOG.debug("Error reading {}", cacheFile, e);
+			}
+		}
+		return cache;
+	}
+
+	private void saveCache(final Properties cache) {
+		if (cacheFile == null) {
+			return;
+		}
+		try {
+			final File dir = cacheFile.getAbsoluteFile().getParentFile();
+			if (dir.equals(getDefaultCacheDirectory().getAbsoluteFile())) {
+				CmdUtil.createPrivateDirectory(dir);
+			} else {
+				Files.createDirectories(dir.toPath());
+			}
+			final Path tmp = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					cache.store(out, "Java runtimes discovered by " + JdkRegistry.class.getName());
+				}
+				try {
+					Files.move(tmp, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (final AtomicMoveNotSupportedException e) {
+					Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Error writing {}", cacheFile, e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Thrown when a forked JVM exits because of an
+ * <code>OutOfMemoryError</code>.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ * @see JavaCmdBuilderBase#oomRetry(String)
+ */
+public class JvmOutOfMemoryException extends ExitCodeException {
+	private static final long serialVersionUID = 1L;
+
+	private final long maxHeap;
+
+	public JvmOutOfMemoryException(final String message, final int expectedExitCode, final int exitCode, final long maxHeap) {
+		super(message, expectedExitCode, exitCode);
+		this.maxHeap = maxHeap;
+	}
+
+	/**
+	 * @return The maximum heap of the last run in bytes or -1 if the JVM
+	 *         default was used
+	 */
+	public long getMaxHeap() {
+		return maxHeap;
+	}
+}
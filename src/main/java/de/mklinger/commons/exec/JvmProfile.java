@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Startup profiles for forked JVMs, setting garbage collector, JIT
+ * compilation, heap and metaspace sizes. Options set explicitly on the
+ * builder take precedence. See {@link JavaCmdBuilderBase#jvmProfile(JvmProfile)}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public enum JvmProfile {
+	/**
+	 * Jobs running for up to a few seconds: serial GC, C1 compiler only and
+	 * no metaspace induced GC during startup.
+	 */
+	SHORT_LIVED,
+	/**
+	 * Long running, CPU heavy jobs: parallel GC, full tiered compilation and
+	 * a large heap.
+	 */
+	THROUGHPUT,
+	/**
+	 * Many concurrent jobs on small hosts: serial GC, C1 compiler only,
+	 * small heap, thread stacks, code cache and metaspace.
+	 */
+	LOW_MEMORY,
+	/**
+	 * Choose {@link #SHORT_LIVED} or {@link #THROUGHPUT} from the average
+	 * run duration of earlier runs of the same main class or jar in this
+	 * JVM. Uses default JVM ergonomics for the first run.
+	 */
+	AUTO;
+
+	/**
+	 * Get the options of this profile. {@link #AUTO} has no options.
+	 *
+	 * @param featureVersion The Java version of the executable or -1 if
+	 *            unknown. Options not supported by Java 8 are only used
+	 *            for Java 10 and later.
+	 * @param gcSelected Whether the command already selects a garbage
+	 *            collector
+	 */
+	List<String> getJavaOptions(final int featureVersion, final boolean gcSelected) {
+		final boolean modern = featureVersion >= 10;
+		final List<String> options = new ArrayList<>();
+		switch (this) {
+		case SHORT_LIVED:
+			addGc(options, "-XX:+UseSerialGC", gcSelected);
+			options.add("-XX:TieredStopAtLevel=1");
+			options.add("-XX:MetaspaceSize=64m");
+			if (modern) {
+				options.add("-XX:MaxRAMPercentage=25");
+			}
+			break;
+		case THROUGHPUT:
+			addGc(options, "-XX:+UseParallelGC", gcSelected);
+			options.add("-XX:MetaspaceSize=128m");
+			if (modern) {
+				options.add("-XX:InitialRAMPercentage=25");
+				options.add("-XX:MaxRAMPercentage=75");
+			}
+			break;
+		case LOW_MEMORY:
+			addGc(options, "-XX:+UseSerialGC", gcSelected);
+			options.add("-XX:TieredStopAtLevel=1");
+			options.add("-Xss256k");
+			options.add("-Xms8m");
+			options.add("-XX:MaxMetaspaceSize=128m");
+			options.add("-XX:ReservedCodeCacheSize=32m");
+			if (modern) {
+				options.add("-XX:MaxRAMPercentage=10");
+			}
+			break;
+		default:
+			return options;
+		}
+		if (modern && CmdUtil.isLinux()) {
+			// size heap and CPU count from cgroup limits, Linux only
+			options.add("-XX:+UseContainerSupport");
+		}
+		return options;
+	}
+
+	private static void addGc(final List<String> options, final String gcOption, final boolean gcSelected) {
+		if (!gcSelected) {
+			options.add(gcOption);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Run durations of forked JVMs per main class or jar, used by
+ * {@link JvmProfile#AUTO}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+final class JvmProfileHistory {
+	/** Runs with a shorter average duration use {@link JvmProfile#SHORT_LIVED}. */
+	static final long SHORT_LIVED_MAX_MILLIS = 2000;
+
+	/** Weight of the latest run in the moving average. */
+	private static final double ALPHA = 0.3;
+
+	private static final ConcurrentMap<String, Double> AVERAGE_MILLIS = new ConcurrentHashMap<>();
+
+	private JvmProfileHistory() {
+	}
+
+	/**
+	 * @return The profile for the given target or <code>null</code> if
+	 *         there is no history yet
+	 */
+	static JvmProfile choose(final String target) {
+		final Double averageMillis = AVERAGE_MILLIS.get(target);
+		if (averageMillis == null) {
+			return null;
+		}
+		return averageMillis <= SHORT_LIVED_MAX_MILLIS ? JvmProfile.SHORT_LIVED : JvmProfile.THROUGHPUT;
+	}
+
+	static void record(final String target, final long millis) {
+		AVERAGE_MILLIS.merge(target, (double)millis, (average, latest) -> average + ALPHA * (latest - average));
+	}
+
+	static void clear() {
+		AVERAGE_MILLIS.clear();
+	}
+
+	/**
+	 * Wrap the given launcher to record the run duration of launched
+	 * processes for the given target.
+	 *
+	 * @param delegate The launcher or <code>null</code> for the default
+	 *            launcher
+	 */
+	static ProcessLauncher recordingLauncher(final ProcessLauncher delegate, final String target) {
+		return new RecordingProcessLauncher(delegate, target);
+	}
+
+	private static class RecordingProcessLauncher implements ProcessLauncher {
+		private final ProcessLauncher delegate;
+		private final String target;
+
+		public RecordingProcessLauncher(final ProcessLauncher delegate, final String target) {
+			this.delegate = delegate;
+			this.target = target;
+		}
+
+		private ProcessLauncher getDelegate() {
+			return delegate != null ? delegate : ProcessLauncher.getDefault();
+		}
+
+		@Override
+		public Process launch(final ProcessBuilder processBuilder) throws IOException {
+			final long start = System.nanoTime();
+			final Process process = getDelegate().launch(processBuilder);
+			CmdUtil.onExit(process, () -> record(target, (System.nanoTime() - start) / 1_000_000));
+			return process;
+		}
+
+		@Override
+		public void signal(final Process process, final Signal signal) {
+			getDelegate().signal(process, signal);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for forked JVMs sharing a memory budget. See
+ * {@link JavaCmdBuilderBase#memoryBudget(MemoryBudget)}.
+ * <p>
+ * The footprint of a JVM is estimated as its maximum heap plus a fixed
+ * native overhead for metaspace, code cache, thread stacks and GC
+ * structures. A JVM is started when its footprint fits into the remaining
+ * budget, otherwise it waits. Waiting JVMs are started in FIFO order.
+ * The footprint is released when the JVM exits.
+ * </p>
+ * <p>
+ * If a minimum heap is given, the heap is shrunk down to that minimum to
+ * start the JVM earlier. A JVM that does not fit into the whole budget is
+ * started when no other JVM of the budget is running.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class MemoryBudget {
+	private static final Logger LOG = LoggerFactory.getLogger(MemoryBudget.class);
+
+	private static final long MB = 1024 * 1024;
+
+	private final long budget;
+	private long nativeOverhead = 128 * MB;
+	private long defaultHeap;
+
+	private final LinkedList<Object> waiting = new LinkedList<>();
+	private long used;
+	private int running;
+	private long admittedCount;
+	private long shrunkCount;
+
+	/**
+	 * @param budget The budget in bytes
+	 */
+	public MemoryBudget(final long budget) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Invalid budget: " + budget);
+		}
+		this.budget = budget;
+		final long physicalMemory = getPhysicalMemory();
+		// JVM default: a quarter of the physical memory
+		this.defaultHeap = physicalMemory > 0 ? physicalMemory / 4 : 256 * MB;
+	}
+
+	/**
+	 * Create a budget of the given fraction of the physical memory of the
+	 * host, or of the container memory limit if running in a container.
+	 *
+	 * @param fraction The fraction, e.g. <code>0.8</code>
+	 * @throws IllegalStateException If the physical memory cannot be
+	 *             determined
+	 */
+	public static MemoryBudget ofPhysicalMemory(final double fraction) {
+		final long physicalMemory = getPhysicalMemory();
+		if (physicalMemory <= 0) {
+			throw new IllegalStateException("Physical memory size not available");
+		}
+		return new MemoryBudget((long)(physicalMemory * fraction));
+	}
+
+	/** getTotalMemorySize() replaces the deprecated method in Java 14. */
+	@SuppressWarnings("deprecation")
+	private static long getPhysicalMemory() {
+		try {
+			final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				return ((com.sun.management.OperatingSystemMXBean)os).getTotalPhysicalMemorySize();
+			}
+		} catch (final Throwable e) {
+			LOG.debug("Error getting physical memory size", e);
+		}
+		return -1;
+	}
+
+	/**
+	 * Set the estimated memory used by a JVM in addition to its heap.
+	 * Default is 128 MB.
+	 */
+	public synchronized void setNativeOverhead(final long nativeOverhead) {
+		this.nativeOverhead = nativeOverhead;
+	}
+
+	/**
+	 * Set the heap assumed for JVMs without <code>-Xmx</code>. Default is a
+	 * quarter of the physical memory, like the JVM default.
+	 */
+	public synchronized void setDefaultHeap(final long defaultHeap) {
+		this.defaultHeap = defaultHeap;
+	}
+
+	synchronized long getDefaultHeap() {
+		return defaultHeap;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return The estimated footprint of the running JVMs in bytes
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	public synchronized int getRunningCount() {
+		return running;
+	}
+
+	public synchronized int getWaitingCount() {
+		return waiting.size();
+	}
+
+	public synchronized long getAdmittedCount() {
+		return admittedCount;
+	}
+
+	/**
+	 * @return The number of JVMs started with a shrunk heap
+	 */
+	public synchronized long getShrunkCount() {
+		return shrunkCount;
+	}
+
+	/**
+	 * Wait until a JVM with the given heap fits into the budget.
+	 *
+	 * @param heap The requested heap in bytes
+	 * @param minHeap The minimum heap in bytes to shrink to, or the requested
+	 *            heap to not shrink
+	 * @return The granted heap in bytes, between the minimum and the
+	 *         requested heap
+	 */
+	synchronized long acquire(final long heap, final long minHeap) throws InterruptedException {
+		final Object ticket = new Object();
+		waiting.add(ticket);
+		try {
+			while (true) {
+				if (waiting.getFirst() == ticket) {
+					final long granted = tryAcquire(heap, Math.min(heap, minHeap));
+					if (granted > 0) {
+						return granted;
+					}
+				}
+				wait();
+			}
+		} finally {
+			waiting.remove(ticket);
+			notifyAll();
+		}
+	}
+
+	private long tryAcquire(final long heap, final long minHeap) {
+		final long available = budget - used - nativeOverhead;
+		long granted;
+		if (heap <= available) {
+			granted = heap;
+		} else if (minHeap <= available) {
+			// whole megabytes
+			granted = Math.max(minHeap, available / MB * MB);
+			shrunkCount++;
+		} else if (running == 0) {
+			LOG.warn("JVM with heap {} exceeds memory budget {}", heap, budget);
+			granted = heap;
+		} else {
+			return -1;
+		}
+		used += granted + nativeOverhead;
+		running++;
+		admittedCount++;
+		return granted;
+	}
+
+	synchronized void release(final long heap) {
+		used -= heap + nativeOverhead;
+		running--;
+		notifyAll();
+	}
+
+	/**
+	 * Parse a memory size as used for <code>-Xmx</code>, e.g.
+	 * <code>"83886080"</code>, <code>"81920k"</code>, <code>"80m"</code> or
+	 * <code>"2g"</code>.
+	 *
+	 * @return The size in bytes
+	 */
+	static long parseSize(final String value) {
+		final char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+		final long factor;
+		switch (unit) {
+		case 'k':
+			factor = 1024;
+			break;
+		case 'm':
+			factor = MB;
+			break;
+		case 'g':
+			factor = 1024 * MB;
+			break;
+		case 't':
+			factor = 1024L * 1024 * MB;
+			break;
+		default:
+			return Long.parseLong(value);
+		}
+		return Long.parseLong(value.substring(0, value.length() - 1)) * factor;
+	}
+
+	/**
+	 * Wrap the given launcher to start JVMs within this budget.
+	 *
+	 * @param delegate The launcher or <code>null</code> for the default
+	 *            launcher
+	 * @param heap The requested heap in bytes or -1 for the default heap
+	 * @param minHeap The minimum heap in bytes or -1 to not shrink
+	 * @param javaExecutable The java executable, to find the JVM options in
+	 *            commands wrapped by other tools
+	 */
+	ProcessLauncher launcher(final ProcessLauncher delegate, final long heap, final long minHeap, final String javaExecutable) {
+		return new BudgetProcessLauncher(delegate, heap, minHeap, javaExecutable);
+	}
+
+	private class BudgetProcessLauncher implements ProcessLauncher {
+		private final ProcessLauncher delegate;
+		private final long heap;
+		private final long minHeap;
+		private final String javaExecutable;
+
+		public BudgetProcessLauncher(final ProcessLauncher delegate, final long heap, final long minHeap, final String javaExecutable) {
+			this.delegate = delegate;
+			this.heap = heap;
+			this.minHeap = minHeap;
+			this.javaExecutable = javaExecutable;
+		}
+
+		private ProcessLauncher getDelegate() {
+			return delegate != null ? delegate : ProcessLauncher.getDefault();
+		}
+
+		@Override
+		public Process launch(final ProcessBuilder processBuilder) throws IOException {
+			final long requested = heap > 0 ? heap : getDefaultHeap();
+			final int javaIdx = processBuilder.command().indexOf(javaExecutable);
+			final long granted;
+			try {
+				granted = acquire(requested, minHeap > 0 && javaIdx != -1 ? minHeap : requested);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for memory budget");
+			}
+			final Process process;
+			try {
+				if (granted < requested) {
+					processBuilder.command(withXmx(processBuilder.command(), javaIdx, granted));
+				}
+				process = getDelegate().launch(processBuilder);
+			} catch (final IOException | RuntimeException | Error e) {
+				release(granted);
+				throw e;
+			}
+			CmdUtil.onExit(process, () -> release(granted));
+			return process;
+		}
+
+		@Override
+		public void signal(final Process process, final Signal signal) {
+			getDelegate().signal(process, signal);
+		}
+	}
+
+	/**
+	 * Replace the <code>-Xmx</code> options of the given Java command or add
+	 * one after the executable.
+	 */
+	private static List<String> withXmx(final List<String> javaCommand, final int javaIdx, final long heap) {
+		return withXmx(javaCommand, javaIdx, "-Xmx" + heap / MB + "m");
+	}
+
+	/**
+	 * Replace the <code>-Xmx</code> options of the given Java command or add
+	 * the given one after the executable.
+	 */
+	static List<String> withXmx(final List<String> javaCommand, final int javaIdx, final String xmx) {
+		final List<String> command = new ArrayList<>(javaCommand);
+		boolean replaced = false;
+		for (int i = javaIdx + 1; i < command.size(); i++) {
+			final String part = command.get(i);
+			if (!part.startsWith("-") || part.equals("-jar")) {
+				// target or argument file
+				break;
+			}
+			if (part.startsWith("-Xmx")) {
+				command.set(i, xmx);
+				replaced = true;
+			} else if (part.equals("-cp") || part.equals("-classpath") || part.equals("--class-path")
+					|| part.equals("-p") || part.equals("--module-path") || part.equals("--upgrade-module-path") || part.equals("--add-modules")) {
+				// skip option value
+				i++;
+			}
+		}
+		if (!replaced) {
+			command.add(javaIdx + 1, xmx);
+		}
+		return command;
+	}
+}
@@ -18,6 +18,8 @@ package de.mklinger.commons.exec;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,11 +33,12 @@ import org.slf4j.LoggerFactory;
  */
 public class NullFile implements Closeable {
 	private static final Logger LOG = LoggerFactory.getLogger(NullFile.class);
+	private static final AtomicInteger PROBE_COUNT = new AtomicInteger();
 	private File file;
 	private boolean temporaryFile;
 
 	public NullFile() throws IOException {
-		this(getNativeNull());
+		this(NativeNull.FILE);
 	}
 
 	protected NullFile(final File nativeNull) throws IOException {
@@ -51,7 +54,32 @@ public class NullFile implements Closeable {
 		}
 	}
 
+	/**
+	 * Looked up once, as probing the device costs system calls on every
+	 * command start otherwise.
+	 */
+	private static final class NativeNull {
+		static final File FILE = getNativeNull();
+		static final Redirect REDIRECT = FILE == null ? null : Redirect.to(FILE);
+	}
+
+	/**
+	 * @return A shared redirect to the native null device or
+	 *         <code>null</code> if there is none
+	 */
+	static Redirect getNativeNullRedirect() {
+		return NativeNull.REDIRECT;
+	}
+
+	/**
+	 * @return The number of lookups of the native null device, for tests
+	 */
+	static int getProbeCount() {
+		return PROBE_COUNT.get();
+	}
+
 	private static File getNativeNull() {
+		PROBE_COUNT.incrementAndGet();
 		File nativeNull = null;
 		if (CmdUtil.isWindows()) {
 			nativeNull = new File("nul");
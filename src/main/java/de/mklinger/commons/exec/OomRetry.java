@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Detection of JVM exits caused by <code>OutOfMemoryError</code> and heap
+ * sizes of successful retries per job signature, see
+ * {@link JavaCmdBuilderBase#oomRetry(String)}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+final class OomRetry {
+	/** Exit code of JVMs started with <code>-XX:+ExitOnOutOfMemoryError</code>. */
+	static final int EXIT_ON_OUT_OF_MEMORY_ERROR_EXIT_CODE = 3;
+
+	static final String EXIT_ON_OUT_OF_MEMORY_ERROR = "-XX:+ExitOnOutOfMemoryError";
+
+	private static final String OUT_OF_MEMORY_ERROR = "java.lang.OutOfMemoryError";
+
+	/** Printed by JVMs started with <code>-XX:+ExitOnOutOfMemoryError</code>. */
+	private static final String TERMINATING_MARKER = "Terminating due to " + OUT_OF_MEMORY_ERROR;
+
+	private static final ConcurrentMap<String, Long> HEAPS = new ConcurrentHashMap<>();
+
+	private OomRetry() {
+	}
+
+	/**
+	 * @return The heap of the last successful retry for the given job
+	 *         signature or -1
+	 */
+	static long getRememberedHeap(final String signature) {
+		final Long heap = HEAPS.get(signature);
+		return heap == null ? -1 : heap;
+	}
+
+	static void remember(final String signature, final long heap) {
+		HEAPS.put(signature, heap);
+	}
+
+	static void clear() {
+		HEAPS.clear();
+	}
+
+	/**
+	 * @param exitOnOutOfMemoryError Whether the JVM was started with
+	 *            <code>-XX:+ExitOnOutOfMemoryError</code>
+	 * @param stdoutTail The end of stdout of the JVM or <code>null</code>
+	 * @param stderrTail The end of stderr of the JVM or <code>null</code>
+	 */
+	static boolean isOutOfMemory(final ExitCodeException e, final boolean exitOnOutOfMemoryError, final OutputTail stdoutTail, final OutputTail stderrTail) {
+		if (exitOnOutOfMemoryError && e.getExitCode() == EXIT_ON_OUT_OF_MEMORY_ERROR_EXIT_CODE) {
+			// the JVM reports to stdout, exit code 3 alone may be the program's own
+			return contains(stdoutTail, TERMINATING_MARKER) || contains(stderrTail, TERMINATING_MARKER);
+		}
+		// uncaught error in the main thread
+		return e.getExitCode() == 1 && (contains(stderrTail, OUT_OF_MEMORY_ERROR) || contains(stdoutTail, OUT_OF_MEMORY_ERROR));
+	}
+
+	private static boolean contains(final OutputTail tail, final String s) {
+		return tail != null && tail.toString().contains(s);
+	}
+
+	/**
+	 * Keeps the last bytes written to stdout or stderr.
+	 */
+	static class OutputTail extends OutputStream {
+		private final byte[] buf = new byte[4096];
+		private int pos;
+		private boolean full;
+
+		@Override
+		public synchronized void write(final int b) {
+			buf[pos] = (byte)b;
+			pos = (pos + 1) % buf.length;
+			if (pos == 0) {
+				full = true;
+			}
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) {
+			final int n = Math.min(len, buf.length);
+			int from = off + len - n;
+			int remaining = n;
+			while (remaining > 0) {
+				final int chunk = Math.min(remaining, buf.length - pos);
+				System.arraycopy(b, from, buf, pos, chunk);
+				from += chunk;
+				remaining -= chunk;
+				pos = (pos + chunk) % buf.length;
+				if (pos == 0) {
+					full = true;
+				}
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			if (!full) {
+				return new String(buf, 0, pos, StandardCharsets.UTF_8);
+			}
+			final byte[] ordered = new byte[buf.length];
+			System.arraycopy(buf, pos, ordered, 0, buf.length - pos);
+			System.arraycopy(buf, 0, ordered, buf.length - pos, pos);
+			return new String(ordered, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Minimal read-only access to the Linux <code>/proc</code> file system.
+ * Needs neither root nor cgroups.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class ProcFs {
+	/** USER_HZ as exposed to user space. This is 100 on all Linux platforms. */
+	private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+	private static final File PROC = new File("/proc");
+
+	private static volatile Boolean available;
+	private static volatile Boolean childrenFileAvailable;
+
+	private ProcFs() {
+	}
+
+	public static boolean isAvailable() {
+		Boolean tmp = available;
+		if (tmp == null) {
+			tmp = CmdUtil.isLinux() && new File(PROC, "self/stat").canRead();
+			available = tmp;
+		}
+		return tmp;
+	}
+
+	/**
+	 * Read usage of a single process.
+	 *
+	 * @return The usage or <code>null</code> if the process does not exist
+	 *         (anymore).
+	 */
+	public static ProcessUsage readUsage(final long pid) {
+		final String stat = readFile(new File(PROC, pid + "/stat"));
+		if (stat == null) {
+			return null;
+		}
+		// comm may contain spaces and parentheses, fields start after the last ')'
+		final int idx = stat.lastIndexOf(')');
+		if (idx == -1) {
+			return null;
+		}
+		final String[] fields = stat.substring(idx + 2).split(" ");
+		if (fields.length < 15) {
+			return null;
+		}
+		// fields[0] is field 3 (state) in proc(5) numbering
+		final long ppid = Long.parseLong(fields[1]);
+		final long ticks = Long.parseLong(fields[11]) // utime
+				+ Long.parseLong(fields[12]) // stime
+				+ Long.parseLong(fields[13]) // cutime
+				+ Long.parseLong(fields[14]); // cstime
+		final long cpuTimeMillis = ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+		return new ProcessUsage(pid, ppid, cpuTimeMillis, readRss(pid));
+	}
+
+	private static long readRss(final long pid) {
+		final String status = readFile(new File(PROC, pid + "/status"));
+		if (status == null) {
+			return 0;
+		}
+		final int idx = status.indexOf("VmRSS:");
+		if (idx == -1) {
+			// kernel threads and zombies
+			return 0;
+		}
+		final StringTokenizer st = new StringTokenizer(status.substring(idx + 6));
+		return Long.parseLong(st.nextToken()) * 1024;
+	}
+
+	/**
+	 * Get all living descendants of the given process.
+	 *
+	 * @param childrenByParent Lazily populated map of all processes on the
+	 *            system by parent pid. Used when the kernel does not provide
+	 *            <code>/proc/[pid]/task/[tid]/children</code>. Callers
+	 *            checking multiple trees at once should pass the same map to
+	 *            scan <code>/proc</code> only once.
+	 */
+	public static List<Long> getDescendants(final long pid, final Map<Long, List<Long>> childrenByParent) {
+		final List<Long> descendants = new ArrayList<>();
+		addDescendants(pid, childrenByParent, descendants);
+		return descendants;
+	}
+
+	private static void addDescendants(final long pid, final Map<Long, List<Long>> childrenByParent, final List<Long> descendants) {
+		for (final Long child : getChildren(pid, childrenByParent)) {
+			descendants.add(child);
+			addDescendants(child, childrenByParent, descendants);
+		}
+	}
+
+	private static List<Long> getChildren(final long pid, final Map<Long, List<Long>> childrenByParent) {
+		if (!Boolean.FALSE.equals(childrenFileAvailable)) {
+			final File[] tasks = new File(PROC, pid + "/task").listFiles();
+			if (tasks != null) {
+				final List<Long> children = new ArrayList<>();
+				for (final File task : tasks) {
+					final File childrenFile = new File(task, "children");
+					if (childrenFileAvailable == null) {
+						childrenFileAvailable = childrenFile.exists();
+					}
+					if (!childrenFileAvailable) {
+						break;
+					}
+					final String s = readFile(childrenFile);
+					if (s != null) {
+						final StringTokenizer st = new StringTokenizer(s);
+						while (st.hasMoreTokens()) {
+							children.add(Long.valueOf(st.nextToken()));
+						}
+					}
+				}
+				if (childrenFileAvailable) {
+					return children;
+				}
+			}
+		}
+		if (childrenByParent.isEmpty()) {
+			scanAll(childrenByParent);
+		}
+		final List<Long> children = childrenByParent.get(pid);
+		if (children == null) {
+			return new ArrayList<>(0);
+		}
+		return children;
+	}
+
+	private static void scanAll(final Map<Long, List<Long>> childrenByParent) {
+		final String[] names = PROC.list();
+		if (names == null) {
+			return;
+		}
+		for (final String name : names) {
+			if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+				continue;
+			}
+			final String stat = readFile(new File(PROC, name + "/stat"));
+			if (stat == null) {
+				continue;
+			}
+			final int idx = stat.lastIndexOf(')');
+			if (idx == -1 || idx + 4 >= stat.length()) {
+				continue;
+			}
+			final int start = idx + 4;
+			final int end = stat.indexOf(' ', start);
+			if (end == -1) {
+				continue;
+			}
+			final Long ppid = Long.valueOf(stat.substring(start, end));
+			childrenByParent.computeIfAbsent(ppid, k -> new ArrayList<>()).add(Long.valueOf(name));
+		}
+		if (childrenByParent.isEmpty()) {
+			// make sure we do not scan again in this round
+			childrenByParent.put(-1L, new ArrayList<>(0));
+		}
+	}
+
+	public static Map<Long, List<Long>> newChildrenByParentMap() {
+		return new HashMap<>();
+	}
+
+	private static String readFile(final File f) {
+		try {
+			return new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII);
+		} catch (final IOException e) {
+			// process gone
+			return null;
+		}
+	}
+
+	public static class ProcessUsage {
+		private final long pid;
+		private final long ppid;
+		private final long cpuTime;
+		private final long rss;
+
+		public ProcessUsage(final long pid, final long ppid, final long cpuTime, final long rss) {
+			this.pid = pid;
+			this.ppid = ppid;
+			this.cpuTime = cpuTime;
+			this.rss = rss;
+		}
+
+		public long getPid() {
+			return pid;
+		}
+
+		public long getPpid() {
+			return ppid;
+		}
+
+		/**
+		 * @return The CPU time in milliseconds, including the time of
+		 *         terminated and waited-for children.
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * @return The resident set size in bytes.
+		 */
+		public long getRss() {
+			return rss;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Service provider interface for launching processes. {@link Cmd} prepares
+ * a {@link ProcessBuilder} with the final command line, working directory,
+ * environment and stdio redirects, and hands it to the launcher.
+ * <p>
+ * The returned {@link Process} is used for stdio streams, waiting and
+ * destroying. Signals are sent using {@link #signal(Process, Signal)}.
+ * </p>
+ * <p>
+ * The launcher is chosen per command using
+ * {@link CmdBuilderBase#processLauncher(ProcessLauncher)}, falling back to
+ * the {@link #getDefault() global default}. Implementations must be
+ * thread-safe.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ * @see DirectProcessLauncher
+ * @see SpawnServer
+ */
+public interface ProcessLauncher {
+	/**
+	 * Launch a process as described by the given process builder.
+	 *
+	 * @throws IOException If the process could not be launched
+	 */
+	Process launch(ProcessBuilder processBuilder) throws IOException;
+
+	/**
+	 * Send a signal to a process launched by this launcher. The default
+	 * implementation uses the <code>kill</code> command.
+	 *
+	 * @throws IllegalStateException if the process id cannot be determined
+	 * @throws UnsupportedOperationException on Windows
+	 */
+	default void signal(final Process process, final Signal signal) {
+		final Long pid = CmdUtil.getPid(process);
+		if (pid == null) {
+			throw new IllegalStateException("Process id not available");
+		}
+		ProcessSignaller.signal(signal, Collections.singletonList(pid));
+	}
+
+	/**
+	 * @return The launcher used by commands that do not have their own
+	 *         launcher. Defaults to {@link DirectProcessLauncher#getDefault()}.
+	 */
+	static ProcessLauncher getDefault() {
+		return DefaultProcessLauncher.get();
+	}
+
+	/**
+	 * Set the launcher used by commands that do not have their own launcher.
+	 *
+	 * @param processLauncher The launcher or <code>null</code> to reset to
+	 *            {@link DirectProcessLauncher#getDefault()}
+	 */
+	static void setDefault(final ProcessLauncher processLauncher) {
+		DefaultProcessLauncher.set(processLauncher);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Send signals to processes by pid on Unixoid systems. Java 8 has no API
+ * for this, so the <code>kill</code> command is used. It is started using a
+ * plain {@link ProcessBuilder}, as a {@link Cmd} would be subject to QoS,
+ * pause policy and watchdog, which send signals themselves.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class ProcessSignaller {
+	private static final Logger LOG = LoggerFactory.getLogger(ProcessSignaller.class);
+
+	private static final long KILL_TIMEOUT = 10000;
+
+	private ProcessSignaller() {
+	}
+
+	/**
+	 * Send a signal to the given processes. Processes that do not exist
+	 * (anymore) are silently ignored.
+	 *
+	 * @param signal The signal
+	 * @param pids The process ids
+	 */
+	public static void signal(final Signal signal, final Collection<Long> pids) {
+		if (pids.isEmpty()) {
+			return;
+		}
+		if (CmdUtil.isWindows()) {
+			throw new UnsupportedOperationException("Signals are not supported on Windows");
+		}
+		final List<String> command = new ArrayList<>(pids.size() + 2);
+		command.add("kill");
+		command.add("-" + signal.name());
+		for (final Long pid : pids) {
+			command.add(String.valueOf(pid));
+		}
+		final Redirect nullRedirect = NullFile.getNativeNullRedirect();
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		if (nullRedirect != null) {
+			pb.redirectOutput(nullRedirect);
+			pb.redirectError(nullRedirect);
+		}
+		try {
+			final Process process = pb.start();
+			process.getOutputStream().close();
+			if (!process.waitFor(KILL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				process.destroyForcibly();
+				throw new CmdException("Timeout sending signal " + signal + " to " + pids);
+			}
+			if (process.exitValue() != 0) {
+				// at least one process is gone
+				LOG.debug("Error sending signal {} to {}: exit value {}", signal, pids, process.exitValue());
+			}
+		} catch (final IOException e) {
+			throw new CmdException("Error sending signal " + signal + " to " + pids, e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		}
+	}
+}
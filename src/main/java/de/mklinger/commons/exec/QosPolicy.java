@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import de.mklinger.commons.exec.QosProfile.IoClass;
+
+/**
+ * Maps {@link QosClass QoS classes} to {@link QosProfile scheduling
+ * parameters}. The {@link #getDefault() global default policy} is used for
+ * all commands.
+ * <p>
+ * Out of the box, {@link QosClass#INTERACTIVE} inherits the scheduling
+ * parameters of the Java VM, {@link QosClass#BATCH} runs with niceness 10
+ * and lowest best-effort I/O priority and {@link QosClass#BACKGROUND} runs
+ * with niceness 19 and idle I/O class. No CPU pinning is done by default.
+ * Commands without a QoS class use the {@link #getDefaultClass() default
+ * class} of the policy, which is <code>null</code> (inherit everything) by
+ * default.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class QosPolicy {
+	private static volatile QosPolicy defaultPolicy = new QosPolicy();
+
+	private volatile Map<QosClass, QosProfile> profiles;
+	private volatile QosClass defaultClass;
+
+	/**
+	 * Create a policy with the default profiles.
+	 */
+	public QosPolicy() {
+		final Map<QosClass, QosProfile> p = new EnumMap<>(QosClass.class);
+		p.put(QosClass.INTERACTIVE, new QosProfile(null, null, null, null));
+		p.put(QosClass.BATCH, new QosProfile(10, IoClass.BEST_EFFORT, 7, null));
+		p.put(QosClass.BACKGROUND, new QosProfile(19, IoClass.IDLE, null, null));
+		this.profiles = p;
+	}
+
+	public static QosPolicy getDefault() {
+		return defaultPolicy;
+	}
+
+	public static void setDefault(final QosPolicy qosPolicy) {
+		if (qosPolicy == null) {
+			throw new NullPointerException();
+		}
+		defaultPolicy = qosPolicy;
+	}
+
+	public QosProfile getProfile(final QosClass qosClass) {
+		return profiles.get(qosClass);
+	}
+
+	public synchronized QosPolicy setProfile(final QosClass qosClass, final QosProfile qosProfile) {
+		if (qosClass == null || qosProfile == null) {
+			throw new NullPointerException();
+		}
+		final Map<QosClass, QosProfile> p = new EnumMap<>(profiles);
+		p.put(qosClass, qosProfile);
+		this.profiles = p;
+		return this;
+	}
+
+	/**
+	 * @return The QoS class used for commands that do not specify a class or
+	 *         <code>null</code> to leave those commands untouched
+	 */
+	public QosClass getDefaultClass() {
+		return defaultClass;
+	}
+
+	public QosPolicy setDefaultClass(final QosClass defaultClass) {
+		this.defaultClass = defaultClass;
+		return this;
+	}
+
+	/**
+	 * Resolve the profile for a command.
+	 *
+	 * @param qosClass The QoS class of the command or <code>null</code>
+	 * @return The profile or <code>null</code> if nothing is to be applied
+	 */
+	QosProfile resolve(final QosClass qosClass) {
+		final QosClass effectiveClass = qosClass != null ? qosClass : defaultClass;
+		if (effectiveClass == null) {
+			return null;
+		}
+		return getProfile(effectiveClass);
+	}
+}
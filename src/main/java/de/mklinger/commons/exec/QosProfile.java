@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Scheduling parameters applied to a command at spawn time. Immutable.
+ * Parameters that are <code>null</code> are inherited from the Java VM.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class QosProfile {
+	private final Integer niceness;
+	private final IoClass ioClass;
+	private final Integer ioPriority;
+	private final String cpuSet;
+
+	/**
+	 * @param niceness Niceness increment relative to the Java VM, see
+	 *            <code>nice(1)</code>. Negative values need privileges.
+	 * @param ioClass The I/O scheduling class, see <code>ionice(1)</code>
+	 * @param ioPriority The I/O priority within the class from 0 (highest)
+	 *            to 7 (lowest). Only used for {@link IoClass#BEST_EFFORT} and
+	 *            {@link IoClass#REALTIME}.
+	 * @param cpuSet CPU list to pin the command to, e.g.
+	 *            <code>"0-3,8"</code>, see <code>taskset(1)</code>
+	 */
+	public QosProfile(final Integer niceness, final IoClass ioClass, final Integer ioPriority, final String cpuSet) {
+		if (ioPriority != null && (ioPriority < 0 || ioPriority > 7)) {
+			throw new IllegalArgumentException("Invalid I/O priority: " + ioPriority);
+		}
+		this.niceness = niceness;
+		this.ioClass = ioClass;
+		this.ioPriority = ioPriority;
+		this.cpuSet = cpuSet;
+	}
+
+	public Integer getNiceness() {
+		return niceness;
+	}
+
+	public IoClass getIoClass() {
+		return ioClass;
+	}
+
+	public Integer getIoPriority() {
+		return ioPriority;
+	}
+
+	public String getCpuSet() {
+		return cpuSet;
+	}
+
+	/**
+	 * Create a copy of this profile pinned to the given CPUs.
+	 */
+	public QosProfile withCpuSet(final String cpuSet) {
+		return new QosProfile(niceness, ioClass, ioPriority, cpuSet);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "[niceness=" + niceness + ", ioClass=" + ioClass + ", ioPriority=" + ioPriority + ", cpuSet=" + cpuSet + "]";
+	}
+
+	/**
+	 * I/O scheduling classes as used by <code>ionice(1)</code>.
+	 */
+	public enum IoClass {
+		REALTIME(1),
+		BEST_EFFORT(2),
+		IDLE(3);
+
+		private final int value;
+
+		private IoClass(final int value) {
+			this.value = value;
+		}
+
+		public int getValue() {
+			return value;
+		}
+	}
+}
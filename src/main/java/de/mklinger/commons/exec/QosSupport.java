@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies a {@link QosProfile} at spawn time by prefixing the command with
+ * <code>nice</code>, <code>ionice</code> and <code>taskset</code>. Tools
+ * that are not available are skipped.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class QosSupport {
+	private static final Logger LOG = LoggerFactory.getLogger(QosSupport.class);
+
+	private QosSupport() {
+	}
+
+	public static List<String> wrap(final List<String> command, final QosProfile profile) {
+		if (CmdUtil.isWindows()) {
+			LOG.debug("QoS profiles are not supported on Windows");
+			return command;
+		}
+
+		final List<String> wrapped = new ArrayList<>(command.size() + 9);
+
+		if (profile.getNiceness() != null && profile.getNiceness() != 0) {
+			final String nice = ToolLookup.find("nice");
+			if (nice != null) {
+				wrapped.add(nice);
+				wrapped.add("-n");
+				wrapped.add(String.valueOf(profile.getNiceness()));
+			} else {
+				LOG.debug("nice not available, not applying niceness");
+			}
+		}
+
+		if (profile.getIoClass() != null && CmdUtil.isLinux()) {
+			final String ionice = ToolLookup.find("ionice");
+			if (ionice != null) {
+				wrapped.add(ionice);
+				wrapped.add("-c");
+				wrapped.add(String.valueOf(profile.getIoClass().getValue()));
+				if (profile.getIoPriority() != null && profile.getIoClass() != QosProfile.IoClass.IDLE) {
+					wrapped.add("-n");
+					wrapped.add(String.valueOf(profile.getIoPriority()));
+				}
+			} else {
+				LOG.debug("ionice not available, not applying I/O class");
+			}
+		}
+
+		if (profile.getCpuSet() != null && !profile.getCpuSet().isEmpty() && CmdUtil.isLinux()) {
+			final String taskset = ToolLookup.find("taskset");
+			if (taskset != null) {
+				wrapped.add(taskset);
+				wrapped.add("-c");
+				wrapped.add(profile.getCpuSet());
+			} else {
+				LOG.debug("taskset not available, not applying CPU set");
+			}
+		}
+
+		if (wrapped.isEmpty()) {
+			return command;
+		}
+		wrapped.addAll(command);
+		return wrapped;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Resource limits applied to a command when it is spawned. A value of
+ * <code>0</code> means "no limit".
+ * <p>
+ * Address space, CPU time, open files and process count are applied as
+ * rlimits and are inherited by all descendants. Memory and CPU quota are
+ * only enforced when the command can be placed in a cgroup v2, see
+ * {@link Cgroups}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ResourceCaps {
+	private long maxAddressSpace;
+	private long maxCpuTime;
+	private long maxOpenFiles;
+	private long maxProcesses;
+	private long maxMemory;
+	private double maxCpus;
+
+	/**
+	 * Default constructor.
+	 */
+	public ResourceCaps() {
+	}
+
+	/**
+	 * Create a copy of the given ResourceCaps.
+	 *
+	 * @param resourceCaps The caps to be copied
+	 */
+	public ResourceCaps(final ResourceCaps resourceCaps) {
+		this.maxAddressSpace = resourceCaps.maxAddressSpace;
+		this.maxCpuTime = resourceCaps.maxCpuTime;
+		this.maxOpenFiles = resourceCaps.maxOpenFiles;
+		this.maxProcesses = resourceCaps.maxProcesses;
+		this.maxMemory = resourceCaps.maxMemory;
+		this.maxCpus = resourceCaps.maxCpus;
+	}
+
+	/**
+	 * @return The maximum virtual address space in bytes (RLIMIT_AS)
+	 */
+	public long getMaxAddressSpace() {
+		return maxAddressSpace;
+	}
+
+	public void setMaxAddressSpace(final long maxAddressSpace) {
+		this.maxAddressSpace = maxAddressSpace;
+	}
+
+	/**
+	 * @return The maximum CPU time in seconds (RLIMIT_CPU)
+	 */
+	public long getMaxCpuTime() {
+		return maxCpuTime;
+	}
+
+	public void setMaxCpuTime(final long maxCpuTime) {
+		this.maxCpuTime = maxCpuTime;
+	}
+
+	/**
+	 * @return The maximum number of open files (RLIMIT_NOFILE)
+	 */
+	public long getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	public void setMaxOpenFiles(final long maxOpenFiles) {
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	/**
+	 * @return The maximum number of processes (RLIMIT_NPROC). Note that the
+	 *         kernel counts all processes of the real user, not only the
+	 *         descendants of the command.
+	 */
+	public long getMaxProcesses() {
+		return maxProcesses;
+	}
+
+	public void setMaxProcesses(final long maxProcesses) {
+		this.maxProcesses = maxProcesses;
+	}
+
+	/**
+	 * @return The maximum memory in bytes (cgroup <code>memory.max</code>)
+	 */
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+
+	public void setMaxMemory(final long maxMemory) {
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 * @return The maximum CPU bandwidth in number of CPUs (cgroup
+	 *         <code>cpu.max</code>)
+	 */
+	public double getMaxCpus() {
+		return maxCpus;
+	}
+
+	public void setMaxCpus(final double maxCpus) {
+		this.maxCpus = maxCpus;
+	}
+
+	boolean hasRlimits() {
+		return maxAddressSpace > 0 || maxCpuTime > 0 || maxOpenFiles > 0 || maxProcesses > 0;
+	}
+
+	boolean hasCgroupLimits() {
+		return maxMemory > 0 || maxCpus > 0;
+	}
+}
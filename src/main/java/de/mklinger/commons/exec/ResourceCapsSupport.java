@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies {@link ResourceCaps} at spawn time by prefixing the command.
+ * Rlimits are set using <code>prlimit</code> if available, otherwise using
+ * the <code>ulimit</code> builtin of <code>sh</code>. Placing the process in
+ * a cgroup is done by a <code>sh</code> wrapper that moves itself into the
+ * cgroup before executing the actual command.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class ResourceCapsSupport {
+	private static final Logger LOG = LoggerFactory.getLogger(ResourceCapsSupport.class);
+
+	private ResourceCapsSupport() {
+	}
+
+	/**
+	 * @param command The original command
+	 * @param caps The caps to apply
+	 * @param cgroup The cgroup to place the process in or <code>null</code>
+	 * @return The wrapped command
+	 */
+	public static List<String> wrap(final List<String> command, final ResourceCaps caps, final File cgroup) {
+		if (CmdUtil.isWindows()) {
+			LOG.warn("Resource caps are not supported on Windows and will not be enforced");
+			return command;
+		}
+
+		final List<String> wrapped = new ArrayList<>(command.size() + 10);
+		final StringBuilder script = new StringBuilder();
+		final List<String> scriptArgs = new ArrayList<>(2);
+
+		if (cgroup != null) {
+			script.append("echo $$ > \"$1\" || exit 126; shift; ");
+			scriptArgs.add(new File(cgroup, "cgroup.procs").getAbsolutePath());
+		}
+
+		final List<String> prlimitCommand = new ArrayList<>(5);
+		if (caps.hasRlimits()) {
+			final String prlimitPath = getPrlimit();
+			if (prlimitPath != null) {
+				prlimitCommand.add(prlimitPath);
+				addPrlimitOption(prlimitCommand, "--as=", caps.getMaxAddressSpace());
+				addPrlimitOption(prlimitCommand, "--cpu=", caps.getMaxCpuTime());
+				addPrlimitOption(prlimitCommand, "--nofile=", caps.getMaxOpenFiles());
+				addPrlimitOption(prlimitCommand, "--nproc=", caps.getMaxProcesses());
+			} else {
+				if (caps.getMaxAddressSpace() > 0) {
+					script.append("ulimit -v ").append(Math.max(1, caps.getMaxAddressSpace() / 1024)).append(" || exit 126; ");
+				}
+				if (caps.getMaxCpuTime() > 0) {
+					script.append("ulimit -t ").append(caps.getMaxCpuTime()).append(" || exit 126; ");
+				}
+				if (caps.getMaxOpenFiles() > 0) {
+					script.append("ulimit -n ").append(caps.getMaxOpenFiles()).append(" || exit 126; ");
+				}
+				if (caps.getMaxProcesses() > 0) {
+					// bash uses -u, dash uses -p
+					script.append("{ ulimit -u ").append(caps.getMaxProcesses())
+					.append(" 2>/dev/null || ulimit -p ").append(caps.getMaxProcesses()).append("; } || exit 126; ");
+				}
+			}
+		}
+
+		if (script.length() > 0) {
+			script.append("exec \"$@\"");
+			wrapped.add("sh");
+			wrapped.add("-c");
+			wrapped.add(script.toString());
+			wrapped.add("sh");
+			wrapped.addAll(scriptArgs);
+		}
+		wrapped.addAll(prlimitCommand);
+		wrapped.addAll(command);
+		return wrapped;
+	}
+
+	private static void addPrlimitOption(final List<String> prlimitCommand, final String option, final long value) {
+		if (value > 0) {
+			prlimitCommand.add(option + value);
+		}
+	}
+
+	private static String getPrlimit() {
+		if (!CmdUtil.isLinux()) {
+			return null;
+		}
+		return ToolLookup.find("prlimit");
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Thrown when a command was killed by the {@link CmdWatchdog} because it
+ * exceeded one of its {@link WatchdogLimits}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ResourceLimitExceededException extends CmdException {
+	private static final long serialVersionUID = 1L;
+
+	private final Resource resource;
+	private final double limit;
+	private final double actual;
+
+	public ResourceLimitExceededException(final String message, final Resource resource, final double limit, final double actual) {
+		super(message);
+		this.resource = resource;
+		this.limit = limit;
+		this.actual = actual;
+	}
+
+	public Resource getResource() {
+		return resource;
+	}
+
+	public double getLimit() {
+		return limit;
+	}
+
+	public double getActual() {
+		return actual;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(getClass().getName());
+		final String message = getLocalizedMessage();
+		if (message != null) {
+			sb.append(": ");
+			sb.append(message);
+		}
+		sb.append(" - ");
+		sb.append(resource);
+		sb.append(" limit ");
+		sb.append(limit);
+		sb.append(" exceeded: ");
+		sb.append(actual);
+		return sb.toString();
+	}
+
+	public enum Resource {
+		/** Resident set size in bytes */
+		RSS,
+		/** CPU time in milliseconds */
+		CPU_TIME,
+		/** CPU share, <code>1.0</code> being one core */
+		CPU_SHARE
+	}
+}
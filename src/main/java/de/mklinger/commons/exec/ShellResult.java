@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.nio.charset.Charset;
+
+/**
+ * Result of a command run in a {@link ShellSession}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ShellResult {
+	private final int exitValue;
+	private final byte[] stdout;
+	private final byte[] stderr;
+
+	public ShellResult(final int exitValue, final byte[] stdout, final byte[] stderr) {
+		this.exitValue = exitValue;
+		this.stdout = stdout;
+		this.stderr = stderr;
+	}
+
+	public int getExitValue() {
+		return exitValue;
+	}
+
+	public byte[] getStdoutBytes() {
+		return stdout;
+	}
+
+	public byte[] getStderrBytes() {
+		return stderr;
+	}
+
+	/**
+	 * @return Stdout using the default charset of this Java virtual machine.
+	 */
+	public String getStdout() {
+		return new String(stdout, Charset.defaultCharset());
+	}
+
+	/**
+	 * @return Stderr using the default charset of this Java virtual machine.
+	 */
+	public String getStderr() {
+		return new String(stderr, Charset.defaultCharset());
+	}
+
+	/**
+	 * @return This result
+	 * @throws ExitCodeException if the exit value is not the expected one
+	 */
+	public ShellResult checkExitValue(final int expectedExitValue) throws ExitCodeException {
+		if (exitValue != expectedExitValue) {
+			throw new ExitCodeException(expectedExitValue, exitValue);
+		}
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "ShellResult[exitValue=" + exitValue + ", stdout=" + stdout.length + " bytes, stderr=" + stderr.length + " bytes]";
+	}
+}
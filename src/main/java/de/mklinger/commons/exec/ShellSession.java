@@ -0,0 +1,456 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs many small commands in one long-lived shell process instead of
+ * spawning a process from the Java VM for each of them.
+ * <p>
+ * Every command runs in a subshell of the session shell with stdin
+ * connected to <code>/dev/null</code>, so commands do not affect each
+ * other, e.g. by changing the working directory. Stdout of each command is
+ * delimited by unique start and end sentinel lines, the end sentinel
+ * carrying the exit value. Output outside of these, e.g. from background
+ * jobs of earlier commands, is discarded. Stderr is captured using a
+ * temporary file.
+ * </p>
+ * <p>
+ * Commands configured using a {@link CmdBuilder} can be run using
+ * {@link #execute(CmdSettings)}.
+ * </p>
+ * <p>
+ * If the shell dies, it is restarted on the next command. If a command
+ * times out, its processes are killed (on Linux) or the shell is
+ * restarted (elsewhere).
+ * </p>
+ * <p>
+ * Commands of one session run one after the other. Use a
+ * {@link ShellSessionPool} to run commands from multiple threads
+ * concurrently. Only available on Unixoid systems.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ShellSession implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ShellSession.class);
+
+	/** Time to wait for the sentinel after killing a timed out command. */
+	private static final long KILL_GRACE_MILLIS = 1000;
+
+	private final String shell;
+	private final String markerPrefix;
+	private long counter;
+	private File stderrFile;
+	private Process process;
+	private OutputStream stdin;
+	private volatile Pending pending;
+	private boolean closed;
+
+	/**
+	 * Create a session using <code>sh</code>. The shell is started lazily.
+	 */
+	public ShellSession() {
+		this("sh");
+	}
+
+	/**
+	 * Create a session using the given POSIX compatible shell, e.g.
+	 * <code>bash</code>. The shell is started lazily.
+	 */
+	public ShellSession(final String shell) {
+		this.shell = shell;
+		this.markerPrefix = "__shell_session_" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "_";
+	}
+
+	/**
+	 * Run a command without timeout. Arguments are quoted.
+	 */
+	public ShellResult execute(final List<String> command) throws CmdException {
+		return execute(command, 0);
+	}
+
+	/**
+	 * Run a command. Arguments are quoted.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout
+	 */
+	public ShellResult execute(final List<String> command, final long timeout) throws CmdException {
+		if (command.isEmpty()) {
+			throw new IllegalArgumentException("Missing command");
+		}
+		final StringBuilder script = new StringBuilder();
+		for (final String arg : command) {
+			if (script.length() > 0) {
+				script.append(' ');
+			}
+			appendQuoted(script, arg);
+		}
+		return executeScript(script.toString(), timeout);
+	}
+
+	/**
+	 * Run a command configured using a builder, e.g.
+	 * <code>session.execute(new CmdBuilder("stat").arg(file).directory(dir).toCmdSettings())</code>.
+	 * Command, directory, environment and timeout are applied. Settings for
+	 * the process of a command, like resource caps, QoS class, watchdog
+	 * limits or process launcher, do not apply. The exit value is not
+	 * checked.
+	 *
+	 * @throws IllegalArgumentException if stdin or an output target is
+	 *             configured, as commands of a session use
+	 *             <code>/dev/null</code> as stdin and capture their output
+	 */
+	public ShellResult execute(final CmdSettings cmdSettings) throws CmdException {
+		if (cmdSettings.getStdinBytes() != null || cmdSettings.getStdinRedirect() != null) {
+			throw new IllegalArgumentException("Stdin is not supported in shell sessions");
+		}
+		if (cmdSettings.getStdout() != null || cmdSettings.getStdoutFile() != null || cmdSettings.getStdoutRedirect() != null
+				|| cmdSettings.getStderr() != null || cmdSettings.getStderrFile() != null || cmdSettings.getStderrRedirect() != null
+				|| cmdSettings.isRedirectErrorStream()) {
+			throw new IllegalArgumentException("Output targets are not supported in shell sessions");
+		}
+		final List<String> command = cmdSettings.getCommand();
+		if (command == null || command.isEmpty()) {
+			throw new IllegalArgumentException("Missing command");
+		}
+		final StringBuilder script = new StringBuilder();
+		if (cmdSettings.getDirectory() != null) {
+			script.append("cd ");
+			appendQuoted(script, cmdSettings.getDirectory().getAbsolutePath());
+			script.append(" || exit 126; ");
+		}
+		appendEnvironment(script, cmdSettings);
+		for (int i = 0; i < command.size(); i++) {
+			if (i > 0) {
+				script.append(' ');
+			}
+			appendQuoted(script, command.get(i));
+		}
+		return executeScript(script.toString(), cmdSettings.getTimeout());
+	}
+
+	/**
+	 * Append commands changing the environment of the session shell, which
+	 * is the environment of the current process, to the one configured.
+	 */
+	private static void appendEnvironment(final StringBuilder script, final CmdSettings cmdSettings) {
+		final EnvironmentMap environmentMap = cmdSettings.getEnvironmentMap();
+		if (environmentMap != null && environmentMap.isInherited()) {
+			appendEnvironment(script, environmentMap.getRemoved(), environmentMap.getOverlay());
+			return;
+		}
+		final Map<String, String> environment = cmdSettings.getEnvironment();
+		if (environment == null) {
+			return;
+		}
+		final Map<String, String> current = System.getenv();
+		final List<String> removed = new ArrayList<>();
+		for (final String name : current.keySet()) {
+			if (!environment.containsKey(name)) {
+				removed.add(name);
+			}
+		}
+		final Map<String, String> changed = new HashMap<>();
+		for (final Entry<String, String> e : environment.entrySet()) {
+			if (!e.getValue().equals(current.get(e.getKey()))) {
+				changed.put(e.getKey(), e.getValue());
+			}
+		}
+		appendEnvironment(script, removed, changed);
+	}
+
+	private static void appendEnvironment(final StringBuilder script, final Collection<String> removed, final Map<String, String> changed) {
+		for (final String name : removed) {
+			script.append("unset ").append(checkVariableName(name)).append("; ");
+		}
+		for (final Entry<String, String> e : changed.entrySet()) {
+			script.append("export ").append(checkVariableName(e.getKey())).append('=');
+			appendQuoted(script, e.getValue());
+			script.append("; ");
+		}
+	}
+
+	private static String checkVariableName(final String name) {
+		if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+			throw new IllegalArgumentException("Unsupported environment variable name in shell session: " + name);
+		}
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (!(c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) {
+				throw new IllegalArgumentException("Unsupported environment variable name in shell session: " + name);
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Run a shell script without timeout.
+	 */
+	public ShellResult executeScript(final String script) throws CmdException {
+		return executeScript(script, 0);
+	}
+
+	/**
+	 * Run a shell script.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout
+	 */
+	public synchronized ShellResult executeScript(final String script, final long timeout) throws CmdException {
+		ensureStarted();
+
+		final Pending p = new Pending(process, markerPrefix + (++counter));
+		final StringBuilder request = new StringBuilder(script.length() + 192);
+		request.append("printf '%s+\\n' ").append(p.marker).append("; ");
+		request.append("( eval ");
+		appendQuoted(request, script);
+		request.append(" ) </dev/null 2>");
+		appendQuoted(request, stderrFile.getAbsolutePath());
+		request.append("; printf '\\n%s %s\\n' ").append(p.marker).append(" \"$?\"\n");
+
+		pending = p;
+		try {
+			stdin.write(request.toString().getBytes(StandardCharsets.UTF_8));
+			stdin.flush();
+			await(p, timeout);
+		} catch (final IOException e) {
+			destroySession();
+			throw new CmdException("Error writing to shell session", e);
+		} finally {
+			pending = null;
+		}
+
+		if (p.error != null) {
+			destroySession();
+			throw new CmdException("Shell session terminated", p.error);
+		}
+
+		final byte[] stderr;
+		try {
+			stderr = Files.readAllBytes(stderrFile.toPath());
+		} catch (final IOException e) {
+			throw new CmdException("Error reading stderr", e);
+		}
+		return new ShellResult(p.exitValue, p.stdout, stderr);
+	}
+
+	private void await(final Pending p, final long timeout) throws CmdException {
+		try {
+			if (timeout < 1) {
+				p.latch.await();
+			} else if (!p.latch.await(timeout, TimeUnit.MILLISECONDS)) {
+				killCommand(p);
+				throw new CmdException("Timeout: command execution took longer than " + timeout + "ms");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			destroySession();
+			throw new CmdInterruptedException(e);
+		}
+	}
+
+	private void killCommand(final Pending p) throws InterruptedException {
+		final Long pid = CmdUtil.getPid(process);
+		if (pid != null && ProcFs.isAvailable()) {
+			ProcessSignaller.signal(Signal.KILL, ProcFs.getDescendants(pid, ProcFs.newChildrenByParentMap()));
+			if (p.latch.await(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+		destroySession();
+	}
+
+	private void ensureStarted() throws CmdException {
+		if (closed) {
+			throw new IllegalStateException("Shell session is closed");
+		}
+		if (process != null) {
+			if (process.isAlive()) {
+				return;
+			}
+			// died while idle, e.g. killed by the OOM killer
+			LOG.debug("Shell session died, restarting");
+			destroySession();
+		}
+		if (CmdUtil.isWindows()) {
+			throw new UnsupportedOperationException("Shell sessions are not supported on Windows");
+		}
+		try {
+			if (stderrFile == null) {
+				stderrFile = File.createTempFile("shellsession", ".stderr");
+				stderrFile.deleteOnExit();
+			}
+			LOG.debug("Starting shell session using {}", shell);
+			process = ProcessLauncher.getDefault().launch(new ProcessBuilder(shell)
+					.redirectError(Redirect.to(new File("/dev/null"))));
+		} catch (final IOException e) {
+			throw new CmdException("Error starting shell session", e);
+		}
+		stdin = process.getOutputStream();
+		final Process currentProcess = process;
+		new DeamonThreadCmdThreadFactory().newThread(() -> readStdout(currentProcess)).start();
+	}
+
+	private void readStdout(final Process currentProcess) {
+		final InputStream in = currentProcess.getInputStream();
+		byte[] data = new byte[8192];
+		int len = 0;
+		int searchFrom = 0;
+		IOException error = null;
+		try {
+			while (true) {
+				if (len == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				final int read = in.read(data, len, data.length - len);
+				if (read == -1) {
+					break;
+				}
+				len += read;
+				final Pending p = pending;
+				if (p == null || p.process != currentProcess) {
+					// left behind by an earlier command
+					len = 0;
+					searchFrom = 0;
+					continue;
+				}
+				if (!p.started) {
+					final int startIdx = indexOf(data, len, p.startMarkerBytes, 0);
+					if (startIdx == -1) {
+						// keep only what may be the beginning of the start sentinel
+						final int keep = Math.min(len, p.startMarkerBytes.length - 1);
+						System.arraycopy(data, len - keep, data, 0, keep);
+						len = keep;
+						continue;
+					}
+					// discard everything up to and including the start sentinel
+					final int start = startIdx + p.startMarkerBytes.length;
+					System.arraycopy(data, start, data, 0, len - start);
+					len -= start;
+					searchFrom = 0;
+					p.started = true;
+				}
+				final int idx = indexOf(data, len, p.markerBytes, Math.max(0, searchFrom - p.markerBytes.length));
+				if (idx == -1) {
+					searchFrom = len;
+					continue;
+				}
+				final int valueStart = idx + p.markerBytes.length;
+				final int lineEnd = indexOf(data, len, new byte[] { '\n' }, valueStart);
+				if (lineEnd == -1) {
+					searchFrom = idx;
+					continue;
+				}
+				final int exitValue = Integer.parseInt(new String(data, valueStart, lineEnd - valueStart, StandardCharsets.US_ASCII));
+				p.complete(Arrays.copyOf(data, idx), exitValue);
+				len = 0;
+				searchFrom = 0;
+			}
+		} catch (final IOException e) {
+			error = e;
+		}
+		final Pending p = pending;
+		if (p != null && p.process == currentProcess) {
+			p.fail(error != null ? error : new IOException("Unexpected end of shell output"));
+		}
+	}
+
+	private static int indexOf(final byte[] data, final int len, final byte[] pattern, final int fromIndex) {
+		outer: for (int i = fromIndex; i <= len - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static void appendQuoted(final StringBuilder sb, final String s) {
+		sb.append('\'').append(s.replace("'", "'\"'\"'")).append('\'');
+	}
+
+	private void destroySession() {
+		if (process != null) {
+			LOG.debug("Destroying shell session");
+			process.destroyForcibly();
+			process = null;
+			stdin = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		destroySession();
+		if (stderrFile != null) {
+			stderrFile.delete();
+		}
+	}
+
+	private static class Pending {
+		private final Process process;
+		private final String marker;
+		private final byte[] startMarkerBytes;
+		private final byte[] markerBytes;
+		/** Whether the start sentinel was read, only accessed by the reading thread. */
+		private boolean started;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private byte[] stdout;
+		private int exitValue;
+		private IOException error;
+
+		Pending(final Process process, final String marker) {
+			this.process = process;
+			this.marker = marker;
+			this.startMarkerBytes = (marker + "+\n").getBytes(StandardCharsets.US_ASCII);
+			this.markerBytes = ("\n" + marker + " ").getBytes(StandardCharsets.US_ASCII);
+		}
+
+		void complete(final byte[] stdout, final int exitValue) {
+			this.stdout = stdout;
+			this.exitValue = exitValue;
+			latch.countDown();
+		}
+
+		void fail(final IOException error) {
+			this.error = error;
+			latch.countDown();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A pool of {@link ShellSession}s for running commands from multiple
+ * threads. Sessions are created on demand, up to the maximum number of
+ * sessions. Threads wait if all sessions are busy.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ShellSessionPool implements Closeable {
+	private final String shell;
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<ShellSession> idle = new ConcurrentLinkedQueue<>();
+	private final List<ShellSession> all = new ArrayList<>();
+	private volatile boolean closed;
+
+	/**
+	 * Create a pool using <code>sh</code>.
+	 */
+	public ShellSessionPool(final int maxSessions) {
+		this("sh", maxSessions);
+	}
+
+	/**
+	 * Create a pool using the given POSIX compatible shell.
+	 */
+	public ShellSessionPool(final String shell, final int maxSessions) {
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("Invalid max sessions: " + maxSessions);
+		}
+		this.shell = shell;
+		this.permits = new Semaphore(maxSessions, true);
+	}
+
+	/**
+	 * Run a command without timeout. Arguments are quoted.
+	 */
+	public ShellResult execute(final List<String> command) throws CmdException {
+		return execute(command, 0);
+	}
+
+	/**
+	 * Run a command. Arguments are quoted.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout. Time
+	 *            waiting for a free session is not included.
+	 */
+	public ShellResult execute(final List<String> command, final long timeout) throws CmdException {
+		final ShellSession session = borrow();
+		try {
+			return session.execute(command, timeout);
+		} finally {
+			release(session);
+		}
+	}
+
+	/**
+	 * Run a command configured using a builder. See
+	 * {@link ShellSession#execute(CmdSettings)}.
+	 */
+	public ShellResult execute(final CmdSettings cmdSettings) throws CmdException {
+		final ShellSession session = borrow();
+		try {
+			return session.execute(cmdSettings);
+		} finally {
+			release(session);
+		}
+	}
+
+	/**
+	 * Run a shell script without timeout.
+	 */
+	public ShellResult executeScript(final String script) throws CmdException {
+		return executeScript(script, 0);
+	}
+
+	/**
+	 * Run a shell script.
+	 *
+	 * @param timeout Timeout in milliseconds or 0 for no timeout. Time
+	 *            waiting for a free session is not included.
+	 */
+	public ShellResult executeScript(final String script, final long timeout) throws CmdException {
+		final ShellSession session = borrow();
+		try {
+			return session.executeScript(script, timeout);
+		} finally {
+			release(session);
+		}
+	}
+
+	private ShellSession borrow() throws CmdInterruptedException {
+		if (closed) {
+			throw new IllegalStateException("Shell session pool is closed");
+		}
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		}
+		final ShellSession session = idle.poll();
+		if (session != null) {
+			return session;
+		}
+		final ShellSession newSession = new ShellSession(shell);
+		synchronized (all) {
+			all.add(newSession);
+		}
+		return newSession;
+	}
+
+	private void release(final ShellSession session) {
+		idle.offer(session);
+		permits.release();
+	}
+
+	/**
+	 * Close all sessions. Sessions still running a command are closed after
+	 * the command completed.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (all) {
+			for (final ShellSession session : all) {
+				session.close();
+			}
+			all.clear();
+		}
+	}
+}
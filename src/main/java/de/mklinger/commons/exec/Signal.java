@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * POSIX signals that can be sent to running commands, see
+ * {@link Cmd#signal(Signal, boolean)}. Signal numbers differ between
+ * platforms, so signals are always sent by name.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public enum Signal {
+	HUP,
+	INT,
+	QUIT,
+	KILL,
+	USR1,
+	USR2,
+	TERM,
+	CONT,
+	STOP,
+	TSTP
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ProcessLauncher} using a small helper process that spawns
+ * commands on behalf of the Java VM.
+ * <p>
+ * Forking a Java VM with a large heap is expensive, even with
+ * <code>vfork</code> or <code>posix_spawn</code>. The spawn server is a
+ * <code>sh</code> process started once by the VM. Spawn requests are sent
+ * to it over a pipe and it forks the actual commands. Streamed stdio is
+ * passed using named pipes. Redirects to and from files are done by the
+ * helper directly.
+ * </p>
+ * <p>
+ * Processes spawned by the server behave like processes started by
+ * {@link ProcessBuilder}: exit values, waiting, destroying and process ids
+ * work the same way. Differences:
+ * </p>
+ * <ul>
+ * <li>{@link Redirect#INHERIT} is only supported for stderr.</li>
+ * <li>If the command contains a path separator and cannot be executed, the
+ * process exits with code 126 or 127 instead of {@link ProcessBuilder#start()}
+ * throwing an exception.</li>
+ * </ul>
+ * <p>
+ * Only available on Unixoid systems. Instances are thread-safe.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class SpawnServer implements ProcessLauncher, Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(SpawnServer.class);
+
+	private static final String SCRIPT =
+			"NL='\n'\n"
+			+ "while IFS= read -r l; do eval \"$l\"; done\n";
+
+	private static volatile SpawnServer defaultInstance;
+
+	private final AtomicLong counter = new AtomicLong();
+	private final Map<Long, SpawnServerProcess> processes = new ConcurrentHashMap<>();
+	private File fifoDirectory;
+	private Process helper;
+	private OutputStream helperIn;
+	private boolean closed;
+
+	/**
+	 * Create a new spawn server. The helper process is started lazily on
+	 * first use. Usually the {@link #getDefault() default instance} should
+	 * be used.
+	 */
+	public SpawnServer() {
+	}
+
+	/**
+	 * Get the shared default instance.
+	 */
+	public static SpawnServer getDefault() {
+		SpawnServer tmp = defaultInstance;
+		if (tmp == null) {
+			synchronized (SpawnServer.class) {
+				tmp = defaultInstance;
+				if (tmp == null) {
+					defaultInstance = tmp = new SpawnServer();
+				}
+			}
+		}
+		return tmp;
+	}
+
+	@Override
+	public Process launch(final ProcessBuilder pb) throws IOException {
+		final List<String> command = pb.command();
+		if (command.isEmpty()) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (pb.directory() != null && !pb.directory().isDirectory()) {
+			throw new IOException("Cannot run program \"" + command.get(0) + "\" (in directory \"" + pb.directory() + "\"): directory does not exist");
+		}
+		final String executable = resolveExecutable(command.get(0));
+		final Redirect stdin = pb.redirectInput();
+		final Redirect stdout = pb.redirectOutput();
+		final Redirect stderr = pb.redirectErrorStream() ? null : pb.redirectError();
+		if (stdin.type() == Redirect.Type.INHERIT || stdout.type() == Redirect.Type.INHERIT) {
+			throw new IOException("Redirect.INHERIT is not supported for stdin and stdout by the spawn server");
+		}
+
+		final long id = counter.incrementAndGet();
+		final StringBuilder line = new StringBuilder(256);
+		final File stdinFifo;
+		final File stdoutFifo;
+		final File stderrFifo;
+		synchronized (this) {
+			ensureStarted();
+			stdinFifo = stdin.type() == Redirect.Type.PIPE ? new File(fifoDirectory, id + ".0") : null;
+			stdoutFifo = stdout.type() == Redirect.Type.PIPE ? new File(fifoDirectory, id + ".1") : null;
+			stderrFifo = stderr != null && stderr.type() == Redirect.Type.PIPE ? new File(fifoDirectory, id + ".2") : null;
+		}
+
+		final List<File> fifos = new ArrayList<>(3);
+		addIfNotNull(fifos, stdinFifo);
+		addIfNotNull(fifos, stdoutFifo);
+		addIfNotNull(fifos, stderrFifo);
+
+		if (!fifos.isEmpty()) {
+			line.append("if mkfifo");
+			for (final File fifo : fifos) {
+				line.append(' ');
+				appendQuoted(line, fifo.getAbsolutePath());
+			}
+			line.append("; then ");
+		}
+
+		line.append("( (");
+		if (pb.directory() != null) {
+			line.append("cd ");
+			appendQuoted(line, pb.directory().getAbsolutePath());
+			line.append(" && ");
+		}
+		line.append("exec");
+		final Map<String, String> environment = pb.environment();
+		if (!environment.equals(System.getenv())) {
+			line.append(" env -i");
+			for (final Map.Entry<String, String> e : environment.entrySet()) {
+				line.append(' ');
+				appendQuoted(line, e.getKey() + "=" + e.getValue());
+			}
+		}
+		line.append(' ');
+		appendQuoted(line, executable);
+		for (int i = 1; i < command.size(); i++) {
+			line.append(' ');
+			appendQuoted(line, command.get(i));
+		}
+		line.append(')');
+		appendRedirect(line, "<", stdin, stdinFifo);
+		appendRedirect(line, ">", stdout, stdoutFifo);
+		if (stderr == null) {
+			line.append(" 2>&1");
+		} else if (stderr.type() != Redirect.Type.INHERIT) {
+			appendRedirect(line, "2>", stderr, stderrFifo);
+		}
+		line.append(" & p=$!; echo \"P ").append(id).append(" $p\"; wait $p; echo \"X ").append(id).append(" $?\" ) &");
+
+		if (!fifos.isEmpty()) {
+			line.append(" else echo \"E ").append(id).append("\"; fi");
+		}
+		line.append('\n');
+
+		final SpawnServerProcess process = new SpawnServerProcess(this, id, stdinFifo, stdoutFifo, stderrFifo);
+		processes.put(id, process);
+		try {
+			send(line.toString());
+			process.awaitSpawned();
+			process.openStreams();
+		} catch (final IOException | RuntimeException e) {
+			processes.remove(id);
+			process.destroyForcibly();
+			throw e;
+		} finally {
+			for (final File fifo : fifos) {
+				fifo.delete();
+			}
+		}
+		return process;
+	}
+
+	private static void addIfNotNull(final List<File> files, final File file) {
+		if (file != null) {
+			files.add(file);
+		}
+	}
+
+	private static void appendRedirect(final StringBuilder line, final String operator, final Redirect redirect, final File fifo) {
+		switch (redirect.type()) {
+		case PIPE:
+			line.append(' ').append(operator);
+			appendQuoted(line, fifo.getAbsolutePath());
+			break;
+		case READ:
+		case WRITE:
+			line.append(' ').append(operator);
+			appendQuoted(line, redirect.file().getAbsolutePath());
+			break;
+		case APPEND:
+			line.append(' ').append(operator).append('>');
+			appendQuoted(line, redirect.file().getAbsolutePath());
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported redirect: " + redirect);
+		}
+	}
+
+	/**
+	 * Append a single-quoted shell word. Newlines are replaced by a variable
+	 * reference, as the server reads requests line by line.
+	 */
+	private static void appendQuoted(final StringBuilder sb, final String s) {
+		sb.append('\'');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '\'') {
+				sb.append("'\"'\"'");
+			} else if (c == '\n') {
+				sb.append("'\"$NL\"'");
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('\'');
+	}
+
+	private static String resolveExecutable(final String executable) throws IOException {
+		if (executable.indexOf(File.separatorChar) != -1) {
+			return executable;
+		}
+		final String resolved = ExecutableResolver.getDefault().resolve(executable);
+		if (resolved == null) {
+			throw new IOException("Cannot run program \"" + executable + "\": No such file or directory");
+		}
+		return resolved;
+	}
+
+	private void ensureStarted() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Spawn server is closed");
+		}
+		if (helper != null && helper.isAlive()) {
+			return;
+		}
+		if (CmdUtil.isWindows()) {
+			throw new UnsupportedOperationException("The spawn server is not supported on Windows");
+		}
+		if (fifoDirectory == null) {
+			fifoDirectory = Files.createTempDirectory("spawnserver", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"))).toFile();
+			fifoDirectory.deleteOnExit();
+		}
+		LOG.debug("Starting spawn server");
+		helper = new ProcessBuilder("sh", "-c", SCRIPT)
+				.redirectError(Redirect.INHERIT)
+				.start();
+		helperIn = helper.getOutputStream();
+		final Process currentHelper = helper;
+		new DeamonThreadCmdThreadFactory().newThread(() -> readEvents(currentHelper)).start();
+	}
+
+	private synchronized void send(final String line) throws IOException {
+		ensureStarted();
+		helperIn.write(line.getBytes(StandardCharsets.UTF_8));
+		helperIn.flush();
+	}
+
+	/**
+	 * Send the signal using the helper, which avoids spawning a
+	 * <code>kill</code> process.
+	 */
+	@Override
+	public void signal(final Process process, final Signal signal) {
+		if (process instanceof SpawnServerProcess && ((SpawnServerProcess)process).getServer() == this) {
+			kill(((SpawnServerProcess)process).pid(), signal);
+		} else {
+			ProcessLauncher.super.signal(process, signal);
+		}
+	}
+
+	void kill(final long pid, final Signal signal) {
+		try {
+			send("kill -" + signal.name() + " " + pid + " 2>/dev/null\n");
+		} catch (final IOException e) {
+			LOG.warn("Error sending kill request to spawn server", e);
+		}
+	}
+
+	private void readEvents(final Process currentHelper) {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(currentHelper.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				handleEvent(line);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Error reading from spawn server", e);
+		}
+		synchronized (this) {
+			if (!closed) {
+				LOG.warn("Spawn server terminated unexpectedly");
+			}
+			if (helper == currentHelper) {
+				helper = null;
+			}
+		}
+		// fail processes of the terminated helper
+		for (final SpawnServerProcess process : processes.values()) {
+			if (process.getServer() == this) {
+				processes.remove(process.getId());
+				process.onLost();
+			}
+		}
+	}
+
+	private void handleEvent(final String line) {
+		final String[] parts = line.split(" ");
+		if (parts.length < 2) {
+			LOG.warn("Unexpected output from spawn server: {}", line);
+			return;
+		}
+		final long id = Long.parseLong(parts[1]);
+		final SpawnServerProcess process = processes.get(id);
+		if (process == null) {
+			LOG.debug("Event for unknown process: {}", line);
+			return;
+		}
+		switch (parts[0]) {
+		case "P":
+			process.onSpawned(Long.parseLong(parts[2]));
+			break;
+		case "X":
+			processes.remove(id);
+			process.onExit(Integer.parseInt(parts[2]));
+			break;
+		case "E":
+			processes.remove(id);
+			process.onSpawnError();
+			break;
+		default:
+			LOG.warn("Unexpected output from spawn server: {}", line);
+		}
+	}
+
+	/**
+	 * Stop the helper process. Processes spawned by the server keep running.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (helper != null) {
+			try {
+				helperIn.close();
+			} catch (final IOException e) {
+				LOG.debug("Error closing spawn server input", e);
+			}
+			helper = null;
+		}
+		if (fifoDirectory != null) {
+			fifoDirectory.delete();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process spawned by a {@link SpawnServer}.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class SpawnServerProcess extends Process {
+	/** Exit value used if the spawn server terminated while the process was running. */
+	static final int EXIT_VALUE_LOST = 255;
+
+	private final SpawnServer server;
+	private final long id;
+	private final File stdinFifo;
+	private final File stdoutFifo;
+	private final File stderrFifo;
+	private final CountDownLatch spawned = new CountDownLatch(1);
+	private final CountDownLatch exited = new CountDownLatch(1);
+	// field name matches the JDK implementation for CmdUtil.getPid() on Java 8
+	private volatile long pid;
+	private volatile boolean spawnError;
+	private volatile int exitValue;
+	private OutputStream stdin;
+	private InputStream stdout;
+	private InputStream stderr;
+
+	SpawnServerProcess(final SpawnServer server, final long id, final File stdinFifo, final File stdoutFifo, final File stderrFifo) {
+		this.server = server;
+		this.id = id;
+		this.stdinFifo = stdinFifo;
+		this.stdoutFifo = stdoutFifo;
+		this.stderrFifo = stderrFifo;
+	}
+
+	SpawnServer getServer() {
+		return server;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	void onSpawned(final long pid) {
+		this.pid = pid;
+		spawned.countDown();
+	}
+
+	void onSpawnError() {
+		spawnError = true;
+		spawned.countDown();
+		exitValue = EXIT_VALUE_LOST;
+		exited.countDown();
+	}
+
+	void onExit(final int exitValue) {
+		this.exitValue = exitValue;
+		exited.countDown();
+		unblockFifos();
+		closeStdin();
+	}
+
+	void onLost() {
+		spawned.countDown();
+		if (exited.getCount() > 0) {
+			onExit(EXIT_VALUE_LOST);
+		}
+	}
+
+	void awaitSpawned() throws IOException {
+		try {
+			spawned.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for spawn server");
+		}
+		if (spawnError) {
+			throw new IOException("Spawn server could not create named pipes");
+		}
+		if (pid == 0) {
+			throw new IOException("Spawn server terminated");
+		}
+	}
+
+	/**
+	 * Open the named pipes in the same order as the spawned shell does.
+	 */
+	void openStreams() throws IOException {
+		final OutputStream stdin = stdinFifo != null ? new FileOutputStream(stdinFifo) : new NullOutputStream();
+		synchronized (this) {
+			this.stdin = stdin;
+		}
+		stdout = stdoutFifo != null ? new ClosingInputStream(stdoutFifo) : new ByteArrayInputStream(new byte[0]);
+		stderr = stderrFifo != null ? new ClosingInputStream(stderrFifo) : new ByteArrayInputStream(new byte[0]);
+		if (!isAlive()) {
+			closeStdin();
+		}
+	}
+
+	/**
+	 * Like the JDK, close the stdin pipe when the process exits.
+	 */
+	private synchronized void closeStdin() {
+		if (stdin != null) {
+			try {
+				stdin.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * If the process died before opening all named pipes, open the remaining
+	 * ones for reading and writing so that {@link #openStreams()} does not
+	 * block forever.
+	 */
+	private void unblockFifos() {
+		unblockFifo(stdinFifo);
+		unblockFifo(stdoutFifo);
+		unblockFifo(stderrFifo);
+	}
+
+	private static void unblockFifo(final File fifo) {
+		if (fifo != null && fifo.exists()) {
+			try {
+				new RandomAccessFile(fifo, "rw").close();
+			} catch (final IOException e) {
+				// already gone
+			}
+		}
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return stdin;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return stdout;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return stderr;
+	}
+
+	@Override
+	public int waitFor() throws InterruptedException {
+		exited.await();
+		return exitValue;
+	}
+
+	@Override
+	public boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return exited.await(timeout, unit);
+	}
+
+	@Override
+	public int exitValue() {
+		if (exited.getCount() > 0) {
+			throw new IllegalThreadStateException("process hasn't exited");
+		}
+		return exitValue;
+	}
+
+	@Override
+	public boolean isAlive() {
+		return exited.getCount() > 0;
+	}
+
+	@Override
+	public void destroy() {
+		signal(Signal.TERM);
+	}
+
+	@Override
+	public Process destroyForcibly() {
+		signal(Signal.KILL);
+		return this;
+	}
+
+	private void signal(final Signal signal) {
+		if (pid != 0 && isAlive()) {
+			server.kill(pid, signal);
+		}
+	}
+
+	/**
+	 * Overrides <code>Process.pid()</code> on Java 9 and newer.
+	 */
+	public long pid() {
+		if (pid == 0) {
+			throw new UnsupportedOperationException();
+		}
+		return pid;
+	}
+
+	@Override
+	public String toString() {
+		return "SpawnServerProcess[pid=" + pid + ", exitValue=" + (isAlive() ? "\"not exited\"" : String.valueOf(exitValue)) + "]";
+	}
+
+	/**
+	 * Releases the file descriptor as soon as end of stream is reached, as
+	 * the JDK does for process pipes after process exit.
+	 */
+	private static class ClosingInputStream extends FileInputStream {
+		ClosingInputStream(final File file) throws IOException {
+			super(file);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return closeOnEof(super.read());
+		}
+
+		@Override
+		public int read(final byte[] b) throws IOException {
+			return closeOnEof(super.read(b));
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return closeOnEof(super.read(b, off, len));
+		}
+
+		private int closeOnEof(final int result) throws IOException {
+			if (result == -1) {
+				close();
+			}
+			return result;
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(final int b) throws IOException {
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps already started instances of a command waiting on stdin, for
+ * commands that read one job from stdin, write the result and exit.
+ * Requests take a warm instance, so their latency does not include
+ * spawning the process and the initialization of the tool. Used instances
+ * are replaced in the background.
+ * <p>
+ * The pool keeps at least <code>minSize</code> idle instances. Each request
+ * that finds no idle instance runs a newly started instance and raises the
+ * number of kept instances by one, up to <code>maxSize</code>. Instances
+ * idle for longer than the {@link #setIdleTimeout(long) idle timeout} are
+ * destroyed and lower the number again, down to <code>minSize</code>.
+ * </p>
+ * <p>
+ * If too many standby instances fail to start or die while waiting (see
+ * {@link #setMaxFailureRate(double)}), pre-starting is paused for the
+ * {@link #setFailureBackoff(long) failure backoff} and requests start
+ * their own instances.
+ * </p>
+ * <p>
+ * The timeout of the command settings counts from the time an instance is
+ * taken. Stdout and stderr settings of the command are replaced by the
+ * streams given per request. Create instances using
+ * {@link CmdBuilderBase#toStandbyPool(int, int)}.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class StandbyPool implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(StandbyPool.class);
+
+	public static final long DEFAULT_IDLE_TIMEOUT = 60_000;
+	public static final double DEFAULT_MAX_FAILURE_RATE = 0.5;
+	public static final long DEFAULT_FAILURE_BACKOFF = 10_000;
+
+	/** Number of recent standby instances the failure rate is computed from. */
+	private static final int FAILURE_WINDOW = 20;
+
+	private final CmdSettings template;
+	private final int minSize;
+	private final int maxSize;
+	private final LinkedList<Instance> idle = new LinkedList<>();
+	private final boolean[] failureWindow = new boolean[FAILURE_WINDOW];
+	private int failureWindowCount;
+	private int failureWindowIndex;
+	private int targetSize;
+	private int starting;
+	private long backoffUntil;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private double maxFailureRate = DEFAULT_MAX_FAILURE_RATE;
+	private long failureBackoff = DEFAULT_FAILURE_BACKOFF;
+	private final ScheduledExecutorService scheduler;
+	private boolean closed;
+
+	StandbyPool(final CmdSettings template, final int minSize, final int maxSize) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+		if (template.getStdinBytes() != null) {
+			throw new IllegalArgumentException("Stdin bytes must not be set for a standby pool");
+		}
+		if (template.getStdinRedirect() != null) {
+			throw new IllegalArgumentException("Stdin redirect must not be set for a standby pool");
+		}
+		this.template = template;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetSize = minSize;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new DeamonThreadCmdThreadFactory());
+		scheduler.scheduleWithFixedDelay(this::maintainSafe, 1, 1, TimeUnit.SECONDS);
+		scheduler.execute(this::maintainSafe);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout Time in milliseconds after which idle instances
+	 *            above the minimum size are destroyed
+	 */
+	public synchronized void setIdleTimeout(final long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized double getMaxFailureRate() {
+		return maxFailureRate;
+	}
+
+	/**
+	 * @param maxFailureRate Share of the recent standby instances that may
+	 *            fail before pre-starting is paused, between 0 and 1
+	 */
+	public synchronized void setMaxFailureRate(final double maxFailureRate) {
+		this.maxFailureRate = maxFailureRate;
+	}
+
+	public synchronized long getFailureBackoff() {
+		return failureBackoff;
+	}
+
+	/**
+	 * @param failureBackoff Time in milliseconds to pause pre-starting if
+	 *            the failure rate is exceeded
+	 */
+	public synchronized void setFailureBackoff(final long failureBackoff) {
+		this.failureBackoff = failureBackoff;
+	}
+
+	/**
+	 * @return Whether pre-starting is paused because of failures
+	 */
+	public synchronized boolean isPreStartPaused() {
+		return System.currentTimeMillis() < backoffUntil;
+	}
+
+	/**
+	 * @return The number of idle instances
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Run one job and return its stdout.
+	 */
+	public byte[] executeForStdout(final byte[] stdin) throws CmdException {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		execute(stdin, stdout, null);
+		return stdout.toByteArray();
+	}
+
+	/**
+	 * Run one job.
+	 *
+	 * @param stdin The input of the job
+	 * @param stdout Stream for stdout or <code>null</code> to discard it
+	 * @param stderr Stream for stderr or <code>null</code> to discard it
+	 * @return The exit value
+	 * @throws CmdException in case of an error, including unexpected exit
+	 *             values
+	 */
+	public int execute(final byte[] stdin, final OutputStream stdout, final OutputStream stderr) throws CmdException {
+		Instance instance = take();
+		if (instance == null) {
+			instance = start();
+		}
+		instance.stdout.setTarget(stdout);
+		instance.stderr.setTarget(stderr);
+		final Cmd cmd = instance.cmd;
+		try {
+			cmd.restartTimeout();
+			try (OutputStream in = cmd.getStdin()) {
+				in.write(stdin);
+			} catch (final IOException e) {
+				throw new CmdException("Error writing to stdin", e);
+			}
+			return cmd.waitFor();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CmdInterruptedException(e);
+		} finally {
+			cmd.close();
+		}
+	}
+
+	private Instance take() {
+		final List<Instance> dead = new ArrayList<>();
+		Instance instance = null;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Standby pool is closed");
+			}
+			while (instance == null && !idle.isEmpty()) {
+				final Instance candidate = idle.removeFirst();
+				if (candidate.cmd.isExecuting()) {
+					instance = candidate;
+					recordStandbyResult(true);
+				} else {
+					dead.add(candidate);
+					recordStandbyResult(false);
+				}
+			}
+			if (instance == null && targetSize < maxSize) {
+				targetSize++;
+			}
+		}
+		for (final Instance d : dead) {
+			LOG.debug("Standby instance died while idle");
+			d.cmd.close();
+		}
+		scheduler.execute(this::maintainSafe);
+		return instance;
+	}
+
+	private Instance start() throws CmdException {
+		final SwitchableOutputStream stdout = new SwitchableOutputStream();
+		final SwitchableOutputStream stderr = new SwitchableOutputStream();
+		final CmdSettings cmdSettings = new CmdSettings(template);
+		cmdSettings.setStdout(stdout);
+		cmdSettings.setStdoutFile(null);
+		cmdSettings.setStdoutRedirect(null);
+		cmdSettings.setStderr(stderr);
+		cmdSettings.setStderrFile(null);
+		cmdSettings.setStderrRedirect(null);
+		cmdSettings.freeze();
+		final Cmd cmd = new Cmd(cmdSettings);
+		cmd.start();
+		return new Instance(cmd, stdout, stderr);
+	}
+
+	private void maintainSafe() {
+		try {
+			expireIdle();
+			refill();
+		} catch (final Throwable e) {
+			// keep the schedule alive
+			LOG.error("Error maintaining standby pool", e);
+		}
+	}
+
+	private void expireIdle() {
+		final List<Instance> expired = new ArrayList<>();
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			// the least recently used instances are at the end
+			final Iterator<Instance> it = idle.descendingIterator();
+			while (it.hasNext() && idle.size() > minSize) {
+				final Instance instance = it.next();
+				if (now - instance.idleSince < idleTimeout) {
+					break;
+				}
+				it.remove();
+				expired.add(instance);
+				if (targetSize > minSize) {
+					targetSize--;
+				}
+			}
+		}
+		for (final Instance instance : expired) {
+			instance.cmd.destroy();
+		}
+	}
+
+	private void refill() {
+		while (true) {
+			synchronized (this) {
+				if (closed || idle.size() + starting >= targetSize || System.currentTimeMillis() < backoffUntil) {
+					return;
+				}
+				starting++;
+			}
+			Instance instance = null;
+			try {
+				instance = start();
+			} catch (final Exception e) {
+				LOG.warn("Error starting standby instance", e);
+			}
+			boolean destroy = false;
+			synchronized (this) {
+				starting--;
+				if (instance == null) {
+					recordStandbyResult(false);
+				} else if (closed) {
+					destroy = true;
+				} else {
+					idle.addFirst(instance);
+				}
+			}
+			if (destroy) {
+				instance.cmd.destroy();
+			}
+		}
+	}
+
+	private void recordStandbyResult(final boolean success) {
+		failureWindow[failureWindowIndex] = !success;
+		failureWindowIndex = (failureWindowIndex + 1) % FAILURE_WINDOW;
+		if (failureWindowCount < FAILURE_WINDOW) {
+			failureWindowCount++;
+		}
+		if (success) {
+			return;
+		}
+		int failures = 0;
+		for (int i = 0; i < failureWindowCount; i++) {
+			if (failureWindow[i]) {
+				failures++;
+			}
+		}
+		// require some samples before judging
+		if (failureWindowCount >= FAILURE_WINDOW / 4 && (double)failures / failureWindowCount > maxFailureRate) {
+			LOG.warn("{} of the last {} standby instances failed. Pausing pre-start for {} ms.", failures, failureWindowCount, failureBackoff);
+			backoffUntil = System.currentTimeMillis() + failureBackoff;
+			failureWindowCount = 0;
+			failureWindowIndex = 0;
+		}
+	}
+
+	/**
+	 * Destroy all idle instances. Running jobs are not affected.
+	 */
+	@Override
+	public void close() {
+		final List<Instance> toDestroy;
+		synchronized (this) {
+			closed = true;
+			toDestroy = new ArrayList<>(idle);
+			idle.clear();
+		}
+		scheduler.shutdownNow();
+		for (final Instance instance : toDestroy) {
+			instance.cmd.destroy();
+		}
+	}
+
+	private static class Instance {
+		private final Cmd cmd;
+		private final SwitchableOutputStream stdout;
+		private final SwitchableOutputStream stderr;
+		private final long idleSince = System.currentTimeMillis();
+
+		Instance(final Cmd cmd, final SwitchableOutputStream stdout, final SwitchableOutputStream stderr) {
+			this.cmd = cmd;
+			this.stdout = stdout;
+			this.stderr = stderr;
+		}
+	}
+
+	/**
+	 * Discards output until a target is set. Output written by an instance
+	 * while waiting, e.g. a banner, is lost.
+	 */
+	private static class SwitchableOutputStream extends OutputStream {
+		private volatile OutputStream target;
+
+		void setTarget(final OutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			final OutputStream t = target;
+			if (t != null) {
+				t.write(b);
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			final OutputStream t = target;
+			if (t != null) {
+				t.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			final OutputStream t = target;
+			if (t != null) {
+				t.flush();
+			}
+		}
+	}
+}
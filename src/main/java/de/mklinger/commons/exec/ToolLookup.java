@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Looks up helper tools used to wrap commands at spawn time, like
+ * <code>prlimit</code> or <code>nice</code>. Results, including missing
+ * tools, are cached by the {@link ExecutableResolver}.
+ * <p>
+ * The PATH is scanned in-process. Spawning a command for the lookup would
+ * recurse, as spawned commands are wrapped using these tools.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+class ToolLookup {
+	private ToolLookup() {
+	}
+
+	/**
+	 * @return The absolute path of the tool or <code>null</code> if it is not
+	 *         available
+	 */
+	public static String find(final String name) {
+		return ExecutableResolver.getDefault().resolve(name);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+/**
+ * Limits enforced by the {@link CmdWatchdog} for a running command and all
+ * of its descendant processes. A value of <code>0</code> means "no limit".
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class WatchdogLimits {
+	private long maxRss;
+	private long maxCpuTime;
+	private double maxCpuShare;
+	private BreachAction breachAction = BreachAction.KILL;
+
+	/**
+	 * Default constructor.
+	 */
+	public WatchdogLimits() {
+	}
+
+	/**
+	 * Create a copy of the given WatchdogLimits.
+	 *
+	 * @param watchdogLimits The limits to be copied
+	 */
+	public WatchdogLimits(final WatchdogLimits watchdogLimits) {
+		this.maxRss = watchdogLimits.maxRss;
+		this.maxCpuTime = watchdogLimits.maxCpuTime;
+		this.maxCpuShare = watchdogLimits.maxCpuShare;
+		this.breachAction = watchdogLimits.breachAction;
+	}
+
+	/**
+	 * @return The maximum resident set size in bytes, summed up over the
+	 *         process tree.
+	 */
+	public long getMaxRss() {
+		return maxRss;
+	}
+
+	public void setMaxRss(final long maxRss) {
+		this.maxRss = maxRss;
+	}
+
+	/**
+	 * @return The maximum CPU time (user + system) in milliseconds, summed up
+	 *         over the process tree.
+	 */
+	public long getMaxCpuTime() {
+		return maxCpuTime;
+	}
+
+	public void setMaxCpuTime(final long maxCpuTime) {
+		this.maxCpuTime = maxCpuTime;
+	}
+
+	/**
+	 * @return The maximum CPU share between two samples, where
+	 *         <code>1.0</code> is one fully used core.
+	 */
+	public double getMaxCpuShare() {
+		return maxCpuShare;
+	}
+
+	public void setMaxCpuShare(final double maxCpuShare) {
+		this.maxCpuShare = maxCpuShare;
+	}
+
+	public BreachAction getBreachAction() {
+		return breachAction;
+	}
+
+	public void setBreachAction(final BreachAction breachAction) {
+		if (breachAction == null) {
+			throw new NullPointerException();
+		}
+		this.breachAction = breachAction;
+	}
+
+	boolean isEmpty() {
+		return maxRss <= 0 && maxCpuTime <= 0 && maxCpuShare <= 0;
+	}
+
+	/**
+	 * What to do when a limit is exceeded.
+	 */
+	public enum BreachAction {
+		/**
+		 * Log a warning once per limit and keep the command running.
+		 */
+		WARN,
+		/**
+		 * Pause the process tree for a while when the CPU share is exceeded.
+		 * Throttling cannot give back memory or CPU time already used, so
+		 * breaches of the RSS and CPU time limits are handled like
+		 * {@link #KILL}.
+		 */
+		THROTTLE,
+		/**
+		 * Kill the process tree. Waiting for the command will throw a
+		 * {@link ResourceLimitExceededException}.
+		 */
+		KILL
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes all data to any number of branches, replacing chains of
+ * {@link TeeOutputStream}. Meant for a single writing thread, like the pipe
+ * of a command, and does not lock.
+ * <p>
+ * Branches are isolated from each other: a branch that throws an
+ * exception is skipped from then on, and the other branches still get
+ * all data. Writes only fail when all branches failed. Failures are
+ * reported by {@link #checkFailures()} and {@link #close()}.
+ * </p>
+ * <p>
+ * An {@link #addAsyncBranch(OutputStream, int) async branch} is written by
+ * its own thread, so a slow branch does not slow down the writer. Data
+ * exceeding its queue limit is dropped for that branch.
+ * </p>
+ * <p>
+ * Branches must be added before the first write. The stream must be
+ * closed to stop the threads of async branches.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class MulticastOutputStream extends OutputStream {
+	private Branch[] branches = new Branch[0];
+	private boolean started;
+	private int failedCount;
+
+	public MulticastOutputStream(final OutputStream... branches) {
+		for (final OutputStream branch : branches) {
+			addBranch(branch);
+		}
+	}
+
+	/**
+	 * Add a branch written by the writing thread.
+	 *
+	 * @return This stream
+	 */
+	public MulticastOutputStream addBranch(final OutputStream branch) {
+		return add(new Branch(branch));
+	}
+
+	/**
+	 * Add a branch written by its own thread.
+	 *
+	 * @param branch The stream to write to
+	 * @param maxQueuedBytes The maximum number of bytes waiting to be
+	 *            written. More data is dropped for this branch.
+	 * @return This stream
+	 */
+	public MulticastOutputStream addAsyncBranch(final OutputStream branch, final int maxQueuedBytes) {
+		return add(new AsyncBranch(branch, maxQueuedBytes));
+	}
+
+	private MulticastOutputStream add(final Branch branch) {
+		if (started) {
+			throw new IllegalStateException("Branches must be added before the first write");
+		}
+		if (branch.out == null) {
+			throw new NullPointerException();
+		}
+		branches = Arrays.copyOf(branches, branches.length + 1);
+		branches[branches.length - 1] = branch;
+		return this;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		started = true;
+		for (final Branch branch : branches) {
+			if (branch.failure == null) {
+				branch.write(b, off, len);
+			}
+			// async branches fail in their own thread
+			if (branch.failure != null && !branch.counted) {
+				branch.counted = true;
+				failedCount++;
+			}
+		}
+		if (failedCount > 0 && failedCount == branches.length) {
+			throw failure("All branches failed");
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (final Branch branch : branches) {
+			branch.flush();
+		}
+	}
+
+	/**
+	 * Close all branches, waiting for async branches to write their queued
+	 * data.
+	 *
+	 * @throws IOException If a branch failed
+	 */
+	@Override
+	public void close() throws IOException {
+		started = true;
+		for (final Branch branch : branches) {
+			branch.close();
+		}
+		checkFailures();
+	}
+
+	/**
+	 * @throws IOException The first failure of a branch, with failures of
+	 *             other branches suppressed
+	 */
+	public void checkFailures() throws IOException {
+		if (!getFailures().isEmpty()) {
+			throw failure("Branch failed");
+		}
+	}
+
+	/**
+	 * @return The failures of all failed branches
+	 */
+	public List<IOException> getFailures() {
+		final List<IOException> failures = new ArrayList<>();
+		for (final Branch branch : branches) {
+			if (branch.failure != null) {
+				failures.add(branch.failure);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @return The number of bytes dropped by async branches
+	 */
+	public long getDroppedBytes() {
+		long dropped = 0;
+		for (final Branch branch : branches) {
+			if (branch instanceof AsyncBranch) {
+				dropped += ((AsyncBranch)branch).dropped.get();
+			}
+		}
+		return dropped;
+	}
+
+	private IOException failure(final String message) {
+		final List<IOException> failures = getFailures();
+		final IOException e = new IOException(message, failures.get(0));
+		for (int i = 1; i < failures.size(); i++) {
+			e.addSuppressed(failures.get(i));
+		}
+		return e;
+	}
+
+	private static IOException toIOException(final Exception e) {
+		return e instanceof IOException ? (IOException)e : new IOException(e);
+	}
+
+	private static class Branch {
+		final OutputStream out;
+		volatile IOException failure;
+		/** Whether counted as failed by the writing thread. */
+		boolean counted;
+
+		Branch(final OutputStream out) {
+			this.out = out;
+		}
+
+		void write(final byte[] b, final int off, final int len) {
+			try {
+				out.write(b, off, len);
+			} catch (IOException | RuntimeException e) {
+				failure = toIOException(e);
+			}
+		}
+
+		void flush() {
+			if (failure == null) {
+				try {
+					out.flush();
+				} catch (IOException | RuntimeException e) {
+					failure = toIOException(e);
+				}
+			}
+		}
+
+		void close() throws IOException {
+			closeOut();
+		}
+
+		void closeOut() {
+			try {
+				out.close();
+			} catch (IOException | RuntimeException e) {
+				if (failure == null) {
+					failure = toIOException(e);
+				}
+			}
+		}
+	}
+
+	private static class AsyncBranch extends Branch implements Runnable {
+		private static final byte[] FLUSH = new byte[0];
+		private static final byte[] CLOSE = new byte[0];
+
+		private final int maxQueuedBytes;
+		private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicLong queuedBytes = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		private Thread thread;
+
+		AsyncBranch(final OutputStream out, final int maxQueuedBytes) {
+			super(out);
+			this.maxQueuedBytes = maxQueuedBytes;
+		}
+
+		@Override
+		void write(final byte[] b, final int off, final int len) {
+			if (queuedBytes.get() + len > maxQueuedBytes) {
+				dropped.addAndGet(len);
+				return;
+			}
+			queuedBytes.addAndGet(len);
+			enqueue(Arrays.copyOfRange(b, off, off + len));
+		}
+
+		@Override
+		void flush() {
+			if (thread != null) {
+				enqueue(FLUSH);
+			}
+		}
+
+		@Override
+		void close() throws IOException {
+			if (thread == null) {
+				closeOut();
+				return;
+			}
+			enqueue(CLOSE);
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for async branch");
+			}
+		}
+
+		private void enqueue(final byte[] chunk) {
+			if (thread == null) {
+				thread = new Thread(this, "multicast-branch");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			queue.add(chunk);
+			LockSupport.unpark(thread);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				final byte[] chunk = queue.poll();
+				if (chunk == null) {
+					LockSupport.park(this);
+				} else if (chunk == CLOSE) {
+					closeOut();
+					return;
+				} else if (chunk == FLUSH) {
+					super.flush();
+				} else {
+					if (failure == null) {
+						super.write(chunk, 0, chunk.length);
+					}
+					queuedBytes.addAndGet(-chunk.length);
+				}
+			}
+		}
+	}
+}
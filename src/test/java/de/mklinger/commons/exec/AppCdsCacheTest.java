@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class AppCdsCacheTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File jar;
+	private File extraJar;
+
+	@Before
+	public void setUp() throws Exception {
+		final JavaHome javaHome = JavaHome.getByRuntime();
+		final int featureVersion = javaHome == null ? -1 : javaHome.getFeatureVersion();
+		if (featureVersion < 13 || featureVersion >= 25) {
+			throw new AssumptionViolatedException("dynamic CDS archives need Java 13 to 24, got " + featureVersion);
+		}
+		// directories are not supported in the classpath
+		final String classFile = ExecutableWithMain.class.getName().replace('.', '/') + ".class";
+		jar = tmp.newFile("test.jar");
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+				InputStream in = ExecutableWithMain.class.getClassLoader().getResourceAsStream(classFile)) {
+			out.putNextEntry(new JarEntry(classFile));
+			final byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+		}
+		extraJar = tmp.newFile("extra.jar");
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(extraJar))) {
+			out.putNextEntry(new JarEntry("empty"));
+		}
+	}
+
+	private JavaClassCmdBuilder builder(final File cacheDir) {
+		return new JavaClassCmdBuilder(ExecutableWithMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(jar.getAbsolutePath(), extraJar.getAbsolutePath())
+				.appCdsCache(cacheDir);
+	}
+
+	/**
+	 * The archive is moved into place when the recording process has
+	 * exited, which may be after waiting for the process returned.
+	 */
+	private static void awaitRecording(final File cacheDir) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10_000;
+		while (hasRecordingFiles(cacheDir) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(String.join(", ", cacheDir.list()), hasRecordingFiles(cacheDir));
+	}
+
+	private static boolean hasRecordingFiles(final File cacheDir) {
+		final String[] names = cacheDir.list((dir, name) -> name.endsWith(".recording") || name.contains(".tmp."));
+		return names != null && names.length > 0;
+	}
+
+	@Test
+	public void testRecordAndUse() throws Exception {
+		final File cacheDir = tmp.newFolder("cds");
+
+		final CmdSettings recording = builder(cacheDir).toCmdSettings();
+		Assert.assertFalse(recording.getCommand().toString().contains("-XX:"));
+		// recording starts with the process, not when creating the settings
+		Assert.assertFalse(hasRecordingFiles(cacheDir));
+
+		recording.freeze();
+		new Cmd(recording).execute();
+		awaitRecording(cacheDir);
+		final List<String> second = builder(cacheDir).toCmdSettings().getCommand();
+		Assert.assertTrue(second.toString(), second.get(1).startsWith("-XX:SharedArchiveFile="));
+		Assert.assertTrue(new File(second.get(1).substring(second.get(1).indexOf('=') + 1)).isFile());
+		builder(cacheDir).toCmd().execute();
+	}
+
+	@Test
+	public void testFailedRecording() throws Exception {
+		final File cacheDir = tmp.newFolder("cds");
+		builder(cacheDir).arg("error").expectedExitValue(1).toCmd().execute();
+		awaitRecording(cacheDir);
+		Assert.assertEquals(0, cacheDir.list().length);
+
+		// a failed recording does not block the next one
+		builder(cacheDir).toCmd().execute();
+		awaitRecording(cacheDir);
+		Assert.assertTrue(builder(cacheDir).toCmdSettings().getCommand().get(1).startsWith("-XX:SharedArchiveFile="));
+	}
+
+	@Test
+	public void testTemplateDoesNotRecord() throws Exception {
+		final File cacheDir = tmp.newFolder("cds");
+		Assert.assertFalse(builder(cacheDir).toCmdTemplate().getCommand().toString().contains("-XX:"));
+		Assert.assertEquals(0, cacheDir.list().length);
+		builder(cacheDir).toCmd().execute();
+		awaitRecording(cacheDir);
+		Assert.assertTrue(builder(cacheDir).toCmdTemplate().getCommand().get(1).startsWith("-XX:SharedArchiveFile="));
+	}
+
+	@Test
+	public void testInvalidateOnChangedJar() throws Exception {
+		final File cacheDir = tmp.newFolder("cds");
+		builder(cacheDir).toCmd().execute();
+		awaitRecording(cacheDir);
+		Assert.assertTrue(builder(cacheDir).toCmdSettings().getCommand().get(1).startsWith("-XX:SharedArchiveFile="));
+
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(extraJar))) {
+			out.putNextEntry(new JarEntry("changed"));
+		}
+		Assert.assertFalse(builder(cacheDir).toCmdSettings().getCommand().toString().contains("-XX:"));
+	}
+
+	@Test
+	public void testDeleteUnusedArchives() throws Exception {
+		final File cacheDir = tmp.newFolder("cds");
+		builder(cacheDir).toCmd().execute();
+		awaitRecording(cacheDir);
+		final AppCdsCache cache = new AppCdsCache(cacheDir);
+		cache.deleteUnusedArchives(60_000);
+		Assert.assertTrue(builder(cacheDir).toCmdSettings().getCommand().get(1).startsWith("-XX:SharedArchiveFile="));
+		Thread.sleep(10);
+		cache.deleteUnusedArchives(0);
+		Assert.assertEquals(0, cacheDir.list().length);
+	}
+
+	@Test
+	public void testNoArchiveWithDirectory() throws Exception {
+		final String testClassesDir = new File(ExecutableWithMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		final List<String> command = new JavaClassCmdBuilder(ExecutableWithMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.appCdsCache(tmp.newFolder("cds"))
+				.toCmdSettings()
+				.getCommand();
+		Assert.assertEquals("-cp", command.get(1));
+	}
+
+	@Test
+	public void testParseFeatureVersion() {
+		Assert.assertEquals(8, JavaHome.parseFeatureVersion("1.8.0_392"));
+		Assert.assertEquals(17, JavaHome.parseFeatureVersion("17.0.9"));
+		Assert.assertEquals(21, JavaHome.parseFeatureVersion("21"));
+		Assert.assertEquals(-1, JavaHome.parseFeatureVersion(""));
+	}
+}
@@ -2,6 +2,8 @@ package de.mklinger.commons.exec;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 
 import org.hamcrest.Matchers;
@@ -128,6 +130,35 @@ public class CmdOutputUtilTest {
 		}
 	}
 
+	@Test
+	public void testFailingStdoutStillCaptured() throws URISyntaxException {
+		final File testClassesDir = new File(ExecutableWithMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		final JavaClassCmdBuilder cmdBuilder = new JavaClassCmdBuilder(ExecutableWithMain.class.getName())
+				.classpath(testClassesDir.getAbsolutePath())
+				.stdout(new OutputStream() {
+					@Override
+					public void write(final int b) throws IOException {
+						throw new IOException("failed");
+					}
+				});
+
+		try {
+			CmdOutputUtil.executeForOutput(cmdBuilder);
+			Assert.fail("Expected exception not thrown");
+		} catch (final CmdOutputException e) {
+			// captured although the caller's stream failed
+			Assert.assertThat(e.getOutput(), Matchers.containsString("stdout"));
+			Assert.assertThat(e.getOutput(), Matchers.containsString("stderr"));
+			final Throwable cause = e.getCause();
+			Assert.assertEquals(CmdException.class, cause.getClass());
+			Assert.assertEquals("Error writing output", cause.getMessage());
+			// the multicast failure wraps the failure of the caller's branch
+			Assert.assertTrue(cause.getCause() instanceof IOException);
+			Assert.assertTrue(cause.getCause().getCause() instanceof IOException);
+			Assert.assertEquals("failed", cause.getCause().getCause().getMessage());
+		}
+	}
+
 	@Test
 	public void exampleNonWindows() throws CmdException {
 		if (CmdUtil.isWindows()) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdRedirectTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final List<ProcessBuilder> launched = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("Not supported on Windows");
+		}
+	}
+
+	private CmdBuilder sh(final String script) {
+		return new CmdBuilder("sh")
+				.arg("-c")
+				.arg(script)
+				.processLauncher(pb -> {
+					launched.add(pb);
+					return DirectProcessLauncher.getDefault().launch(pb);
+				});
+	}
+
+	@Test
+	public void testAppendTo() throws Exception {
+		final File log = tmp.newFile("log");
+		sh("echo out; echo err >&2").stdout(Redirect.appendTo(log)).stderr(Redirect.appendTo(log)).toCmd().execute();
+		sh("echo again").stdout(Redirect.appendTo(log)).toCmd().execute();
+		Assert.assertEquals("out\nerr\nagain\n", new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+		Assert.assertEquals(Redirect.appendTo(log), launched.get(0).redirectOutput());
+	}
+
+	@Test
+	public void testStdinFromFile() throws Exception {
+		final File input = tmp.newFile("input");
+		Files.write(input.toPath(), "input".getBytes(StandardCharsets.UTF_8));
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		sh("cat").stdin(input).stdout(stdout).toCmd().execute();
+		Assert.assertEquals("input", new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(Redirect.Type.READ, launched.get(0).redirectInput().type());
+	}
+
+	@Test
+	public void testInherit() throws Exception {
+		sh("true").stdin(Redirect.INHERIT).stdout(Redirect.INHERIT).stderr(Redirect.INHERIT).toCmd().execute();
+		final ProcessBuilder pb = launched.get(0);
+		Assert.assertEquals(Redirect.INHERIT, pb.redirectInput());
+		Assert.assertEquals(Redirect.INHERIT, pb.redirectOutput());
+		Assert.assertEquals(Redirect.INHERIT, pb.redirectError());
+	}
+
+	@Test
+	public void testStreamTakesPrecedence() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		final CmdSettings cmdSettings = sh("echo out").toCmdSettings();
+		cmdSettings.setStdoutRedirect(Redirect.INHERIT);
+		cmdSettings.setStdout(stdout);
+		cmdSettings.freeze();
+		new Cmd(cmdSettings).execute();
+		Assert.assertEquals("out\n", new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPipeNotSupported() {
+		new CmdBuilder("true").stdout(Redirect.PIPE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutputRedirectForStdin() {
+		new CmdBuilder("true").stdin(Redirect.to(new File("out")));
+	}
+
+	@Test
+	public void testInProcessAppendTo() throws Exception {
+		final File log = tmp.newFile("log");
+		final String testClassesDir = new File(InProcessLauncherTest.TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		for (int i = 0; i < 2; i++) {
+			new JavaClassCmdBuilder(InProcessLauncherTest.TestMain.class.getName())
+				.classpath(testClassesDir)
+				.inProcess(true)
+				.args("echo", i)
+				.stdout(Redirect.appendTo(log))
+				.toCmd()
+				.execute();
+		}
+		Assert.assertEquals("0\n1\n", new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStandbyPoolRejectsStdinRedirect() {
+		new CmdBuilder("cat").stdin(Redirect.INHERIT).toStandbyPool(0, 1);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdResultTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("Not supported on Windows");
+		}
+	}
+
+	private static CmdBuilder exit(final int exitValue) {
+		return new CmdBuilder("sh").arg("-c").arg("exit " + exitValue);
+	}
+
+	@Test
+	public void testResultWithoutException() throws Exception {
+		final long start = System.currentTimeMillis();
+		final CmdResult result = exit(3).toCmd().executeForResult();
+		Assert.assertEquals(3, result.getExitValue());
+		Assert.assertFalse(result.isSuccess());
+		Assert.assertTrue(result.getStartTime() >= start);
+		Assert.assertTrue(result.getDuration(TimeUnit.NANOSECONDS) > 0);
+		try {
+			result.checkExitValue();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(3, e.getExitCode());
+			Assert.assertTrue(e.getStackTrace().length > 0);
+		}
+		Assert.assertTrue(exit(0).toCmd().executeForResult().isSuccess());
+	}
+
+	@Test
+	public void testAcceptedExitValues() throws Exception {
+		exit(1).acceptedExitValues(0, 1).toCmd().execute();
+		Assert.assertTrue(exit(1).acceptedExitValues(0, 1).toCmd().executeForResult().isSuccess());
+		Assert.assertFalse(exit(2).acceptedExitValues(0, 1).toCmd().executeForResult().isSuccess());
+		exit(42).acceptedExitValues(exitValue -> exitValue > 10).toCmd().execute();
+		exit(5).expectedExitValue(5).toCmd().execute();
+		try {
+			exit(2).acceptedExitValues(1, 0).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(2, e.getExitCode());
+		}
+	}
+
+	@Test
+	public void testStacklessExceptions() throws Exception {
+		try {
+			exit(1).stacklessExceptions(true).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(1, e.getExitCode());
+			Assert.assertEquals(0, e.getStackTrace().length);
+		}
+		try {
+			new CmdBuilder("sleep").arg("10").timeout(50).stacklessExceptions(true).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+			Assert.assertEquals(0, e.getStackTrace().length);
+		}
+	}
+
+	@Test
+	public void testOutputHandles() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		final File stderrFile = tmp.newFile("stderr");
+		final CmdResult result = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("echo out; echo err >&2")
+				.stdout(stdout)
+				.stderr(Redirect.appendTo(stderrFile))
+				.toCmd()
+				.executeForResult();
+		Assert.assertSame(stdout, result.getStdout());
+		Assert.assertNull(result.getStdoutFile());
+		Assert.assertNull(result.getStderr());
+		Assert.assertEquals(stderrFile, result.getStderrFile());
+		Assert.assertEquals(4, stderrFile.length());
+	}
+}
@@ -18,10 +18,12 @@ package de.mklinger.commons.exec;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.concurrent.Executor;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 
 import org.apache.commons.io.input.ClosedInputStream;
@@ -60,6 +62,25 @@ public class CmdSettingsTest extends BeanTestBase<CmdSettings> {
 				}
 			};
 		}
+		if (type == WatchdogLimits.class) {
+			return new WatchdogLimits();
+		}
+		if (type == ResourceCaps.class) {
+			return new ResourceCaps();
+		}
+		if (type == QosClass.class) {
+			return QosClass.BATCH;
+		}
+		if (type == Redirect.class) {
+			// valid for input and output
+			return Redirect.INHERIT;
+		}
+		if (type == IntPredicate.class) {
+			return (IntPredicate)exitValue -> exitValue == 0;
+		}
+		if (type == ProcessLauncher.class) {
+			return new DirectProcessLauncher();
+		}
 		if (isParameterizedType(type, Supplier.class, Executor.class)) {
 			return new DefaultExecutorSupplier();
 		}
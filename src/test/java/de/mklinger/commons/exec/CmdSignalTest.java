@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdSignalTest {
+	@Before
+	public void assumeLinux() {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("process state is only tested on Linux");
+		}
+	}
+
+	@Test
+	public void testSuspendResume() throws Exception {
+		final Cmd cmd = new CmdBuilder("sleep").arg("10").toCmd();
+		try {
+			cmd.start();
+			final long pid = cmd.getPid();
+			cmd.suspend();
+			Assert.assertTrue(cmd.isSuspended());
+			Assert.assertEquals('T', waitForState(pid, true));
+			cmd.resume();
+			Assert.assertFalse(cmd.isSuspended());
+			Assert.assertNotEquals('T', waitForState(pid, false));
+		} finally {
+			cmd.destroy();
+		}
+	}
+
+	@Test
+	public void testSignal() throws Exception {
+		final Cmd cmd = new CmdBuilder("sleep").arg("10").toCmd();
+		try {
+			cmd.start();
+			cmd.signal(Signal.TERM);
+			try {
+				cmd.waitFor();
+				Assert.fail("Expected exception");
+			} catch (final ExitCodeException e) {
+				Assert.assertEquals(128 + 15, e.getExitCode());
+			}
+		} finally {
+			cmd.destroy();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSignalNotStarted() {
+		new CmdBuilder("sleep").arg("10").toCmd().signal(Signal.TERM);
+	}
+
+	@Test
+	public void testBackgroundPausePolicy() throws Exception {
+		final BackgroundPausePolicy policy = new BackgroundPausePolicy(80, 50, 10) {
+			@Override
+			protected double getHostPressure() {
+				return 100;
+			}
+		};
+		BackgroundPausePolicy.setActive(policy);
+		final Cmd background = new CmdBuilder("sleep").arg("10").qos(QosClass.BACKGROUND).toCmd();
+		final Cmd interactive = new CmdBuilder("sleep").arg("10").qos(QosClass.INTERACTIVE).toCmd();
+		try {
+			background.start();
+			interactive.start();
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (!background.isSuspended() && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(policy.isPaused());
+			Assert.assertTrue(background.isSuspended());
+			Assert.assertFalse(interactive.isSuspended());
+		} finally {
+			BackgroundPausePolicy.setActive(null);
+			background.destroy();
+			interactive.destroy();
+		}
+	}
+
+	@Test
+	public void testBackgroundPausePolicyWithBackgroundDefault() throws Exception {
+		final BackgroundPausePolicy policy = new BackgroundPausePolicy(80, 50, 10) {
+			@Override
+			protected double getHostPressure() {
+				return 100;
+			}
+		};
+		final QosClass defaultClass = QosPolicy.getDefault().getDefaultClass();
+		QosPolicy.getDefault().setDefaultClass(QosClass.BACKGROUND);
+		BackgroundPausePolicy.setActive(policy);
+		final Cmd first = new CmdBuilder("sleep").arg("10").toCmd();
+		final Cmd second = new CmdBuilder("sleep").arg("10").toCmd();
+		try {
+			first.start();
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (!first.isSuspended() && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(first.isSuspended());
+			// registering while paused suspends right away, the kill command is not paused itself
+			second.start();
+			Assert.assertTrue(second.isSuspended());
+		} finally {
+			BackgroundPausePolicy.setActive(null);
+			QosPolicy.getDefault().setDefaultClass(defaultClass);
+			first.destroy();
+			second.destroy();
+		}
+	}
+
+	/**
+	 * Signals are delivered asynchronously, so the state may change some
+	 * time after the signal was sent.
+	 */
+	private static char waitForState(final long pid, final boolean stopped) throws IOException, InterruptedException {
+		final long deadline = System.currentTimeMillis() + 2000;
+		char state = getState(pid);
+		while ((state == 'T') != stopped && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+			state = getState(pid);
+		}
+		return state;
+	}
+
+	private static char getState(final long pid) throws IOException {
+		final String stat = new String(Files.readAllBytes(Paths.get("/proc/" + pid + "/stat")), StandardCharsets.US_ASCII);
+		return stat.charAt(stat.lastIndexOf(')') + 2);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdTemplateTest {
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("Not supported on Windows");
+		}
+	}
+
+	@Test
+	public void testBind() {
+		final CmdTemplate template = new CmdBuilder("echo")
+				.arg(CmdTemplate.PLACEHOLDER)
+				.arg("x")
+				.arg(CmdTemplate.PLACEHOLDER)
+				.toCmdTemplate();
+		Assert.assertEquals(2, template.getSlotCount());
+		final CmdSettings cmdSettings = template.toCmdSettings("a", new File("b"));
+		Assert.assertEquals(Arrays.asList("echo", "a", "x", new File("b").getAbsolutePath()), cmdSettings.getCommand());
+		try {
+			cmdSettings.setTimeout(1);
+			Assert.fail("Expected exception");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		// the template is not changed
+		Assert.assertEquals(Arrays.asList("echo", CmdTemplate.PLACEHOLDER, "x", CmdTemplate.PLACEHOLDER), template.getCommand());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBindWrongCount() {
+		new CmdBuilder("echo").arg(CmdTemplate.PLACEHOLDER).toCmdTemplate().bind("a", "b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBindNull() {
+		new CmdBuilder("echo").arg(CmdTemplate.PLACEHOLDER).toCmdTemplate().bind((Object)null);
+	}
+
+	@Test
+	public void testEnvironmentFrozen() {
+		final CmdBuilder builder = new CmdBuilder("sh").environment("EXEC_TEMPLATE_TEST", "1");
+		final CmdTemplate template = builder.toCmdTemplate();
+		builder.environment("EXEC_TEMPLATE_TEST", "2");
+		Assert.assertEquals("1", template.getEnvironment().get("EXEC_TEMPLATE_TEST"));
+		Assert.assertSame(template.toCmdSettings().getEnvironment().get("EXEC_TEMPLATE_TEST"), template.toCmdSettings().getEnvironment().get("EXEC_TEMPLATE_TEST"));
+		try {
+			template.getEnvironment().put("x", "y");
+			Assert.fail("Expected exception");
+		} catch (final UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testConcurrentExecute() throws Exception {
+		final CmdTemplate template = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("printf %s \"$EXEC_TEMPLATE_TEST$0\"")
+				.arg(CmdTemplate.PLACEHOLDER)
+				.environment("EXEC_TEMPLATE_TEST", "v")
+				.toCmdTemplate();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final int n = i;
+				futures.add(executor.submit(() -> {
+					final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+					final CmdSettings cmdSettings = new CmdSettings(template.toCmdSettings(n));
+					cmdSettings.setStdout(stdout);
+					new Cmd(cmdSettings).execute();
+					return new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals("v" + i, futures.get(i).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
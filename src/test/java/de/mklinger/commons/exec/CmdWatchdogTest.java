@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Test;
+
+import de.mklinger.commons.exec.ResourceLimitExceededException.Resource;
+import de.mklinger.commons.exec.WatchdogLimits.BreachAction;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CmdWatchdogTest {
+	@Test
+	public void testKillOnCpuTime() {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("/proc is only available on Linux");
+		}
+		try {
+			new CmdBuilder("sh")
+			.arg("-c")
+			.arg("while :; do :; done")
+			.watchdogMaxCpuTime(100)
+			.timeout(20000)
+			.toCmd()
+			.execute();
+			Assert.fail("Expected exception");
+		} catch (final ResourceLimitExceededException e) {
+			Assert.assertEquals(Resource.CPU_TIME, e.getResource());
+			Assert.assertEquals(100, e.getLimit(), 0);
+			Assert.assertTrue(e.getActual() > 100);
+		}
+	}
+
+	@Test
+	public void testKillDescendantsOnRss() {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("/proc is only available on Linux");
+		}
+		try {
+			new CmdBuilder("sh")
+			.arg("-c")
+			.arg("sleep 30; true")
+			.watchdogMaxRss(1024)
+			.timeout(20000)
+			.toCmd()
+			.execute();
+			Assert.fail("Expected exception");
+		} catch (final ResourceLimitExceededException e) {
+			Assert.assertEquals(Resource.RSS, e.getResource());
+		}
+	}
+
+	@Test
+	public void testWarn() {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("/proc is only available on Linux");
+		}
+		new CmdBuilder("sleep")
+		.arg("1.5")
+		.watchdogMaxRss(1024)
+		.watchdogBreachAction(BreachAction.WARN)
+		.toCmd()
+		.execute();
+	}
+
+	@Test
+	public void testThrottleDoesNotResumeSuspended() throws Exception {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("/proc is only available on Linux");
+		}
+		final Cmd cmd = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while :; do :; done")
+				.watchdogMaxCpuShare(0.5)
+				.watchdogBreachAction(BreachAction.THROTTLE)
+				.toCmd();
+		try {
+			cmd.start();
+			final long pid = cmd.getPid();
+			// wait for the first throttle window, then suspend during it
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (getState(pid) != 'T' && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			Assert.assertEquals('T', getState(pid));
+			cmd.suspend();
+			// the throttle pause is about one sample interval long
+			Thread.sleep(CmdWatchdog.DEFAULT_SAMPLE_INTERVAL * 2);
+			Assert.assertEquals('T', getState(pid));
+			Assert.assertTrue(cmd.isSuspended());
+		} finally {
+			cmd.destroy();
+		}
+	}
+
+	private static char getState(final long pid) throws IOException {
+		final String stat = new String(Files.readAllBytes(Paths.get("/proc/" + pid + "/stat")), StandardCharsets.US_ASCII);
+		return stat.charAt(stat.lastIndexOf(')') + 2);
+	}
+}
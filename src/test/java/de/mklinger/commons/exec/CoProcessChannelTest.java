@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CoProcessChannelTest {
+	@Before
+	public void assumeUnix() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("tests use Unix commands");
+		}
+	}
+
+	@Test
+	public void testLinesConcurrent() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (CoProcessChannel channel = new CmdBuilder("cat").toCoProcessChannel(CoProcessFraming.lines())) {
+			final List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				final String request = "request " + i;
+				futures.add(executor.submit(() -> string(channel.execute(bytes(request)))));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals("request " + i, futures.get(i).get());
+			}
+			Assert.assertEquals(1, channel.getStartCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPipelined() throws Exception {
+		try (CoProcessChannel channel = new CmdBuilder("cat").toCoProcessChannel(CoProcessFraming.lengthPrefixed())) {
+			final List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				// include bytes that would break line framing
+				futures.add(channel.submit(bytes(i + "\n\0")));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals(i + "\n\0", string(futures.get(i).get()));
+			}
+			Assert.assertEquals(0, channel.execute(new byte[0]).length);
+		}
+	}
+
+	@Test
+	public void testSentinel() throws Exception {
+		try (CoProcessChannel channel = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do echo \"a $l\"; echo \"b $l\"; echo '{ready}'; done")
+				.toCoProcessChannel(CoProcessFraming.sentinel("\n", "{ready}\n"))) {
+			Assert.assertEquals("a x\nb x\n", string(channel.execute(bytes("x"))));
+			Assert.assertEquals("a y\nb y\n", string(channel.execute(bytes("y"))));
+		}
+	}
+
+	@Test
+	public void testRestartAfterCrash() throws Exception {
+		// answers one request, then exits
+		try (CoProcessChannel channel = new CmdBuilder("head")
+				.arg("-n")
+				.arg("1")
+				.toCoProcessChannel(CoProcessFraming.lines())) {
+			Assert.assertEquals("a", string(channel.execute(bytes("a"))));
+			Assert.assertEquals(1, channel.getStartCount());
+			// let the channel notice the exit
+			Thread.sleep(200);
+			Assert.assertEquals("b", string(channel.execute(bytes("b"))));
+			Assert.assertEquals(2, channel.getStartCount());
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		try (CoProcessChannel channel = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do if [ \"$l\" = slow ]; then sleep 10; fi; echo \"$l\"; done")
+				.timeout(300)
+				.toCoProcessChannel(CoProcessFraming.lines())) {
+			try {
+				channel.execute(bytes("slow"));
+				Assert.fail("Expected exception");
+			} catch (final CmdException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+			}
+			Assert.assertEquals("fast", string(channel.execute(bytes("fast"))));
+			Assert.assertEquals(2, channel.getStartCount());
+		}
+	}
+
+	@Test
+	public void testPendingFailOnClose() throws Exception {
+		final CompletableFuture<byte[]> future;
+		try (CoProcessChannel channel = new CmdBuilder("sleep").arg("10").toCoProcessChannel(CoProcessFraming.lines())) {
+			future = channel.submit(bytes("x"));
+		}
+		try {
+			future.get();
+			Assert.fail("Expected exception");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CmdException);
+		}
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(final byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
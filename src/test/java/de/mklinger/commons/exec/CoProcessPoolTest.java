@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class CoProcessPoolTest {
+	/** Answers each line with its own pid and the line. */
+	private static final String ECHO_PID = "while read l; do echo \"$$ $l\"; done";
+
+	@Before
+	public void assumeUnix() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("tests use Unix commands");
+		}
+	}
+
+	@Test
+	public void testScaleUpUnderLoad() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do sleep 0.2; echo \"$$ $l\"; done")
+				.toCoProcessPool(CoProcessFraming.lines(), 1, 3)) {
+			final List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 9; i++) {
+				futures.add(pool.submit(bytes(String.valueOf(i))));
+			}
+			Assert.assertEquals(3, pool.getWorkerCount());
+			Assert.assertEquals(9, pool.getInFlightCount());
+			final Set<String> pids = new HashSet<>();
+			for (int i = 0; i < futures.size(); i++) {
+				final String[] response = string(futures.get(i).get()).split(" ");
+				Assert.assertEquals(String.valueOf(i), response[1]);
+				pids.add(response[0]);
+			}
+			// least loaded routing spreads the requests evenly
+			Assert.assertEquals(3, pids.size());
+			Assert.assertEquals(9, pool.getRequestCount());
+			Assert.assertEquals(0, pool.getFailureCount());
+		}
+	}
+
+	@Test
+	public void testScaleDownWhenIdle() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do sleep 0.2; echo \"$$ $l\"; done")
+				.toCoProcessPool(CoProcessFraming.lines(), 1, 4)) {
+			pool.setIdleTimeout(100);
+			final List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(pool.submit(bytes("x")));
+			}
+			for (final CompletableFuture<byte[]> future : futures) {
+				future.get();
+			}
+			Assert.assertEquals(4, pool.getWorkerCount());
+			waitFor(() -> pool.getWorkerCount() == 1);
+		}
+	}
+
+	@Test
+	public void testRecycleAfterRequests() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg(ECHO_PID)
+				.toCoProcessPool(CoProcessFraming.lines(), 0, 1)) {
+			pool.setMaxRequestsPerWorker(2);
+			final Set<String> pids = new HashSet<>();
+			for (int i = 0; i < 6; i++) {
+				pids.add(string(pool.execute(bytes("x"))).split(" ")[0]);
+			}
+			Assert.assertEquals(3, pids.size());
+			Assert.assertEquals(3, pool.getRecycleCount());
+			Assert.assertEquals(3, pool.getWorkerStartCount());
+		}
+	}
+
+	@Test
+	public void testRecycleAfterAge() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg(ECHO_PID)
+				.toCoProcessPool(CoProcessFraming.lines(), 0, 1)) {
+			pool.setMaxWorkerAge(100);
+			final String pid1 = string(pool.execute(bytes("x"))).split(" ")[0];
+			waitFor(() -> pool.getRecycleCount() == 1);
+			final String pid2 = string(pool.execute(bytes("x"))).split(" ")[0];
+			Assert.assertNotEquals(pid1, pid2);
+		}
+	}
+
+	@Test
+	public void testQuarantineAfterTimeout() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do if [ \"$l\" = slow ]; then sleep 10; fi; echo \"$$ $l\"; done")
+				.timeout(300)
+				.toCoProcessPool(CoProcessFraming.lines(), 1, 2)) {
+			final String pid1 = string(pool.execute(bytes("fast"))).split(" ")[0];
+			try {
+				pool.execute(bytes("slow"));
+				Assert.fail("Expected exception");
+			} catch (final CmdException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+			}
+			Assert.assertEquals(1, pool.getQuarantineCount());
+			Assert.assertEquals(1, pool.getFailureCount());
+			final String pid2 = string(pool.execute(bytes("fast"))).split(" ")[0];
+			Assert.assertNotEquals(pid1, pid2);
+		}
+	}
+
+	@Test
+	public void testWorkersShareThreads() throws Exception {
+		// pipe threads from a pre-started executor, so that only threads of the pool are counted
+		final ThreadPoolExecutor executor = (ThreadPoolExecutor)Executors.newFixedThreadPool(8, new DeamonThreadCmdThreadFactory());
+		executor.prestartAllCoreThreads();
+		try {
+			final int threadsBefore = Thread.activeCount();
+			try (CoProcessPool pool = new CmdBuilder("sh")
+					.arg("-c")
+					.arg(ECHO_PID)
+					.executorSupplier(() -> executor)
+					.toCoProcessPool(CoProcessFraming.lines(), 4, 4)) {
+				waitFor(() -> pool.getProcessStartCount() == 4);
+				Assert.assertEquals("x", string(pool.execute(bytes("x"))).split(" ")[1]);
+				// one shared scheduler thread, not one or two threads per worker
+				final int added = Thread.activeCount() - threadsBefore;
+				Assert.assertTrue("Too many threads: " + added, added <= 2);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCrashedWorkerIsDetected() throws Exception {
+		try (CoProcessPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("while read l; do if [ \"$l\" = exit ]; then exit 1; fi; echo \"$$ $l\"; done")
+				.toCoProcessPool(CoProcessFraming.lines(), 1, 1)) {
+			final String pid1 = string(pool.execute(bytes("x"))).split(" ")[0];
+			try {
+				pool.execute(bytes("exit"));
+				Assert.fail("Expected exception");
+			} catch (final CmdException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Co-process terminated"));
+			}
+			final String pid2 = string(pool.execute(bytes("x"))).split(" ")[0];
+			Assert.assertNotEquals(pid1, pid2);
+		}
+	}
+
+	private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > end) {
+				Assert.fail("Condition not met in time");
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(final byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
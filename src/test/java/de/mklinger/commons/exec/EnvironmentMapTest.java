@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class EnvironmentMapTest {
+	private static String anyInheritedName() {
+		if (System.getenv().isEmpty()) {
+			throw new AssumptionViolatedException("Empty environment");
+		}
+		return System.getenv().keySet().iterator().next();
+	}
+
+	@Test
+	public void testOverlay() {
+		final String inherited = anyInheritedName();
+		final EnvironmentMap env = new EnvironmentMap(true, Collections.singletonMap("EXEC_ENV_TEST", "1"), Collections.singleton(inherited));
+		Assert.assertEquals("1", env.get("EXEC_ENV_TEST"));
+		Assert.assertNull(env.get(inherited));
+		Assert.assertFalse(env.containsKey(inherited));
+		Assert.assertEquals(System.getenv().size(), env.size());
+
+		final Map<String, String> expected = new HashMap<>(System.getenv());
+		expected.remove(inherited);
+		expected.put("EXEC_ENV_TEST", "1");
+		Assert.assertEquals(expected, env);
+	}
+
+	@Test
+	public void testChangeAndCopy() {
+		final String inherited = anyInheritedName();
+		final EnvironmentMap env = new EnvironmentMap(true, null, null);
+		Assert.assertEquals(System.getenv(), env);
+		Assert.assertEquals(System.getenv().get(inherited), env.remove(inherited));
+		Assert.assertEquals(System.getenv().size() - 1, env.size());
+
+		final EnvironmentMap copy = new EnvironmentMap(env);
+		copy.put(inherited, "x");
+		Assert.assertEquals("x", copy.get(inherited));
+		Assert.assertNull(env.get(inherited));
+		Assert.assertEquals(System.getenv().size(), copy.size());
+
+		copy.clear();
+		Assert.assertTrue(copy.isEmpty());
+		Assert.assertFalse(env.isEmpty());
+	}
+
+	@Test
+	public void testApplyTo() {
+		final String inherited = anyInheritedName();
+		final EnvironmentMap env = new EnvironmentMap(true, Collections.singletonMap("EXEC_ENV_TEST", "1"), Collections.singleton(inherited));
+		final Map<String, String> pbEnv = new ProcessBuilder().environment();
+		env.applyTo(pbEnv);
+		Assert.assertEquals(env, pbEnv);
+
+		final EnvironmentMap notInherited = new EnvironmentMap(false, Collections.singletonMap("EXEC_ENV_TEST", "1"), null);
+		final Map<String, String> pbEnv2 = new ProcessBuilder().environment();
+		notInherited.applyTo(pbEnv2);
+		Assert.assertEquals(Collections.singletonMap("EXEC_ENV_TEST", "1"), pbEnv2);
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("Not supported on Windows");
+		}
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		new CmdBuilder("sh")
+			.arg("-c")
+			.arg("printf %s \"$EXEC_ENV_TEST:${HOME-unset}\"")
+			.environment("EXEC_ENV_TEST", "1")
+			.withoutEnvironment("HOME")
+			.stdout(stdout)
+			.toCmd()
+			.execute();
+		Assert.assertEquals("1:unset", new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testBuilderWithoutEnvironmentOnly() {
+		final String inherited = anyInheritedName();
+		final Map<String, String> env = new CmdBuilder("command").withoutEnvironment(inherited).toCmdSettings().getEnvironment();
+		Assert.assertEquals(System.getenv().size() - 1, env.size());
+		Assert.assertFalse(env.containsKey(inherited));
+	}
+
+	@Test
+	public void testBuilderNotInherited() {
+		Assert.assertTrue(new CmdBuilder("command").inheritEnvironment(false).toCmdSettings().getEnvironment().isEmpty());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ExecutableResolverTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("Not supported on Windows");
+		}
+	}
+
+	private static File createExecutable(final File dir, final String name) throws IOException {
+		final File f = new File(dir, name);
+		Assert.assertTrue(f.createNewFile());
+		Assert.assertTrue(f.setExecutable(true));
+		return f;
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		final File dir1 = tmp.newFolder("bin1");
+		final File dir2 = tmp.newFolder("bin2");
+		final File tool = createExecutable(dir2, "tool");
+		createExecutable(dir1, "first");
+		createExecutable(dir2, "first");
+		Assert.assertTrue(new File(dir1, "notexecutable").createNewFile());
+
+		final ExecutableResolver resolver = new ExecutableResolver(dir1 + File.pathSeparator + dir2, 60_000);
+		Assert.assertEquals(tool.getAbsolutePath(), resolver.resolve("tool"));
+		Assert.assertEquals(new File(dir1, "first").getAbsolutePath(), resolver.resolve("first"));
+		Assert.assertNull(resolver.resolve("notexecutable"));
+		Assert.assertEquals(tool.getAbsolutePath(), resolver.resolveFirst("missing", "tool"));
+		Assert.assertEquals(tool.getAbsolutePath(), resolver.resolve(tool.getAbsolutePath()));
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		final File dir = tmp.newFolder("bin");
+		createExecutable(dir, "tool");
+		final ExecutableResolver resolver = new ExecutableResolver(dir.getAbsolutePath(), 60_000);
+		resolver.resolve("tool");
+		resolver.resolve("tool");
+		Assert.assertNull(resolver.resolve("missing"));
+		Assert.assertNull(resolver.resolve("missing"));
+		Assert.assertEquals(2, resolver.getScanCount());
+	}
+
+	@Test
+	public void testInvalidateOnDirectoryChange() throws Exception {
+		final File dir = tmp.newFolder("bin");
+		final ExecutableResolver resolver = new ExecutableResolver(dir.getAbsolutePath(), 0);
+		Assert.assertNull(resolver.resolve("tool"));
+		// make sure the directory modification time changes
+		Assert.assertTrue(dir.setLastModified(dir.lastModified() - 10_000));
+		Assert.assertNull(resolver.resolve("tool"));
+		final File tool = createExecutable(dir, "tool");
+		Assert.assertTrue(dir.setLastModified(System.currentTimeMillis()));
+		Assert.assertEquals(tool.getAbsolutePath(), resolver.resolve("tool"));
+	}
+
+	@Test
+	public void testCmdBuilderResolveExecutable() throws Exception {
+		final CmdSettings cmdSettings = new CmdBuilder("sh").resolveExecutable().arg("-c").arg("true").toCmdSettings();
+		Assert.assertTrue(new File(cmdSettings.getCommand().get(0)).isAbsolute());
+		new CmdBuilder("sh").resolveExecutable().arg("-c").arg("true").toCmd().execute();
+		Assert.assertEquals("doesnotexist", new CmdBuilder("doesnotexist").resolveExecutable().toCmdSettings().getCommand().get(0));
+	}
+
+	@Test
+	public void testCmdBuilderResolveExecutableWithOwnPath() throws Exception {
+		final File dir = tmp.newFolder("bin");
+		createExecutable(dir, "sh");
+		final CmdSettings cmdSettings = new CmdBuilder("sh").resolveExecutable().environment("PATH", dir.getAbsolutePath()).toCmdSettings();
+		Assert.assertEquals("sh", cmdSettings.getCommand().get(0));
+	}
+
+	@Test
+	public void testCmdBuilderResolveRelativeExecutable() throws Exception {
+		final File dir = tmp.newFolder("work");
+		createExecutable(dir, "tool");
+		final CmdSettings cmdSettings = new CmdBuilder("./tool").resolveExecutable().directory(dir).toCmdSettings();
+		Assert.assertEquals("./tool", cmdSettings.getCommand().get(0));
+	}
+
+	@Test
+	public void testFindExecutable() {
+		Assert.assertNotNull(CmdUtil.findExecutable("doesnotexist", "sh"));
+		Assert.assertNull(CmdUtil.findExecutable("doesnotexist"));
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class InProcessLauncherTest {
+	private String testClassesDir;
+
+	@Before
+	public void setUp() throws URISyntaxException {
+		testClassesDir = new File(TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+	}
+
+	private JavaClassCmdBuilder builder(final String... args) {
+		return new JavaClassCmdBuilder(TestMain.class.getName())
+				.classpath(testClassesDir)
+				.inProcess(true)
+				.args((Object[])args);
+	}
+
+	@Test
+	public void testStdoutAndStderr() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		builder("echo", "a", "b")
+			.stdout(stdout)
+			.stderr(stderr)
+			.toCmd()
+			.execute();
+		Assert.assertEquals("a b\n", string(stdout.toByteArray()));
+		Assert.assertEquals("err", string(stderr.toByteArray()));
+	}
+
+	@Test
+	public void testStdin() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		builder("cat")
+			.stdin(bytes("input"))
+			.stdout(stdout)
+			.toCmd()
+			.execute();
+		Assert.assertEquals("input", string(stdout.toByteArray()));
+	}
+
+	@Test
+	public void testIsolatedClassLoader() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			builder("count").stdout(stdout).toCmd().execute();
+			Assert.assertEquals("1 isolated\n", string(stdout.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testSystemExit() throws Exception {
+		try {
+			builder("exit", "3").inProcessExitInterception(true).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(3, e.getExitCode());
+		}
+		builder("exit", "0").inProcessExitInterception(true).toCmd().execute();
+		Assert.assertNull(getSecurityManager());
+	}
+
+	@Test
+	public void testHooksAreRemoved() throws Exception {
+		final PrintStream out = System.out;
+		final PrintStream err = System.err;
+		final InputStream in = System.in;
+		builder("echo", "a").stdout(new ByteArrayOutputStream()).toCmd().execute();
+		Assert.assertSame(out, System.out);
+		Assert.assertSame(err, System.err);
+		Assert.assertSame(in, System.in);
+		Assert.assertNull(getSecurityManager());
+	}
+
+	@SuppressWarnings("removal")
+	private static Object getSecurityManager() {
+		return System.getSecurityManager();
+	}
+
+	@Test
+	public void testException() throws Exception {
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		try {
+			builder("throw").stderr(stderr).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(1, e.getExitCode());
+		}
+		Assert.assertTrue(string(stderr.toByteArray()).contains("IllegalStateException: failed"));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final long start = System.currentTimeMillis();
+		try {
+			builder("sleep").timeout(200).toCmd().execute();
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final String arg = String.valueOf(i);
+				futures.add(executor.submit(() -> {
+					final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+					builder("echo", arg).stdout(stdout).toCmd().execute();
+					return string(stdout.toByteArray());
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals(i + "\n", futures.get(i).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(final byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Target run in-process. Must not use test dependencies, as it is
+	 * loaded from the test classes directory only.
+	 */
+	public static class TestMain {
+		private static int count;
+
+		public static void main(final String[] args) throws IOException, InterruptedException {
+			switch (args[0]) {
+			case "echo":
+				final StringBuilder sb = new StringBuilder();
+				for (int i = 1; i < args.length; i++) {
+					if (i > 1) {
+						sb.append(' ');
+					}
+					sb.append(args[i]);
+				}
+				System.out.println(sb);
+				System.err.print("err");
+				break;
+			case "cat":
+				final byte[] buf = new byte[1024];
+				int n;
+				while ((n = System.in.read(buf)) != -1) {
+					System.out.write(buf, 0, n);
+				}
+				System.out.flush();
+				break;
+			case "count":
+				count++;
+				final boolean isolated = TestMain.class.getClassLoader() != ClassLoader.getSystemClassLoader();
+				System.out.println(count + (isolated ? " isolated" : " shared"));
+				break;
+			case "exit":
+				System.exit(Integer.parseInt(args[1]));
+				break;
+			case "throw":
+				throw new IllegalStateException("failed");
+			case "sleep":
+				Thread.sleep(10_000);
+				break;
+			default:
+				throw new IllegalArgumentException(args[0]);
+			}
+		}
+	}
+}
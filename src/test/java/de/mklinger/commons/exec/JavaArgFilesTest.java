@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JavaArgFilesTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private String testClassesDir;
+	private String[] hugeClasspath;
+
+	@Before
+	public void setUp() throws Exception {
+		testClassesDir = new File(TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		hugeClasspath = new String[5000];
+		for (int i = 0; i < hugeClasspath.length; i++) {
+			// with duplicates
+			hugeClasspath[i] = "/does/not/exist/lib-" + (i % 2500) + ".jar";
+		}
+	}
+
+	private JavaClassCmdBuilder builder(final File argFileDirectory) {
+		return new JavaClassCmdBuilder(TestMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.classpath(hugeClasspath)
+				.argFileDirectory(argFileDirectory)
+				.systemProperty("prop", "a \"quoted\" value with \\ and spaces")
+				.arg("arg");
+	}
+
+	@Test
+	public void testDedupPath() {
+		final String sep = File.pathSeparator;
+		Assert.assertEquals("a" + sep + "b", JavaArgFiles.dedupPath("a" + sep + "./a" + sep + "b" + sep + "a/../b" + sep));
+		Assert.assertEquals("dir/*", JavaArgFiles.dedupPath("dir/*"));
+	}
+
+	@Test
+	public void testCanonicalizePath() throws Exception {
+		final File dir = tmp.newFolder("dir");
+		final String sep = File.pathSeparator;
+		final String canonical = dir.getCanonicalPath();
+		Assert.assertEquals(canonical + sep + canonical + File.separator + "*",
+				JavaArgFiles.canonicalizePath("dir" + sep + "./dir/" + sep + "dir/*", tmp.getRoot()));
+	}
+
+	@Test
+	public void testArgFile() throws Exception {
+		final File argFileDirectory = tmp.newFolder("argfiles");
+		final List<String> command = builder(argFileDirectory).toCmdSettings().getCommand();
+		Assert.assertEquals(command.toString(), 3, command.size());
+		Assert.assertTrue(command.get(1).startsWith("@" + argFileDirectory.getAbsolutePath()));
+		Assert.assertEquals("arg", command.get(2));
+		Assert.assertEquals(command, builder(argFileDirectory).toCmdSettings().getCommand());
+		Assert.assertEquals(1, argFileDirectory.list().length);
+
+		Assert.assertEquals("a \"quoted\" value with \\ and spaces arg", execute(builder(argFileDirectory)));
+	}
+
+	@Test
+	public void testPathingJar() throws Exception {
+		final File argFileDirectory = tmp.newFolder("argfiles");
+		final JavaClassCmdBuilder builder = builder(argFileDirectory).pathingJar(true);
+		final List<String> command = builder.toCmdSettings().getCommand();
+		final int cpIdx = command.indexOf("-cp");
+		Assert.assertTrue(command.toString(), cpIdx != -1);
+		Assert.assertTrue(command.get(cpIdx + 1).endsWith(".jar"));
+		Assert.assertEquals(new File(command.get(cpIdx + 1)).getParentFile(), argFileDirectory);
+
+		Assert.assertEquals("a \"quoted\" value with \\ and spaces arg", execute(builder));
+	}
+
+	@Test
+	public void testThreshold() throws Exception {
+		final File argFileDirectory = tmp.newFolder("argfiles");
+		final List<String> command = new JavaClassCmdBuilder(TestMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.argFileDirectory(argFileDirectory)
+				.toCmdSettings()
+				.getCommand();
+		Assert.assertEquals(testClassesDir, command.get(command.indexOf("-cp") + 1));
+
+		final List<String> never = builder(argFileDirectory).argFileThreshold(-1).toCmdSettings().getCommand();
+		Assert.assertTrue(never.contains("-cp"));
+		Assert.assertEquals(0, argFileDirectory.list().length);
+	}
+
+	@Test
+	public void testDefaultDirectory() throws Exception {
+		final String tmpdir = System.getProperty("java.io.tmpdir");
+		System.setProperty("java.io.tmpdir", tmp.getRoot().getAbsolutePath());
+		try {
+			final File directory = JavaArgFiles.getDefaultDirectory();
+			Assert.assertTrue(directory.getName().endsWith(System.getProperty("user.name")));
+			Assert.assertEquals(3, builder(null).toCmdSettings().getCommand().size());
+			Assume.assumeTrue(directory.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+			Assert.assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.toPath())));
+
+			// only root can hand the directory to someone else
+			Assume.assumeTrue("root".equals(System.getProperty("user.name")));
+			Files.setOwner(directory.toPath(), directory.toPath().getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName("nobody"));
+			Assert.assertTrue(builder(null).toCmdSettings().getCommand().size() > 3);
+		} finally {
+			System.setProperty("java.io.tmpdir", tmpdir);
+		}
+	}
+
+	private static String execute(final JavaClassCmdBuilder builder) throws CmdException {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		builder.stdout(stdout).toCmd().execute();
+		return new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public static class TestMain {
+		public static void main(final String[] args) {
+			System.out.print(System.getProperty("prop") + " " + String.join(" ", args));
+		}
+	}
+}
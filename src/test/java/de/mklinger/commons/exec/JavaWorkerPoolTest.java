@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JavaWorkerPoolTest {
+	private JavaWorkerPool pool;
+
+	@Before
+	public void setUp() throws URISyntaxException {
+		final File testClassesDir = new File(TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		pool = new JavaClassCmdBuilder(TestMain.class.getName())
+				.classpath(testClassesDir.getAbsolutePath())
+				.xmx("64m")
+				.arg("base")
+				.timeout(10_000)
+				.toWorkerPool(1, 2);
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testJobsShareWorker() throws Exception {
+		Assert.assertEquals("base a b\n", run("echo", "a", "b"));
+		final String pid = run("pid");
+		Assert.assertEquals(pid, run("pid"));
+		Assert.assertEquals(1, pool.getWorkerStartCount());
+	}
+
+	@Test
+	public void testStdinAndStderr() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		final int exitValue = pool.execute(Arrays.asList("cat"), null, bytes("input"), stdout, stderr);
+		Assert.assertEquals(0, exitValue);
+		Assert.assertEquals("input", string(stdout.toByteArray()));
+		Assert.assertEquals("done", string(stderr.toByteArray()));
+	}
+
+	@Test
+	public void testWorkingDirectory() throws Exception {
+		final File dir = new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile();
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		pool.execute(Collections.singletonList("userdir"), dir, new byte[0], stdout, null);
+		Assert.assertEquals(dir.getAbsolutePath() + "\n", string(stdout.toByteArray()));
+	}
+
+	@Test
+	public void testSystemExit() throws Exception {
+		final String pid = run("pid");
+		try {
+			run("exit", "3");
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(3, e.getExitCode());
+		}
+		Assert.assertNotEquals(pid, run("pid"));
+	}
+
+	@Test
+	public void testExceptionRecyclesWorker() throws Exception {
+		final String pid = run("pid");
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		final int exitValue = executeIgnoreExitValue(Arrays.asList("throw"), stderr);
+		Assert.assertEquals(1, exitValue);
+		Assert.assertTrue(string(stderr.toByteArray()), string(stderr.toByteArray()).contains("IllegalStateException: failed"));
+		Assert.assertNotEquals(pid, run("pid"));
+	}
+
+	@Test
+	public void testMaxJobsPerWorker() throws Exception {
+		pool.setMaxJobsPerWorker(2);
+		final String pid1 = run("pid");
+		Assert.assertEquals(pid1, run("pid"));
+		final String pid2 = run("pid");
+		Assert.assertNotEquals(pid1, pid2);
+	}
+
+	@Test
+	public void testConcurrentJobs() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final String arg = String.valueOf(i);
+				futures.add(executor.submit(() -> run("echo", arg)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals("base " + i + "\n", futures.get(i).get());
+			}
+			Assert.assertTrue(pool.getWorkerStartCount() <= 2);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private int executeIgnoreExitValue(final List<String> args, final ByteArrayOutputStream stderr) throws CmdException {
+		try {
+			return pool.execute(args, null, new byte[0], null, stderr);
+		} catch (final ExitCodeException e) {
+			return e.getExitCode();
+		}
+	}
+
+	private String run(final String... args) throws CmdException {
+		return string(pool.executeForStdout(args));
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(final byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Target run by the worker JVMs. The first argument is the base
+	 * argument of the builder.
+	 */
+	public static class TestMain {
+		public static void main(final String[] args) throws IOException {
+			switch (args[1]) {
+			case "echo":
+				System.out.println(String.join(" ", args).replace(" echo", ""));
+				break;
+			case "cat":
+				final byte[] buf = new byte[1024];
+				int n;
+				while ((n = System.in.read(buf)) != -1) {
+					System.out.write(buf, 0, n);
+				}
+				System.err.print("done");
+				break;
+			case "pid":
+				System.out.print(ManagementFactory.getRuntimeMXBean().getName());
+				break;
+			case "userdir":
+				System.out.println(System.getProperty("user.dir"));
+				break;
+			case "exit":
+				System.exit(Integer.parseInt(args[2]));
+				break;
+			case "throw":
+				throw new IllegalStateException("failed");
+			default:
+				throw new IllegalArgumentException(args[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JdkRegistryTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testJavaHomeCachedByExecutable() throws Exception {
+		final String java = JavaHome.getByRuntime().getJavaExecutable().getAbsolutePath();
+		final JavaHome javaHome = JavaHome.getByExecutableCached(java);
+		Assert.assertSame(javaHome, JavaHome.getByExecutableCached(java));
+		Assert.assertEquals(JavaHome.getByRuntime().getFeatureVersion(), javaHome.getFeatureVersion());
+	}
+
+	@Test
+	public void testDiscoverRuntime() throws Exception {
+		final File cacheFile = new File(tmp.getRoot(), "jdks.properties");
+		final JdkRegistry registry = new JdkRegistry(cacheFile, Collections.emptyList());
+		final List<Jdk> jdks = registry.getJdks();
+		final File runtimeJava = JavaHome.getByRuntime().getJavaExecutable().getCanonicalFile();
+		Jdk runtime = null;
+		for (final Jdk jdk : jdks) {
+			if (jdk.getJavaExecutable().equals(runtimeJava)) {
+				runtime = jdk;
+			}
+		}
+		Assert.assertNotNull(jdks.toString(), runtime);
+		Assert.assertEquals(JavaHome.getByRuntime().getFeatureVersion(), runtime.getFeatureVersion());
+
+		final Properties cache = new Properties();
+		try (InputStream in = Files.newInputStream(cacheFile.toPath())) {
+			cache.load(in);
+		}
+		Assert.assertTrue(cache.getProperty(runtimeJava.getPath()).startsWith(runtimeJava.lastModified() + "|" + runtime.getVersion() + "|"));
+
+		final String version = String.valueOf(runtime.getFeatureVersion());
+		Assert.assertEquals(runtime.getFeatureVersion(), registry.find(version).getFeatureVersion());
+		Assert.assertNotNull(registry.find("8+"));
+		Assert.assertNull(registry.find("1-7"));
+	}
+
+	@Test
+	public void testCacheEntryUsed() throws Exception {
+		final File cacheFile = new File(tmp.getRoot(), "jdks.properties");
+		final File runtimeJava = JavaHome.getByRuntime().getJavaExecutable().getCanonicalFile();
+		final Properties cache = new Properties();
+		cache.setProperty(runtimeJava.getPath(), runtimeJava.lastModified() + "|99.0.1|Cached Vendor");
+		try (OutputStream out = Files.newOutputStream(cacheFile.toPath())) {
+			cache.store(out, null);
+		}
+		final Jdk jdk = new JdkRegistry(cacheFile, Collections.emptyList()).find("99");
+		Assert.assertNotNull(jdk);
+		Assert.assertEquals("Cached Vendor", jdk.getVendor());
+	}
+
+	@Test
+	public void testForeignCacheFileIgnored() throws Exception {
+		// only root can hand the file to someone else
+		Assume.assumeTrue("root".equals(System.getProperty("user.name")));
+		final File cacheFile = new File(tmp.getRoot(), "jdks.properties");
+		final File runtimeJava = JavaHome.getByRuntime().getJavaExecutable().getCanonicalFile();
+		final Properties cache = new Properties();
+		cache.setProperty(runtimeJava.getPath(), runtimeJava.lastModified() + "|99.0.1|Other User");
+		try (OutputStream out = Files.newOutputStream(cacheFile.toPath())) {
+			cache.store(out, null);
+		}
+		Files.setOwner(cacheFile.toPath(), cacheFile.toPath().getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName("nobody"));
+		Assert.assertNull(new JdkRegistry(cacheFile, Collections.emptyList()).find("99"));
+	}
+
+	@Test
+	public void testDefaultCacheDirectory() throws Exception {
+		final String tmpdir = System.getProperty("java.io.tmpdir");
+		System.setProperty("java.io.tmpdir", tmp.getRoot().getAbsolutePath());
+		try {
+			final File directory = JdkRegistry.getDefaultCacheDirectory();
+			Assert.assertTrue(directory.getName().endsWith(System.getProperty("user.name")));
+			new JdkRegistry(new File(directory, "jdks.properties"), Collections.emptyList()).getJdks();
+			Assume.assumeTrue(directory.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+			Assert.assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.toPath())));
+		} finally {
+			System.setProperty("java.io.tmpdir", tmpdir);
+		}
+	}
+
+	@Test
+	public void testSearchDirectory() throws Exception {
+		final File javaHome = JavaHome.getByRuntime().getJavaHome().getCanonicalFile();
+		final JdkRegistry registry = new JdkRegistry(null, Collections.singletonList(javaHome.getParentFile()));
+		boolean found = false;
+		for (final Jdk jdk : registry.getJdks()) {
+			found |= jdk.getJavaHome().equals(javaHome);
+		}
+		Assert.assertTrue(found);
+	}
+
+	@Test
+	public void testProbeByRunning() throws Exception {
+		final File runtimeJava = JavaHome.getByRuntime().getJavaExecutable();
+		final Jdk jdk = JdkRegistry.probe(runtimeJava);
+		Assert.assertEquals(System.getProperty("java.version"), jdk.getVersion());
+	}
+
+	@Test
+	public void testParseConstraint() {
+		Assert.assertArrayEquals(new int[] { 17, 17 }, JdkRegistry.parseConstraint("17"));
+		Assert.assertArrayEquals(new int[] { 11, Integer.MAX_VALUE }, JdkRegistry.parseConstraint("11+"));
+		Assert.assertArrayEquals(new int[] { 11, 17 }, JdkRegistry.parseConstraint("11 - 17"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConstraint() {
+		JdkRegistry.parseConstraint("latest");
+	}
+
+	@Test
+	public void testBuilderJavaVersion() throws Exception {
+		final int featureVersion = JavaHome.getByRuntime().getFeatureVersion();
+		final List<String> command = new JavaClassCmdBuilder("Main")
+				.javaVersion(featureVersion + "+")
+				.toCmdSettings()
+				.getCommand();
+		Assert.assertTrue(new File(command.get(0)).isAbsolute());
+	}
+}
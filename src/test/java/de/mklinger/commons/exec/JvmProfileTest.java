@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class JvmProfileTest {
+	private String testClassesDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testClassesDir = new File(ExecutableWithMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		JvmProfileHistory.clear();
+	}
+
+	@After
+	public void tearDown() {
+		JvmProfileHistory.clear();
+	}
+
+	private JavaClassCmdBuilder builder(final JvmProfile jvmProfile) {
+		return new JavaClassCmdBuilder(ExecutableWithMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.jvmProfile(jvmProfile)
+				.stdout(new File("/dev/null"))
+				.stderr(new File("/dev/null"));
+	}
+
+	@Test
+	public void testExecuteAllProfiles() throws Exception {
+		for (final JvmProfile jvmProfile : JvmProfile.values()) {
+			builder(jvmProfile).toCmd().execute();
+		}
+	}
+
+	@Test
+	public void testShortLived() {
+		final List<String> command = builder(JvmProfile.SHORT_LIVED).toCmdSettings().getCommand();
+		Assert.assertTrue(command.contains("-XX:+UseSerialGC"));
+		Assert.assertTrue(command.contains("-XX:TieredStopAtLevel=1"));
+		Assert.assertEquals(CmdUtil.isLinux(), command.contains("-XX:+UseContainerSupport"));
+	}
+
+	@Test
+	public void testExplicitOptionsWin() {
+		final List<String> command = builder(JvmProfile.THROUGHPUT)
+				.addJavaOption("-XX:+UseG1GC")
+				.xmx("64m")
+				.toCmdSettings()
+				.getCommand();
+		Assert.assertFalse(command.contains("-XX:+UseParallelGC"));
+		Assert.assertTrue(command.indexOf("-XX:MaxRAMPercentage=75") < command.indexOf("-Xmx64m"));
+	}
+
+	@Test
+	public void testJava8Options() {
+		for (final JvmProfile jvmProfile : JvmProfile.values()) {
+			for (final String option : jvmProfile.getJavaOptions(8, false)) {
+				Assert.assertFalse(option, option.contains("RAMPercentage") || option.contains("ContainerSupport"));
+			}
+		}
+	}
+
+	@Test
+	public void testAuto() throws Exception {
+		Assert.assertFalse(builder(JvmProfile.AUTO).toCmdSettings().getCommand().toString().contains("GC"));
+
+		builder(JvmProfile.AUTO).toCmd().execute();
+		final long end = System.currentTimeMillis() + 5000;
+		while (JvmProfileHistory.choose(ExecutableWithMain.class.getName()) == null && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(JvmProfile.SHORT_LIVED, JvmProfileHistory.choose(ExecutableWithMain.class.getName()));
+		Assert.assertTrue(builder(JvmProfile.AUTO).toCmdSettings().getCommand().contains("-XX:+UseSerialGC"));
+
+		for (int i = 0; i < 10; i++) {
+			JvmProfileHistory.record(ExecutableWithMain.class.getName(), 60_000);
+		}
+		Assert.assertTrue(builder(JvmProfile.AUTO).toCmdSettings().getCommand().contains("-XX:+UseParallelGC"));
+	}
+}
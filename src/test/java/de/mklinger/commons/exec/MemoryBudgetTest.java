@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class MemoryBudgetTest {
+	private static final long MB = 1024 * 1024;
+
+	private String testClassesDir;
+	private MemoryBudget budget;
+
+	@Before
+	public void setUp() throws Exception {
+		testClassesDir = new File(TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		budget = new MemoryBudget(1000 * MB);
+		budget.setNativeOverhead(100 * MB);
+	}
+
+	@Test
+	public void testParseSize() {
+		Assert.assertEquals(83886080, MemoryBudget.parseSize("83886080"));
+		Assert.assertEquals(81920 * 1024, MemoryBudget.parseSize("81920k"));
+		Assert.assertEquals(80 * MB, MemoryBudget.parseSize("80M"));
+		Assert.assertEquals(2048 * MB, MemoryBudget.parseSize("2g"));
+	}
+
+	@Test
+	public void testWaitForBudget() throws Exception {
+		Assert.assertEquals(400 * MB, budget.acquire(400 * MB, 400 * MB));
+		Assert.assertEquals(400 * MB, budget.acquire(400 * MB, 400 * MB));
+		Assert.assertEquals(1000 * MB, budget.getUsed());
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Long> third = executor.submit(() -> budget.acquire(400 * MB, 400 * MB));
+			waitFor(() -> budget.getWaitingCount() == 1);
+			Assert.assertFalse(third.isDone());
+			budget.release(400 * MB);
+			Assert.assertEquals(400 * MB, third.get(5, TimeUnit.SECONDS).longValue());
+			Assert.assertEquals(2, budget.getRunningCount());
+			Assert.assertEquals(3, budget.getAdmittedCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testShrink() throws Exception {
+		budget.acquire(600 * MB, 600 * MB);
+		Assert.assertEquals(200 * MB, budget.acquire(600 * MB, 100 * MB));
+		Assert.assertEquals(1, budget.getShrunkCount());
+	}
+
+	@Test
+	public void testOversizedRunsAlone() throws Exception {
+		Assert.assertEquals(2000 * MB, budget.acquire(2000 * MB, 2000 * MB));
+		budget.release(2000 * MB);
+		Assert.assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testShrinkXmx() throws Exception {
+		budget.acquire(600 * MB, 600 * MB);
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		builder()
+			.xmx("600m")
+			.minXmx("64m")
+			.stdout(stdout)
+			.toCmd()
+			.execute();
+		final long maxMemory = Long.parseLong(new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertTrue(String.valueOf(maxMemory), maxMemory <= 200 * MB);
+		Assert.assertEquals(1, budget.getShrunkCount());
+		waitFor(() -> budget.getRunningCount() == 1);
+		Assert.assertEquals(700 * MB, budget.getUsed());
+	}
+
+	@Test
+	public void testShrinkXmxWrappedCommand() throws Exception {
+		budget.acquire(600 * MB, 600 * MB);
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		builder()
+			.qos(QosClass.BACKGROUND)
+			.xmx("600m")
+			.minXmx("64m")
+			.stdout(stdout)
+			.toCmd()
+			.execute();
+		final long maxMemory = Long.parseLong(new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertTrue(String.valueOf(maxMemory), maxMemory <= 200 * MB);
+	}
+
+	@Test
+	public void testQueueFork() throws Exception {
+		budget.acquire(600 * MB, 600 * MB);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<?> fork = executor.submit(() -> {
+				builder().xmx("600m").stdout(new ByteArrayOutputStream()).toCmd().execute();
+				return null;
+			});
+			waitFor(() -> budget.getWaitingCount() == 1);
+			budget.release(600 * MB);
+			fork.get(10, TimeUnit.SECONDS);
+			waitFor(() -> budget.getRunningCount() == 0);
+			Assert.assertEquals(0, budget.getShrunkCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private JavaClassCmdBuilder builder() {
+		return new JavaClassCmdBuilder(TestMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.memoryBudget(budget);
+	}
+
+	private static void waitFor(final Condition condition) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 5000;
+		while (!condition.isTrue()) {
+			if (System.currentTimeMillis() > end) {
+				Assert.fail("Timeout waiting for condition");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private interface Condition {
+		boolean isTrue();
+	}
+
+	public static class TestMain {
+		public static void main(final String[] args) {
+			System.out.print(Runtime.getRuntime().maxMemory());
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class OomRetryTest {
+	private static final long MB = 1024 * 1024;
+
+	private String testClassesDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testClassesDir = new File(TestMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		OomRetry.clear();
+	}
+
+	@After
+	public void tearDown() {
+		OomRetry.clear();
+	}
+
+	private JavaClassCmdBuilder builder(final int allocateMb, final int exitCode) {
+		return new JavaClassCmdBuilder(TestMain.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(testClassesDir)
+				.arg(allocateMb)
+				.arg(exitCode)
+				.stdout(new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testDetectExitOnOutOfMemoryError() throws Exception {
+		try {
+			builder(100, 0).xmx("32m").exitOnOutOfMemoryError(true).execute();
+			Assert.fail("Expected exception");
+		} catch (final JvmOutOfMemoryException e) {
+			Assert.assertEquals(3, e.getExitCode());
+			Assert.assertEquals(32 * MB, e.getMaxHeap());
+		}
+	}
+
+	@Test
+	public void testDetectFromStderr() throws Exception {
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		try {
+			builder(100, 0).xmx("32m").stderr(stderr).execute();
+			Assert.fail("Expected exception");
+		} catch (final JvmOutOfMemoryException e) {
+			Assert.assertEquals(1, e.getExitCode());
+		}
+		Assert.assertTrue(stderr.toString().contains("OutOfMemoryError"));
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		builder(100, 0).xmx("32m").oomRetry("256m", "job").execute();
+		Assert.assertEquals(128 * MB, OomRetry.getRememberedHeap("job"));
+		final List<String> command = builder(100, 0).xmx("32m").oomRetry("256m", "job").toCmdSettings().getCommand();
+		Assert.assertTrue(command.contains("-Xmx32m"));
+		Assert.assertTrue(command.contains("-XX:+ExitOnOutOfMemoryError"));
+	}
+
+	@Test
+	public void testRetryWithoutXmx() throws Exception {
+		builder(100, 0).oomRetry("256m", "job").execute();
+		Assert.assertEquals(-1, OomRetry.getRememberedHeap("job"));
+	}
+
+	@Test
+	public void testRetryCap() throws Exception {
+		try {
+			builder(200, 0).xmx("32m").oomRetry("64m", "job").execute();
+			Assert.fail("Expected exception");
+		} catch (final JvmOutOfMemoryException e) {
+			Assert.assertEquals(64 * MB, e.getMaxHeap());
+		}
+		Assert.assertEquals(-1, OomRetry.getRememberedHeap("job"));
+	}
+
+	@Test
+	public void testOtherExitCode() throws Exception {
+		try {
+			builder(1, 2).xmx("32m").oomRetry("64m").execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertFalse(e instanceof JvmOutOfMemoryException);
+			Assert.assertEquals(2, e.getExitCode());
+		}
+	}
+
+	@Test
+	public void testExitCodeWithoutOutOfMemoryError() throws Exception {
+		try {
+			builder(1, 3).xmx("32m").oomRetry("64m", "job").execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertFalse(e instanceof JvmOutOfMemoryException);
+			Assert.assertEquals(3, e.getExitCode());
+		}
+	}
+
+	@Test
+	public void testOutputTail() throws Exception {
+		final OomRetry.OutputTail tail = new OomRetry.OutputTail();
+		final byte[] b = new byte[5000];
+		java.util.Arrays.fill(b, (byte)'a');
+		tail.write(b, 0, b.length);
+		tail.write("end".getBytes());
+		final String s = tail.toString();
+		Assert.assertEquals(4096, s.length());
+		Assert.assertTrue(s.endsWith("aend"));
+	}
+
+	public static class TestMain {
+		public static void main(final String[] args) {
+			final List<byte[]> retained = new ArrayList<>();
+			for (int i = 0; i < Integer.parseInt(args[0]); i++) {
+				retained.add(new byte[1024 * 1024]);
+			}
+			System.out.print(retained.size());
+			System.exit(Integer.parseInt(args[1]));
+		}
+	}
+}
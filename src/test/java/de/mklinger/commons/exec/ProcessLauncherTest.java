@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mklinger.commons.exec.DirectProcessLauncher.LaunchMechanism;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ProcessLauncherTest {
+	@Before
+	public void assumeUnix() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("tests use Unix commands");
+		}
+	}
+
+	@After
+	public void resetDefault() {
+		ProcessLauncher.setDefault(null);
+	}
+
+	@Test
+	public void testDefault() {
+		Assert.assertSame(DirectProcessLauncher.getDefault(), ProcessLauncher.getDefault());
+		final CountingLauncher launcher = new CountingLauncher();
+		ProcessLauncher.setDefault(launcher);
+		Assert.assertSame(launcher, ProcessLauncher.getDefault());
+	}
+
+	@Test
+	public void testConflictingLaunchMechanism() {
+		final String property = DirectProcessLauncher.LAUNCH_MECHANISM_PROPERTY;
+		final String original = System.getProperty(property);
+		System.setProperty(property, "fork");
+		try {
+			Assert.assertEquals(LaunchMechanism.FORK, new DirectProcessLauncher(LaunchMechanism.FORK).getLaunchMechanism());
+			try {
+				new DirectProcessLauncher(LaunchMechanism.VFORK);
+				Assert.fail("Expected exception");
+			} catch (final IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			if (original == null) {
+				System.clearProperty(property);
+			} else {
+				System.setProperty(property, original);
+			}
+		}
+	}
+
+	@Test
+	public void testGlobalDefaultLauncherIsUsed() throws Exception {
+		final CountingLauncher launcher = new CountingLauncher();
+		ProcessLauncher.setDefault(launcher);
+		new CmdBuilder("true").toCmd().execute();
+		Assert.assertEquals(1, launcher.launches.get());
+	}
+
+	@Test
+	public void testCmdLauncherIsUsed() throws Exception {
+		final CountingLauncher defaultLauncher = new CountingLauncher();
+		ProcessLauncher.setDefault(defaultLauncher);
+		final CountingLauncher launcher = new CountingLauncher();
+		new CmdBuilder("true")
+		.processLauncher(launcher)
+		.toCmd()
+		.execute();
+		Assert.assertEquals(1, launcher.launches.get());
+		Assert.assertEquals(0, defaultLauncher.launches.get());
+	}
+
+	@Test
+	public void testSignalUsesLauncher() throws Exception {
+		final CountingLauncher launcher = new CountingLauncher();
+		final Cmd cmd = new CmdBuilder("sleep")
+				.arg("10")
+				.processLauncher(launcher)
+				.toCmd();
+		try {
+			cmd.start();
+			cmd.signal(Signal.TERM);
+			Assert.assertEquals(1, launcher.signals.size());
+			Assert.assertEquals(Signal.TERM, launcher.signals.get(0));
+		} finally {
+			cmd.destroy();
+		}
+	}
+
+	private static class CountingLauncher implements ProcessLauncher {
+		private final AtomicInteger launches = new AtomicInteger();
+		private final List<Signal> signals = new ArrayList<>();
+
+		@Override
+		public Process launch(final ProcessBuilder processBuilder) throws IOException {
+			launches.incrementAndGet();
+			return processBuilder.start();
+		}
+
+		@Override
+		public void signal(final Process process, final Signal signal) {
+			signals.add(signal);
+		}
+	}
+}
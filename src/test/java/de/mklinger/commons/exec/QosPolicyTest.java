@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Test;
+
+import de.mklinger.commons.exec.QosProfile.IoClass;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class QosPolicyTest {
+	@Test
+	public void testNiceness() throws CmdException {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("nice is only tested on Linux");
+		}
+		final int base = Integer.parseInt(CmdOutputUtil.executeForStdout(new CmdBuilder("nice")).trim());
+		final int background = Integer.parseInt(CmdOutputUtil.executeForStdout(new CmdBuilder("nice").qos(QosClass.BACKGROUND)).trim());
+		Assert.assertEquals(Math.min(19, base + 19), background);
+		final int interactive = Integer.parseInt(CmdOutputUtil.executeForStdout(new CmdBuilder("nice").qos(QosClass.INTERACTIVE)).trim());
+		Assert.assertEquals(base, interactive);
+	}
+
+	@Test
+	public void testDefaultClassAndCpuSet() throws CmdException {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("taskset is only tested on Linux");
+		}
+		final QosPolicy original = QosPolicy.getDefault();
+		try {
+			QosPolicy.setDefault(new QosPolicy()
+					.setProfile(QosClass.BATCH, new QosProfile(5, IoClass.BEST_EFFORT, 4, "0"))
+					.setDefaultClass(QosClass.BATCH));
+			final String output = CmdOutputUtil.executeForStdout(new CmdBuilder("grep")
+					.arg("Cpus_allowed_list")
+					.arg("/proc/self/status"));
+			Assert.assertEquals("0", output.substring(output.indexOf(':') + 1).trim());
+		} finally {
+			QosPolicy.setDefault(original);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidIoPriority() {
+		new QosProfile(null, IoClass.BEST_EFFORT, 8, null);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ResourceCapsTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testRlimits() throws CmdException {
+		if (!CmdUtil.isLinux()) {
+			throw new AssumptionViolatedException("rlimits are only tested on Linux");
+		}
+		final String output = CmdOutputUtil.executeForStdout(
+				new CmdBuilder("sh")
+				.arg("-c")
+				.arg("ulimit -n; ulimit -t; ulimit -v")
+				.limitOpenFiles(42)
+				.limitCpuTime(17)
+				.limitAddressSpace(1024L * 1024 * 1024));
+		Assert.assertEquals("42\n17\n1048576\n", output);
+	}
+
+	@Test
+	public void testCgroupLimitsWithoutCgroup() throws CmdException {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("echo command not available");
+		}
+		final String output = CmdOutputUtil.executeForStdout(
+				new CmdBuilder("echo")
+				.arg("ok")
+				.limitMemory(100L * 1024 * 1024)
+				.limitCpus(0.5));
+		Assert.assertEquals("ok\n", output);
+	}
+
+	@Test
+	public void testSettingsCopy() {
+		final CmdBuilder cb = new CmdBuilder("command")
+				.limitOpenFiles(1)
+				.limitProcesses(2);
+		final CmdSettings cmdSettings = cb.toCmdSettings();
+		Assert.assertEquals(1, cmdSettings.getResourceCaps().getMaxOpenFiles());
+		Assert.assertEquals(2, cmdSettings.getResourceCaps().getMaxProcesses());
+		cb.limitOpenFiles(3);
+		Assert.assertEquals(1, cmdSettings.getResourceCaps().getMaxOpenFiles());
+	}
+
+	@Test
+	public void testFailToJoinCgroup() throws Exception {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("sh command not available");
+		}
+		final File cgroup = new File(tmp.getRoot(), "missing/cgroup");
+		final Process p = new ProcessBuilder(ResourceCapsSupport.wrap(Collections.singletonList("true"), new ResourceCaps(), cgroup))
+				.redirectErrorStream(true)
+				.start();
+		Assert.assertTrue(p.waitFor(10, TimeUnit.SECONDS));
+		Assert.assertEquals(126, p.exitValue());
+	}
+
+	@Test
+	public void testReleaseLeafWaitsForProcess() throws Exception {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("sleep command not available");
+		}
+		final File leaf = tmp.newFolder("leaf");
+		final Process p = new ProcessBuilder("sleep", "0.5").start();
+		Cgroups.releaseLeaf(leaf, p);
+		Thread.sleep(100);
+		Assert.assertTrue(leaf.exists());
+		p.waitFor();
+		final long deadline = System.currentTimeMillis() + 2000;
+		while (leaf.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(leaf.exists());
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class ShellSessionTest {
+	private ShellSession session;
+
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("shell sessions are not supported on Windows");
+		}
+		session = new ShellSession();
+	}
+
+	@After
+	public void tearDown() {
+		if (session != null) {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testOutputAndExitValue() throws Exception {
+		final ShellResult result = session.executeScript("echo out; printf err >&2; exit 3");
+		Assert.assertEquals(3, result.getExitValue());
+		Assert.assertEquals("out\n", result.getStdout());
+		Assert.assertEquals("err", result.getStderr());
+	}
+
+	@Test
+	public void testOutputWithoutNewline() throws Exception {
+		final ShellResult result = session.execute(Arrays.asList("printf", "%s", "it's"));
+		Assert.assertEquals(0, result.getExitValue());
+		Assert.assertEquals("it's", result.getStdout());
+		Assert.assertEquals("", result.getStderr());
+	}
+
+	@Test
+	public void testCommandsAreIsolated() throws Exception {
+		session.executeScript("cd /; FOO=bar; exit 0");
+		final ShellResult result = session.executeScript("echo \"$FOO\"");
+		Assert.assertEquals("\n", result.getStdout());
+		Assert.assertEquals(0, session.executeScript("true").getExitValue());
+	}
+
+	@Test
+	public void testLargeOutput() throws Exception {
+		final ShellResult result = session.executeScript("i=0; while [ $i -lt 20000 ]; do echo 0123456789; i=$((i+1)); done");
+		Assert.assertEquals(20000 * 11, result.getStdoutBytes().length);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		try {
+			session.execute(Arrays.asList("sleep", "10"), 200);
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+		}
+		Assert.assertEquals("ok\n", session.executeScript("echo ok").getStdout());
+	}
+
+	@Test
+	public void testRestartAfterShellDied() throws Exception {
+		try {
+			// $$ is the session shell, even in subshells
+			session.executeScript("kill -KILL $$");
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			// expected
+		}
+		Assert.assertEquals("ok\n", session.executeScript("echo ok").getStdout());
+	}
+
+	@Test
+	public void testRestartAfterIdleShellDied() throws Exception {
+		final String pid = session.executeScript("echo $$").getStdout().trim();
+		Assert.assertEquals(0, new ProcessBuilder("kill", "-9", pid).start().waitFor());
+		// gone once reaped
+		final File proc = new File("/proc", pid);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (proc.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals("ok\n", session.executeScript("echo ok").getStdout());
+		Assert.assertNotEquals(pid, session.executeScript("echo $$").getStdout().trim());
+	}
+
+	@Test
+	public void testBackgroundOutputIsDiscarded() throws Exception {
+		// the background job writes to the session's stdout after the command ended
+		session.executeScript("{ sleep 0.2; echo late; } &");
+		Thread.sleep(400);
+		Assert.assertEquals("ok\n", session.executeScript("echo ok").getStdout());
+	}
+
+	@Test
+	public void testCmdSettings() throws Exception {
+		final ShellResult result = session.execute(new CmdBuilder("sh")
+				.arg("-c")
+				.arg("pwd; echo \"$FOO\" \"${HOME-unset}\"")
+				.directory(new File("/"))
+				.environment("FOO", "it's")
+				.withoutEnvironment("HOME")
+				.toCmdSettings());
+		Assert.assertEquals(0, result.getExitValue());
+		Assert.assertEquals("/\nit's unset\n", result.getStdout());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCmdSettingsWithStdin() throws Exception {
+		session.execute(new CmdBuilder("cat").stdin(new byte[1]).toCmdSettings());
+	}
+
+	@Test
+	public void testPool() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (ShellSessionPool pool = new ShellSessionPool(2)) {
+			final List<Future<ShellResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final String arg = String.valueOf(i);
+				futures.add(executor.submit(() -> pool.execute(Arrays.asList("echo", arg))));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals(i + "\n", futures.get(i).get().getStdout());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Test;
+
+/**
+ * Regression tests for the overhead of the library when starting a
+ * command, measured with a launcher that does not start a process.
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class SpawnOverheadTest {
+	/**
+	 * Bytes allocated by binding, starting and waiting for a command that
+	 * inherits the environment. About 400 bytes are needed.
+	 */
+	private static final long ALLOCATION_BUDGET = 1024;
+
+	@Test
+	public void testNullDeviceResolvedOnce() throws Exception {
+		final List<ProcessBuilder> launched = new ArrayList<>();
+		final ProcessLauncher launcher = pb -> {
+			launched.add(pb);
+			return new ExitedProcess();
+		};
+		final CmdTemplate template = new CmdBuilder("command").processLauncher(launcher).toCmdTemplate();
+		template.bind().execute();
+		template.bind().execute();
+		final Redirect nullRedirect = NullFile.getNativeNullRedirect();
+		if (nullRedirect == null) {
+			throw new AssumptionViolatedException("No native null device");
+		}
+		for (final ProcessBuilder pb : launched) {
+			Assert.assertSame(nullRedirect, pb.redirectOutput());
+			Assert.assertSame(nullRedirect, pb.redirectError());
+		}
+		// no file system probes per command
+		final int probes = NullFile.getProbeCount();
+		template.bind().execute();
+		new CmdBuilder("command").processLauncher(launcher).toCmd().execute();
+		Assert.assertEquals(1, probes);
+		Assert.assertEquals(probes, NullFile.getProbeCount());
+	}
+
+	/**
+	 * Counts the read and write system calls of the current thread, which
+	 * include logging and file access. Stat calls are not counted, see
+	 * {@link #testNullDeviceResolvedOnce()}.
+	 */
+	@Test
+	public void testNoSyscalls() throws Exception {
+		final Path io = Paths.get("/proc/thread-self/io");
+		if (!Files.isReadable(io)) {
+			throw new AssumptionViolatedException("No per-thread I/O accounting");
+		}
+		final CmdTemplate template = new CmdBuilder("command")
+				.arg(CmdTemplate.PLACEHOLDER)
+				.processLauncher(pb -> new ExitedProcess())
+				.toCmdTemplate();
+		final int iterations = 1000;
+		for (int i = 0; i < iterations; i++) {
+			template.bind("arg").execute();
+		}
+		// system calls for reading the counters
+		getSyscalls(io);
+		final long first = getSyscalls(io);
+		final long own = getSyscalls(io) - first;
+		final long before = getSyscalls(io);
+		for (int i = 0; i < iterations; i++) {
+			template.bind("arg").execute();
+		}
+		final long syscalls = getSyscalls(io) - before - own;
+		Assert.assertEquals("Read and write system calls for " + iterations + " commands", 0, syscalls);
+	}
+
+	private static long getSyscalls(final Path io) throws IOException {
+		long syscalls = 0;
+		for (final String line : Files.readAllLines(io)) {
+			if (line.startsWith("syscr:") || line.startsWith("syscw:")) {
+				syscalls += Long.parseLong(line.substring(6).trim());
+			}
+		}
+		return syscalls;
+	}
+
+	@Test
+	public void testFrozenViewsCached() {
+		final CmdSettings cmdSettings = new CmdBuilder("command").environment("EXEC_TEST", "1").toCmdSettings();
+		cmdSettings.freeze();
+		Assert.assertSame(cmdSettings.getCommand(), cmdSettings.getCommand());
+		Assert.assertSame(cmdSettings.getEnvironment(), cmdSettings.getEnvironment());
+	}
+
+	@Test
+	public void testAllocationBudget() throws Exception {
+		final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean)threadMXBean).isThreadAllocatedMemorySupported()) {
+			throw new AssumptionViolatedException("Thread allocation counters not supported");
+		}
+		final com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean)threadMXBean;
+		final CmdTemplate template = new CmdBuilder("command")
+				.arg(CmdTemplate.PLACEHOLDER)
+				.processLauncher(pb -> new ExitedProcess())
+				.toCmdTemplate();
+		final int iterations = 2000;
+		for (int i = 0; i < iterations; i++) {
+			template.bind("arg").execute();
+		}
+		final long threadId = Thread.currentThread().getId();
+		final long before = allocationCounter.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++) {
+			template.bind("arg").execute();
+		}
+		final long perCommand = (allocationCounter.getThreadAllocatedBytes(threadId) - before) / iterations;
+		Assert.assertTrue("Allocated " + perCommand + " bytes per command", perCommand < ALLOCATION_BUDGET);
+	}
+
+	/**
+	 * A process that has exited successfully without output.
+	 */
+	static class ExitedProcess extends Process {
+		private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return EMPTY;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return EMPTY;
+		}
+
+		@Override
+		public int waitFor() {
+			return 0;
+		}
+
+		@Override
+		public int exitValue() {
+			return 0;
+		}
+
+		@Override
+		public void destroy() {
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class SpawnServerTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private SpawnServer spawnServer;
+
+	@Before
+	public void setUp() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("spawn server is not supported on Windows");
+		}
+		spawnServer = new SpawnServer();
+	}
+
+	@After
+	public void tearDown() {
+		if (spawnServer != null) {
+			spawnServer.close();
+		}
+	}
+
+	@Test
+	public void testStdoutAndStdin() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		new CmdBuilder("sh")
+		.arg("-c")
+		.arg("echo \"$0|$1\"; cat")
+		.arg("it's a\nmultiline arg")
+		.arg("x")
+		.stdin("input".getBytes(StandardCharsets.UTF_8))
+		.stdout(stdout)
+		.processLauncher(spawnServer)
+		.toCmd()
+		.execute();
+		Assert.assertEquals("it's a\nmultiline arg|x\ninput", stdout.toString("UTF-8"));
+	}
+
+	@Test
+	public void testArgumentQuoting() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		new CmdBuilder("printf")
+		.arg("%s|")
+		.arg("it's")
+		.arg("a\nb")
+		.arg("$HOME `x`")
+		.stdout(stdout)
+		.processLauncher(spawnServer)
+		.toCmd()
+		.execute();
+		Assert.assertEquals("it's|a\nb|$HOME `x`|", stdout.toString("UTF-8"));
+	}
+
+	@Test
+	public void testExitCode() throws Exception {
+		try {
+			new CmdBuilder("sh")
+			.arg("-c")
+			.arg("exit 7")
+			.processLauncher(spawnServer)
+			.toCmd()
+			.execute();
+			Assert.fail("Expected exception");
+		} catch (final ExitCodeException e) {
+			Assert.assertEquals(7, e.getExitCode());
+		}
+	}
+
+	@Test
+	public void testDirectoryEnvironmentAndFileRedirect() throws Exception {
+		final File dir = tmp.newFolder();
+		final File out = new File(dir, "out.txt");
+		new CmdBuilder("sh")
+		.arg("-c")
+		.arg("pwd; echo \"$FOO\" >&2")
+		.directory(dir)
+		.environment("FOO", "bar")
+		.stdout(out)
+		.redirectErrorStream(true)
+		.processLauncher(spawnServer)
+		.toCmd()
+		.execute();
+		final String expected = dir.getCanonicalPath() + "\nbar\n";
+		Assert.assertEquals(expected, new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPidAndTimeout() throws Exception {
+		final Cmd cmd = new CmdBuilder("sleep")
+				.arg("10")
+				.timeout(500)
+				.processLauncher(spawnServer)
+				.toCmd();
+		try {
+			cmd.start();
+			Assert.assertNotNull(cmd.getPid());
+			cmd.waitFor();
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Timeout"));
+		} finally {
+			cmd.destroy();
+		}
+	}
+
+	@Test
+	public void testCommandNotFound() {
+		try {
+			new CmdBuilder("this-command-does-not-exist-" + System.nanoTime())
+			.processLauncher(spawnServer)
+			.toCmd()
+			.execute();
+			Assert.fail("Expected exception");
+		} catch (final CmdException e) {
+			Assert.assertFalse(e instanceof ExitCodeException);
+		}
+	}
+
+	@Test
+	public void testProcessDestroy() throws Exception {
+		final Process process = spawnServer.launch(new ProcessBuilder("sleep", "10"));
+		Assert.assertTrue(process.isAlive());
+		process.destroy();
+		Assert.assertEquals(128 + 15, process.waitFor());
+		Assert.assertFalse(process.isAlive());
+	}
+}
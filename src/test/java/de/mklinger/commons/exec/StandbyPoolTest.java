@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class StandbyPoolTest {
+	@Before
+	public void assumeUnix() {
+		if (CmdUtil.isWindows()) {
+			throw new AssumptionViolatedException("tests use Unix commands");
+		}
+	}
+
+	@Test
+	public void testWarmInstanceHidesStartupTime() throws Exception {
+		// simulate a tool with slow initialization
+		try (StandbyPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("sleep 1; read x; echo \"got $x\"")
+				.toStandbyPool(1, 2)) {
+			waitForIdle(pool, 1);
+			// wait for the initialization of the instance
+			Thread.sleep(1000);
+			final long start = System.currentTimeMillis();
+			final byte[] stdout = pool.executeForStdout("job\n".getBytes(StandardCharsets.UTF_8));
+			final long duration = System.currentTimeMillis() - start;
+			Assert.assertEquals("got job\n", new String(stdout, StandardCharsets.UTF_8));
+			Assert.assertTrue("Took " + duration + " ms", duration < 500);
+			// used instance is replaced
+			waitForIdle(pool, 1);
+		}
+	}
+
+	@Test
+	public void testColdStartIfEmpty() throws Exception {
+		try (StandbyPool pool = new CmdBuilder("cat").toStandbyPool(0, 1)) {
+			Assert.assertEquals(0, pool.getIdleCount());
+			final byte[] stdout = pool.executeForStdout("job".getBytes(StandardCharsets.UTF_8));
+			Assert.assertEquals("job", new String(stdout, StandardCharsets.UTF_8));
+			// the miss raises the target size
+			waitForIdle(pool, 1);
+		}
+	}
+
+	@Test
+	public void testFailureRateGuard() throws Exception {
+		try (StandbyPool pool = new CmdBuilder("sh")
+				.arg("-c")
+				.arg("exit 0")
+				.toStandbyPool(1, 1)) {
+			for (int i = 0; i < 100 && !pool.isPreStartPaused(); i++) {
+				waitForIdle(pool, 1);
+				// give the instance time to die
+				Thread.sleep(20);
+				pool.execute(new byte[0], null, null);
+			}
+			Assert.assertTrue(pool.isPreStartPaused());
+		}
+	}
+
+	private static void waitForIdle(final StandbyPool pool, final int count) throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		while (pool.getIdleCount() < count) {
+			if (System.currentTimeMillis() - start > 5000) {
+				Assert.fail("Timeout waiting for idle instances");
+			}
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.AppCdsCache;
+import de.mklinger.commons.exec.JavaClassCmdBuilder;
+
+/**
+ * Measures the startup of a forked JVM with and without an
+ * {@link AppCdsCache}. The forked program loads XML, regex, stream and
+ * concurrency classes, like a small tool would.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AppCdsBenchmark {
+	private File tmpDir;
+	private File jar;
+	private AppCdsCache cache;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		tmpDir = Files.createTempDirectory("appcds-benchmark").toFile();
+		jar = new File(tmpDir, "tool.jar");
+		final String classFile = Tool.class.getName().replace('.', '/') + ".class";
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+				InputStream in = Tool.class.getClassLoader().getResourceAsStream(classFile)) {
+			out.putNextEntry(new JarEntry(classFile));
+			final byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+		}
+		cache = new AppCdsCache(new File(tmpDir, "cds"));
+		// record the archive
+		builder().appCdsCache(cache).toCmd().execute();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		try (Stream<Path> paths = Files.walk(tmpDir.toPath())) {
+			for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private JavaClassCmdBuilder builder() {
+		return new JavaClassCmdBuilder(Tool.class.getName())
+				.javaExecutableFromRuntime()
+				.classpath(jar.getAbsolutePath());
+	}
+
+	@Benchmark
+	public void withoutArchive() throws Exception {
+		builder().toCmd().execute();
+	}
+
+	@Benchmark
+	public void withArchive() throws Exception {
+		builder().appCdsCache(cache).toCmd().execute();
+	}
+
+	/**
+	 * The forked program.
+	 */
+	public static class Tool {
+		public static void main(final String[] args) throws Exception {
+			final String xml = "<doc><item id=\"1\">a</item><item id=\"2\">b</item></doc>";
+			final int items = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))
+					.getElementsByTagName("item").getLength();
+			final ConcurrentHashMap<String, Integer> map = new ConcurrentHashMap<>();
+			Stream.of("x1", "y2", "z3")
+				.filter(Pattern.compile("[a-z]\\d").asPredicate())
+				.forEach(s -> map.put(s, items));
+			if (map.size() != 3) {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(AppCdsBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.CmdBuilder;
+import de.mklinger.commons.exec.CmdSettings;
+import de.mklinger.commons.exec.CmdTemplate;
+
+/**
+ * Compares preparing and running a command using a new {@link CmdBuilder}
+ * per invocation with binding a {@link CmdTemplate}. The
+ * <code>prepare</code> benchmarks measure the overhead without starting a
+ * process. Use <code>-prof gc</code> to compare allocation.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CmdTemplateBenchmark {
+	private static final byte[] STDIN = new byte[1024];
+
+	private CmdTemplate template;
+	private int counter;
+
+	@Setup
+	public void setup() {
+		template = builder(CmdTemplate.PLACEHOLDER, CmdTemplate.PLACEHOLDER).toCmdTemplate();
+	}
+
+	private static CmdBuilder builder(final String arg1, final String arg2) {
+		return new CmdBuilder("sh")
+				.arg("-c").arg("cat >/dev/null")
+				.arg("--input").arg(arg1)
+				.arg("--output").arg(arg2)
+				.environment("LC_ALL", "C")
+				.stdin(STDIN);
+	}
+
+	@Benchmark
+	public CmdSettings prepareBuilder() {
+		final int n = counter++;
+		final CmdSettings cmdSettings = builder("in" + n, "out" + n).toCmdSettings();
+		cmdSettings.freeze();
+		return cmdSettings;
+	}
+
+	@Benchmark
+	public CmdSettings prepareTemplate() {
+		final int n = counter++;
+		return template.toCmdSettings("in" + n, "out" + n);
+	}
+
+	@Benchmark
+	public void executeBuilder() throws Exception {
+		final int n = counter++;
+		builder("in" + n, "out" + n).toCmd().execute();
+	}
+
+	@Benchmark
+	public void executeTemplate() throws Exception {
+		final int n = counter++;
+		template.bind("in" + n, "out" + n).execute();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(CmdTemplateBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
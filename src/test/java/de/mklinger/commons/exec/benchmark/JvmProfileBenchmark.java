@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.JavaClassCmdBuilder;
+import de.mklinger.commons.exec.JvmProfile;
+
+/**
+ * Measures wall time of a short forked job per {@link JvmProfile}. The
+ * average peak RSS of the forked JVMs is printed at the end of each trial.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JvmProfileBenchmark {
+	@Param({ "DEFAULT", "SHORT_LIVED", "THROUGHPUT", "LOW_MEMORY" })
+	public String profile;
+
+	private String classpath;
+	private long rssSumKb;
+	private int runs;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		classpath = new File(Job.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+		rssSumKb = 0;
+		runs = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (runs > 0) {
+			System.out.println();
+			System.out.println(profile + ": average peak RSS " + (rssSumKb / runs / 1024) + " MB");
+		}
+	}
+
+	@Benchmark
+	public void run() throws Exception {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		new JavaClassCmdBuilder(Job.class.getName())
+			.javaExecutableFromRuntime()
+			.classpath(classpath)
+			.jvmProfile("DEFAULT".equals(profile) ? null : JvmProfile.valueOf(profile))
+			.stdout(stdout)
+			.toCmd()
+			.execute();
+		final String rss = new String(stdout.toByteArray(), StandardCharsets.UTF_8).trim();
+		if (!rss.isEmpty()) {
+			rssSumKb += Long.parseLong(rss);
+			runs++;
+		}
+	}
+
+	/**
+	 * A short job, printing its peak RSS in kB.
+	 */
+	public static class Job {
+		public static void main(final String[] args) throws Exception {
+			final Random random = new Random(42);
+			long checksum = 0;
+			for (int i = 0; i < 20; i++) {
+				final int[] values = new int[100_000];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = random.nextInt();
+				}
+				Arrays.sort(values);
+				checksum += values[values.length / 2];
+				checksum += String.valueOf(checksum).hashCode();
+			}
+			if (checksum == 42) {
+				System.err.println(checksum);
+			}
+			final File status = new File("/proc/self/status");
+			if (status.isFile()) {
+				for (final String line : Files.readAllLines(Paths.get(status.getPath()))) {
+					if (line.startsWith("VmHWM:")) {
+						System.out.print(line.replaceAll("[^0-9]", ""));
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(JvmProfileBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
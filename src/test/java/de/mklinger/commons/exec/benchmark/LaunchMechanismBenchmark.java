@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.DirectProcessLauncher;
+
+/**
+ * Compares the JDK launch mechanisms of {@link DirectProcessLauncher}. The
+ * mechanism is a VM-wide setting, so every mechanism runs in its own fork.
+ * Mechanisms not supported by the JDK in use fail in their fork only.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LaunchMechanismBenchmark {
+	private static final File DEV_NULL = new File("/dev/null");
+	private static final String HEAP_MIN = "-Xms2g";
+	private static final String HEAP_MAX = "-Xmx2g";
+	private static final String PRE_TOUCH = "-XX:+AlwaysPreTouch";
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { HEAP_MIN, HEAP_MAX, PRE_TOUCH, "-D" + DirectProcessLauncher.LAUNCH_MECHANISM_PROPERTY + "=POSIX_SPAWN" })
+	public int posixSpawn() throws Exception {
+		return launch();
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { HEAP_MIN, HEAP_MAX, PRE_TOUCH, "-D" + DirectProcessLauncher.LAUNCH_MECHANISM_PROPERTY + "=VFORK" })
+	public int vfork() throws Exception {
+		return launch();
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { HEAP_MIN, HEAP_MAX, PRE_TOUCH, "-D" + DirectProcessLauncher.LAUNCH_MECHANISM_PROPERTY + "=FORK" })
+	public int fork() throws Exception {
+		return launch();
+	}
+
+	private static int launch() throws Exception {
+		return DirectProcessLauncher.getDefault().launch(new ProcessBuilder("true")
+				.redirectInput(Redirect.from(DEV_NULL))
+				.redirectOutput(Redirect.to(DEV_NULL))
+				.redirectError(Redirect.to(DEV_NULL)))
+				.waitFor();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(LaunchMechanismBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.io.MulticastOutputStream;
+import de.mklinger.commons.exec.io.SynchronizedOutputStream;
+import de.mklinger.commons.exec.io.TeeOutputStream;
+
+/**
+ * Compares writing pipe buffers to three consumers (e.g. audit, log and
+ * capture) through nested {@link TeeOutputStream}s with a
+ * {@link MulticastOutputStream}.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MulticastBenchmark {
+	@Param({ "64", "4096" })
+	private int bufferSize;
+
+	private byte[] buffer;
+	private OutputStream teeChain;
+	private OutputStream multicast;
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		buffer = new byte[bufferSize];
+		ThreadLocalRandom.current().nextBytes(buffer);
+		teeChain = new TeeOutputStream(new TeeOutputStream(new Sink(blackhole), new Sink(blackhole)), new SynchronizedOutputStream(new Sink(blackhole)));
+		multicast = new MulticastOutputStream(new Sink(blackhole), new Sink(blackhole), new SynchronizedOutputStream(new Sink(blackhole)));
+	}
+
+	@Benchmark
+	public void teeChain() throws IOException {
+		teeChain.write(buffer, 0, buffer.length);
+	}
+
+	@Benchmark
+	public void multicast() throws IOException {
+		multicast.write(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * A cheap consumer, to make the overhead of the fan-out visible.
+	 */
+	private static class Sink extends OutputStream {
+		private final Blackhole blackhole;
+
+		Sink(final Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void write(final int b) {
+			blackhole.consume(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			blackhole.consume(b);
+			blackhole.consume(len);
+		}
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(MulticastBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.SpawnServer;
+
+/**
+ * Compares spawning a trivial command by forking the VM with spawning it
+ * using a {@link SpawnServer}. The benchmark VM uses a large, pre-touched
+ * heap, as fork cost grows with the size of the parent process.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch" })
+@State(Scope.Benchmark)
+public class SpawnBenchmark {
+	private static final File DEV_NULL = new File("/dev/null");
+
+	private SpawnServer spawnServer;
+
+	@Setup
+	public void setup() {
+		spawnServer = new SpawnServer();
+	}
+
+	@TearDown
+	public void tearDown() {
+		spawnServer.close();
+	}
+
+	@Benchmark
+	public int processBuilder() throws Exception {
+		return newProcessBuilder().start().waitFor();
+	}
+
+	@Benchmark
+	public int spawnServer() throws Exception {
+		return spawnServer.launch(newProcessBuilder()).waitFor();
+	}
+
+	private static ProcessBuilder newProcessBuilder() {
+		return new ProcessBuilder("true")
+				.redirectInput(Redirect.from(DEV_NULL))
+				.redirectOutput(Redirect.to(DEV_NULL))
+				.redirectError(Redirect.to(DEV_NULL));
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SpawnBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.mklinger.commons.exec.CmdBuilder;
+import de.mklinger.commons.exec.CmdTemplate;
+
+/**
+ * Compares the overhead of the library when running a trivial command
+ * with the cost of spawning it using a plain {@link ProcessBuilder}. The
+ * <code>libraryOnly</code> benchmark uses a launcher that does not start a
+ * process. Use <code>-prof gc</code> to compare allocation.
+ * <p>
+ * Run using the main method with the test classpath.
+ * </p>
+ *
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpawnOverheadBenchmark {
+	private static final File DEV_NULL = new File("/dev/null");
+
+	private CmdTemplate template;
+	private CmdTemplate libraryOnlyTemplate;
+
+	@Setup
+	public void setup() {
+		template = new CmdBuilder("true").toCmdTemplate();
+		libraryOnlyTemplate = new CmdBuilder("true").processLauncher(pb -> new ExitedProcess()).toCmdTemplate();
+	}
+
+	@Benchmark
+	public int processBuilder() throws Exception {
+		return new ProcessBuilder("true")
+				.redirectOutput(Redirect.to(DEV_NULL))
+				.redirectError(Redirect.to(DEV_NULL))
+				.start()
+				.waitFor();
+	}
+
+	@Benchmark
+	public void cmd() throws Exception {
+		template.bind().execute();
+	}
+
+	@Benchmark
+	public void libraryOnly() throws Exception {
+		libraryOnlyTemplate.bind().execute();
+	}
+
+	/**
+	 * A process that has exited successfully without output.
+	 */
+	private static class ExitedProcess extends Process {
+		private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return EMPTY;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return EMPTY;
+		}
+
+		@Override
+		public int waitFor() {
+			return 0;
+		}
+
+		@Override
+		public int exitValue() {
+			return 0;
+		}
+
+		@Override
+		public void destroy() {
+		}
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SpawnOverheadBenchmark.class.getSimpleName())
+				.build())
+		.run();
+	}
+}
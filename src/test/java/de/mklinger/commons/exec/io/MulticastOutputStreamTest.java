@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-present mklinger GmbH - http://www.mklinger.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mklinger.commons.exec.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Marc Klinger - mklinger[at]mklinger[dot]de
+ */
+public class MulticastOutputStreamTest {
+	@Test
+	public void testAllBranches() throws Exception {
+		final ByteArrayOutputStream a = new ByteArrayOutputStream();
+		final ByteArrayOutputStream b = new ByteArrayOutputStream();
+		final ByteArrayOutputStream c = new ByteArrayOutputStream();
+		try (MulticastOutputStream out = new MulticastOutputStream(a, b).addAsyncBranch(c, 1024)) {
+			out.write(bytes("hello "));
+			out.write('w');
+			out.write(bytes("xxorldxx"), 2, 4);
+		}
+		Assert.assertEquals("hello world", string(a));
+		Assert.assertEquals("hello world", string(b));
+		Assert.assertEquals("hello world", string(c));
+	}
+
+	@Test
+	public void testFailingBranchIsolated() throws Exception {
+		final ByteArrayOutputStream a = new ByteArrayOutputStream();
+		final MulticastOutputStream out = new MulticastOutputStream(new FailingOutputStream(), a);
+		out.write(bytes("one"));
+		out.write(bytes("two"));
+		Assert.assertEquals("onetwo", string(a));
+		Assert.assertEquals(1, out.getFailures().size());
+		try {
+			out.close();
+			Assert.fail("Expected exception");
+		} catch (final IOException e) {
+			Assert.assertEquals("failed", e.getCause().getMessage());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testAllBranchesFailed() throws Exception {
+		final MulticastOutputStream out = new MulticastOutputStream(new FailingOutputStream(), new FailingOutputStream());
+		out.write(bytes("one"));
+	}
+
+	@Test
+	public void testSlowAsyncBranch() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final ByteArrayOutputStream slow = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(final byte[] b, final int off, final int len) {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(b, off, len);
+			}
+		};
+		final ByteArrayOutputStream fast = new ByteArrayOutputStream();
+		final MulticastOutputStream out = new MulticastOutputStream(fast).addAsyncBranch(slow, 10);
+		for (int i = 0; i < 10; i++) {
+			out.write(bytes("12345"));
+		}
+		Assert.assertEquals(50, fast.size());
+		Assert.assertEquals(40, out.getDroppedBytes());
+		release.countDown();
+		out.close();
+		Assert.assertEquals(50 - out.getDroppedBytes(), slow.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAfterWrite() throws Exception {
+		final MulticastOutputStream out = new MulticastOutputStream(new ByteArrayOutputStream());
+		out.write(1);
+		out.addBranch(new ByteArrayOutputStream());
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(final ByteArrayOutputStream out) {
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static class FailingOutputStream extends OutputStream {
+		@Override
+		public void write(final int b) throws IOException {
+			throw new IOException("failed");
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			throw new IOException("failed");
+		}
+	}
+}